@@ -236,6 +236,12 @@ public class IOUtils {
 				;
 		}
 	private static InputStream tryBGZIP(final InputStream in) throws IOException
+		{
+		return tryBGZIP(in,1);
+		}
+	
+	/** if nThreads &gt; 1 , BGZF blocks are inflated in parallel with a ParallelBlockCompressedInputStream */
+	private static InputStream tryBGZIP(final InputStream in,final int nThreads) throws IOException
 		{
 		final byte buffer[]=new byte[ 
 				BlockCompressedStreamConstants.GZIP_BLOCK_PREAMBLE.length  ];
@@ -254,6 +260,7 @@ public class IOUtils {
 				buffer[8]==BlockCompressedStreamConstants.GZIP_XFL
 				)
 				{
+				if(nThreads>1) return new ParallelBlockCompressedInputStream(push_back, nThreads);
 				return new BlockCompressedInputStream(push_back);
 				}
 			}
@@ -264,6 +271,55 @@ public class IOUtils {
 		return new GZIPInputStream(push_back);
 		}
 	
+	/** open a stream (e.g: stdin) and decompress it if it is BGZF-compressed.
+	 * If bgzfThreads &gt; 1 , BGZF blocks are inflated in parallel.
+	 */
+	public static InputStream openStreamForReading(final InputStream in,final int bgzfThreads) throws IOException
+		{
+		final byte buffer[]=new byte[ 
+				BlockCompressedStreamConstants.GZIP_BLOCK_PREAMBLE.length  ];
+		final PushbackInputStream push_back=new PushbackInputStream(in,buffer.length+10);
+		int nReads=push_back.read(buffer);
+		if(nReads>0) push_back.unread(buffer, 0, nReads);
+		if( nReads>= 2 && 
+			buffer[0]==BlockCompressedStreamConstants.GZIP_ID1 &&
+			buffer[1]==(byte)BlockCompressedStreamConstants.GZIP_ID2)
+			{
+			return tryBGZIP(push_back,bgzfThreads);
+			}
+		return push_back;
+		}
+	
+	/** open an URI. If the URI is BGZF-compressed and bgzfThreads &gt; 1 , the blocks are inflated in parallel */
+	public static InputStream openURIForReading(String uri,final int bgzfThreads) throws IOException
+		{
+		if(bgzfThreads<2) return openURIForReading(uri);
+		if(uri.startsWith("file://"))
+			{
+			uri=uri.substring(7);
+			}
+		if(isRemoteURI(uri))
+			{
+			final URL url=new URL(uri);
+			final InputStream in=url.openStream();
+			final int question=uri.indexOf('?');
+			if(question!=-1) uri=uri.substring(0, question);
+			if(uri.endsWith(".gz"))
+				{
+				return tryBGZIP(in,bgzfThreads);
+				}
+			return in;
+			}
+		final File file = new File(uri);
+		IOUtil.assertFileIsReadable(file);
+		final InputStream in= Files.newInputStream(file.toPath());
+		if(file.getName().endsWith(".gz"))
+			{
+			return tryBGZIP(in,bgzfThreads);
+			}
+		return in;
+		}
+	
 	public static InputStream openURIForReading(String uri) throws IOException
 		{
 		if(isRemoteURI(uri))
@@ -0,0 +1,188 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongPredicate;
+
+/**
+ * Fixed-size records of a file, mapped with FileChannel.map. The file is mapped in chunks
+ * holding a whole number of records, so a record never spans two chunks.
+ * The records are decoded in place by the caller with getBuffer/getOffset.
+ * 
+ * The mapping remains valid after the channel is closed.
+ */
+public class MappedRecords implements Closeable {
+	private final int recordSize;
+	private final long count;
+	private final long recordsPerChunk;
+	private final List<MappedByteBuffer> chunks = new ArrayList<>();
+	
+	/**
+	 * @param channel the file channel
+	 * @param offset offset of the first record in the file
+	 * @param count number of records
+	 * @param recordSize size of one record in bytes
+	 */
+	public MappedRecords(final FileChannel channel,final long offset,final long count,final int recordSize) throws IOException {
+		this(channel,offset,count,recordSize,Integer.MAX_VALUE);
+		}
+	
+	/**
+	 * @param channel the file channel
+	 * @param offset offset of the first record in the file
+	 * @param count number of records
+	 * @param recordSize size of one record in bytes
+	 * @param maxChunkSize max size of a mapped region in bytes
+	 */
+	public MappedRecords(final FileChannel channel,final long offset,final long count,final int recordSize,final int maxChunkSize) throws IOException {
+		if(recordSize<1) throw new IllegalArgumentException("recordSize<1 : "+recordSize);
+		if(count<0L) throw new IllegalArgumentException("count<0 : "+count);
+		this.recordSize = recordSize;
+		this.count = count;
+		this.recordsPerChunk = Math.max(1, maxChunkSize / recordSize);
+		long record = 0L;
+		while(record < count) {
+			final long n = Math.min(this.recordsPerChunk, count - record);
+			this.chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, offset + record * recordSize, n * recordSize));
+			record += n;
+			}
+		}
+	
+	/** number of records */
+	public long size() {
+		return this.count;
+		}
+	
+	public int getRecordSize() {
+		return this.recordSize;
+		}
+	
+	/** return the mapped buffer containing the record */
+	public ByteBuffer getBuffer(final long record) {
+		return this.chunks.get((int)(record / this.recordsPerChunk));
+		}
+	
+	/** return the offset of the record in its buffer */
+	public int getOffset(final long record) {
+		return (int)((record % this.recordsPerChunk) * this.recordSize);
+		}
+	
+	public byte getByte(final long record,final int fieldOffset) {
+		return getBuffer(record).get(getOffset(record) + fieldOffset);
+		}
+	
+	public int getInt(final long record,final int fieldOffset) {
+		return getBuffer(record).getInt(getOffset(record) + fieldOffset);
+		}
+	
+	public long getLong(final long record,final int fieldOffset) {
+		return getBuffer(record).getLong(getOffset(record) + fieldOffset);
+		}
+	
+	/**
+	 * binary search.
+	 * @param first first index
+	 * @param last last index (excluded)
+	 * @param isBefore returns true if the index is before the searched key. Must be true for a prefix of [first,last[
+	 * @return the first index in [first,last[ for which isBefore is false, or last
+	 */
+	public static long lowerBound(long first,final long last,final LongPredicate isBefore) {
+		long len = last - first;
+		while (len > 0)
+			{
+			final long half = len / 2;
+			final long middle = first + half;
+			if (isBefore.test(middle))
+				{
+				first = middle + 1;
+				len = len - half - 1;
+				}
+			else
+				{
+				len = half;
+				}
+			}
+		return first;
+		}
+	
+	/**
+	 * galloping search: same result as lowerBound(first,last,isBefore) but the search starts from 'cursor'
+	 * (e.g: the last index found) and doubles its step forward or backward. Cheap when the result is close to the cursor.
+	 * @param first first index
+	 * @param last last index (excluded)
+	 * @param cursor the index where the search starts
+	 * @param isBefore returns true if the index is before the searched key. Must be true for a prefix of [first,last[
+	 * @return the first index in [first,last[ for which isBefore is false, or last
+	 */
+	public static long gallop(final long first,final long last,final long cursor,final LongPredicate isBefore) {
+		final long c = Math.max(first, Math.min(cursor, last));
+		long lo,hi;
+		if(c < last && isBefore.test(c)) {
+			/* gallop forward */
+			long step = 1;
+			lo = c + 1;
+			hi = c + step;
+			while(hi < last && isBefore.test(hi)) {
+				lo = hi + 1;
+				step <<= 1;
+				hi = c + step;
+				}
+			hi = Math.min(hi, last);
+			}
+		else if(c > first && !isBefore.test(c - 1)) {
+			/* gallop backward */
+			long step = 1;
+			hi = c - 1;
+			lo = Math.max(first, c - step);
+			while(lo > first && !isBefore.test(lo)) {
+				hi = lo;
+				step <<= 1;
+				lo = Math.max(first, c - step);
+				}
+			}
+		else
+			{
+			return c;
+			}
+		return lowerBound(lo, hi, isBefore);
+		}
+	
+	@Override
+	public void close() {
+		this.chunks.clear();
+		}
+	
+	@Override
+	public String toString() {
+		return "MappedRecords(count="+this.count+",recordSize="+this.recordSize+")";
+		}
+	}
@@ -0,0 +1,248 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+/**
+ * A read-ahead BGZF InputStream: the next blocks are read and inflated on a pool of threads
+ * into a ring of reusable buffers. The consumer only sees the decompressed bytes.
+ * 
+ * Unlike htsjdk's BlockCompressedInputStream, this stream cannot seek.
+ */
+public class ParallelBlockCompressedInputStream extends InputStream {
+	private static final int MAX_BLOCK_SIZE = BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE;
+	private final InputStream in;
+	private final ExecutorService executor;
+	/** max number of blocks being inflated */
+	private final int readAhead;
+	/** blocks being inflated, in the input order */
+	private final Deque<Future<Block>> pending = new ArrayDeque<>();
+	/** recycled blocks */
+	private final Deque<Block> freeBlocks = new ArrayDeque<>();
+	/** current decompressed block */
+	private Block current = null;
+	private boolean eof = false;
+	private boolean closed = false;
+	private long compressedBytesRead = 0L;
+	private long uncompressedBytesRead = 0L;
+	/** number of bytes inflated by this stream, may be read from another thread to print the throughput */
+	private final AtomicLong inflatedBytes = new AtomicLong(0L);
+	private final byte[] header = new byte[BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+	
+	/** a BGZF block, the buffers are reused */
+	private static class Block {
+		final byte[] compressed = new byte[MAX_BLOCK_SIZE];
+		int compressedLength = 0;
+		final byte[] data = new byte[MAX_BLOCK_SIZE];
+		int length = 0;
+		int pos = 0;
+		}
+	
+	private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(()->new Inflater(true));
+	
+	/**
+	 * @param in the BGZF input stream
+	 * @param nThreads number of inflater threads
+	 */
+	public ParallelBlockCompressedInputStream(final InputStream in,final int nThreads) {
+		if(nThreads<1) throw new IllegalArgumentException("nThreads<1 : "+nThreads);
+		this.in = in;
+		this.readAhead = 2 * nThreads;
+		this.executor = Executors.newFixedThreadPool(nThreads,R->{
+			final Thread t = new Thread(R,"bgzf-inflater");
+			t.setDaemon(true);
+			return t;
+			});
+		}
+	
+	/** return the number of bytes inflated so far by this stream */
+	public long getInflatedBytes() {
+		return this.inflatedBytes.get();
+		}
+	
+	/** return the number of compressed bytes read from the underlying stream */
+	public long getCompressedBytesRead() {
+		return this.compressedBytesRead;
+		}
+	
+	/** return the number of decompressed bytes returned to the consumer */
+	public long getUncompressedBytesRead() {
+		return this.uncompressedBytesRead;
+		}
+	
+	@Override
+	public int read() throws IOException {
+		if(!ensureData()) return -1;
+		this.uncompressedBytesRead++;
+		return this.current.data[this.current.pos++] & 0xFF;
+		}
+	
+	@Override
+	public int read(final byte[] b,final int off,final int len) throws IOException {
+		if(len==0) return 0;
+		if(!ensureData()) return -1;
+		final int n = Math.min(len, this.current.length - this.current.pos);
+		System.arraycopy(this.current.data, this.current.pos, b, off, n);
+		this.current.pos += n;
+		this.uncompressedBytesRead += n;
+		return n;
+		}
+	
+	@Override
+	public int available() throws IOException {
+		return this.current==null?0:this.current.length - this.current.pos;
+		}
+	
+	/** make sure the current block has some data. returns false at the end of the stream */
+	private boolean ensureData() throws IOException {
+		if(this.closed) throw new IOException("stream closed");
+		while(this.current==null || this.current.pos >= this.current.length) {
+			if(this.current!=null) {
+				this.freeBlocks.add(this.current);
+				this.current = null;
+				}
+			fill();
+			if(this.pending.isEmpty()) return false;
+			try {
+				this.current = this.pending.pollFirst().get();
+				}
+			catch(final ExecutionException err) {
+				if(err.getCause() instanceof IOException) throw IOException.class.cast(err.getCause());
+				throw new IOException(err.getCause());
+				}
+			catch(final InterruptedException err) {
+				throw new IOException(err);
+				}
+			this.inflatedBytes.addAndGet(this.current.length);
+			}
+		return true;
+		}
+	
+	/** read the next compressed blocks and send them to the inflater threads */
+	private void fill() throws IOException {
+		while(!this.eof && this.pending.size() < this.readAhead) {
+			final Block block = this.freeBlocks.isEmpty()?new Block():this.freeBlocks.pollFirst();
+			if(!readCompressedBlock(block)) {
+				this.eof = true;
+				this.freeBlocks.add(block);
+				break;
+				}
+			this.pending.add(this.executor.submit(()->inflate(block)));
+			}
+		}
+	
+	/** read the next raw BGZF block. returns false at the end of the stream */
+	private boolean readCompressedBlock(final Block block) throws IOException {
+		final int n = readFully(this.header, 0, this.header.length);
+		if(n==0) return false;
+		if(n!=this.header.length) throw new EOFException("Premature end of BGZF stream");
+		if(this.header[0]!=BlockCompressedStreamConstants.GZIP_ID1 ||
+			this.header[1]!=(byte)BlockCompressedStreamConstants.GZIP_ID2 ||
+			(this.header[3] & BlockCompressedStreamConstants.GZIP_FLG) == 0 ||
+			this.header[12]!=BlockCompressedStreamConstants.BGZF_ID1 ||
+			this.header[13]!=BlockCompressedStreamConstants.BGZF_ID2) {
+			throw new IOException("Not a BGZF block");
+			}
+		final int blockSize = ((this.header[16] & 0xFF) | ((this.header[17] & 0xFF) << 8)) + 1;
+		final int remaining = blockSize - this.header.length;
+		if(remaining < BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH || blockSize > MAX_BLOCK_SIZE) {
+			throw new IOException("Bad BGZF block size: "+blockSize);
+			}
+		if(readFully(block.compressed, 0, remaining)!=remaining) {
+			throw new EOFException("Premature end of BGZF block");
+			}
+		block.compressedLength = remaining;
+		block.length = 0;
+		block.pos = 0;
+		this.compressedBytesRead += blockSize;
+		return true;
+		}
+	
+	private int readFully(final byte[] buffer,final int off,final int len) throws IOException {
+		int total = 0;
+		while(total < len) {
+			final int n = this.in.read(buffer, off + total, len - total);
+			if(n==-1) break;
+			total += n;
+			}
+		return total;
+		}
+	
+	/** inflate a block. Called from the worker threads */
+	private static Block inflate(final Block block) throws IOException {
+		final byte[] b = block.compressed;
+		final int footer = block.compressedLength - BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+		final int isize = (b[footer+4] & 0xFF) | ((b[footer+5] & 0xFF) << 8) | ((b[footer+6] & 0xFF) << 16) | ((b[footer+7] & 0xFF) << 24);
+		if(isize < 0 || isize > block.data.length) throw new IOException("Bad BGZF uncompressed size: "+isize);
+		final Inflater inflater = INFLATERS.get();
+		inflater.reset();
+		inflater.setInput(b, 0, footer);
+		try {
+			int n = 0;
+			while(n < isize) {
+				final int count = inflater.inflate(block.data, n, isize - n);
+				if(count==0) break;
+				n += count;
+				}
+			if(n!=isize) throw new IOException("Cannot inflate BGZF block: expected "+isize+" bytes but got "+n);
+			}
+		catch(final DataFormatException err) {
+			throw new IOException(err);
+			}
+		block.length = isize;
+		block.pos = 0;
+		return block;
+		}
+	
+	@Override
+	public void close() throws IOException {
+		if(this.closed) return;
+		this.closed = true;
+		this.executor.shutdownNow();
+		this.pending.clear();
+		this.freeBlocks.clear();
+		this.current = null;
+		this.in.close();
+		}
+	
+	@Override
+	public String toString() {
+		return "ParallelBlockCompressedInputStream";
+		}
+	}
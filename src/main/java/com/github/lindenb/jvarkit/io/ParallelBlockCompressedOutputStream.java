@@ -0,0 +1,282 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.samtools.util.LocationAware;
+import htsjdk.samtools.util.RuntimeIOException;
+
+/**
+ * A BGZF OutputStream deflating the blocks on a pool of threads. The blocks are written in order.
+ * 
+ * Virtual file pointers: {@link #getPosition()} is exact but it must wait for all the 
+ * pending blocks to be compressed. Indexers should rather call {@link #getDeferredPosition()}
+ * that returns a token made of the (block-index,offset-in-block) without waiting and 
+ * convert it later with {@link #resolve(long)} when {@link #isResolved(long)} is true 
+ * (that is to say when all the previous blocks have been written).
+ */
+public class ParallelBlockCompressedOutputStream extends OutputStream
+	implements LocationAware
+	{
+	private static final int BLOCK_SIZE = BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE;
+	private final OutputStream out;
+	private final String streamName;
+	private final int compressionLevel;
+	private final int nThreads;
+	private final ExecutorService executor;
+	/** blocks being deflated, in the output order */
+	private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+	/** current uncompressed block */
+	private byte[] uncompressedBuffer = new byte[BLOCK_SIZE];
+	private int numUncompressedBytes = 0;
+	/** number of blocks submitted, also the index of the current block */
+	private long numBlocksSubmitted = 0L;
+	/** number of blocks written */
+	private long numBlocksWritten = 0L;
+	/** blockAddresses[i] is the file offset of the i-th block. Known for i &lt;= numBlocksWritten */
+	private long[] blockAddresses = new long[1024];
+	/** number of compressed bytes written */
+	private long numBytesWritten = 0L;
+	private boolean closed = false;
+	
+	/** one Deflater/CRC per worker thread */
+	private static class Compressor {
+		final Deflater deflater;
+		final Deflater noCompressionDeflater = new Deflater(Deflater.NO_COMPRESSION, true);
+		final CRC32 crc = new CRC32();
+		final byte[] compressedBuffer = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE - BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+		Compressor(final int level) {
+			this.deflater = new Deflater(level, true);
+			}
+		}
+	private final ThreadLocal<Compressor> compressors;
+	
+	public ParallelBlockCompressedOutputStream(final File file,final int compressionLevel,final int nThreads) throws IOException {
+		this(Files.newOutputStream(file.toPath()),file.getPath(),compressionLevel,nThreads);
+		}
+	
+	/**
+	 * @param out the output stream
+	 * @param streamName name used in error messages
+	 * @param compressionLevel deflate level
+	 * @param nThreads number of threads
+	 */
+	public ParallelBlockCompressedOutputStream(final OutputStream out,final String streamName,final int compressionLevel,final int nThreads) {
+		if(nThreads<1) throw new IllegalArgumentException("nThreads<1 : "+nThreads);
+		this.out = out;
+		this.streamName = (streamName==null?"<stream>":streamName);
+		this.compressionLevel = Math.max(Deflater.NO_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, compressionLevel));
+		this.nThreads = nThreads;
+		this.compressors = ThreadLocal.withInitial(()->new Compressor(this.compressionLevel));
+		this.executor = Executors.newFixedThreadPool(nThreads,R->{
+			final Thread t = new Thread(R,"bgzf-deflater");
+			t.setDaemon(true);
+			return t;
+			});
+		this.blockAddresses[0] = 0L;
+		}
+	
+	@Override
+	public void write(final int b) throws IOException {
+		this.uncompressedBuffer[this.numUncompressedBytes++] = (byte)b;
+		if(this.numUncompressedBytes==BLOCK_SIZE) submitBlock();
+		}
+	
+	@Override
+	public void write(final byte[] bytes, int startIndex, int numBytes) throws IOException {
+		while(numBytes > 0) {
+			final int n = Math.min(numBytes, BLOCK_SIZE - this.numUncompressedBytes);
+			System.arraycopy(bytes, startIndex, this.uncompressedBuffer, this.numUncompressedBytes, n);
+			this.numUncompressedBytes += n;
+			startIndex += n;
+			numBytes -= n;
+			if(this.numUncompressedBytes==BLOCK_SIZE) submitBlock();
+			}
+		}
+	
+	/** compress the current block, even if it is not full */
+	@Override
+	public void flush() throws IOException {
+		submitBlock();
+		drain(0);
+		this.out.flush();
+		}
+	
+	private void submitBlock() throws IOException {
+		if(this.numUncompressedBytes==0) return;
+		final byte[] uncompressed = this.uncompressedBuffer;
+		final int length = this.numUncompressedBytes;
+		this.uncompressedBuffer = new byte[BLOCK_SIZE];
+		this.numUncompressedBytes = 0;
+		this.numBlocksSubmitted++;
+		this.pending.add(this.executor.submit(()->deflateBlock(uncompressed, length)));
+		drain(2*this.nThreads);
+		}
+	
+	/** write the compressed blocks that are done. Wait for the oldest ones if there are more than 'maxPending' blocks */
+	private void drain(final int maxPending) throws IOException {
+		while(!this.pending.isEmpty() && (this.pending.size() > maxPending || this.pending.peekFirst().isDone())) {
+			final byte[] block;
+			try {
+				block = this.pending.pollFirst().get();
+				}
+			catch(final ExecutionException err) {
+				throw new IOException("Cannot compress block for "+this.streamName, err.getCause());
+				}
+			catch(final InterruptedException err) {
+				throw new IOException(err);
+				}
+			this.out.write(block);
+			this.numBytesWritten += block.length;
+			this.numBlocksWritten++;
+			if(this.numBlocksWritten >= this.blockAddresses.length) {
+				this.blockAddresses = Arrays.copyOf(this.blockAddresses, this.blockAddresses.length*2);
+				}
+			this.blockAddresses[(int)this.numBlocksWritten] = this.numBytesWritten;
+			}
+		}
+	
+	/** deflate one block, called from the worker threads. Same layout as htsjdk's BlockCompressedOutputStream */
+	private byte[] deflateBlock(final byte[] uncompressed,final int length) {
+		final Compressor compressor = this.compressors.get();
+		final byte[] compressedBuffer = compressor.compressedBuffer;
+		compressor.deflater.reset();
+		compressor.deflater.setInput(uncompressed, 0, length);
+		compressor.deflater.finish();
+		int compressedSize = compressor.deflater.deflate(compressedBuffer, 0, compressedBuffer.length);
+		if(!compressor.deflater.finished()) {
+			/* compressed data doesn't fit in the buffer, fall back to no compression */
+			compressor.noCompressionDeflater.reset();
+			compressor.noCompressionDeflater.setInput(uncompressed, 0, length);
+			compressor.noCompressionDeflater.finish();
+			compressedSize = compressor.noCompressionDeflater.deflate(compressedBuffer, 0, compressedBuffer.length);
+			if(!compressor.noCompressionDeflater.finished()) {
+				throw new IllegalStateException("Block is too large for "+this.streamName);
+				}
+			}
+		compressor.crc.reset();
+		compressor.crc.update(uncompressed, 0, length);
+		final int totalBlockSize = compressedSize + BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+		final byte[] block = new byte[totalBlockSize];
+		int i = 0;
+		block[i++] = BlockCompressedStreamConstants.GZIP_ID1;
+		block[i++] = (byte)BlockCompressedStreamConstants.GZIP_ID2;
+		block[i++] = BlockCompressedStreamConstants.GZIP_CM_DEFLATE;
+		block[i++] = (byte)BlockCompressedStreamConstants.GZIP_FLG;
+		i+=4;/* modification time */
+		block[i++] = (byte)BlockCompressedStreamConstants.GZIP_XFL;
+		block[i++] = (byte)BlockCompressedStreamConstants.GZIP_OS_UNKNOWN;
+		i = writeShort(block, i, BlockCompressedStreamConstants.GZIP_XLEN);
+		block[i++] = BlockCompressedStreamConstants.BGZF_ID1;
+		block[i++] = BlockCompressedStreamConstants.BGZF_ID2;
+		i = writeShort(block, i, BlockCompressedStreamConstants.BGZF_LEN);
+		i = writeShort(block, i, totalBlockSize - 1);
+		System.arraycopy(compressedBuffer, 0, block, i, compressedSize);
+		i += compressedSize;
+		i = writeInt(block, i, (int)compressor.crc.getValue());
+		i = writeInt(block, i, length);
+		return block;
+		}
+	
+	private static int writeShort(final byte[] array,int i,final int value) {
+		array[i++] = (byte)(value & 0xFF);
+		array[i++] = (byte)((value >> 8) & 0xFF);
+		return i;
+		}
+	private static int writeInt(final byte[] array,int i,final int value) {
+		i = writeShort(array, i, value & 0xFFFF);
+		return writeShort(array, i, (value >> 16) & 0xFFFF);
+		}
+	
+	/** returns a token (block-index,offset-in-block) for the current position. Doesn't wait for the compression */
+	public long getDeferredPosition() {
+		return (this.numBlocksSubmitted << 16) | this.numUncompressedBytes;
+		}
+	
+	/** returns true if the address of the block of this token is known */
+	public boolean isResolved(final long deferredPosition) {
+		return (deferredPosition >>> 16) <= this.numBlocksWritten;
+		}
+	
+	/** converts a token returned by {@link #getDeferredPosition()} to a BGZF virtual file pointer. The token must be resolved. */
+	public long resolve(final long deferredPosition) {
+		if(!isResolved(deferredPosition)) throw new IllegalStateException("block "+(deferredPosition >>> 16)+" was not written");
+		final long blockAddress = this.blockAddresses[(int)(deferredPosition >>> 16)];
+		return (blockAddress << 16) | (deferredPosition & 0xFFFFL);
+		}
+	
+	/** exact virtual file pointer, waits for all the pending blocks to be compressed */
+	@Override
+	public long getPosition() {
+		try {
+			drain(0);
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException(err);
+			}
+		return resolve(getDeferredPosition());
+		}
+	
+	/** same as getPosition */
+	public long getFilePointer() {
+		return getPosition();
+		}
+	
+	@Override
+	public void close() throws IOException {
+		if(this.closed) return;
+		this.closed = true;
+		try {
+			submitBlock();
+			drain(0);
+			/* bgzf end of file marker */
+			this.out.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+			this.out.close();
+			}
+		finally
+			{
+			this.executor.shutdownNow();
+			}
+		}
+	
+	@Override
+	public String toString() {
+		return "ParallelBlockCompressedOutputStream("+this.streamName+","+this.nThreads+" threads)";
+		}
+	}
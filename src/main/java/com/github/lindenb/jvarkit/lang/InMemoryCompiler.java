@@ -24,15 +24,25 @@ SOFTWARE.
 
 */
 package com.github.lindenb.jvarkit.lang;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.StringWriter;
 import java.net.URI;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
@@ -64,9 +74,16 @@ import htsjdk.samtools.util.StringUtil;
  * In Memory Java Compiler
  * seen https://blog.nobel-joergensen.com/2008/07/16/using-eclipse-compiler-to-create-dynamic-java-objects-2/ 
  *
+ * If a cache directory is defined, the byte code is saved in this directory and re-used if the same code
+ * is compiled again with the same classpath and the same version of java.
  */
 public class InMemoryCompiler {
 	private static final Logger LOG = Logger.build(InMemoryCompiler.class).make();
+	/** description for the command line option of the tools */
+	public static final String OPT_CACHE_DIR_DESC = "[20181016] Directory used as a persistent cache of the compiled classes. "
+			+ "The key is a hash of the generated code, of the classpath and of the version of java: an identical script is only compiled once.";
+	private static final String CACHE_SUFFIX = ".classes";
+	private File cacheDirectory = null;
 	/** custom class loader */
 	private static class SpecialClassLoader extends ClassLoader {   
 	    private final Map<String,MemoryByteCode> class2code = new HashMap<>();
@@ -86,6 +103,28 @@ public class InMemoryCompiler {
 	    void addClass(final String name,final MemoryByteCode mbc) {       
 	    	this.class2code.put(name, mbc);   
 	    	}
+	    
+	    /** save all the classes in the cache file */
+	    void write(final DataOutputStream out) throws IOException {
+	    	out.writeInt(this.class2code.size());
+	    	for(final String name: this.class2code.keySet()) {
+	    		final byte bytes[] = this.class2code.get(name).getBytes();
+	    		out.writeUTF(name);
+	    		out.writeInt(bytes.length);
+	    		out.write(bytes);
+	    		}
+	    	}
+	    
+	    /** load the classes from the cache file */
+	    void read(final DataInputStream in) throws IOException {
+	    	final int n = in.readInt();
+	    	for(int i=0;i< n;++i) {
+	    		final String name = in.readUTF();
+	    		final byte bytes[] = new byte[in.readInt()];
+	    		in.readFully(bytes);
+	    		addClass(name, new MemoryByteCode(name, bytes));
+	    		}
+	    	}
 		}
 	
 	/** custom SimpleJavaFileObject storing code in memory */ 
@@ -94,6 +133,12 @@ public class InMemoryCompiler {
 	    public MemoryByteCode(final String name) {       
 	        super(URI.create("byte:///" + name + ".class"), Kind.CLASS);   
 	    	}   
+	    /** byte code read from the cache */
+	    MemoryByteCode(final String name,final byte bytes[]) {       
+	        this(name);
+	        this.baos = new ByteArrayOutputStream(bytes.length);
+	        this.baos.write(bytes, 0, bytes.length);
+	    	}   
 	    
 	    @Override
 	    public CharSequence getCharContent(boolean ignoreEncodingErrors) {       
@@ -155,19 +200,89 @@ public class InMemoryCompiler {
 	    }
 	}
 	 
+	/** set the directory of the persistent cache. null: no cache */
+	public InMemoryCompiler setCacheDirectory(final File cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+		return this;
+		}
+	
+	public File getCacheDirectory() {
+		return this.cacheDirectory;
+		}
+	
+	/** key of the cache: sha1 of the code, of the classpath (and the dates of its components) and of the version of java */
+	private static String createCacheKey(final String className,final String javaCode,final Set<String> classpathcomponents) throws IOException {
+		try {
+			final MessageDigest md = MessageDigest.getInstance("SHA-1");
+			md.update(className.getBytes(StandardCharsets.UTF_8));
+			md.update((byte)0);
+			md.update(javaCode.getBytes(StandardCharsets.UTF_8));
+			md.update((byte)0);
+			md.update(String.valueOf(System.getProperty("java.version")).getBytes(StandardCharsets.UTF_8));
+			for(final String cp: classpathcomponents) {
+				md.update((byte)0);
+				md.update(cp.getBytes(StandardCharsets.UTF_8));
+				md.update(String.valueOf(new File(cp).lastModified()).getBytes(StandardCharsets.UTF_8));
+				}
+			final StringBuilder sb = new StringBuilder();
+			for(final byte b: md.digest()) sb.append(String.format("%02x", b));
+			return sb.toString();
+			}
+		catch(final java.security.NoSuchAlgorithmException err) {
+			throw new IOException(err);
+			}
+		}
+	
+	/** @return the class loader filled with the cached classes or null if they are not in the cache */
+	private SpecialClassLoader readCache(final File cacheFile) {
+		if(!cacheFile.exists()) return null;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+			final SpecialClassLoader cl = new SpecialClassLoader();
+			cl.read(in);
+			LOG.debug("using cached classes "+cacheFile);
+			return cl;
+			}
+		catch(final IOException err) {
+			LOG.warn("cannot read cached classes "+cacheFile+" "+err.getMessage());
+			return null;
+			}
+		finally
+			{
+			CloserUtil.close(in);
+			}
+		}
+	
+	/** save the compiled classes in the cache. The file is written in a temporary file and then renamed, so concurrent processes can share the same cache */
+	private void writeCache(final File cacheFile,final SpecialClassLoader cl) {
+		File tmp = null;
+		DataOutputStream out = null;
+		try {
+			IOUtil.assertDirectoryIsWritable(this.cacheDirectory);
+			tmp = File.createTempFile("tmp.", CACHE_SUFFIX, this.cacheDirectory);
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			cl.write(out);
+			out.flush();
+			out.close();
+			out = null;
+			Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			tmp = null;
+			}
+		catch(final Exception err) {
+			LOG.warn("cannot save compiled classes in "+cacheFile+" "+err.getMessage());
+			}
+		finally
+			{
+			CloserUtil.close(out);
+			if(tmp!=null) tmp.delete();
+			}
+		}
+	
 	/** compile a new class */
 	public Class<?> compileClass(final String className,final String javaCode)
 		{
 		 try{           
-			final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
-			if(javac==null)
-				{
-				throw new RuntimeException("ToolProvider.getSystemJavaCompiler() failed. Do you use a correct version of java ? Please check the version and avoid openJDK, use the java from Oracle.");
-				}
-			final StandardJavaFileManager sjfm = javac.getStandardFileManager(null, null, null);
-			final SpecialClassLoader cl = new SpecialClassLoader();
-			final SpecialJavaFileManager fileManager = new SpecialJavaFileManager(sjfm, cl);
-			
 			// https://stackoverflow.com/questions/1563909
 			final Set<String> classpathcomponents = new LinkedHashSet<>(); 
 			
@@ -202,7 +317,26 @@ public class InMemoryCompiler {
 	        			filter(S->!S.trim().isEmpty()).
 	        			collect(Collectors.toSet()));
 				}
-
+			
+			final File cacheFile;
+			if(this.cacheDirectory!=null) {
+				cacheFile = new File(this.cacheDirectory, createCacheKey(className, javaCode, classpathcomponents) + CACHE_SUFFIX);
+				final SpecialClassLoader cached = readCache(cacheFile);
+				if(cached!=null) return cached.findClass(className);
+				}
+			else
+				{
+				cacheFile = null;
+				}
+			
+			final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+			if(javac==null)
+				{
+				throw new RuntimeException("ToolProvider.getSystemJavaCompiler() failed. Do you use a correct version of java ? Please check the version and avoid openJDK, use the java from Oracle.");
+				}
+			final StandardJavaFileManager sjfm = javac.getStandardFileManager(null, null, null);
+			final SpecialClassLoader cl = new SpecialClassLoader();
+			final SpecialJavaFileManager fileManager = new SpecialJavaFileManager(sjfm, cl);
 			
 			final List<String> options;
 			if(!classpathcomponents.isEmpty())
@@ -222,6 +356,7 @@ public class InMemoryCompiler {
 					err, (JavaFileManager) fileManager, dianosticListener,
 					options, classes, compilationUnits);
 			if (compile.call()) {
+				if(cacheFile!=null) writeCache(cacheFile, cl);
 				return cl.findClass(className);
 				}
 			else
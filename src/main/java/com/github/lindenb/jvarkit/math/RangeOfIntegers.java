@@ -95,6 +95,8 @@ private static class RangeImpl implements Range
 
 
 private final List<Range> ranges;
+/** the limits, in ascending order */
+private final int limits[];
 
 /** generate RangeOfIntegers from a String with values separated with semicolons */
 public RangeOfIntegers(final String s) {
@@ -119,6 +121,7 @@ public RangeOfIntegers(final int...array) {
 		}
 	ranges.add(new RangeImpl(array[array.length-1],null));
 	this.ranges = Collections.unmodifiableList(ranges);
+	this.limits = Arrays.copyOf(array, array.length);
 	}
 
 public List<Range> getRanges() {
@@ -132,6 +135,15 @@ public Range getRange(int value) {
 		}
 	throw new IllegalStateException("cannot get range ??" +value);
 	}
+/** @return the index of the range containing value in getRanges() */
+public int getRangeIndex(final int value) {
+	int i = Arrays.binarySearch(this.limits, value);
+	/* value is a lower limit */
+	if(i>=0) return i+1;
+	/* insertion point */
+	return -(i+1);
+	}
+
 @Override
 public String toString() {
 		return getRanges().toString();
@@ -32,6 +32,8 @@ import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -45,6 +47,7 @@ import java.util.stream.Collectors;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.tools.bam2wig.CoveragePyramid;
 import com.github.lindenb.jvarkit.util.bio.IntervalParser;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -86,6 +89,11 @@ java -jar dist/lowresbam2raster.jar \
 	 -clip -srf "" -R ref.fasta  -kg knownGene.txt.gz
 ```
 
+## Large regions
+
+When the region is larger than `--pyramid` and all the BAMs have an up-to-date coverage pyramid (see `bamcoveragepyramid`),
+the reads are not scanned: one image per BAM shows the mean (filled) and the maximum (line) depth, read from the pyramid.
+
 ## see also
 
 * https://twitter.com/yokofakun/status/951769190884610051
@@ -122,6 +130,8 @@ public class LowResBam2Raster extends AbstractBam2Raster {
 	private boolean hideArchOfSupplAlign =false;
 	@Parameter(names={"-printNames","--printNames"},description="Print Read Names (for debugging)")
 	private boolean printReadNames=false;
+	@Parameter(names={"--pyramid"},description="[20181016] When the region is larger than this length and all the BAMs have a coverage pyramid ("+CoveragePyramid.SUFFIX+" file), only display the depth, read from the pyramids. <=0: never use the pyramids.")
+	private int pyramidMinLength = 100_000;
 	@Parameter(names={"-hideInsert","--hideInsertions"},description="Hide insertions")
 	private boolean hideInsertions=false;
 
@@ -931,6 +941,97 @@ public class LowResBam2Raster extends AbstractBam2Raster {
 				}
 			}
 		
+		/** create one depth image per BAM from the coverage pyramids. returns null if one BAM has no pyramid */
+		private List<BufferedImage> makePyramidImages(final List<String> bamFiles) throws IOException {
+			final List<CoveragePyramid> pyramids = new ArrayList<>(bamFiles.size());
+			try {
+				for(final String bamFile: bamFiles) {
+					final CoveragePyramid pyramid = (IOUtils.isRemoteURI(bamFile)?null:CoveragePyramid.openIfExists(new File(bamFile)));
+					if(pyramid==null || !pyramid.hasContig(this.interval.getContig())) {
+						LOG.info("no coverage pyramid for "+bamFile+": scanning the reads.");
+						CloserUtil.close(pyramid);
+						return null;
+						}
+					pyramids.add(pyramid);
+					}
+				final int trackHeight = Math.max(50, this.depthSize);
+				final List<BufferedImage> images = new ArrayList<>(pyramids.size());
+				for(int i=0;i< pyramids.size();++i) {
+					final String title = new File(bamFiles.get(i)).getName();
+					final List<CoveragePyramid.Bin> bins = pyramids.get(i).query(this.interval, this.WIDTH);
+					final int maxDepth = Math.max(1, bins.stream().mapToInt(B->B.getMax()).max().orElse(1));
+					
+					final BufferedImage img=new BufferedImage(
+							WIDTH,
+							(featureHeight*2+spaceYbetweenFeatures)*2 + trackHeight + spaceYbetweenFeatures,
+							BufferedImage.TYPE_INT_RGB
+							);
+					final Graphics2D g= img.createGraphics();
+					g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+					g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+					g.setColor(ALMOST_WHITE);
+					g.fillRect(0, 0, img.getWidth(), img.getHeight());
+					
+					int y=0;
+					g.setColor(ALMOST_BLACK);
+					hersheyFont.paint(g, title, new Rectangle2D.Double(1,y,title.length()*featureHeight*2,featureHeight*2));
+					y+=featureHeight*2+spaceYbetweenFeatures;
+					hersheyFont.paint(g, interval.getName(), new Rectangle2D.Double(1,y, interval.getName().length()*featureHeight*2,featureHeight*2));
+					y+=featureHeight*2+spaceYbetweenFeatures;
+					
+					final double y0 = y + trackHeight;
+					final GeneralPath meanPath = new GeneralPath();
+					final GeneralPath maxPath = new GeneralPath();
+					meanPath.moveTo(0, y0);
+					for(final CoveragePyramid.Bin bin: bins) {
+						final double x1 = Math.max(0, pos2pixel.apply(bin.getStart()));
+						final double x2 = Math.min(WIDTH, pos2pixel.apply(bin.getEnd()+1));
+						final double hMean = (bin.getMean()/maxDepth)*trackHeight;
+						final double hMax = (bin.getMax()/(double)maxDepth)*trackHeight;
+						meanPath.lineTo(x1, y0 - hMean);
+						meanPath.lineTo(x2, y0 - hMean);
+						if(maxPath.getCurrentPoint()==null) {
+							maxPath.moveTo(x1, y0 - hMax);
+							}
+						else
+							{
+							maxPath.lineTo(x1, y0 - hMax);
+							}
+						maxPath.lineTo(x2, y0 - hMax);
+						}
+					meanPath.lineTo(WIDTH, y0);
+					meanPath.closePath();
+					g.setColor(Color.BLUE);
+					g.fill(meanPath);
+					g.setColor(ALMOST_BLACK);
+					g.draw(meanPath);
+					g.setColor(Color.RED);
+					g.draw(maxPath);
+					
+					final String label="Depth [0 - "+maxDepth+"] bin:"+(bins.isEmpty()?0:bins.get(0).getLengthOnReference());
+					for(int x=0;x<2;++x) {	
+						g.setColor(x==0?ALMOST_WHITE:ALMOST_BLACK);
+						hersheyFont.paint(g,
+								label,
+								new Rectangle2D.Double(
+									1+x,
+									y +x + trackHeight-10,
+									label.length()*10,
+									10
+									)
+								);
+							}
+					g.dispose();
+					images.add(img);
+					}
+				return images;
+				}
+			finally
+				{
+				pyramids.forEach(P->CloserUtil.close(P));
+				}
+			}
+		
 		private void scan(final SamReader r) {
 			final SAMRecordIterator iter=r.query(
 						interval.getContig(),
@@ -1034,7 +1135,16 @@ public class LowResBam2Raster extends AbstractBam2Raster {
 						this.knownGenes.addAll(map.values().stream().flatMap(L->L.stream()).collect(Collectors.toList()));
 						}
 
-					for(final String bamFile: IOUtils.unrollFiles(args))
+					final List<String> bamFiles = new ArrayList<>(IOUtils.unrollFiles(args));
+					if(this.pyramidMinLength>0 && this.interval.length()>this.pyramidMinLength) {
+						final List<BufferedImage> images = makePyramidImages(bamFiles);
+						if(images!=null) {
+							saveImages(images);
+							return RETURN_OK;
+							}
+						}
+					
+					for(final String bamFile: bamFiles)
 						{
 						samFileReader = srf.open(SamInputResource.of(bamFile));
 						final SAMFileHeader header=samFileReader.getFileHeader();
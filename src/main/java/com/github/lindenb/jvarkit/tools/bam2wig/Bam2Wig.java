@@ -34,6 +34,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -64,7 +68,6 @@ import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.math.stats.Percentile;
-import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.Pedigree;
 import com.github.lindenb.jvarkit.util.bio.IntervalParser;
 import com.github.lindenb.jvarkit.util.bio.samfilter.SamFilterParser;
@@ -87,12 +90,22 @@ About BedGraph: [https://genome.ucsc.edu/goldenpath/help/bedgraph.html](https://
 
 ## Memory
 
-warning: the program is memory consuming, it allocates on array of integer of the size of your longest contig.
+The depth is computed with a sliding buffer of counters: the memory depends on the length of the reads (and on the number of samples for READ_GROUPS and CASE_CTRL), not on the length of the contigs.
+
+## Parallel mode
+
+With `--threads`, the indexed BAM files are processed by chunks of contigs (`--chunk-size`) on several threads. Each worker uses its own readers and the outputs are concatenated in the order of the dictionary, so the output is the same as in the serial mode.
+
+```bash
+java -jar dist/bam2wig.jar --threads 16 -bg -o out.bedgraph bams.list
+```
 
 ## History:
 
 20171115: removed cast_to_integer replaced by 'format', added percentile. Removed options --zerolength and --mindepth.
 
+20181016: the depth is computed with a sliding buffer instead of an array of the size of the contig. CASE_CTRL now uses the samples of the read groups.
+
 ## Aggregators:
 
 * COVERAGE :  coverage, all sample merged
@@ -142,7 +155,7 @@ fixedStep chrom=ref2 start=1 step=3 span=1
 END_DOC
  */
 @Program(name="bam2wig",
-description="Bam to fixedStep Wiggle converter , or BED GRAPH. Parses the cigar String to get the depth. Memory intensive: must alloc sizeof(int)*size(chrom)",
+description="Bam to fixedStep Wiggle converter , or BED GRAPH. Parses the cigar String to get the depth.",
 keywords={"bam","wig","wiggle","bed"}
 )
 public class Bam2Wig extends Launcher
@@ -177,6 +190,11 @@ public class Bam2Wig extends Launcher
 	private String region_str=null;
 	@Parameter(names={"--pedigree","-ped"},description="Pedigree file for CASE_CTRL. " + Pedigree.OPT_DESCRIPTION )
 	private File pedigreeFile=null;
+	@Parameter(names={"--threads"},description="[20181016] Number of threads. When greater than 1, the BAM files must be indexed: "
+			+ "each contig (or chunk of contig, see --chunk-size) is processed by a worker with its own readers and the outputs are concatenated in the order of the dictionary.")
+	private int nThreads = 1;
+	@Parameter(names={"--chunk-size"},description="[20181016] When using --threads, split the contigs into chunks of this size. A value lower than 1 means: don't split the contigs. Ignored for CLIPPING.")
+	private int chunk_size = 10_000_000;
 
 
 	public Bam2Wig()
@@ -186,19 +204,13 @@ public class Bam2Wig extends Launcher
 	
 	private static abstract class Aggregator
 		{
-		abstract void visit(final int array[],final SAMRecord rec);
-		void finish(final int array[]) {}
-		protected void incr(final int array[],int pos1,int length)
-			{
-			for(int i=0;i< length ;++i)
-				{
-				final int array_index= pos1+i-1;
-				if(array_index>0 && array_index<array.length)
-					{
-					array[array_index]++;
-					}
-				}
-			}
+		/** number of counters for each position */
+		int getSampleCount() { return 1;}
+		abstract void visit(final DepthSweep sweep,final SAMRecord rec);
+		/** the positions before this one won't be modified by this read or the next ones */
+		int getMinimalPosition(final SAMRecord rec) { return rec.getAlignmentStart();}
+		/** value of a position in the track */
+		int getValue(final int depths[],final int offset) { return depths[offset];}
 		}
 	
 	private static class CoverageAggregator extends Aggregator
@@ -211,7 +223,7 @@ public class Bam2Wig extends Launcher
 			this.internalFilter = predicate;
 			}
 		@Override
-		void visit(final int array[],final SAMRecord rec)
+		void visit(final DepthSweep sweep,final SAMRecord rec)
 			{
 			if(!this.internalFilter.test(rec)) return ;
 			final Cigar cigar=rec.getCigar();
@@ -224,7 +236,7 @@ public class Bam2Wig extends Launcher
     				{
     				if(op.consumesReadBases())
     					{
-    					incr(array,refpos1,ce.getLength());
+    					sweep.increment(0,refpos1,ce.getLength());
     					}
     				refpos1+=ce.getLength();
     				}    				
@@ -235,7 +247,7 @@ public class Bam2Wig extends Launcher
 	private static class DeletionAggregator extends Aggregator
 		{
 		@Override
-		void visit(final int array[],final SAMRecord rec)
+		void visit(final DepthSweep sweep,final SAMRecord rec)
 			{
 			final Cigar cigar=rec.getCigar();
 			if(cigar==null) return;
@@ -246,7 +258,7 @@ public class Bam2Wig extends Launcher
 				switch(op)
 					{
 					case D:
-					case N:incr(array,refpos1,ce.getLength());
+					case N:sweep.increment(0,refpos1,ce.getLength());
 					default: break;
 					}
 				if(op.consumesReferenceBases())
@@ -259,7 +271,7 @@ public class Bam2Wig extends Launcher
 	private static class InsertionAggregator extends Aggregator
 		{
 		@Override
-		void visit(final int array[],final SAMRecord rec)
+		void visit(final DepthSweep sweep,final SAMRecord rec)
 			{
 			final Cigar cigar=rec.getCigar();
 			if(cigar==null) return;
@@ -269,7 +281,7 @@ public class Bam2Wig extends Launcher
 				final CigarOperator op = ce.getOperator();
 				switch(op)
 					{
-					case I: incr(array,refpos1,1);
+					case I: sweep.increment(0,refpos1,1);
 					default: break;
 					}
 				if(op.consumesReferenceBases())
@@ -283,8 +295,16 @@ public class Bam2Wig extends Launcher
 	
 	private static class ClipAggregator extends Aggregator
 		{
+		/** the clip of a read may start before the previous reads: keep a margin of the longest read seen so far.
+		 * The bases of a longer clip reaching a position already emitted are ignored */
+		private int margin = 0;
+		@Override
+		int getMinimalPosition(final SAMRecord rec) {
+			this.margin = Math.max(this.margin, rec.getUnclippedEnd() - rec.getUnclippedStart() + 1);
+			return rec.getAlignmentStart() - this.margin;
+			}
 		@Override
-		void visit(final int array[],final SAMRecord rec)
+		void visit(final DepthSweep sweep,final SAMRecord rec)
 			{
 			final Cigar cigar=rec.getCigar();
 			if(cigar==null) return;
@@ -294,7 +314,7 @@ public class Bam2Wig extends Launcher
 				final CigarOperator op = ce.getOperator();
 				if(op.isClipping())
 					{
-					incr(array,refpos1,ce.getLength());
+					sweep.increment(0,refpos1,ce.getLength());
 					refpos1+=ce.getLength();
 					}
 				else if(op.consumesReferenceBases())
@@ -304,87 +324,56 @@ public class Bam2Wig extends Launcher
 				}
 			}
 		}
-	private static abstract class BufferedAggregator extends Aggregator
+	
+	/** aggregator using one depth counter per sample */
+	private static abstract class MultipleSamplesAggregator extends Aggregator
 		{
-		private final List<SAMRecord> buffer= new ArrayList<>();
-		private int last_start=1;
-		protected abstract void dump(final List<SAMRecord> records,int start1,int end1,final int array[]);
+		/** index of each sample in the counters */
+		protected final Map<String,Integer> sample2index = new HashMap<>();
 		
 		protected abstract String partition(SAMRecord rec);
 		
-		protected Map<Integer,Counter<String>> fillPositions(final List<SAMRecord> records,final int begin1,final int end1)
-			{
-			final Map<Integer,Counter<String>> pos2sample2depth = new HashMap<>();
-			for(final SAMRecord rec:records) {
-				final Cigar cigar = rec.getCigar();
-				if(cigar==null) continue;
-				final String sample = partition(rec);
-				if(StringUtil.isBlank(sample)) continue;
-				
-				int pos1= rec.getAlignmentStart();
-				for(final CigarElement ce:cigar) {
-					if(pos1>=end1) break;
-					final CigarOperator op= ce.getOperator();
-					if(op.consumesReferenceBases())
-						{
-						final int L=ce.getLength();
-						if(op.consumesReadBases())
-							{
-							for(int i=0;i< L && pos1+i<end1;++i)
-								{
-								final int nx = pos1 + i;
-								if(nx>=begin1 && nx< end1)
-									{
-									Counter<String> sample2coverage = pos2sample2depth.get(nx);
-									if(sample2coverage==null) {
-										sample2coverage = new Counter<String>();
-										pos2sample2depth.put(nx, sample2coverage);
-										}
-									sample2coverage.incr(sample);
-									}
-								}
-							}
-						pos1+=L;
-						}
-					}
-				
-				}
-			return pos2sample2depth;
+		@Override
+		int getSampleCount() {
+			return Math.max(1,this.sample2index.size());
 			}
 		
 		@Override
-		void visit(final int array[],final SAMRecord rec)
+		void visit(final DepthSweep sweep,final SAMRecord rec)
 			{
-			if(rec.getAlignmentStart() < this.last_start)
-				{
-				throw new IllegalStateException("got read "+rec+" after last_start="+last_start);
-				}
-			this.buffer.removeIf(R->R.getEnd()< this.last_start);
-			final List<SAMRecord> toDump= buffer.stream().
-					filter(R->R.getEnd()< R.getAlignmentEnd()).
-					collect(Collectors.toList());
-			
-			if(!toDump.isEmpty()) {
-				dump(toDump,this.last_start,rec.getAlignmentStart(),array);
-				this.last_start = rec.getAlignmentStart();
+			final Cigar cigar = rec.getCigar();
+			if(cigar==null) return;
+			final String sample = partition(rec);
+			if(StringUtil.isBlank(sample)) return;
+			final Integer sampleIndex = this.sample2index.get(sample);
+			if(sampleIndex==null) return;
+			int pos1= rec.getAlignmentStart();
+			for(final CigarElement ce:cigar) {
+				final CigarOperator op= ce.getOperator();
+				if(op.consumesReferenceBases())
+					{
+					final int L=ce.getLength();
+					if(op.consumesReadBases())
+						{
+						sweep.increment(sampleIndex, pos1, L);
+						}
+					pos1+=L;
+					}
 				}
-			this.buffer.add(rec);
-			}
-		@Override
-		void finish(final int array[]) {
-			dump(this.buffer,this.last_start,array.length+1,array);
-			buffer.clear();
-			this.last_start=1;
 			}
 		}
 	
-	private static class NumberOfSamplesCoveredX extends BufferedAggregator
+	private static class NumberOfSamplesCoveredX extends MultipleSamplesAggregator
 		{
 		private final int minDepth;
 		private SAMRecordPartition samRecordPartition;
-		NumberOfSamplesCoveredX(int minDepth, final SAMRecordPartition samRecordPartition) {
+		NumberOfSamplesCoveredX(int minDepth, final SAMRecordPartition samRecordPartition,final SAMFileHeader header) {
 			this.minDepth = minDepth;
 			this.samRecordPartition = samRecordPartition;
+			for(final String sample : samRecordPartition.getPartitions(header.getReadGroups())) {
+				if(StringUtil.isBlank(sample)) continue;
+				this.sample2index.put(sample, this.sample2index.size());
+				}
 			}
 		
 		@Override
@@ -393,31 +382,22 @@ public class Bam2Wig extends Launcher
 			}
 		
 		@Override
-		protected void dump(final List<SAMRecord> records,final int begin1,final int end1,final int array[]) {
-			final Map<Integer,Counter<String>> pos2sample2depth= fillPositions(records,begin1,end1);
-			for(int start1 = begin1;start1<end1;++start1)
-				{
-				final Counter<String> sample2coverage = pos2sample2depth.get(start1);
-				if(sample2coverage==null) continue;
-				
-				final int num_samples= (int)sample2coverage.stream().
-						mapToInt(E->E.getValue().intValue()).
-						filter(D->D>=this.minDepth).
-						count()
-						;				
-				if(start1>0 && start1<=array.length)
-					{
-					array[start1-1]=num_samples;
-					}
-				
+		int getValue(final int depths[],final int offset) {
+			int num_samples = 0;
+			for(int i=0;i< this.sample2index.size();++i) {
+				final int depth = depths[offset+i];
+				if(depth>0 && depth>=this.minDepth) num_samples++;
 				}
+			return num_samples;
 			}
 		}
 	
-	private static class CaseControlAggregator extends BufferedAggregator
+	private static class CaseControlAggregator extends MultipleSamplesAggregator
 		{
-		private final Map<String,Pedigree.Person> case2person;
-		private final Map<String,Pedigree.Person> ctrl2person;
+		private final int caseIndexes[];
+		private final int ctrlIndexes[];
+		private final double caseDepths[];
+		private final double ctrlDepths[];
 		CaseControlAggregator(final File pedigreeFile) {
 			final Pedigree pedigree ;
 			IOUtil.assertFileIsReadable(pedigreeFile);
@@ -428,95 +408,198 @@ public class Bam2Wig extends Launcher
 				{
 				throw new RuntimeIOException(err);
 				}
-			this.case2person=pedigree.getPersons().stream().
+			this.caseIndexes = pedigree.getPersons().stream().
 						filter(P->P.isAffected()).
-						collect(Collectors.toMap(P->P.getId(), P->P))
-						;
-			this.ctrl2person=pedigree.getPersons().stream().
-					filter(P->P.isUnaffected()).
-					collect(Collectors.toMap(P->P.getId(), P->P))
-					;
+						mapToInt(P->this.sample2index.computeIfAbsent(P.getId(),S->this.sample2index.size())).
+						toArray();
+			this.ctrlIndexes = pedigree.getPersons().stream().
+						filter(P->P.isUnaffected()).
+						mapToInt(P->this.sample2index.computeIfAbsent(P.getId(),S->this.sample2index.size())).
+						toArray();
+			this.caseDepths = new double[this.caseIndexes.length];
+			this.ctrlDepths = new double[this.ctrlIndexes.length];
 			}
 		@Override
-		void visit(int[] array, SAMRecord rec) {
-			if(this.case2person.isEmpty()) return;
-			if(this.ctrl2person.isEmpty()) return;
-			if(StringUtil.isBlank(partition(rec))) return;
-			super.visit(array, rec);
+		void visit(final DepthSweep sweep,final SAMRecord rec) {
+			if(this.caseIndexes.length==0) return;
+			if(this.ctrlIndexes.length==0) return;
+			super.visit(sweep, rec);
 			}
 		
 		@Override
 		protected String partition(final SAMRecord rec) {
-
 			final SAMReadGroupRecord rg = rec.getReadGroup();
 			if(rg==null) return null;
-			final String sample= rg.getSample();			
-			if(!(this.ctrl2person.containsKey(sample)|| this.case2person.containsKey(sample))) return null;
-			return null;
+			return rg.getSample();
 			}
 		
-		@Override
-		protected void dump(final List<SAMRecord> records,final int begin1,final int end1,final int array[]) {
-			if(this.case2person.isEmpty()) return;
-			if(this.ctrl2person.isEmpty()) return;
-			final Map<Integer,Counter<String>> pos2sample2depth= fillPositions(records,begin1,end1);
-				
-					
-			for(int start1 = begin1;start1<end1;++start1)
+		/** same as Percentile.median() without allocation */
+		private static double median(final double values[]) {
+			Arrays.sort(values);
+			final int mid_x= values.length/2;
+			if(values.length==1)
 				{
-				
-				final Counter<String> sample2coverage = pos2sample2depth.get(start1);
-				if(sample2coverage==null) continue;
-				
-				final double median_cases = Percentile.median().evaluate(this.case2person.keySet().
-						stream().
-						mapToDouble(ID->sample2coverage.count(ID))
-						);
-				final double median_ctrl = Percentile.median().evaluate(this.ctrl2person.keySet().
-						stream().
-						mapToDouble(ID->sample2coverage.count(ID))
-						);
+				return values[0];
+				}
+			else if(values.length%2==0)
+		        {
+				return (values[mid_x-1]+values[mid_x])/2.0;
+		        }
+			else
+		        {
+		        return values[mid_x];
+		        }
+			}
+		
+		@Override
+		int getValue(final int depths[],final int offset) {
+			if(this.caseIndexes.length==0) return 0;
+			if(this.ctrlIndexes.length==0) return 0;
+			boolean covered = false;
+			for(int i=0;i< this.caseIndexes.length;++i) {
+				this.caseDepths[i] = depths[offset+this.caseIndexes[i]];
+				if(this.caseDepths[i]>0) covered = true;
+				}
+			for(int i=0;i< this.ctrlIndexes.length;++i) {
+				this.ctrlDepths[i] = depths[offset+this.ctrlIndexes[i]];
+				if(this.ctrlDepths[i]>0) covered = true;
+				}
+			if(!covered) return 0;
+			final double median_cases = median(this.caseDepths);
+			final double median_ctrl = median(this.ctrlDepths);
+			final double ratio = median_cases / median_ctrl;
+			return (int)(ratio * 1000.0);
+			}
+		}
 
-				final double ratio = median_cases / median_ctrl;
-				
-				if(start1>0 && start1<=array.length)
+	/** receives the values of the positions of a contig and prints the sliding windows */
+	private class WindowPrinter implements DepthSweep.Consumer
+		{
+		private final PrintWriter pw;
+		private final SAMSequenceRecord ssr;
+		private final int endWindow0;
+		private final Aggregator aggregator;
+		private final Percentile percentile;
+		/** start of the next window, 0-based */
+		private int start0;
+		private boolean done;
+		private boolean header_printed=false;
+		/** values of the positions from bufStart0 */
+		private int buffer[];
+		private int bufStart0 = 0;
+		private int bufLen = 0;
+		
+		/**
+		 * @param firstWindow0 start of the first window, 0-based
+		 * @param endWindow0 the windows start before this position
+		 * @param printHeader print the 'fixedStep' header before the first window
+		 */
+		WindowPrinter(final PrintWriter pw,final SAMSequenceRecord ssr,final int firstWindow0,final int endWindow0,final boolean printHeader,final Aggregator aggregator,final Percentile percentile) {
+			this.pw = pw;
+			this.ssr = ssr;
+			this.endWindow0 = endWindow0;
+			this.aggregator = aggregator;
+			this.percentile = percentile;
+			this.start0 = firstWindow0;
+			this.header_printed = !printHeader;
+			this.done = firstWindow0 >= endWindow0;
+			this.buffer = new int[Math.max(window_span,1024)];
+			}
+		
+		@Override
+		public void accept(final int pos1,final int depths[],final int offset) {
+			final int index0 = pos1 - 1;
+			if(this.done || index0 < this.start0) return;
+			if(this.bufLen==0) this.bufStart0 = index0;
+			if(this.bufLen==this.buffer.length) {
+				/* discard the values before the current window */
+				final int n = this.start0 - this.bufStart0;
+				if(n>0) {
+					System.arraycopy(this.buffer, n, this.buffer, 0, this.bufLen - n);
+					this.bufLen -= n;
+					this.bufStart0 += n;
+					}
+				else
 					{
-					array[start1-1]= (int)(ratio * 1000.0);
+					this.buffer = Arrays.copyOf(this.buffer, this.buffer.length*2);
 					}
-				
+				}
+			this.buffer[this.bufLen++] = this.aggregator.getValue(depths, offset);
+			while(!this.done && this.start0 + window_span <= this.bufStart0 + this.bufLen) {
+				printWindow(window_span);
+				}
+			}
+		
+		private void printWindow(final int length) {
+			if(this.start0 >= this.ssr.getSequenceLength() ||
+				this.start0 >= this.endWindow0 ||
+				this.pw.checkError())
+				{
+				this.done = true;
+				return;
+				}
+			if(!bedGraph && !this.header_printed)
+				{
+				this.pw.println(
+ 						"fixedStep chrom="+this.ssr.getSequenceName()+
+ 						" start="+(this.start0+1)+
+ 						" step="+win_shift +" span="+ window_span
+ 						);
+				this.header_printed=true;
+				}
+			/* 
+			 * http://genome.ucsc.edu/goldenPath/help/wiggle.html
+			   Wiggle track data values can be integer or real, positive or negative values.
+			   Chromosome positions are specified as 1-relative.
+			   For a chromosome of length N, the first position is 1 and the last position is N. Only positions specified have data. Positions not specified do not have data and will not be graphed. 
+			 */
+			final double percentile_value = this.percentile.evaluate(
+						this.buffer,
+						this.start0 - this.bufStart0,
+						length
+						);
+			if(bedGraph)
+				{
+				this.pw.print(this.ssr.getSequenceName());
+				this.pw.print('\t');
+				this.pw.print(this.start0);
+				this.pw.print('\t');
+				this.pw.print(this.start0+window_span);
+				this.pw.print('\t');
+				}
+			
+			this.pw.printf(printfFormat,percentile_value);
+			this.pw.print('\n');
+			this.start0 += win_shift;
+			if(this.start0 >= this.bufStart0 + this.bufLen) this.bufLen = 0;
+			}
+		
+		/** print the last windows. All the positions of the contig must have been received */
+		void finish() {
+			while(!this.done && this.start0 < this.ssr.getSequenceLength()) {
+				printWindow(Math.min(window_span, this.ssr.getSequenceLength() - this.start0));
 				}
 			}
 		}
-
-	
 	
-	private void run(
-			final PrintWriter pw,
-			final CloseableIterator<SAMRecord> iter,
-			final SAMSequenceDictionary dict,
-			final Interval interval // may be null
-			)
-		{
-		final Aggregator aggregator;
+	private Aggregator createAggregator(final SAMFileHeader header) {
 		switch(this.whatDisplay)
 			{
-			case COVERAGE: aggregator = new CoverageAggregator();break;
-			case CLIPPING : aggregator = new ClipAggregator(); break;
-			case INSERTION : aggregator = new InsertionAggregator();break;
-			case DELETION : aggregator = new DeletionAggregator();break;
-			case READ_GROUPS: aggregator = new NumberOfSamplesCoveredX(this.min_depth, this.partition);break;
+			case COVERAGE: return new CoverageAggregator();
+			case CLIPPING : return new ClipAggregator();
+			case INSERTION : return new InsertionAggregator();
+			case DELETION : return new DeletionAggregator();
+			case READ_GROUPS: return new NumberOfSamplesCoveredX(this.min_depth, this.partition, header);
 			case CASE_CTRL : 
 				if(this.pedigreeFile==null) {
 					throw new JvarkitException.UserError("undefined pedigree");
 				}
-				aggregator = new CaseControlAggregator(this.pedigreeFile); break;
+				return new CaseControlAggregator(this.pedigreeFile);
 			default: throw new IllegalStateException(this.whatDisplay.name());
 			}
-		
-		final Percentile percentile = Percentile.of(this.percentilType);
-		SAMSequenceRecord ssr = null;
-		int array[]=null;
-		final SAMSequenceDictionaryProgress progess=new SAMSequenceDictionaryProgress(dict);
+		}
+	
+	private void printCustomTrack(final PrintWriter pw) {
 		if(this.custom_track)
 			{
 			pw.println(
@@ -524,6 +607,45 @@ public class Bam2Wig extends Launcher
 					this.bedGraph?"bedGraph":"wiggle_0")
 					);
 			}
+		}
+	
+	private List<File> unrollSamFiles(final List<String> args) throws IOException {
+		if(args.size()==1 && args.get(0).endsWith(".list"))
+			{
+			return IOUtils.unrollFile(new File(args.get(0)));
+			}
+		else
+			{
+			return args.stream().map(S->new File(S)).collect(Collectors.toList());
+			}
+		}
+	
+	/** start of the first window of a contig, 0-based */
+	private int getFirstWindow0(final Interval interval) {
+		return interval==null?0:interval.getStart();
+		}
+	
+	/** the windows of a contig start before this position, 0-based */
+	private int getEndWindow0(final SAMSequenceRecord ssr,final Interval interval) {
+		if(interval==null) return ssr.getSequenceLength();
+		if(!interval.getContig().equals(ssr.getSequenceName())) return 0;
+		return Math.min(ssr.getSequenceLength(), interval.getEnd()+1);
+		}
+	
+	private void run(
+			final PrintWriter pw,
+			final CloseableIterator<SAMRecord> iter,
+			final SAMFileHeader header,
+			final Interval interval // may be null
+			)
+		{
+		final SAMSequenceDictionary dict = header.getSequenceDictionary();
+		final Aggregator aggregator = createAggregator(header);
+		final Percentile percentile = Percentile.of(this.percentilType);
+		final DepthSweep sweep = new DepthSweep(aggregator.getSampleCount());
+		SAMSequenceRecord ssr = null;
+		WindowPrinter windowPrinter = null;
+		final SAMSequenceDictionaryProgress progess=new SAMSequenceDictionaryProgress(dict);
 		
 		for(;;)
 			{
@@ -545,66 +667,10 @@ public class Bam2Wig extends Launcher
 				{
 				if(ssr!=null)
 					{
-					aggregator.finish(array);
 					// dump data
-					int start0=(interval==null?0:interval.getStart());
-					boolean header_printed=false;
-					
-					
-					while(start0 < array.length)
-						{
-						if(interval!=null)
-							{
-							if(!interval.getContig().equals(ssr.getSequenceName())) break;//
-							if(start0> interval.getEnd()) break;
-							
-							if(start0+window_span < interval.getStart())
-								{
-								start0+=win_shift;
-								continue;
-								}
-							}
-						
-						if(!this.bedGraph && !header_printed)
-							{
-							pw.println(
-			 						"fixedStep chrom="+ssr.getSequenceName()+
-			 						" start="+(start0+1)+
-			 						" step="+this.win_shift +" span="+ this.window_span
-			 						);
-							header_printed=true;
-							}
-						/* 
-						 * http://genome.ucsc.edu/goldenPath/help/wiggle.html
-						   Wiggle track data values can be integer or real, positive or negative values.
-						   Chromosome positions are specified as 1-relative.
-						   For a chromosome of length N, the first position is 1 and the last position is N. Only positions specified have data. Positions not specified do not have data and will not be graphed. 
-						 */
-		 				
-						final double percentile_value = 
-							percentile.evaluate(
-									array,
-									start0,
-									Math.min(this.window_span,array.length-start0)
-									);
-						if(this.bedGraph)
-							{
-							pw.print(ssr.getSequenceName());
-							pw.print('\t');
-							pw.print(start0);
-							pw.print('\t');
-							pw.print(start0+this.window_span);
-							pw.print('\t');
-							}
-						
-						pw.printf(this.printfFormat,percentile_value);
-	 					pw.print('\n');
-		 				
-		 				if(pw.checkError()) break;
-		 				start0 += this.win_shift;
-						}
-					array = null;
-					System.gc();
+					sweep.advance(ssr.getSequenceLength()+1, windowPrinter);
+					windowPrinter.finish();
+					windowPrinter = null;
 					ssr = null;
 					}
 				if(rec==null) break;
@@ -612,22 +678,158 @@ public class Bam2Wig extends Launcher
 				}
 			if(ssr==null)
 				{
-				System.gc();
 				ssr=dict.getSequence(rec.getReferenceIndex());
 				Objects.requireNonNull(ssr);
-				LOG.info("Allocating int["+ssr.getSequenceLength()+"]");
-				array=new int[ssr.getSequenceLength()];
-				LOG.info("Allocating : Done.");
-				Arrays.fill(array, 0);
+				sweep.reset(1);
+				windowPrinter = new WindowPrinter(pw, ssr,
+						getFirstWindow0(interval),
+						getEndWindow0(ssr,interval),
+						true,
+						aggregator, percentile);
 				}
-			aggregator.visit(array, rec);
-			
+			sweep.advance(aggregator.getMinimalPosition(rec), windowPrinter);
+			aggregator.visit(sweep, rec);
 			}
 		progess.finish();
 		iter.close();
 		pw.flush();
 		}
 	
+	/** a set of consecutive windows of a contig, processed by one worker in the parallel mode */
+	private class Chunk
+		{
+		final SAMSequenceRecord ssr;
+		final int firstWindow0;
+		final int endWindow0;
+		final boolean firstChunk;
+		final File tmpFile;
+		Future<Boolean> result = null;
+		Chunk(final SAMSequenceRecord ssr,final int firstWindow0,final int endWindow0,final boolean firstChunk) throws IOException {
+			this.ssr = ssr;
+			this.firstWindow0 = firstWindow0;
+			this.endWindow0 = endWindow0;
+			this.firstChunk = firstChunk;
+			this.tmpFile = File.createTempFile("bam2wig.", ".txt", IOUtils.getDefaultTmpDir());
+			}
+		/** end of the positions needed to compute the last window, 1-based inclusive */
+		int getLastPosition() {
+			final int lastWindow0 = this.firstWindow0 + ((this.endWindow0 - 1 - this.firstWindow0)/win_shift)*win_shift;
+			return (int)Math.min(this.ssr.getSequenceLength(), (long)lastWindow0 + window_span);
+			}
+		/** write the windows of this chunk in the temporary file. Returns true if a read was found */
+		boolean call(final List<File> samFiles,final Interval interval) throws IOException {
+			final SamReaderFactory srf=SamReaderFactory.makeDefault().validationStringency(htsjdk.samtools.ValidationStringency.LENIENT);
+			final List<SamReader> samReaders = new ArrayList<>(samFiles.size());
+			final Map<SamReader,CloseableIterator<SAMRecord>> reader2iter= new HashMap<>();
+			try(PrintWriter pw = new PrintWriter(IOUtils.openFileForWriting(this.tmpFile))) {
+				for(final File bamFile: samFiles) {
+					final SamReader sr = srf.open(bamFile);
+					samReaders.add(sr);
+					reader2iter.put(sr, sr.queryOverlapping(this.ssr.getSequenceName(), this.firstWindow0+1, getLastPosition()));
+					}
+				final SamFileHeaderMerger mergedheader = new SamFileHeaderMerger(
+						SAMFileHeader.SortOrder.coordinate,
+						samReaders.stream().map(SR->SR.getFileHeader()).collect(Collectors.toList()),
+						false
+						);
+				final Aggregator aggregator = createAggregator(mergedheader.getMergedHeader());
+				final DepthSweep sweep = new DepthSweep(aggregator.getSampleCount());
+				final WindowPrinter windowPrinter = new WindowPrinter(pw, this.ssr,
+						this.firstWindow0, this.endWindow0, this.firstChunk,
+						aggregator, Percentile.of(percentilType));
+				sweep.reset(this.firstWindow0+1);
+				boolean found = false;
+				try(CloseableIterator<SAMRecord> iter = new MergingSamRecordIterator(mergedheader, reader2iter, true)) {
+					while(iter.hasNext()) {
+						final SAMRecord rec = iter.next();
+						if(rec.getReadUnmappedFlag()) continue;
+						if(samRecordFilter.filterOut(rec)) continue;
+						if(interval!=null && !interval.overlaps(rec)) continue;
+						found = true;
+						sweep.advance(aggregator.getMinimalPosition(rec), windowPrinter);
+						aggregator.visit(sweep, rec);
+						}
+					}
+				sweep.advance(getLastPosition()+1, windowPrinter);
+				windowPrinter.finish();
+				pw.flush();
+				if(pw.checkError()) throw new IOException("cannot write "+this.tmpFile);
+				return found;
+				}
+			finally
+				{
+				CloserUtil.close(reader2iter.values());
+				CloserUtil.close(samReaders);
+				}
+			}
+		}
+	
+	/** parallel mode: the chunks are processed by 'nThreads' workers and their outputs are concatenated in the order of the dictionary */
+	private void runParallel(
+			final PrintWriter pw,
+			final List<File> samFiles,
+			final SAMSequenceDictionary dict,
+			final Interval interval // may be null
+			) throws Exception
+		{
+		final List<Chunk> chunks = new ArrayList<>();
+		ExecutorService executor = null;
+		try
+			{
+			for(final SAMSequenceRecord ssr: dict.getSequences())
+				{
+				final int first0 = getFirstWindow0(interval);
+				final int end0 = getEndWindow0(ssr, interval);
+				/* clipped bases are outside the alignment of the reads and can't be fetched by an index query: don't split the contigs */
+				final long step = this.chunk_size<1 || this.whatDisplay.equals(WHAT.CLIPPING)?
+						Integer.MAX_VALUE:
+						Math.max(1, this.chunk_size/this.win_shift)*(long)this.win_shift;
+				for(long w0=first0; w0 < end0; w0 += step)
+					{
+					chunks.add(new Chunk(ssr, (int)w0, (int)Math.min(end0, w0+step), w0==first0));
+					}
+				}
+			LOG.info("processing "+chunks.size()+" chunk(s) with "+this.nThreads+" threads");
+			executor = Executors.newFixedThreadPool(this.nThreads);
+			for(final Chunk chunk: chunks)
+				{
+				chunk.result = executor.submit(()->chunk.call(samFiles, interval));
+				}
+			executor.shutdown();
+			
+			int i=0;
+			while(i< chunks.size())
+				{
+				/* chunks of the same contig. A contig without read is not printed, like in the serial mode */
+				int j=i+1;
+				while(j< chunks.size() && chunks.get(j).ssr==chunks.get(i).ssr) j++;
+				boolean found = false;
+				for(int k=i;k<j;k++) {
+					if(chunks.get(k).result.get()) found=true;
+					}
+				for(int k=i;k<j;k++) {
+					final File tmpFile = chunks.get(k).tmpFile;
+					if(found) IOUtils.copyTo(tmpFile, pw);
+					tmpFile.delete();
+					}
+				if(pw.checkError()) break;
+				i=j;
+				}
+			pw.flush();
+			}
+		catch(final ExecutionException err)
+			{
+			final Throwable cause = err.getCause();
+			if(cause instanceof Exception) throw (Exception)cause;
+			throw err;
+			}
+		finally
+			{
+			if(executor!=null) executor.shutdownNow();
+			for(final Chunk chunk: chunks) chunk.tmpFile.delete();
+			}
+		}
+	
 	@Override
 	public int doWork(final List<String> args) {
 			if(this.win_shift<=0) {
@@ -639,6 +841,7 @@ public class Bam2Wig extends Launcher
 				return -1;
 			}
 			final Interval interval;
+			SAMFileHeader header = null;
 			PrintWriter pw = null;
 			CloseableIterator<SAMRecord> samRecordIterator = null;
 			final List<SamReader> samReaders = new ArrayList<>();
@@ -647,6 +850,61 @@ public class Bam2Wig extends Launcher
 				{
 				final SamReaderFactory srf=SamReaderFactory.makeDefault().validationStringency(htsjdk.samtools.ValidationStringency.LENIENT);
 				
+				if(this.nThreads>1)
+					{
+					if(args.isEmpty()) {
+						LOG.error("parallel mode requires indexed BAM files, not stdin");
+						return -1;
+						}
+					final List<File> samFiles = unrollSamFiles(args);
+					if(samFiles.isEmpty()) {
+						LOG.error("No Input SAM file");
+						return -1;
+						}
+					SAMSequenceDictionary dict0 = null;
+					for(final File bamFile: samFiles)
+						{
+						try(SamReader sr = srf.open(bamFile)) {
+							if(!sr.hasIndex()) {
+								LOG.error("parallel mode requires indexed BAM files: "+bamFile);
+								return -1;
+								}
+							if(sr.getFileHeader().getSortOrder()!=SAMFileHeader.SortOrder.coordinate) {
+								LOG.error("one of your bam input is not sorted on coordinate");
+								return -1;
+								}
+							final SAMSequenceDictionary dicti = sr.getFileHeader().getSequenceDictionary();
+							if(dicti==null || dicti.isEmpty()) throw new JvarkitException.DictionaryMissing(bamFile.getPath());
+							if(dict0==null) {
+								dict0 = dicti;
+								}
+							else if(!SequenceUtil.areSequenceDictionariesEqual(dicti, dict0)) {
+								throw new JvarkitException.DictionariesAreNotTheSame(dict0,dicti);
+								}
+							}
+						}
+					if(StringUtil.isBlank(this.region_str))
+						{
+						interval = null;
+						}
+					else
+						{
+						interval = new IntervalParser(dict0).
+							setContigNameIsWholeContig(true).
+							parse(region_str);
+						if(interval==null) 
+							{
+							LOG.error("Cannot parse interval "+this.region_str);
+							return -1;
+							}
+						}
+					pw = openFileOrStdoutAsPrintWriter(this.outputFile);
+					printCustomTrack(pw);
+					runParallel(pw, samFiles, dict0, interval);
+					pw.flush();
+					return RETURN_OK;
+					}
+				
 				if(args.isEmpty())
 					{
 					if(!StringUtil.isBlank(region_str)) {
@@ -686,15 +944,7 @@ public class Bam2Wig extends Launcher
 					}
 				else
 					{
-					final List<File> samFiles;
-					if(args.size()==1 && args.get(0).endsWith(".list"))
-						{
-						samFiles = IOUtils.unrollFile(new File(args.get(0)));
-						}
-					else
-						{
-						samFiles = args.stream().map(S->new File(S)).collect(Collectors.toList());
-						}
+					final List<File> samFiles = unrollSamFiles(args);
 					if(samFiles.isEmpty()) {
 						LOG.error("No Input SAM file");
 						return -1;
@@ -751,6 +1001,7 @@ public class Bam2Wig extends Launcher
 						}
 					merginIterators.addAll(reader2iter.values());
 					samRecordIterator = new MergingSamRecordIterator(mergedheader, reader2iter, true);
+					header = mergedheader.getMergedHeader();
 					}
 				
 				for(final SamReader sr:samReaders)
@@ -761,11 +1012,11 @@ public class Bam2Wig extends Launcher
 						}
 					}
 				pw = openFileOrStdoutAsPrintWriter(this.outputFile);
-				
+				printCustomTrack(pw);
 				run(
 					pw,
 					samRecordIterator,
-					samReaders.get(0).getFileHeader().getSequenceDictionary(),
+					header==null?samReaders.get(0).getFileHeader():header,
 					interval
 					);
 				samRecordIterator.close();
@@ -0,0 +1,118 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.bam2wig;
+
+import java.io.File;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.util.bio.samfilter.SamFilterParser;
+import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+import com.github.lindenb.jvarkit.util.jcommander.Program;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.filter.SamRecordFilter;
+import htsjdk.samtools.util.CloserUtil;
+
+/**
+BEGIN_DOC
+
+## Motivation
+
+Pre-computes a multi-resolution summary of the depth (mean, min, max) of a coordinate-sorted BAM.
+The file is saved next to the BAM with the suffix `.cvp` .
+The first level contains bins of `--bin` bases, each next level groups 16 bins of the previous level.
+
+This file is used by `tviewserver`, `projectserver` and `lowresbam2raster` to display the coverage
+of large regions without scanning the reads.
+
+## Example
+
+```
+$ java -jar dist/bamcoveragepyramid.jar input1.bam input2.bam
+$ ls input1.bam.cvp input2.bam.cvp
+input1.bam.cvp input2.bam.cvp
+```
+
+END_DOC
+ */
+@Program(name="bamcoveragepyramid",
+	description="Pre-computes a multi-resolution coverage summary of BAM files for zoomed-out views.",
+	keywords={"bam","coverage","depth","visualization"}
+	)
+public class BamCoveragePyramid extends Launcher {
+	private static final Logger LOG = Logger.build(BamCoveragePyramid.class).make();
+	
+	@Parameter(names={"-o","--output"},description="Output file. Only valid when there is one BAM. Default is the path of the BAM with the suffix '"+CoveragePyramid.SUFFIX+"'.")
+	private File outputFile = null;
+	@Parameter(names={"-b","--bin"},description="Size of the bins of the finest level.")
+	private int binSize = CoveragePyramid.DEFAULT_BIN_SIZE;
+	@Parameter(names={"--filter"},description=SamFilterParser.FILTER_DESCRIPTION,converter=SamFilterParser.StringConverter.class)
+	private SamRecordFilter samRecordFilter = SamFilterParser.buildDefault();
+	
+	@Override
+	public int doWork(final List<String> args) {
+		if(this.binSize<1) {
+			LOG.error("bad bin size");
+			return -1;
+			}
+		try {
+			final List<File> bams = IOUtils.unrollFiles(args).stream().map(F->new File(F)).collect(Collectors.toList());
+			if(bams.isEmpty()) {
+				LOG.error("no BAM was defined");
+				return -1;
+				}
+			if(this.outputFile!=null && bams.size()!=1) {
+				LOG.error("option --output can only be used with one BAM");
+				return -1;
+				}
+			for(final File bam: bams) {
+				final File out = (this.outputFile==null?CoveragePyramid.getPyramidFile(bam):this.outputFile);
+				LOG.info("building "+out);
+				SamReader sr = null;
+				try {
+					sr = super.openSamReader(bam.getPath());
+					CoveragePyramid.build(sr, out, this.binSize, R->!this.samRecordFilter.filterOut(R));
+					}
+				finally
+					{
+					CloserUtil.close(sr);
+					}
+				}
+			return 0;
+			}
+		catch(final Exception err) {
+			LOG.error(err);
+			return -1;
+			}
+		}
+	
+	public static void main(final String[] args) {
+		new BamCoveragePyramid().instanceMainWithExit(args);
+		}
+	}
@@ -0,0 +1,402 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.bam2wig;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import com.github.lindenb.jvarkit.lang.JvarkitException;
+
+import htsjdk.samtools.AlignmentBlock;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Locatable;
+
+/**
+ * Multi-resolution depth summary of a BAM file, in the spirit of IGV's '.tdf' files.
+ * For each contig, level 0 contains the mean/min/max depth in bins of 'baseBinSize' bases,
+ * each next level groups ZOOM_FACTOR bins of the previous level, until one bin covers the whole contig.
+ * The file is stored next to the BAM (<code>file.bam.cvp</code>) and the levels are memory-mapped.
+ * 
+ * Layout (big-endian):
+ * <pre>
+ * int MAGIC, int baseBinSize, int zoomFactor, int nContigs
+ * for each contig: UTF name, int length, int nLevels, for each level: long offset, int binSize, int nBins
+ * for each contig, for each level, for each bin: float mean, int min, int max
+ * </pre>
+ */
+public class CoveragePyramid implements Closeable {
+	/** suffix of the pyramid file, appended to the path of the BAM */
+	public static final String SUFFIX = ".cvp";
+	public static final int DEFAULT_BIN_SIZE = 64;
+	public static final int ZOOM_FACTOR = 16;
+	private static final int MAGIC = 0x43565031;/* CVP1 */
+	private static final int BYTES_PER_BIN = 12;
+	
+	/** the depth summary of a genomic bin */
+	public static class Bin implements Locatable {
+		private final String contig;
+		private final int start;
+		private final int end;
+		private final float mean;
+		private final int min;
+		private final int max;
+		Bin(final String contig,int start,int end,float mean,int min,int max) {
+			this.contig = contig;
+			this.start = start;
+			this.end = end;
+			this.mean = mean;
+			this.min = min;
+			this.max = max;
+			}
+		@Override
+		public String getContig() { return this.contig; }
+		@Override
+		public int getStart() { return this.start; }
+		@Override
+		public int getEnd() { return this.end; }
+		public float getMean() { return this.mean; }
+		public int getMin() { return this.min; }
+		public int getMax() { return this.max; }
+		@Override
+		public String toString() {
+			return this.contig+":"+this.start+"-"+this.end+" mean:"+this.mean+" min:"+this.min+" max:"+this.max;
+			}
+		}
+	
+	private static class Level {
+		final long offset;
+		final int binSize;
+		final int nBins;
+		MappedByteBuffer buffer = null;
+		Level(final long offset,final int binSize,final int nBins) {
+			this.offset = offset;
+			this.binSize = binSize;
+			this.nBins = nBins;
+			}
+		}
+	
+	private static class ContigInfo {
+		final String name;
+		final int length;
+		final List<Level> levels = new ArrayList<>();
+		ContigInfo(final String name,final int length) {
+			this.name = name;
+			this.length = length;
+			}
+		}
+	
+	private final File file;
+	private final RandomAccessFile randomAccessFile;
+	private final FileChannel channel;
+	private final int baseBinSize;
+	private final Map<String,ContigInfo> contigs = new LinkedHashMap<>();
+	
+	/** open an existing pyramid file */
+	public CoveragePyramid(final File file) throws IOException {
+		this.file = file;
+		this.randomAccessFile = new RandomAccessFile(file, "r");
+		this.channel = this.randomAccessFile.getChannel();
+		try {
+			final DataInputStream in = new DataInputStream(Channels.newInputStream(this.channel));
+			if(in.readInt()!=MAGIC) throw new IOException("Not a coverage pyramid file: "+file);
+			this.baseBinSize = in.readInt();
+			final int zoom = in.readInt();
+			if(zoom!=ZOOM_FACTOR) throw new IOException("Unsupported zoom factor "+zoom+" in "+file);
+			final int nContigs = in.readInt();
+			for(int i=0;i< nContigs;++i) {
+				final ContigInfo ci = new ContigInfo(in.readUTF(), in.readInt());
+				final int nLevels = in.readInt();
+				for(int j=0;j< nLevels;++j) {
+					ci.levels.add(new Level(in.readLong(), in.readInt(), in.readInt()));
+					}
+				this.contigs.put(ci.name, ci);
+				}
+			}
+		catch(final IOException err) {
+			CloserUtil.close(this.randomAccessFile);
+			throw err;
+			}
+		}
+	
+	/** @return the pyramid file associated to a BAM */
+	public static File getPyramidFile(final File bamFile) {
+		return new File(bamFile.getPath()+SUFFIX);
+		}
+	
+	/** @return the pyramid associated to the BAM, or null if there is no pyramid or if it is older than the BAM */
+	public static CoveragePyramid openIfExists(final File bamFile) throws IOException {
+		final File f = getPyramidFile(bamFile);
+		if(!f.exists() || !f.isFile() || f.lastModified() < bamFile.lastModified()) return null;
+		return new CoveragePyramid(f);
+		}
+	
+	public File getFile() {
+		return this.file;
+		}
+	
+	public int getBaseBinSize() {
+		return this.baseBinSize;
+		}
+	
+	public boolean hasContig(final String contig) {
+		return this.contigs.containsKey(contig);
+		}
+	
+	private synchronized MappedByteBuffer getBuffer(final Level level) throws IOException {
+		if(level.buffer==null) {
+			level.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, level.offset, (long)level.nBins*BYTES_PER_BIN);
+			}
+		return level.buffer;
+		}
+	
+	/**
+	 * get the bins overlapping the region at the finest resolution having at most 'maxBins' bins.
+	 * @return the bins, or an empty list if the contig is not in the pyramid.
+	 */
+	public List<Bin> query(final String contig,final int start,final int end,final int maxBins) throws IOException {
+		final ContigInfo ci = this.contigs.get(contig);
+		if(ci==null || ci.levels.isEmpty()) return Collections.emptyList();
+		final int start1 = Math.max(1, start);
+		final int end1 = Math.min(ci.length, end);
+		if(start1 > end1) return Collections.emptyList();
+		Level level = ci.levels.get(ci.levels.size()-1);
+		for(final Level L: ci.levels) {
+			final int n = (end1-1)/L.binSize - (start1-1)/L.binSize + 1;
+			if(n <= Math.max(1, maxBins)) {
+				level = L;
+				break;
+				}
+			}
+		final MappedByteBuffer buffer = getBuffer(level);
+		final int firstBin = (start1-1)/level.binSize;
+		final int lastBin = Math.min(level.nBins-1, (end1-1)/level.binSize);
+		final List<Bin> bins = new ArrayList<>(lastBin-firstBin+1);
+		for(int i=firstBin;i<=lastBin;++i) {
+			final int offset = i*BYTES_PER_BIN;
+			bins.add(new Bin(
+				ci.name,
+				i*level.binSize+1,
+				Math.min(ci.length,(i+1)*level.binSize),
+				buffer.getFloat(offset),
+				buffer.getInt(offset+4),
+				buffer.getInt(offset+8)
+				));
+			}
+		return bins;
+		}
+	
+	/** @see #query(String, int, int, int) */
+	public List<Bin> query(final Locatable loc,final int maxBins) throws IOException {
+		return query(loc.getContig(), loc.getStart(), loc.getEnd(), maxBins);
+		}
+	
+	@Override
+	public void close() {
+		CloserUtil.close(this.channel);
+		CloserUtil.close(this.randomAccessFile);
+		}
+	
+	/** number of bins of each level for a contig */
+	private static int[] levelBinSizes(final int length,final int baseBinSize) {
+		final List<Integer> sizes = new ArrayList<>();
+		long binSize = baseBinSize;
+		for(;;) {
+			sizes.add((int)binSize);
+			if(binSize >= length || binSize*ZOOM_FACTOR > Integer.MAX_VALUE) break;
+			binSize *= ZOOM_FACTOR;
+			}
+		return sizes.stream().mapToInt(I->I).toArray();
+		}
+	
+	/** write the header, with the offsets of the levels computed from 'dataStart' */
+	private static byte[] createHeader(final SAMSequenceDictionary dict,final int baseBinSize,final long dataStart) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(baos);
+		out.writeInt(MAGIC);
+		out.writeInt(baseBinSize);
+		out.writeInt(ZOOM_FACTOR);
+		out.writeInt(dict.size());
+		long offset = dataStart;
+		for(final SAMSequenceRecord ssr: dict.getSequences()) {
+			out.writeUTF(ssr.getSequenceName());
+			out.writeInt(ssr.getSequenceLength());
+			final int binSizes[] = levelBinSizes(ssr.getSequenceLength(), baseBinSize);
+			out.writeInt(binSizes.length);
+			for(final int binSize : binSizes) {
+				final int nBins = (int)(((long)ssr.getSequenceLength()+binSize-1)/binSize);
+				out.writeLong(offset);
+				out.writeInt(binSize);
+				out.writeInt(nBins);
+				offset += (long)nBins*BYTES_PER_BIN;
+				}
+			}
+		out.flush();
+		return baos.toByteArray();
+		}
+	
+	/** accumulates the depth of one contig in bins of the first level */
+	private static class ContigAccumulator implements DepthSweep.Consumer {
+		final int length;
+		final int binSize;
+		final long sums[];
+		final int mins[];
+		final int maxs[];
+		ContigAccumulator(final int length,final int binSize) {
+			this.length = length;
+			this.binSize = binSize;
+			final int nBins = (int)(((long)length+binSize-1)/binSize);
+			this.sums = new long[nBins];
+			this.mins = new int[nBins];
+			this.maxs = new int[nBins];
+			Arrays.fill(this.mins, Integer.MAX_VALUE);
+			}
+		@Override
+		public void accept(final int pos1,final int[] depths,final int offset) {
+			if(pos1 > this.length) return;
+			final int bin = (pos1-1)/this.binSize;
+			final int d = depths[offset];
+			this.sums[bin] += d;
+			if(d < this.mins[bin]) this.mins[bin] = d;
+			if(d > this.maxs[bin]) this.maxs[bin] = d;
+			}
+		/** write all the levels, each one is built from the previous one */
+		void write(final DataOutputStream out) throws IOException {
+			long sums[] = this.sums;
+			int mins[] = this.mins;
+			int maxs[] = this.maxs;
+			for(final int binSize : levelBinSizes(this.length, this.binSize)) {
+				if(binSize != this.binSize) {
+					final int n = (int)(((long)this.length+binSize-1)/binSize);
+					final long sums2[] = new long[n];
+					final int mins2[] = new int[n];
+					final int maxs2[] = new int[n];
+					Arrays.fill(mins2, Integer.MAX_VALUE);
+					for(int i=0;i< sums.length;++i) {
+						final int j = i/ZOOM_FACTOR;
+						sums2[j] += sums[i];
+						mins2[j] = Math.min(mins2[j], mins[i]);
+						maxs2[j] = Math.max(maxs2[j], maxs[i]);
+						}
+					sums = sums2;
+					mins = mins2;
+					maxs = maxs2;
+					}
+				for(int i=0;i< sums.length;++i) {
+					final long binStart = (long)i*binSize;
+					final long nBases = Math.min(this.length, binStart+binSize) - binStart;
+					out.writeFloat((float)(sums[i]/(double)nBases));
+					out.writeInt(mins[i]==Integer.MAX_VALUE?0:mins[i]);
+					out.writeInt(maxs[i]);
+					}
+				}
+			}
+		}
+	
+	/**
+	 * build the pyramid of a coordinate-sorted BAM.
+	 * @param samReader the BAM
+	 * @param out the output file, usually {@link #getPyramidFile(File)}
+	 * @param baseBinSize size of the bins of the first level
+	 * @param acceptRead the reads that are counted
+	 */
+	public static void build(
+			final SamReader samReader,
+			final File out,
+			final int baseBinSize,
+			final Predicate<SAMRecord> acceptRead
+			) throws IOException
+		{
+		if(baseBinSize<1) throw new IllegalArgumentException("bin size < 1");
+		final SAMFileHeader header = samReader.getFileHeader();
+		final SAMSequenceDictionary dict = header.getSequenceDictionary();
+		if(dict==null || dict.isEmpty()) throw new JvarkitException.BamDictionaryMissing(String.valueOf(samReader.getResourceDescription()));
+		if(!header.getSortOrder().equals(SAMFileHeader.SortOrder.coordinate)) {
+			throw new JvarkitException.UserError("input is not sorted on coordinate: "+samReader.getResourceDescription());
+			}
+		final int headerSize = createHeader(dict, baseBinSize, 0L).length;
+		final File tmp = new File(out.getPath()+".tmp");
+		DataOutputStream dos = null;
+		SAMRecordIterator iter = null;
+		try {
+			dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1_000_000));
+			dos.write(createHeader(dict, baseBinSize, headerSize));
+			final DepthSweep sweep = new DepthSweep(1);
+			iter = samReader.iterator();
+			SAMRecord rec = iter.hasNext()?iter.next():null;
+			for(final SAMSequenceRecord ssr: dict.getSequences()) {
+				final ContigAccumulator acc = new ContigAccumulator(ssr.getSequenceLength(), baseBinSize);
+				sweep.reset(1);
+				/* an unmapped read can be placed on the contig of its mate: skip it but keep on reading */
+				while(rec!=null && rec.getReferenceIndex()==ssr.getSequenceIndex()) {
+					if(!rec.getReadUnmappedFlag() && acceptRead.test(rec)) {
+						sweep.advance(rec.getAlignmentStart(), acc);
+						for(final AlignmentBlock block: rec.getAlignmentBlocks()) {
+							sweep.increment(0, block.getReferenceStart(), block.getLength());
+							}
+						}
+					rec = iter.hasNext()?iter.next():null;
+					}
+				sweep.advance(ssr.getSequenceLength()+1, acc);
+				acc.write(dos);
+				}
+			iter.close();
+			iter = null;
+			dos.flush();
+			dos.close();
+			dos = null;
+			if(out.exists() && !out.delete()) throw new IOException("Cannot delete "+out);
+			if(!tmp.renameTo(out)) throw new IOException("Cannot rename "+tmp+" to "+out);
+			}
+		finally
+			{
+			CloserUtil.close(iter);
+			CloserUtil.close(dos);
+			if(tmp.exists()) tmp.delete();
+			}
+		}
+	}
@@ -0,0 +1,125 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.bam2wig;
+
+import java.util.Arrays;
+
+/**
+ * Sweep-line depth counter.
+ * A ring buffer of primitive counters (one per sample and per position) covers the positions
+ * between the next position to be emitted and the end of the longest pending read.
+ * The memory depends on the span of the reads, not on the length of the chromosome.
+ */
+class DepthSweep {
+	/** receives the depth of each sample at a position: depths[offset] to depths[offset+getSampleCount()-1] */
+	interface Consumer {
+		void accept(int pos1, int depths[], int offset);
+		}
+	private final int nSamples;
+	private final int zeros[];
+	/** capacity in positions, always a power of 2 */
+	private int capacity;
+	/** counters, position-major: [(pos1 &amp; (capacity-1)) * nSamples + sample] */
+	private int counts[];
+	/** next position to be emitted */
+	private int next1 = 1;
+	/** end (exclusive) of the positions having a counter */
+	private int end1 = 1;
+	
+	DepthSweep(final int nSamples) {
+		this(nSamples, 1024);
+		}
+	
+	DepthSweep(final int nSamples,final int initialCapacity) {
+		if(nSamples<1) throw new IllegalArgumentException("nSamples<1 :"+nSamples);
+		this.nSamples = nSamples;
+		this.zeros = new int[nSamples];
+		this.capacity = Integer.highestOneBit(Math.max(16, initialCapacity - 1)) << 1;
+		this.counts = new int[this.capacity * nSamples];
+		}
+	
+	int getSampleCount() {
+		return this.nSamples;
+		}
+	
+	/** next position to be emitted */
+	int getNextPosition() {
+		return this.next1;
+		}
+	
+	/** clear the counters, the next position to be emitted will be pos1 */
+	void reset(final int pos1) {
+		Arrays.fill(this.counts, 0);
+		this.next1 = pos1;
+		this.end1 = pos1;
+		}
+	
+	/** add 1 to the depth of 'sample' for the positions [start1, start1+length[ . Positions already emitted are ignored. */
+	void increment(final int sample,final int start1,final int length) {
+		final int begin = Math.max(start1, this.next1);
+		final int stop = start1 + length;
+		if(begin >= stop) return;
+		ensureCapacity(stop);
+		final int mask = this.capacity - 1;
+		for(int p = begin; p < stop; ++p) {
+			this.counts[(p & mask) * this.nSamples + sample]++;
+			}
+		if(stop > this.end1) this.end1 = stop;
+		}
+	
+	private void ensureCapacity(final int stop1) {
+		if(stop1 - this.next1 <= this.capacity) return;
+		int newCapacity = this.capacity;
+		while(stop1 - this.next1 > newCapacity) newCapacity <<= 1;
+		final int newCounts[] = new int[newCapacity * this.nSamples];
+		for(int p = this.next1; p < this.end1; ++p) {
+			System.arraycopy(
+				this.counts, (p & (this.capacity-1)) * this.nSamples,
+				newCounts, (p & (newCapacity-1)) * this.nSamples,
+				this.nSamples
+				);
+			}
+		this.capacity = newCapacity;
+		this.counts = newCounts;
+		}
+	
+	/** emit all the positions before pos1, including those without coverage, and release their counters */
+	void advance(final int pos1,final Consumer consumer) {
+		final int mask = this.capacity - 1;
+		while(this.next1 < pos1) {
+			if(this.next1 < this.end1) {
+				final int offset = (this.next1 & mask) * this.nSamples;
+				consumer.accept(this.next1, this.counts, offset);
+				Arrays.fill(this.counts, offset, offset + this.nSamples, 0);
+				}
+			else
+				{
+				consumer.accept(this.next1, this.zeros, 0);
+				}
+			this.next1++;
+			}
+		if(this.end1 < this.next1) this.end1 = this.next1;
+		}
+	}
@@ -69,7 +69,7 @@ public class BamIndexReadNames
 	extends BaseBamIndexReadNames
 	{
 	private static final Logger LOG=Logger.build(BamIndexReadNames.class).make();
-	private BamIndexReadNames()
+	BamIndexReadNames()
 		{
 		
 		}
@@ -29,6 +29,7 @@ History:
 
 package com.github.lindenb.jvarkit.tools.bamindexnames;
 
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMRecord;
@@ -42,11 +43,13 @@ import htsjdk.tribble.readers.LineIterator;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
@@ -89,6 +92,12 @@ $ cat list.notfound
 ZZZZ:X
 ```
 
+With `--batch`, the names are sorted and the whole list is resolved in one pass over the index. The reads are then written in coordinate order, and a read matched by several lines of the list is written only once.
+
+```bash
+$ java -jar dist/bamqueryreadnames.jar --batch -N list.notfound -o out.bam input.bam read.names
+```
+
 
  
  END_DOC
@@ -106,76 +115,246 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 	@Parameter(names={"-N"},description=" save unmatched names here")
 	private File notFoundFile=null;
 
+	@Parameter(names={"--batch"},description="[20181016] Batch mode: load all the read names, sort them and sweep the index in one pass. "
+			+ "The BAM is then scanned once in coordinate order with one query for all the loci of each contig, so each block is decompressed only once. "
+			+ "The reads are written in coordinate order and not in the order of the user's list. A read matched by several names is written only once.")
+	private boolean batch_mode=false;
+
 	@ParametersDelegate
 	private WritingBamArgs writingBamArgs=new WritingBamArgs();
 	
-	private RandomAccessFile raf;
-	private NameIndexDef indexDef;
+	private NameIndex nameIndex;
 
-	private BamQueryReadNames()
+	/** a line of the user's list */
+	private static class Query
 		{
+		final String line;
+		final String name;
+		final byte key[];
+		/** forward or reverse is specified: 1, 2 or -1 */
+		final int side;
+		boolean found=false;
+		Query(final String line)
+			{
+			this.line=line;
+			if(line.endsWith("/1"))
+				{
+				this.side=1;
+				this.name=line.substring(0, line.length()-2);
+				}
+			else if(line.endsWith("/2"))
+				{
+				this.side=2;
+				this.name=line.substring(0, line.length()-2);
+				}
+			else
+				{
+				this.side=-1;
+				this.name=line;
+				}
+			this.key = NameIndex.toKey(this.name);
+			}
+		boolean accept(final SAMRecord rec)
+			{
+			if(!rec.getReadName().equals(this.name)) return false;
+			if(this.side==1 && !(rec.getReadPairedFlag() && rec.getFirstOfPairFlag()))
+				{
+				return false;
+				}
+			else if(this.side==2 && !(rec.getReadPairedFlag() && rec.getSecondOfPairFlag()))
+				{
+				return false;
+				}
+			return true;
+			}
 		}
 	
-	
-	
-	private NameAndPos getNameAndPosAt(long index)
-		throws IOException
+	BamQueryReadNames()
 		{
-		long fileoffset=FILE_PREFIX_SIZE//header
-					+ index*(this.indexDef.sizeOfNameAndPos());
-		
-		ByteBuffer byteBuff= ByteBuffer.allocate( indexDef.sizeOfNameAndPos());
-		this.raf.seek(fileoffset);
-		this.raf.readFully(byteBuff.array());
-		
-		NameAndPos nap=new NameAndPos();
-		
-		StringBuilder b=new StringBuilder(indexDef.maxNameLengt);
-		for(int i=0;i< indexDef.maxNameLengt && byteBuff.get(i)!=0;++i)
-			{
-			b.append((char)byteBuff.get(i));
-			}
-		nap.name=b.toString();
-		byteBuff.position( indexDef.maxNameLengt);
-		nap.tid=byteBuff.getInt();
-		nap.pos=byteBuff.getInt();
-		return nap;
-		
 		}
 	
-	private long lower_bound(long first, long last, final String readName) throws IOException
+	/** query the names one by one, in the order of the user's list */
+	private void queryOneByOne(
+			final LineIterator r,
+			final SamReader sfr,
+			final SAMFileWriter bamw,
+			final PrintWriter notFoundStream
+			)
 		{
-			long len = last-first;
-			while (len > 0)
+		final SAMFileHeader header = sfr.getFileHeader();
+		long iter_start = 0L;
+		
+		while(r.hasNext())
 			{
-				long half = len /2;
-				long middle = first + half;
-				String middle_s = getNameAndPosAt(middle).name;
-				
-				if (middle_s.compareTo(readName)<0)
+			final String line=r.next();
+			if(line.isEmpty() || line.startsWith("#")) continue;
+			final Query query = new Query(line);
+			
+			long index=this.nameIndex.lowerBound(
+					iter_start,
+					this.nameIndex.size(),
+					query.key
+					);
+			if(index>=this.nameIndex.size())
+				{
+				notFoundStream.println(line);
+				continue;
+				}
+			if(query_reads_is_sorted)
+				{
+				iter_start=index;
+				}
+			
+			final Set<SAMRecord> found=new LinkedHashSet<SAMRecord>();
+			while(index <this.nameIndex.size() && this.nameIndex.compare(index, query.key)==0)
+				{
+				final int tid = this.nameIndex.getTid(index);
+				final int pos = this.nameIndex.getPos(index);
+				final SAMRecordIterator iter;
+				if(tid<0)
 					{
-					first = middle;
-					++first;
-					len = len - half - 1;
+					iter=sfr.queryUnmapped();
 					}
 				else
 					{
-					len = half;
+					iter=sfr.query(
+						header.getSequence(tid).getSequenceName(),
+						pos,
+						0,
+						true
+						);
 					}
-				
+				while(iter.hasNext())
+					{
+					final SAMRecord rec=iter.next();
+					if(tid>=0)
+						{
+						if(tid!=rec.getReferenceIndex())throw new IllegalStateException();
 
+						if(rec.getAlignmentStart()< pos)
+							{
+							continue;
+							}
+						if(rec.getAlignmentStart()> pos)
+							{
+							break;
+							}
+						}
+					if(query.accept(rec))
+						{
+						found.add(rec);
+						}
+					}
+				iter.close();
+				
+				++index;
+				}
+			if(found.isEmpty())
+				{
+				notFoundStream.println(line);
 				}
-			return first;
+			else
+				{
+				for(final SAMRecord rec:found)
+					{
+					bamw.addAlignment(rec);
+					}
+				}
+			}
+		}
+	
+	/** sort the names, sweep the index once and scan the BAM in coordinate order */
+	private void queryBatch(
+			final LineIterator r,
+			final SamReader sfr,
+			final SAMFileWriter bamw,
+			final PrintWriter notFoundStream
+			)
+		{
+		final List<Query> queries = new ArrayList<>();
+		while(r.hasNext())
+			{
+			final String line=r.next();
+			if(line.isEmpty() || line.startsWith("#")) continue;
+			queries.add(new Query(line));
+			}
+		LOG.info("sorting "+queries.size()+" names");
+		final List<Query> sorted = new ArrayList<>(queries);
+		sorted.sort((A,B)->NameIndex.compareKeys(A.key, B.key));
+		
+		/* tid -> pos -> name -> queries. tid=-1 for the unmapped reads, sorted after the other contigs */
+		final Map<Integer,Map<Integer,Map<String,List<Query>>>> tid2pos = new TreeMap<>((A,B)->Integer.compareUnsigned(A, B));
+		long index = 0L;
+		int i=0;
+		while(i< sorted.size())
+			{
+			/* queries with the same name */
+			int j=i+1;
+			while(j< sorted.size() && NameIndex.compareKeys(sorted.get(i).key, sorted.get(j).key)==0) j++;
+			final List<Query> sameName = sorted.subList(i, j);
+			final Query first = sameName.get(0);
+			index = this.nameIndex.gallop(index, first.key);
+			while(index < this.nameIndex.size() && this.nameIndex.compare(index, first.key)==0)
+				{
+				final int tid = Math.max(-1,this.nameIndex.getTid(index));
+				tid2pos.computeIfAbsent(tid, T->new HashMap<>()).
+					computeIfAbsent(tid<0?0:this.nameIndex.getPos(index), P->new HashMap<>()).
+					computeIfAbsent(first.name, N->new ArrayList<>()).
+					addAll(sameName);
+				++index;
+				}
+			i=j;
+			}
+		
+		for(final Integer tid: tid2pos.keySet())
+			{
+			final Map<Integer,Map<String,List<Query>>> pos2names = tid2pos.get(tid);
+			final SAMRecordIterator iter;
+			if(tid<0)
+				{
+				iter = sfr.queryUnmapped();
+				}
+			else
+				{
+				/* one iterator for all the loci of this contig: the overlapping chunks of the BAM index are merged */
+				final QueryInterval intervals[] = pos2names.keySet().stream().
+						map(P->new QueryInterval(tid, P, P)).
+						toArray(N->new QueryInterval[N]);
+				iter = sfr.queryOverlapping(QueryInterval.optimizeIntervals(intervals));
+				}
+			while(iter.hasNext())
+				{
+				final SAMRecord rec=iter.next();
+				final Map<String,List<Query>> name2queries = pos2names.get(tid<0?0:rec.getAlignmentStart());
+				if(name2queries==null) continue;
+				final List<Query> candidates = name2queries.get(rec.getReadName());
+				if(candidates==null) continue;
+				boolean keep=false;
+				for(final Query q:candidates)
+					{
+					if(q.accept(rec))
+						{
+						q.found=true;
+						keep=true;
+						}
+					}
+				if(keep) bamw.addAlignment(rec);
+				}
+			iter.close();
+			}
+		
+		for(final Query q:queries)
+			{
+			if(!q.found) notFoundStream.println(q.line);
+			}
 		}
-
-
-
 	
 	@Override
 	public int doWork(final List<String> args) {
 		PrintWriter notFoundStream=new PrintWriter(new NullOuputStream());
 		SamReader sfr=null;
 		SAMFileWriter bamw=null;
+		LineIterator r=null;
 		try
 			{
 			if(!(2==args.size() ||1==args.size()))
@@ -184,24 +363,19 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 				return -1;
 				}
 			
-			if(this.notFoundFile==null)
+			if(this.notFoundFile!=null)
 				{
 				notFoundStream.close();
 				notFoundStream=openFileOrStdoutAsPrintWriter(notFoundFile);
 				}
 			
-			File bamFile=new File(args.get(0));
+			final File bamFile=new File(args.get(0));
 			sfr=SamReaderFactory.makeDefault().
 					validationStringency(ValidationStringency.SILENT).
 					open(bamFile);
-			File nameIdxFile=new File(bamFile.getParentFile(), bamFile.getName()+NAME_IDX_EXTENSION);
-			this.indexDef=new NameIndexDef();
-			this.raf=new RandomAccessFile(nameIdxFile, "r");
-			indexDef.countReads=raf.readLong();
-			indexDef.maxNameLengt=raf.readInt();
+			final File nameIdxFile=new File(bamFile.getParentFile(), bamFile.getName()+NAME_IDX_EXTENSION);
+			this.nameIndex = new NameIndex(nameIdxFile);
 			
-			
-			LineIterator r=null;
 			if(args.size()==2)
 				{
 				r=IOUtils.openURIForLineIterator(args.get(1));
@@ -210,126 +384,25 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 				{
 				r=IOUtils.openStdinForLineIterator();
 				}
-			SAMFileHeader header=sfr.getFileHeader().clone();
+			final SAMFileHeader header=sfr.getFileHeader().clone();
+			if(!this.batch_mode)
+				{
+				/* reads are written in the order of the user's list */
+				header.setSortOrder(SAMFileHeader.SortOrder.unsorted);
+				}
 			
 			bamw=writingBamArgs.openSAMFileWriter(this.outputFile, header, true);
 			
-			
-			long iter_start = 0L;
-			
-			while(r.hasNext())
+			if(this.batch_mode)
 				{
-				String line=r.next();
-				String searchRead=null;
-				int side=-1;
-				if(line.isEmpty() || line.startsWith("#")) continue;
-				
-				/* forward or reverse is specified ? */
-				if(line.endsWith("/1"))
-					{
-					side=1;
-					searchRead=line.substring(0, line.length()-2);
-					}
-				else if(line.endsWith("/2"))
-					{
-					side=2;
-					searchRead=line.substring(0, line.length()-2);
-					}
-				else
-					{
-					side=-1;
-					searchRead=line;
-					}	
-				long index=lower_bound(
-						iter_start,
-						this.indexDef.countReads,
-						searchRead
-						);
-				if(index>=this.indexDef.countReads)
-					{
-					notFoundStream.println(line);
-					continue;
-					}
-				if(query_reads_is_sorted)
-					{
-					iter_start=index;
-					}
-				
-				Set<SAMRecord> found=new LinkedHashSet<SAMRecord>();
-				while(index <this.indexDef.countReads )
-					{
-					NameAndPos nap=getNameAndPosAt(index);
-					if(nap.name.compareTo(searchRead)<0)
-						{
-						++index;
-						continue;
-						}
-					else if(nap.name.compareTo(searchRead)>0)
-						{
-						break;
-						}
-					SAMRecordIterator iter;
-					if(nap.tid<0)
-						{
-						iter=sfr.queryUnmapped();
-						}
-					else
-						{
-						iter=sfr.query(
-							header.getSequence(nap.tid).getSequenceName(),
-							nap.pos,
-							0,
-							true
-							);
-						}
-					while(iter.hasNext())
-						{
-						SAMRecord rec=iter.next();
-						if(nap.tid>=0)
-							{
-							if(nap.tid!=rec.getReferenceIndex())throw new IllegalStateException();
-
-							if(rec.getAlignmentStart()< nap.pos)
-								{
-								continue;
-								}
-							if(rec.getAlignmentStart()> nap.pos)
-								{
-								break;
-								}
-							}
-						if(rec.getReadName().equals(searchRead))
-							{
-							if(side==1 && !(rec.getReadPairedFlag() && rec.getFirstOfPairFlag()))
-								{
-								continue;
-								}
-							else if(side==2 && !(rec.getReadPairedFlag() && rec.getSecondOfPairFlag()))
-								{
-								continue;
-								}
-							found.add(rec);
-							}
-						
-						}
-					iter.close();
-					
-					++index;
-					}
-				if(found.isEmpty())
-					{
-					notFoundStream.println(line);
-					}
-				else
-					{
-					for(SAMRecord rec:found)
-						{
-						bamw.addAlignment(rec);
-						}
-					}
-				
+				queryBatch(r, sfr, bamw, notFoundStream);
+				}
+			else
+				{
+				queryOneByOne(r, sfr, bamw, notFoundStream);
 				}
 			CloserUtil.close(r);
+			r=null;
 			
 			notFoundStream.flush();
 			notFoundStream.close();notFoundStream=null;
@@ -342,8 +415,9 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 			}
 		finally
 			{
+			CloserUtil.close(r);
 			CloserUtil.close(notFoundStream);
-			CloserUtil.close(raf);
+			CloserUtil.close(this.nameIndex);
 			CloserUtil.close(sfr);
 			CloserUtil.close(bamw);
 			}
@@ -0,0 +1,133 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.bamindexnames;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import com.github.lindenb.jvarkit.io.MappedRecords;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
+
+/**
+ * Memory-mapped reader of the index created by BamIndexReadNames.
+ * The read names are compared as raw bytes, without creating a String for each probe.
+ */
+class NameIndex implements Closeable {
+	private final File file;
+	private final BaseBamIndexReadNames.NameIndexDef indexDef = new BaseBamIndexReadNames.NameIndexDef();
+	private final MappedRecords records;
+	
+	NameIndex(final File file) throws IOException {
+		this.file = file;
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			this.indexDef.countReads = raf.readLong();
+			this.indexDef.maxNameLengt = raf.readInt();
+			final int recordSize = this.indexDef.sizeOfNameAndPos();
+			if(raf.length() != BaseBamIndexReadNames.FILE_PREFIX_SIZE + this.indexDef.countReads * recordSize) {
+				throw new JvarkitException.FileFormatError("bad size for "+file+". Expected "+this.indexDef.countReads+" records of "+recordSize+" bytes.");
+				}
+			this.records = new MappedRecords(raf.getChannel(), BaseBamIndexReadNames.FILE_PREFIX_SIZE, this.indexDef.countReads, recordSize);
+			}
+		}
+	
+	/** number of reads in the index */
+	long size() {
+		return this.indexDef.countReads;
+		}
+	
+	/** convert a read name to the bytes stored in the index */
+	static byte[] toKey(final String readName) {
+		final byte key[] = new byte[readName.length()];
+		for(int i=0;i< key.length;++i) key[i] = (byte)readName.charAt(i);
+		return key;
+		}
+	
+	/** compare two keys as unsigned bytes, consistent with String.compareTo for ascii names */
+	static int compareKeys(final byte a[],final byte b[]) {
+		final int n = Math.min(a.length, b.length);
+		for(int i=0;i< n;++i) {
+			final int d = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if(d!=0) return d;
+			}
+		return a.length - b.length;
+		}
+	
+	/** compare the name of the index-th record with the key */
+	int compare(final long index,final byte key[]) {
+		final ByteBuffer buf = this.records.getBuffer(index);
+		final int off = this.records.getOffset(index);
+		for(int i=0;i< this.indexDef.maxNameLengt;++i) {
+			final int b = buf.get(off + i) & 0xFF;
+			if(b==0) return i==key.length ? 0 : -1;
+			if(i==key.length) return 1;
+			final int d = b - (key[i] & 0xFF);
+			if(d!=0) return d;
+			}
+		return this.indexDef.maxNameLengt - key.length;
+		}
+	
+	String getName(final long index) {
+		final ByteBuffer buf = this.records.getBuffer(index);
+		final int off = this.records.getOffset(index);
+		final StringBuilder b = new StringBuilder(this.indexDef.maxNameLengt);
+		for(int i=0;i< this.indexDef.maxNameLengt && buf.get(off+i)!=0;++i)
+			{
+			b.append((char)buf.get(off+i));
+			}
+		return b.toString();
+		}
+	
+	int getTid(final long index) {
+		return this.records.getInt(index, this.indexDef.maxNameLengt);
+		}
+	
+	int getPos(final long index) {
+		return this.records.getInt(index, this.indexDef.maxNameLengt + Integer.BYTES);
+		}
+	
+	/** index of the first record in [first,last[ with a name &gt;= key */
+	long lowerBound(final long first,final long last,final byte key[]) {
+		return MappedRecords.lowerBound(first, last, I->compare(I, key) < 0);
+		}
+	
+	/** same as lowerBound(from,size(),key) but the search first doubles its step from 'from': cheap when the key is close to 'from' */
+	long gallop(final long from,final byte key[]) {
+		if(from>=size()) return from;
+		return MappedRecords.gallop(from, size(), from, I->compare(I, key) < 0);
+		}
+	
+	@Override
+	public void close() {
+		this.records.close();
+		}
+	
+	@Override
+	public String toString() {
+		return this.file.getPath();
+		}
+	}
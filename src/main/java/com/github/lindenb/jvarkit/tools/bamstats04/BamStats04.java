@@ -25,22 +25,30 @@ SOFTWARE.
 package com.github.lindenb.jvarkit.tools.bamstats04;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.OptionalInt;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.function.IntUnaryOperator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
-import com.github.lindenb.jvarkit.math.stats.Percentile;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLine;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLineCodec;
 import com.github.lindenb.jvarkit.util.bio.fasta.ReferenceContig;
@@ -63,6 +71,7 @@ import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.filter.SamRecordFilter;
 
@@ -114,16 +123,148 @@ public class BamStats04 extends Launcher
 	
 	
 	
-	private static class IntervalStat
-		{	
-		private final BedLine bedLine;
-		private final int counts[];
-		IntervalStat(final BedLine bedLine) {
+	@Parameter(names={"--threads"},description="[20181016] Number of parallel workers. The BAM files are distributed among the workers, the BAM files sharing a '"+"partition' are processed by the same worker.")
+	private int nThreads = 1;
+	
+	private static final String NO_PARTITION="N/A";
+	/** two targets closer than this distance are fetched with the same query */
+	private static final int MERGE_DISTANCE = 1_000;
+	/** max length of the region fetched by a query */
+	private static final int MAX_BATCH_LENGTH = 1_000_000;
+	
+	/** a line of the BED file */
+	private static class Target
+		{
+		final BedLine bedLine;
+		final int tid;
+		/** index in the BED file, the targets are printed in this order */
+		final int index;
+		Target(final BedLine bedLine,final int tid,final int index) {
 			this.bedLine = bedLine;
-			this.counts=new int[bedLine.getEnd()-bedLine.getStart()+1];
-			Arrays.fill(this.counts, 0);
+			this.tid = tid;
+			this.index = index;
 			}
-		void visit(final SAMRecord rec) {
+		int getStart() { return this.bedLine.getStart();}
+		int getEnd() { return this.bedLine.getEnd();}
+		int length() { return this.bedLine.getEnd()-this.bedLine.getStart()+1;}
+		}
+	
+	/** consecutive targets fetched with one query */
+	private static class Batch
+		{
+		final List<Target> targets = new ArrayList<>();
+		int start;
+		int end;
+		Batch(final Target first) {
+			this.targets.add(first);
+			this.start = first.getStart();
+			this.end = first.getEnd();
+			}
+		boolean accept(final Target t) {
+			final Target first = this.targets.get(0);
+			return first.tid == t.tid &&
+				t.getStart() <= this.end + MERGE_DISTANCE &&
+				Math.max(this.end,t.getEnd()) - this.start < MAX_BATCH_LENGTH;
+			}
+		void add(final Target t) {
+			this.targets.add(t);
+			this.end = Math.max(this.end, t.getEnd());
+			}
+		String getContig() {
+			return this.targets.get(0).bedLine.getContig();
+			}
+		}
+	
+	/** depth of one partition over the current batch */
+	private static class PartitionDepth
+		{
+		final String partition;
+		int depth[] = new int[0];
+		PartitionDepth(final String partition) {
+			this.partition = partition;
+			}
+		}
+	
+	/** a set of BAM files processed by the same worker, one batch after the other */
+	private class Worker implements Closeable
+		{
+		final List<String> filenames = new ArrayList<>();
+		final List<SamReader> samReaders = new ArrayList<>();
+		/** partitions from the headers, and those found in the reads */
+		final Map<String,PartitionDepth> partitions = new TreeMap<>();
+		/** depth histogram */
+		private long histogram[] = new long[100];
+		
+		void open() throws IOException {
+			for(final String filename: this.filenames) {
+				this.samReaders.add(openSamReader(filename));
+				}
+			}
+		
+		/** returns the statistics for each target of the batch, for each partition */
+		List<Map<String,String>> process(final Batch batch) {
+			final int length = batch.end - batch.start + 1;
+			for(final PartitionDepth pd: this.partitions.values()) {
+				if(pd.depth.length < length) {
+					pd.depth = new int[length];
+					}
+				else
+					{
+					Arrays.fill(pd.depth, 0, length, 0);
+					}
+				}
+			for(final SamReader samReader:this.samReaders) 
+				{
+				/**
+				 *     start - 1-based, inclusive start of interval of interest. Zero implies start of the reference sequence.
+	    		*	   end - 1-based, inclusive end of interval of interest. Zero implies end of the reference sequence. 
+				 */
+				try(final SAMRecordIterator r=samReader.queryOverlapping(
+						batch.getContig(),
+						batch.start,
+						batch.end
+						)) {
+					while(r.hasNext())
+						{
+						final SAMRecord rec=r.next();
+						if(rec.getReadUnmappedFlag()) continue;
+						if(filter.filterOut(rec)) continue;
+						if(!rec.getReferenceName().equals(batch.getContig())) continue;
+						
+						final String partitionName;
+						final SAMReadGroupRecord group = rec.getReadGroup();
+						if(group==null)
+							{
+							partitionName=NO_PARTITION;
+							}
+						else
+							{
+							final String name = partition.apply(group);
+							partitionName = (StringUtil.isBlank(name)?NO_PARTITION:name);
+							}
+						PartitionDepth pd = this.partitions.get(partitionName);
+						if(pd==null) {
+							pd = new PartitionDepth(partitionName);
+							pd.depth = new int[length];
+							this.partitions.put(partitionName, pd);
+							}
+						visit(pd.depth, batch.start, batch.end, rec);
+						}
+					}
+				} // end of loop over sam Readers
+			
+			final List<Map<String,String>> stats = new ArrayList<>(batch.targets.size());
+			for(final Target target: batch.targets) {
+				final Map<String,String> partition2stat = new TreeMap<>();
+				for(final PartitionDepth pd: this.partitions.values()) {
+					partition2stat.put(pd.partition, statistics(pd.depth, target.getStart() - batch.start, target.length()));
+					}
+				stats.add(partition2stat);
+				}
+			return stats;
+			}
+		
+		private void visit(final int depth[],final int start,final int end,final SAMRecord rec) {
 			final Cigar cigar=rec.getCigar();
 			if(cigar==null) return;
 			int refpos1=rec.getAlignmentStart();
@@ -133,19 +274,92 @@ public class BamStats04 extends Launcher
     			if(!op.consumesReferenceBases()) continue;
     			if(op.consumesReadBases())
     				{
-    				for(int i=0;i< ce.getLength();++i)
-		    			{
-						if(refpos1+i>= this.bedLine.getStart() && refpos1+i<= this.bedLine.getEnd())
-							{
-							this.counts[refpos1+i-this.bedLine.getStart()]++;
-							}
-	    				}
+    				final int begin = Math.max(refpos1, start);
+    				final int stop = Math.min(refpos1 + ce.getLength() - 1, end);
+    				for(int pos=begin;pos<=stop;++pos)
+    					{
+    					depth[pos-start]++;
+    					}
     				}
     			refpos1+=ce.getLength();
-    			if(refpos1>this.bedLine.getEnd()) break;
+    			if(refpos1>end) break;
     			}
 			}
 		
+		/** value at the 0-based rank 'k' of the sorted depths, using the histogram where the depths lower or equal to minCov are set to 0 */
+		private int kth(final long k,final int maxDepth,final int minCov) {
+			long n = 0L;
+			for(int d=0;d<=Math.min(minCov, maxDepth);++d) n+= this.histogram[d];
+			if(k < n) return 0;
+			for(int d=minCov+1;d<=maxDepth;++d) {
+				n+= this.histogram[d];
+				if(k < n) return d;
+				}
+			return maxDepth;
+			}
+		
+		/** statistics computed from an histogram of the depths */
+		private String statistics(final int depth[],final int offset,final int length) {
+			int minDepth = Integer.MAX_VALUE;
+			int maxDepth = 0;
+			for(int i=0;i< length;++i) {
+				final int d = depth[offset+i];
+				if(d<minDepth) minDepth=d;
+				if(d>maxDepth) maxDepth=d;
+				}
+			if(this.histogram.length <= maxDepth) {
+				this.histogram = new long[maxDepth+1];
+				}
+			else
+				{
+				Arrays.fill(this.histogram, 0, maxDepth+1, 0L);
+				}
+			for(int i=0;i< length;++i) {
+				this.histogram[depth[offset+i]]++;
+				}
+			
+			final StringBuilder sb = new StringBuilder();
+			sb.append(minDepth).append('\t').append(maxDepth);
+			for(final int MIN_COVERAGE:minCoverages)
+				{
+				/** depth is set to 0 if depth <= MIN_COVERAGE */
+				long count_no_coverage= 0L;
+				long sum = 0L;
+				for(int d=0;d<=maxDepth;++d) {
+					if(d<=MIN_COVERAGE) {
+						count_no_coverage += this.histogram[d];
+						}
+					else
+						{
+						sum += d * this.histogram[d];
+						}
+					}
+				final double mean= sum/(double)length;
+				final int mid_x = length/2;
+				final double median_depth;
+				if(length==1) {
+					median_depth = kth(0, maxDepth, MIN_COVERAGE);
+					}
+				else if(length%2==0) {
+					median_depth = (kth(mid_x-1, maxDepth, MIN_COVERAGE) + kth(mid_x, maxDepth, MIN_COVERAGE))/2.0;
+					}
+				else
+					{
+					median_depth = kth(mid_x, maxDepth, MIN_COVERAGE);
+					}
+				sb.append('\t').append(mean).
+					append('\t').append(median_depth).
+					append('\t').append(count_no_coverage).
+					append('\t').append((int)(((length-count_no_coverage)/(double)length)*100.0));
+				}
+			return sb.toString();
+			}
+		
+		@Override
+		public void close() {
+			CloserUtil.close(this.samReaders);
+			this.samReaders.clear();
+			}
 		}
 	
 	@Override
@@ -158,77 +372,143 @@ public class BamStats04 extends Launcher
 				LOG.error("Bam files missing");
 				return -1;
 				}
+			if(this.nThreads<1) {
+				LOG.error("bad number of threads");
+				return -1;
+				}
 			
 			if(this.minCoverages.isEmpty())
 				{
 				this.minCoverages.add(0);
 				}
 			
-			final String NO_PARTITION="N/A";
 			BufferedReader bedIn=null;
-			final List<SamReader> samReaders = new ArrayList<>(args.size());
+			final List<Worker> workers = new ArrayList<>();
 			PrintWriter pw = null;
 			ReferenceGenome referenceGenome = null;
 			ReferenceContig referenceContig = null;
+			ExecutorService executor = null;
 			try
 				{
 				final BedLineCodec codec= new BedLineCodec();
-				final Set<String> all_partitions = new TreeSet<>();
-				bedIn=IOUtils.openFileForBufferedReading(this.bedFile);
 				SAMSequenceDictionary dict = null;
 				
+				/* BAM files sharing a partition must be processed by the same worker */
+				final Map<String,Worker> partition2worker = new HashMap<>();
+				final Set<String> all_partitions = new TreeSet<>();
 				for(final String filename: IOUtils.unrollFiles(args)) {
 					LOG.info(filename);
-					final SamReader samReader = super.openSamReader(filename);
-					if(!samReader.hasIndex()) {
-						LOG.error(filename+" is not indexed");
-						samReader.close();
-						return -1;
-						}
-					final SAMFileHeader samFileheader= samReader.getFileHeader();
-					if(samFileheader==null)
-						{
-						LOG.error("SAM file is missing a header "+filename);
-						return -1;
-						}
-					
-					final List<SAMReadGroupRecord> readGroups = samFileheader.getReadGroups();
-					
-					if(readGroups==null || readGroups.isEmpty())
-						{
-						LOG.warn("No Read group (RG) in the header of "+filename);
-						all_partitions.add(NO_PARTITION);
-						}
-					else
-						{
-						for(final SAMReadGroupRecord rg: readGroups)
+					final Set<String> partitions = new HashSet<>();
+					try(final SamReader samReader = super.openSamReader(filename)) {
+						if(!samReader.hasIndex()) {
+							LOG.error(filename+" is not indexed");
+							return -1;
+							}
+						final SAMFileHeader samFileheader= samReader.getFileHeader();
+						if(samFileheader==null)
 							{
-							all_partitions.add(this.partition.apply(rg,NO_PARTITION));
+							LOG.error("SAM file is missing a header "+filename);
+							return -1;
 							}
-						}
-					final SAMSequenceDictionary d = samFileheader.getSequenceDictionary();
-					if(d==null) {
-						samReader.close();
-						LOG.error(JvarkitException.BamDictionaryMissing.getMessage(filename));
-						return -1;
-						}
-					
-					samReaders.add(samReader);
 						
-					if(dict==null) {
-						dict=d;
+						final List<SAMReadGroupRecord> readGroups = samFileheader.getReadGroups();
+						
+						if(readGroups==null || readGroups.isEmpty())
+							{
+							LOG.warn("No Read group (RG) in the header of "+filename);
+							partitions.add(NO_PARTITION);
+							}
+						else
+							{
+							for(final SAMReadGroupRecord rg: readGroups)
+								{
+								partitions.add(this.partition.apply(rg,NO_PARTITION));
+								}
+							}
+						final SAMSequenceDictionary d = samFileheader.getSequenceDictionary();
+						if(d==null) {
+							LOG.error(JvarkitException.BamDictionaryMissing.getMessage(filename));
+							return -1;
+							}
+						
+						if(dict==null) {
+							dict=d;
+							}
+						else if(!SequenceUtil.areSequenceDictionariesEqual(d, dict)) {
+							LOG.error(JvarkitException.DictionariesAreNotTheSame.getMessage(d, dict));
+							return -1;
+							}
 						}
-					else if(SequenceUtil.areSequenceDictionariesEqual(d, dict)) {
-						LOG.error(JvarkitException.DictionariesAreNotTheSame.getMessage(d, dict));
-						return -1;
+					
+					all_partitions.addAll(partitions);
+					Worker worker = new Worker();
+					workers.add(worker);
+					worker.filenames.add(filename);
+					for(final String p: partitions) {
+						worker.partitions.put(p, new PartitionDepth(p));
+						final Worker other = partition2worker.get(p);
+						if(other!=null && other!=worker) {
+							/* merge the other worker into this one */
+							worker.filenames.addAll(other.filenames);
+							worker.partitions.putAll(other.partitions);
+							workers.remove(other);
+							for(final String p2:other.partitions.keySet()) partition2worker.put(p2, worker);
+							}
+						partition2worker.put(p, worker);
 						}
 					}
 				
-				if(samReaders.isEmpty()) {
+				if(workers.isEmpty()) {
 					LOG.error("No Bam defined");
 					return -1;
 				}
+				for(final Worker worker:workers) worker.open();
 				
+				/* read the BED file and sort the targets */
+				final List<Target> targets = new ArrayList<>();
+				bedIn=IOUtils.openFileForBufferedReading(this.bedFile);
+				String line=null;
+				while((line=bedIn.readLine())!=null)
+					{
+					if(line.isEmpty() || line.startsWith("#")) continue;
+					final BedLine bedLine = codec.decode(line);
+					if(bedLine==null) continue;
+					final SAMSequenceRecord ssr = dict.getSequence(bedLine.getContig());
+					if(ssr==null)
+						{
+						LOG.error("Unknown contig in "+line);
+						return -1;
+						}
+					
+					if(bedLine.getStart()>bedLine.getEnd())
+						{
+						LOG.info("ignoring "+bedLine);
+						continue;
+						}
+					targets.add(new Target(bedLine, ssr.getSequenceIndex(), targets.size()));
+					}
+				bedIn.close();
+				bedIn=null;
+				targets.sort((A,B)->{
+					int i = Integer.compare(A.tid, B.tid);
+					if(i!=0) return i;
+					i = Integer.compare(A.getStart(), B.getStart());
+					if(i!=0) return i;
+					return Integer.compare(A.getEnd(), B.getEnd());
+					});
+				
+				/* merge the targets into batches */
+				final List<Batch> batches = new ArrayList<>();
+				for(final Target target: targets) {
+					if(batches.isEmpty() || !batches.get(batches.size()-1).accept(target)) {
+						batches.add(new Batch(target));
+						}
+					else
+						{
+						batches.get(batches.size()-1).add(target);
+						}
+					}
+				LOG.info(targets.size()+" target(s) in "+batches.size()+" batch(es) for "+workers.size()+" worker(s).");
 				
 				if(!StringUtil.isBlank(this.faidxUri)) {
 					referenceGenome = new ReferenceGenomeFactory().open(this.faidxUri);
@@ -252,133 +532,83 @@ public class BamStats04 extends Launcher
 							);
 					}
 				pw.println();
-	
-			
-				String line=null;
-				while((line=bedIn.readLine())!=null)
+				
+				/* the batches of a worker are chained so a worker is never used by two threads at the same time */
+				executor = Executors.newFixedThreadPool(this.nThreads);
+				final List<CompletableFuture<List<Map<String,String>>>> previous = new ArrayList<>(workers.size());
+				for(int i=0;i< workers.size();i++) previous.add(CompletableFuture.completedFuture(null));
+				final Deque<List<CompletableFuture<List<Map<String,String>>>>> pending = new ArrayDeque<>();
+				int batch_index = 0;
+				int write_index = 0;
+				/* the targets were sorted: the lines are buffered until the previous lines of the BED file are printed */
+				final Map<Integer,String> index2lines = new HashMap<>();
+				int print_index = 0;
+				while(write_index < batches.size())
 					{
-					if(line.isEmpty() || line.startsWith("#")) continue;
-					final BedLine bedLine = codec.decode(line);
-					if(bedLine==null) continue;
-					if(dict.getSequence(bedLine.getContig())==null)
-						{
-						LOG.error("Unknown contig in "+line);
-						return -1;
-						}
-					
-					if(bedLine.getStart()>bedLine.getEnd())
-						{
-						LOG.info("ignoring "+bedLine);
-						continue;
-						}
-					if(referenceGenome!=null && (referenceContig==null || !referenceContig.hasName(bedLine.getContig()))) {
-						referenceContig = referenceGenome.getContig(bedLine.getContig());
+					/* submit the next batches, but don't keep too many results in memory */
+					while(batch_index < batches.size() && pending.size() < 2*this.nThreads + 1) {
+						final Batch batch = batches.get(batch_index++);
+						final List<CompletableFuture<List<Map<String,String>>>> futures = new ArrayList<>(workers.size());
+						for(int i=0;i< workers.size();i++) {
+							final Worker worker = workers.get(i);
+							final CompletableFuture<List<Map<String,String>>> f = previous.get(i).thenApplyAsync(X->worker.process(batch), executor);
+							previous.set(i, f);
+							futures.add(f);
+							}
+						pending.add(futures);
 						}
 					
-					final Map<String, IntervalStat> sample2stats= new HashMap<>(all_partitions.size());
-					for(final String rgId:all_partitions) {
-						sample2stats.put(rgId, new IntervalStat(bedLine));
+					final Batch batch = batches.get(write_index++);
+					final List<Map<String,String>> partition2stats = new ArrayList<>(batch.targets.size());
+					for(int i=0;i< batch.targets.size();i++) partition2stats.add(new HashMap<>(all_partitions.size()));
+					final List<List<Map<String,String>>> results = new ArrayList<>(workers.size());
+					for(final CompletableFuture<List<Map<String,String>>> f: pending.remove()) {
+						results.add(f.get());
 						}
-					
-					for(final SamReader samReader:samReaders) 
-						{
-						/**
-						 *     start - 1-based, inclusive start of interval of interest. Zero implies start of the reference sequence.
-			    		*	   end - 1-based, inclusive end of interval of interest. Zero implies end of the reference sequence. 
-						 */
-						final SAMRecordIterator r=samReader.queryOverlapping(
-								bedLine.getContig(),
-								bedLine.getStart(),
-								bedLine.getEnd()
-								);
-						while(r.hasNext())
-							{
-							final SAMRecord rec=r.next();
-							if(rec.getReadUnmappedFlag()) continue;
-							if(this.filter.filterOut(rec)) continue;
-							if(!rec.getReferenceName().equals(bedLine.getContig())) continue;
-							
-							
-							final String partition;
-							final SAMReadGroupRecord group = rec.getReadGroup();
-							if(group==null)
-								{
-								partition=NO_PARTITION;
-								}
-							else
-								{
-								final String name = this.partition.apply(group);
-								partition = (StringUtil.isBlank(name)?NO_PARTITION:name);
+					for(int i=0;i< batch.targets.size();i++) {
+						/* same insertion order as the previous single-threaded version: the partitions of the headers, then the others */
+						final Map<String,String> m = partition2stats.get(i);
+						for(final String p:all_partitions) {
+							for(final List<Map<String,String>> L:results) {
+								final String stat = L.get(i).get(p);
+								if(stat!=null) m.put(p, stat);
 								}
-							
-							IntervalStat stat= sample2stats.get(partition);
-							if(stat==null) 
-								{
-								stat = new IntervalStat(bedLine);
-								sample2stats.put(partition,stat);
+							}
+						for(final List<Map<String,String>> L:results) {
+							for(final Map.Entry<String,String> kv:L.get(i).entrySet()) {
+								if(!m.containsKey(kv.getKey())) m.put(kv.getKey(), kv.getValue());
 								}
-							stat.visit(rec);
 							}
-						
-						r.close();
-						} // end of loop over sam Readers
-					
-					final OptionalInt gcPercentInt = (referenceContig==null?
-						OptionalInt.empty():
-						referenceContig.getGCPercent(bedLine.getStart()-1,bedLine.getEnd()).getGCPercentAsInteger()
-						);
-					
+						}
 					
-					for(final String partitionName : sample2stats.keySet()) {
-						final IntervalStat stat = sample2stats.get(partitionName);
-						Arrays.sort(stat.counts);
-						
-						pw.print(
-								bedLine.getContig()+"\t"+
-								(bedLine.getStart()-1)+"\t"+
-								(bedLine.getEnd())+"\t"+
-								stat.counts.length+"\t"+
-								partitionName
-								);
-						if(referenceGenome!=null) {
-							pw.print("\t");
-							if(gcPercentInt.isPresent()) pw.print(gcPercentInt.getAsInt());
-							
+					for(int i=0;i< batch.targets.size();i++) {
+						final StringBuilder sb = new StringBuilder();
+						final BedLine bedLine = batch.targets.get(i).bedLine;
+						if(referenceGenome!=null && (referenceContig==null || !referenceContig.hasName(bedLine.getContig()))) {
+							referenceContig = referenceGenome.getContig(bedLine.getContig());
 							}
-						pw.print(
-							"\t"+
-							stat.counts[0]+"\t"+
-							stat.counts[stat.counts.length-1]
+						final OptionalInt gcPercentInt = (referenceContig==null?
+							OptionalInt.empty():
+							referenceContig.getGCPercent(bedLine.getStart()-1,bedLine.getEnd()).getGCPercentAsInteger()
 							);
 						
-						for(final int MIN_COVERAGE:this.minCoverages)
-							{
-							/** map depth to 0 if depth <= MIN_COVERAGE */
-							final IntUnaryOperator depthAdjuster = (D)->(D<=MIN_COVERAGE?0:D);
-	
-							
-							final int count_no_coverage=(int)Arrays.stream(stat.counts).
-									filter(D-> depthAdjuster.applyAsInt(D)<=0).
-									count()
-									;
-							
-							final double mean= Percentile.average().evaluate(Arrays.stream(stat.counts).
-									map(depthAdjuster)
-									);
-							
-			                final double median_depth = Percentile.median().evaluate(Arrays.stream(stat.counts).
-									map(depthAdjuster)
-									);
-			                
-							
-							pw.print("\t"+
-									mean+"\t"+
-									median_depth+"\t"+
-									count_no_coverage+"\t"+
-									(int)(((stat.counts.length-count_no_coverage)/(double)stat.counts.length)*100.0)
-									);
+						for(final Map.Entry<String,String> kv : partition2stats.get(i).entrySet()) {
+							sb.append(bedLine.getContig()).append('\t').
+								append(bedLine.getStart()-1).append('\t').
+								append(bedLine.getEnd()).append('\t').
+								append(bedLine.getEnd()-bedLine.getStart()+1).append('\t').
+								append(kv.getKey());
+							if(referenceGenome!=null) {
+								sb.append('\t');
+								if(gcPercentInt.isPresent()) sb.append(gcPercentInt.getAsInt());
+								}
+							sb.append('\t').append(kv.getValue()).append('\n');
 							}
-						pw.println();
+						index2lines.put(batch.targets.get(i).index, sb.toString());
+						}
+					while(index2lines.containsKey(print_index)) {
+						pw.print(index2lines.remove(print_index));
+						print_index++;
 						}
 					}
 				pw.flush();
@@ -386,6 +616,11 @@ public class BamStats04 extends Launcher
 				LOG.info("done");
 				return RETURN_OK;
 				}
+		catch(final ExecutionException err)
+			{
+			LOG.error(err.getCause());
+			return -1;
+			}
 		catch(final Exception err)
 			{
 			LOG.error(err);
@@ -393,10 +628,11 @@ public class BamStats04 extends Launcher
 			}
 		finally
 			{
+			if(executor!=null) executor.shutdownNow();
 			CloserUtil.close(referenceGenome);
 			CloserUtil.close(pw);
 			CloserUtil.close(bedIn);
-			CloserUtil.close(samReaders);
+			CloserUtil.close(workers);
 			}
 		}
 	
@@ -405,4 +641,3 @@ public class BamStats04 extends Launcher
 		new BamStats04().instanceMainWithExit(args);
 		}
 }
-
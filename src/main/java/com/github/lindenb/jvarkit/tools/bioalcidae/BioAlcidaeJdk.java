@@ -27,18 +27,22 @@ package com.github.lindenb.jvarkit.tools.bioalcidae;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Constructor;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -65,7 +69,6 @@ import htsjdk.samtools.fastq.FastqRecord;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
-import htsjdk.samtools.util.Iso8601Date;
 import htsjdk.samtools.util.IterableAdapter;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.VariantContext;
@@ -266,6 +269,13 @@ when reading a Fasta, a new class extending `FastaHandler` will be compiled. The
 
 
 
+## Batch mode
+
+Since 20181016, more than one input file can be provided. All the files must have the same format. The code is compiled only once and a new handler is created for each file.
+With the option `--threads`, the files are processed in parallel: the output of each file is buffered in a temporary file and the outputs are concatenated in the order of the arguments.
+
+With the option `--class-cache`, the compiled byte code is saved in a directory and re-used the next time the same script is invoked.
+
 ## Examples
 
 ### Example:
@@ -574,6 +584,10 @@ public class BioAlcidaeJdk
 			+ "Multiple separated by space/colon/comma. .eg: 'java.util.StringBuilder java.awt.*' . "
 			+ "	Useful if those packages are not already defined in the default code.")
 	private String extraImport = "";
+	@Parameter(names={"--class-cache"},description=InMemoryCompiler.OPT_CACHE_DIR_DESC)
+	private File classCacheDir=null;
+	@Parameter(names={"--threads"},description="[20181016] When more than one input file is provided, number of files processed in parallel. Output order is preserved.")
+	private int nThreads = 1;
 
 	
 	@SuppressWarnings("unused")
@@ -599,6 +613,7 @@ public class BioAlcidaeJdk
     	private boolean hideGeneratedCode = false;
     	private Constructor<H> ctor=null;
     	private Set<String> extraImportSet = new HashSet<>();
+    	private File classCacheDir = null;
 
     	
     	public abstract int execute(final String inputFile,final PrintStream out) throws Exception;
@@ -613,7 +628,7 @@ public class BioAlcidaeJdk
     		}
     	
     	@SuppressWarnings("unchecked")
-		public Constructor<H> getConstructor() {
+		public synchronized Constructor<H> getConstructor() {
     		if(this.ctor !=null) return this.ctor;
     		if(this.scriptFile!=null && !StringUtil.isBlank(this.scriptExpr))
 				{
@@ -627,10 +642,6 @@ public class BioAlcidaeJdk
 			
 			try {
 				
-				final Random rand= new  Random(System.currentTimeMillis());
-				final String javaClassName =BioAlcidaeJdk.class.getSimpleName()+
-						"Custom"+ Math.abs(rand.nextInt());
-				
 				final String baseClass = getHandlerClass().getName().replace('$', '.');
 				final String code;
 				
@@ -642,6 +653,9 @@ public class BioAlcidaeJdk
 					{
 					code = this.scriptExpr;
 					}
+				/* the name of the class only depends on the user's code, so the compiled class can be cached */
+				final String javaClassName =BioAlcidaeJdk.class.getSimpleName()+
+						"Custom"+ Integer.toHexString(code.hashCode()) + (this.user_code_is_body?"B":"");
 				
 				
 				final StringWriter codeWriter=new StringWriter();
@@ -672,7 +686,7 @@ public class BioAlcidaeJdk
 				
 				
 
-				pw.println("@Generated(value=\""+BioAlcidaeJdk.class.getSimpleName()+"\",date=\""+ new Iso8601Date(new Date()) +"\")");
+				pw.println("@Generated(value=\""+BioAlcidaeJdk.class.getSimpleName()+"\")");
 				pw.println("public class "+javaClassName+" extends "+ baseClass +" {");
 				
 				pw.println("  public "+javaClassName+"() {");
@@ -703,7 +717,8 @@ public class BioAlcidaeJdk
 					LOG.debug(" Compiling :\n" + InMemoryCompiler.beautifyCode(codeWriter.toString()));
 					}
 
-				final InMemoryCompiler inMemoryCompiler = new InMemoryCompiler();
+				final InMemoryCompiler inMemoryCompiler = new InMemoryCompiler().
+						setCacheDirectory(this.classCacheDir);
 				final Class<?> compiledClass = inMemoryCompiler.compileClass(
 						javaClassName,
 						codeWriter.toString()
@@ -971,6 +986,60 @@ public class BioAlcidaeJdk
 		
 		private FORMAT format= null;
 
+	/** run the handler on each file, the outputs are concatenated in the order of the files */
+	private int executeBatch(final AbstractHandlerFactory<?> factory,final List<String> inputs) throws Exception {
+		final PrintStream out = super.openFileOrStdoutAsPrintStream(this.outputFile);
+		ExecutorService executor = null;
+		final List<File> tmpFiles = new ArrayList<>(inputs.size());
+		try {
+			/* compile once, before the threads are started */
+			factory.getConstructor();
+			if(this.nThreads<=1) {
+				for(final String input: inputs) {
+					/* the handlers close their output */
+					final PrintStream noClose = new PrintStream(new FilterOutputStream(out) {
+						@Override
+						public void write(byte[] b, int off, int len) throws IOException {
+							this.out.write(b, off, len);
+							}
+						@Override
+						public void close() throws IOException {
+							flush();
+							}
+						});
+					if(factory.execute(input, noClose)!=0) return -1;
+					}
+				}
+			else
+				{
+				executor = Executors.newFixedThreadPool(this.nThreads);
+				final List<Future<Integer>> results = new ArrayList<>(inputs.size());
+				for(final String input: inputs) {
+					final File tmpFile = File.createTempFile("bioalcidae.", ".txt");
+					tmpFile.deleteOnExit();
+					tmpFiles.add(tmpFile);
+					results.add(executor.submit(()->factory.execute(input, new PrintStream(tmpFile))));
+					}
+				for(int i=0;i< inputs.size();i++) {
+					if(results.get(i).get()!=0) {
+						LOG.error("processing "+inputs.get(i)+" failed.");
+						return -1;
+						}
+					IOUtils.copyTo(tmpFiles.get(i), (OutputStream)out);
+					}
+				}
+			out.flush();
+			out.close();
+			return 0;
+			}
+		finally
+			{
+			if(executor!=null) executor.shutdownNow();
+			for(final File f:tmpFiles) f.delete();
+			CloserUtil.close(out);
+			}
+		}
+	
 	
 	@Override
 	public int doWork(final List<String> args) {
@@ -986,7 +1055,8 @@ public class BioAlcidaeJdk
 			}
 		try
 			{
-			final String inputFile = oneFileOrNull(args);
+			final List<String> inputs = new ArrayList<>(IOUtils.unrollFiles(args));
+			final String inputFile = (inputs.isEmpty()?null:inputs.get(0));
 			if(inputFile==null && this.format==null)
 				{
 				LOG.error("Format must be specified when input is stdin");
@@ -1008,6 +1078,13 @@ public class BioAlcidaeJdk
 					return -1;
 					}
 				}
+			final FORMAT fmt = this.format;
+			final String badInput = inputs.stream().filter(S->!fmt.canAs(S)).findFirst().orElse(null);
+			if(this.formatString==null && badInput!=null)
+				{
+				LOG.error("All the input files must have the same format ("+fmt+") but got "+badInput);
+				return -1;
+				}
 			
 			 
 			
@@ -1023,12 +1100,16 @@ public class BioAlcidaeJdk
 			abstractFactory.scriptFile = this.scriptFile;
 			abstractFactory.user_code_is_body = this.user_code_is_body ;
 			abstractFactory.hideGeneratedCode = this.hideGeneratedCode ;
+			abstractFactory.classCacheDir = this.classCacheDir;
 			abstractFactory.extraImportSet.addAll(
 					Arrays.asList(this.extraImport.split("[ ,;]+"))
 					);//blank will be ignored
 			
 			try
 				{
+				if(inputs.size()>1) {
+					return executeBatch(abstractFactory,inputs);
+					}
 				return abstractFactory.execute(inputFile,super.openFileOrStdoutAsPrintStream(this.outputFile));
 				}
 			catch(final Throwable err)
@@ -4,14 +4,16 @@ import java.io.File;
 import java.util.List;
 
 import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.util.bio.fasta.ReferenceContig;
+import com.github.lindenb.jvarkit.util.bio.fasta.ReferenceGenome;
+import com.github.lindenb.jvarkit.util.bio.fasta.ReferenceGenomeFactory;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
-import com.github.lindenb.jvarkit.util.picard.GenomicSequence;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 import com.github.lindenb.semontology.Term;
 
-import htsjdk.samtools.reference.IndexedFastaSequenceFile;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
@@ -55,17 +57,18 @@ public class Biostar251649 extends Launcher
 	@Parameter(names="-n",description="number of bases")
 	private int extend=1;
 	@Parameter(names={"-r","-R","--reference"},
-			description=INDEXED_FASTA_REFERENCE_DESCRIPTION,
-			required=true,
-			converter=Launcher.IndexedFastaSequenceFileConverter.class
+			description="[20181016](moved to faidx/DAS/2bit). "+ReferenceGenomeFactory.OPT_DESCRIPTION,
+			required=true
 			)
-	private IndexedFastaSequenceFile faidx = null;
+	private String referenceGenomeSource = null;
 	
 	@Override
 	protected int doVcfToVcf(String inputName, VcfIterator in,
 			VariantContextWriter w)
 		{
+		ReferenceGenome referenceGenome = null;
 		try {
+			referenceGenome = new ReferenceGenomeFactory().open(this.referenceGenomeSource);
 			final VCFHeader header = new VCFHeader(in.getHeader());
 			VCFInfoHeaderLine info5 = new VCFInfoHeaderLine(leftTag+extend,
 					1, VCFHeaderLineType.String,"Sequence on the 5' of mutation");
@@ -85,12 +88,13 @@ public class Biostar251649 extends Launcher
 			
 			header.addMetaDataLine(info5);
 			header.addMetaDataLine(info3);
-			GenomicSequence chrom= null;
+			ReferenceContig chrom= null;
 			w.writeHeader(header);
 			while(in.hasNext()) {
 				final VariantContext ctx = in.next();
-				if(chrom==null || !chrom.getChrom().equals(ctx.getContig())) {
-					chrom = new GenomicSequence(this.faidx,ctx.getContig());
+				if(chrom==null || !chrom.getContig().equals(ctx.getContig())) {
+					chrom = referenceGenome.getContig(ctx.getContig());
+					if(chrom==null) throw new JvarkitException.ContigNotFoundInDictionary(ctx.getContig(), referenceGenome.getDictionary());
 					}
 				final VariantContextBuilder vcb = new VariantContextBuilder(ctx);
 				if(ctx.getStart()>0)
@@ -127,7 +131,7 @@ public class Biostar251649 extends Launcher
 			}
 		finally
 			{
-			CloserUtil.close(faidx);
+			CloserUtil.close(referenceGenome);
 			}	
 		}
 	@Override
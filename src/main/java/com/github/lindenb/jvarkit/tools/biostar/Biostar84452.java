@@ -104,6 +104,13 @@ public class Biostar84452 extends Launcher
 	
 	@ParametersDelegate
 	private WritingBamArgs WritingBamArgs=new WritingBamArgs();
+	@ParametersDelegate
+	private ReadAheadArgs readAheadArgs = new ReadAheadArgs();
+	
+	@Override
+	protected ReadAheadArgs getReadAheadArgs() {
+		return this.readAheadArgs;
+		}
 	@Parameter(names={"-t","--tag"},description="tag to flag samrecord as processed")
 	private String customTag=null;
 	
@@ -128,7 +135,7 @@ public class Biostar84452 extends Launcher
 			
 			
 			long nChanged=0L;
-			final SAMSequenceDictionaryProgress progress = new SAMSequenceDictionaryProgress(header).logger(LOG);
+			final SAMSequenceDictionaryProgress progress = new SAMSequenceDictionaryProgress(header).logger(LOG).bytesCounter(getInflatedBytesCounter());
 			SAMRecordIterator iter=sfr.iterator();
 			while(iter.hasNext())
 				{
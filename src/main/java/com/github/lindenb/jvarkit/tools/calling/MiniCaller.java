@@ -36,13 +36,13 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
-import com.github.lindenb.jvarkit.tools.misc.ConcatSam;
-import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.bio.IntervalParser;
 import com.github.lindenb.jvarkit.util.bio.fasta.ReferenceContig;
 import com.github.lindenb.jvarkit.util.bio.fasta.ReferenceGenome;
@@ -51,21 +51,25 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
+import com.github.lindenb.jvarkit.util.samtools.ColumnarPileup;
 import com.github.lindenb.jvarkit.util.samtools.SAMRecordPartition;
 import com.github.lindenb.jvarkit.util.samtools.SamRecordJEXLFilter;
 import com.github.lindenb.semontology.Term;
 
-import htsjdk.samtools.Cigar;
-import htsjdk.samtools.CigarElement;
-import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMFileHeader;
-import htsjdk.samtools.SAMReadGroupRecord;
-import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.filter.FilteringSamIterator;
 import htsjdk.samtools.filter.SamRecordFilter;
 import htsjdk.samtools.util.CloserUtil;
-import htsjdk.samtools.util.Locatable;
+import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.SequenceUtil;
+import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.GenotypeBuilder;
@@ -113,6 +117,12 @@ rotavirus	8	.	A	C	.	.	DP=122	GT:DP:DP4:DPG	0/1:41:38,0,3,0:38,3	0/1:26:25,0,1,0:
 rotavirus	9	.	A	C	.	.	DP=139	GT:DP:DP4:DPG	0/1:46:44,0,2,0:44,2	0/1:29:27,0,2,0:27,2	0/1:48:44,0,4,0:44,4	./.
 ```
 
+## History
+
+ * 2018-10-16: the BAMs are merged and counted with a multi-sample pileup. The samples are sorted by name.
+ * 2018-10-16: the alleles of a genotype are sorted by depth, ties are now resolved with REF first and then the order of the ALT column (e.g. `0/1` instead of `1/0`). The previous versions could print the alleles of a tie in any order.
+
+
 END_DOC
  */
 @Program(name="minicaller",
@@ -143,189 +153,116 @@ public class MiniCaller extends Launcher
 	private SAMSequenceDictionary dictionary=null;
     private VariantContextWriter variantContextWriter = null;
     private ReferenceGenome referenceGenome=null;
-    //private final Map<String,Integer> sample2index=new TreeMap<>();
-  
-    private final List<MyVariantContext> buffer=new ArrayList<>();
+    private int nSamples = 0;
+    private List<String> sampleNames = null;
     private double min_fraction_alt=1.0/1000.0;
 
+    /** symbol of the bases, indexed by the categories of the pileup */
+    private static final byte CATEGORY2BASE[]={'A','C','G','T','N'};
     
-    private static class AlleleData
-	    {
-    	@SuppressWarnings("unused")
-		final Allele alt;
-    	 final int count_strands[]={0,0};
-    	//final byte qual;
-    	AlleleData(final Allele alt) {
-    		this.alt = alt;
-    		}
-    	void incr(boolean negativeStrand)
-    		{
-    		this.count_strands[negativeStrand?1:0]++;
-    		}
-    	int count() {
-    		return count_strands[0]+count_strands[1];
-    		}
-	    }
-    
-    private class SampleData
+    /** contains available information for everyone at contig, position, ref */
+    private class Site
         {
-    	final MyVariantContext owner;
-    	@SuppressWarnings("unused")
-		final String sampleName;
-    	final Map<Allele,AlleleData> alleleMap=new HashMap<>();
-    	SampleData(final MyVariantContext owner,final String sampleName) {
-    		this.owner = owner;
-    		this.sampleName = sampleName;
+    	final String contig;
+    	final int pos1;
+        /** REF allele */
+    	final Allele ref;
+    	/** observed alleles */
+    	final List<Allele> alleles = new ArrayList<>();
+    	/** for each allele, the counts for each sample and strand: sample*2+strand */
+    	final List<int[]> counts = new ArrayList<>();
+    	
+    	Site(final String contig,final int pos1,final Allele ref) {
+    		this.contig = contig;
+    		this.pos1 = pos1;
+    		this.ref = ref;
     		}
     	
-    	public AlleleData getAllele(Allele alt)
+    	void incr(Allele alt,final int sample,final int forward,final int reverse)
     		{
-    		if(owner.ref.equals(alt, true /* ignore state */))
+    		if(forward+reverse==0) return;
+    		if(this.ref.equals(alt, true /* ignore state */))
     			{
-    			alt = owner.ref;
+    			alt = this.ref;
     			}
-    		AlleleData ad = this.alleleMap.get(alt);
-    		if(ad==null)
+    		else if(alt.getDisplayString().equals("N"))
     			{
-    			ad = new AlleleData(alt);
-    			this.alleleMap.put(alt, ad);
+    			return;
     			}
-    		return ad;
+    		int idx = this.alleles.indexOf(alt);
+    		if(idx==-1)
+    			{
+    			idx = this.alleles.size();
+    			this.alleles.add(alt);
+    			this.counts.add(new int[MiniCaller.this.nSamples*2]);
+    			}
+    		final int array[] = this.counts.get(idx);
+    		array[sample*2  ] += forward;
+    		array[sample*2+1] += reverse;
     		}
-    	
-        }
-    
-    /** contains available information for everyone at contig=tid,pos0, ref */
-    private class MyVariantContext
-        implements Comparable<MyVariantContext>,
-        Locatable
-        {
-    	/** contig ig */
-        int tid;
-        /** position 0 */
-        int pos0;
-        /** REF allele */
-        Allele ref;
-        /** everybody */
-        final Map<String,SampleData> sampleData = new HashMap<>();
-
-        @Override
-        public String getContig()
-        	{
-        	return dictionary.getSequence(this.tid).getSequenceName();
-        	}
-        @Override
-        public int getStart() {
-        	return pos0+1;
-        	}
-        @Override
-        public int getEnd() {
-        	return pos0 + ref.length();
-        	}
-        
-        @Override
-        public int compareTo(final MyVariantContext o2)
-            {
-            int i = this.tid - o2.tid;
-            if( i !=0) return i;
-            i =this.pos0 - o2.pos0;
-            if( i !=0) return i;
-            i = this.ref.compareTo(o2.ref);
-            return i;
-            }
-        
-        public SampleData getSample(final String sampleName)
-        	{
-        	SampleData sd = this.sampleData.get(sampleName);
-        	if(sd==null) {
-        		sd = new SampleData(this,sampleName);
-        		this.sampleData.put(sampleName,sd);
-        		}
-        	return sd;
-        	}
         
-        
-        @Override
-        public String toString() {
-        	return getContig()+":"+pos0+" "+this.sampleData.size();
-        	}
-        
-        void print()
-        	{
-        	VariantContext ctx=make();
-        	if(ctx==null) return;
-        	variantContextWriter.add(ctx);
-        	}
-
         VariantContext make()
             {
         	boolean indel=this.ref.getBaseString().length()!=1;
-            VariantContextBuilder vcb=new
-                    VariantContextBuilder();
-            vcb.chr(this.getContig());
-            vcb.start(this.getStart());
+            final VariantContextBuilder vcb=new VariantContextBuilder();
+            vcb.chr(this.contig);
+            vcb.start(this.pos1);
             
             final List<Genotype> genotypes=new ArrayList<>();
-            final Set<Allele> alleles=new TreeSet<Allele>();
+            final Set<Allele> alleles=new TreeSet<Allele>(this.alleles);
+            final Integer allele_indexes[] = new Integer[this.alleles.size()];
+            final int allele_counts[] = new int[this.alleles.size()];
             int total_depth=0;
 
-            for(final String sampleName : this.sampleData.keySet())
+            for(int sample=0;sample < MiniCaller.this.nSamples;++sample)
                 {
-            	final SampleData sd = this.sampleData.get(sampleName);
-            	final Counter<Allele> count_alleles = new Counter<Allele>();
-                int dp4[]=new int[]{0,0,0,0};
-            	
-            	for(final Allele allele: sd.alleleMap.keySet())
+                final int dp4[]=new int[]{0,0,0,0};
+                int total = 0;
+            	for(int i=0;i< this.alleles.size();++i)
             		{
-            		if(allele.isNonReference() && allele.getDisplayString().equals("N")) continue;
-            		alleles.add(allele);
-            		final AlleleData ad = sd.alleleMap.get(allele);
-            		count_alleles.incr(allele,ad.count());
-            		if(allele.isReference())
-            			{
-            			dp4[0] += ad.count_strands[0];
-                    	dp4[1] += ad.count_strands[1];
-            			}
-            		else
-            			{
-            			dp4[2] += ad.count_strands[0];
-                    	dp4[3] += ad.count_strands[1];
-            			}
-            		
+            		final int array[] = this.counts.get(i);
+            		final int offset = (this.alleles.get(i).isReference()?0:2);
+            		dp4[offset  ] += array[sample*2  ];
+            		dp4[offset+1] += array[sample*2+1];
+            		allele_indexes[i] = i;
+            		allele_counts[i] = array[sample*2] + array[sample*2+1];
+            		total += allele_counts[i];
             		}
-            	
                 
-            		
-                
-                total_depth+= count_alleles.getTotal();
-                if(count_alleles.getTotal()> MiniCaller.this.min_depth)
+                total_depth+= total;
+                if(total > MiniCaller.this.min_depth)
                     {
-                	final ArrayList<Allele> sample_alleles=new ArrayList<>(count_alleles.getCountCategories());
-                	final ArrayList<Integer> sample_depths=new ArrayList<>(count_alleles.getCountCategories());
-                	for(final Allele a: count_alleles.keySetDecreasing())
+                	/* decreasing depth, ties are sorted on the alleles */
+                	Arrays.sort(allele_indexes,(A,B)->{
+                		final int i = Integer.compare(allele_counts[B], allele_counts[A]);
+                		if(i!=0) return i;
+                		return this.alleles.get(A).compareTo(this.alleles.get(B));
+                		});
+                	final List<Allele> sample_alleles=new ArrayList<>(allele_indexes.length);
+                	final List<Integer> sample_depths=new ArrayList<>(allele_indexes.length);
+                	for(final Integer i: allele_indexes)
                 		{
+                		if(allele_counts[i]==0) continue;
                 		//skip if fraction of variant too low
-                		if((float)count_alleles.count(a)/(float)count_alleles.getTotal() < MiniCaller.this.min_fraction_alt)
+                		if((float)allele_counts[i]/(float)total < MiniCaller.this.min_fraction_alt)
                 			{
                 			continue;
                 			}
+                		final Allele a = this.alleles.get(i);
                 		if(a.getBaseString().length()!=1) indel=true;
                 		
                 		sample_alleles.add(a);
-                		sample_depths.add((int)count_alleles.count(a));
+                		sample_depths.add(allele_counts[i]);
                 		}
                 	if(!sample_alleles.isEmpty())
 	                	{
-	                	final GenotypeBuilder gb=new GenotypeBuilder(sampleName, sample_alleles);
-	                	gb.DP((int)count_alleles.getTotal());
+	                	final GenotypeBuilder gb=new GenotypeBuilder(MiniCaller.this.sampleNames.get(sample), sample_alleles);
+	                	gb.DP(total);
 	                	gb.attribute("DPG", sample_depths);
 	                	gb.attribute("DP4",Arrays.asList(dp4));
-	                	final Genotype gt = gb.make();
-	                    alleles.addAll(sample_alleles);
-	                    genotypes.add(gt);
+	                    genotypes.add(gb.make());
 	                	}
                 	}
-               
                 }
             if(genotypes.isEmpty()) return null;
             
@@ -358,55 +295,76 @@ public class MiniCaller extends Launcher
             				);
             	}
             
-            
-            /*int max_length=0;
-            for(Allele a:alleles)
-            	{
-            	max_length=Math.max(a.getBaseString().length(), max_length);
-            	}*/
-            vcb.stop(this.pos0+this.ref.getBaseString().length());
+            vcb.stop(this.pos1 + this.ref.getBaseString().length() - 1);
 
             final VariantContext ctx= vcb.make();
             if(ctx.getAlternateAlleles().isEmpty()) return null;   
             return ctx;
             }
-
+        
+        void print()
+        	{
+        	final VariantContext ctx=make();
+        	if(ctx==null) return;
+        	variantContextWriter.add(ctx);
+        	}
         }
 
-
-
     public MiniCaller() {
         }
-
-    private MyVariantContext findContext(final int tid,final int pos0,final Allele ref)
-        {
-        int idx=0;
-        for(idx=0; idx<this.buffer.size(); ++idx)
-            {
-            MyVariantContext ctx = this.buffer.get(idx);
-            if(ctx.tid < tid) continue;
-            if(ctx.tid > tid) break;
-            if(ctx.pos0 < pos0) continue;
-            if(ctx.pos0 > pos0) break;
-            int i = ctx.ref.compareTo(ref);
-            if(i< 0) continue;
-            if(i>0 ) break;
-            //System.err.println("ok got "+ctx);
-            return ctx;
-            }
-        //System.err.println("new at "+tid+":"+pos0+" idx="+idx+" N="+this.buffer);
-        final MyVariantContext ctx=new MyVariantContext();
-        ctx.tid=tid;
-        ctx.pos0=pos0;
-        ctx.ref=ref;
-        this.buffer.add(idx, ctx);
-        return ctx;
-        }
+    
+    /** print the variants found in this column of the pileup */
+    private void visit(final ColumnarPileup.Column column,final ReferenceContig genomicSeq)
+    	{
+    	final int pos0 = column.getPosition()-1;
+    	if(pos0 >= genomicSeq.length()) return;
+    	final char refBase = Character.toUpperCase(genomicSeq.charAt(pos0));
+    	
+    	/* SNV and insertions */
+    	final Site site = new Site(genomicSeq.getContig(), column.getPosition(), Allele.create((byte)refBase, true));
+    	for(int sample=0;sample< this.nSamples;++sample)
+    		{
+    		for(int category=ColumnarPileup.BASE_A;category<=ColumnarPileup.BASE_N;++category)
+    			{
+    			final int forward = column.getCount(sample, category, false);
+    			final int reverse = column.getCount(sample, category, true);
+    			if(forward+reverse==0) continue;
+    			site.incr(Allele.create(CATEGORY2BASE[category], false), sample, forward, reverse);
+    			}
+    		}
+    	/* deletions, one site per length of deletion */
+    	Map<Integer,Site> deletions = null;
+    	for(final ColumnarPileup.Indel indel:column.getIndels())
+    		{
+    		final int strand = indel.isNegativeStrand()?1:0;
+    		if(indel.isInsertion())
+    			{
+    			site.incr(Allele.create(refBase+indel.getInsertedBases(), false), indel.getSample(), 1-strand, strand);
+    			continue;
+    			}
+    		if(pos0 + indel.getLength() >= genomicSeq.length()) continue;
+    		if(deletions==null) deletions = new TreeMap<>();
+    		Site del = deletions.get(indel.getLength());
+    		if(del==null)
+    			{
+    			final StringBuilder sb=new StringBuilder(1+indel.getLength());
+    			for(int i=0;i<= indel.getLength();++i)
+                	{
+                	sb.append(genomicSeq.charAt(pos0+i));
+                	}
+    			del = new Site(genomicSeq.getContig(), column.getPosition(), Allele.create(sb.toString(), true));
+    			deletions.put(indel.getLength(),del);
+    			}
+    		del.incr(Allele.create((byte)refBase, false), indel.getSample(), 1-strand, strand);
+    		}
+    	site.print();
+    	if(deletions!=null) deletions.values().forEach(S->S.print());
+    	}
     
     @Override
     public int doWork(final List<String> args) {
-    	
-    	ConcatSam.ConcatSamIterator iter=null;
+    	final List<SamReader> samReaders = new ArrayList<>();
+    	ColumnarPileup pileup = null;
         try {
             
             if(this.fastaFile==null)
@@ -415,52 +373,95 @@ public class MiniCaller extends Launcher
                 return -1;
                 }
             
-          
-            
             /* load faid */
-           
-
             final ReferenceGenomeFactory referenceGenomeFactory = new ReferenceGenomeFactory();
             this.referenceGenome= referenceGenomeFactory.openFastaFile(this.fastaFile);
             this.dictionary = this.referenceGenome.getDictionary();
             if(this.dictionary==null) {
             	LOG.error(JvarkitException.FastaDictionaryMissing.getMessage(this.fastaFile.getPath()));
+            	return -1;
             	}
             
-            /* create sam record iterator */
-            
-            iter = new  ConcatSam.Factory().
-	            addInterval(this.rgnStr).
-	            setEnableUnrollList(true).
-	            open(args);
+            /* open the BAMs, each one is a source of the pileup */
+            final SamReaderFactory srf = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.LENIENT);
+            if(args.isEmpty())
+            	{
+            	if(!StringUtil.isBlank(this.rgnStr)) {
+            		LOG.error("cannot specify a region for stdin");
+            		return -1;
+            		}
+            	samReaders.add(srf.open(SamInputResource.of(stdin())));
+            	}
+            else
+            	{
+            	for(final String bamFile: IOUtils.unrollFiles(args))
+            		{
+            		samReaders.add(srf.open(SamInputResource.of(bamFile)));
+            		}
+            	}
             
-            final SAMFileHeader samFileheader= iter.getFileHeader();
-            final SAMSequenceDictionary dict= samFileheader.getSequenceDictionary();
-            if(dict==null)
+            final Set<String> sampleSet= new TreeSet<>();
+            for(final SamReader sr:samReaders)
+            	{
+            	final SAMFileHeader samFileheader= sr.getFileHeader();
+            	final SAMSequenceDictionary dict= samFileheader.getSequenceDictionary();
+	            if(dict==null)
+	            	{
+	            	LOG.error(JvarkitException.BamDictionaryMissing.getMessage(sr.getResourceDescription()));
+	            	return -1;
+	            	}
+	            if(!SequenceUtil.areSequenceDictionariesEqual(dict,this.dictionary))
+	            	{
+	            	LOG.error(JvarkitException.DictionariesAreNotTheSame.getMessage(dict,this.dictionary));
+	            	return -1;
+	            	}
+	            samFileheader.getReadGroups().stream().
+	            		map(srgr->this.samRecordPartition.apply(srgr,samRecordPartition.name())).
+	            		forEach(S->sampleSet.add(S));
+            	}
+            if(sampleSet.isEmpty())
             	{
-            	LOG.error(JvarkitException.BamDictionaryMissing.getMessage(String.join(", ", args)));
+            	LOG.error("No group defined in input");
             	return -1;
             	}
-           
+            this.sampleNames = new ArrayList<>(sampleSet);
+            this.nSamples = this.sampleNames.size();
+            final Map<String,Integer> sample2index = new HashMap<>(this.nSamples);
+            for(final String sn: this.sampleNames) sample2index.put(sn, sample2index.size());
             
-            if(!SequenceUtil.areSequenceDictionariesEqual(dict,this.dictionary))
+            final QueryInterval queryIntervals[];
+            if(StringUtil.isBlank(this.rgnStr))
             	{
-            	LOG.error(JvarkitException.DictionariesAreNotTheSame.getMessage(dict,this.dictionary));
-            	return -1;
+            	queryIntervals = null;
+            	}
+            else
+            	{
+            	final Interval rgn = new IntervalParser(this.dictionary).
+            			setContigNameIsWholeContig(true).
+            			parse(this.rgnStr);
+            	if(rgn==null) {
+            		LOG.error("Cannot parse interval "+this.rgnStr);
+            		return -1;
+            		}
+            	queryIntervals = new QueryInterval[] {new QueryInterval(
+            			this.dictionary.getSequenceIndex(rgn.getContig()),
+            			rgn.getStart(),
+            			rgn.getEnd())};
             	}
             
-            final List<SAMReadGroupRecord> groups = samFileheader.getReadGroups();
-            if(groups==null || groups.isEmpty())
+            final List<ColumnarPileup.Source> sources = new ArrayList<>(samReaders.size());
+            for(final SamReader sr:samReaders)
             	{
-            	LOG.error("No group defined in input");
-            	return -1;
+            	final SAMRecordIterator iter = (queryIntervals==null?sr.iterator():sr.query(queryIntervals, false));
+            	sources.add(new ColumnarPileup.Source(
+            		new FilteringSamIterator(iter, this.readFilter),
+            		R->{
+            			final Integer idx = sample2index.get(this.samRecordPartition.getPartion(R,samRecordPartition.name()));
+            			return idx==null?-1:idx.intValue();
+            			}
+            		));
             	}
-            final Set<String> sampleSet=groups.stream().
-            		map(srgr->this.samRecordPartition.apply(srgr,samRecordPartition.name())).
-            		collect(Collectors.toSet());
-          
-                
-
+            pileup = new ColumnarPileup(this.nSamples, sources);
 
             /* create VCF metadata */
             final Set<VCFHeaderLine> metaData=new HashSet<VCFHeaderLine>();
@@ -491,12 +492,8 @@ public class MiniCaller extends Launcher
                     VCFHeaderLineType.Flag,
                     "Variant is indel"));
             
-
-   
-            //addMetaData(metaData);
-            
             final VCFHeader vcfHeader=new VCFHeader(
-                    metaData , sampleSet
+                    metaData , this.sampleNames
                     );
             vcfHeader.setSequenceDictionary(this.dictionary);
             /* create variant context */
@@ -504,130 +501,21 @@ public class MiniCaller extends Launcher
             this.variantContextWriter.writeHeader(vcfHeader);
 
             ReferenceContig genomicSeq=null;
-            SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(this.dictionary);
-            for(;;)
+            final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(this.dictionary);
+            while(pileup.hasNext())
                 {
-                SAMRecord rec=null;
-                
-                
-                if(iter.hasNext())
-                    {
-                    rec=progress.watch(iter.next());
-                    if(rec.getReadUnmappedFlag()) continue;
-                    if(this.readFilter.filterOut(rec)) continue;
-                  
-                    /* flush buffer if needed */
-                    while(!this.buffer.isEmpty() &&
-                    	(this.buffer.get(0).tid < rec.getReferenceIndex() ||
-                    	(this.buffer.get(0).tid == rec.getReferenceIndex() && (this.buffer.get(0).getEnd()) < rec.getAlignmentStart())))
-                    	{
-                    	this.buffer.remove(0).print();
-                    	}
-                    /* get genomic sequence at this position */
-                    if(genomicSeq==null ||
-                            !genomicSeq.getContig().equals(rec.getContig()))
-                            {
-                            genomicSeq = this.referenceGenome.getContig(rec.getContig());
-                            }
-                    final Cigar cigar= rec.getCigar();
-                    if(cigar==null) continue;
-                    int readPos=0;
-                    int refPos0 = rec.getAlignmentStart() -1;//0 based-reference
-                    final byte bases[]=rec.getReadBases();
-                    final byte quals[]=rec.getBaseQualities();
-                    final String sampleName= this.samRecordPartition.getPartion(rec,samRecordPartition.name());
-                    
-                    for(final CigarElement ce: cigar.getCigarElements())
+            	final ColumnarPileup.Column column = pileup.next();
+            	progress.watch(column.getReferenceIndex(), column.getPosition());
+                /* get genomic sequence at this position */
+                if(genomicSeq==null ||
+                        !genomicSeq.getContig().equals(this.dictionary.getSequence(column.getReferenceIndex()).getSequenceName()))
                         {
-                        final CigarOperator op =ce.getOperator();
-                        switch(op)
-                            {
-                            case P: break;
-                            case H: break;
-                            case S: readPos+=ce.getLength(); break;
-                            case N://go
-                            case D:
-                                {
-                                if(refPos0>0)// we need base before deletion
-	                                {
-                                	char refBase=genomicSeq.charAt(refPos0-1);/* we use base before deletion */
-                                	final StringBuilder sb=new StringBuilder(ce.getLength());
-	                            	sb.append(refBase);
-	                                for(int i=0;i< ce.getLength();++i)
-	                                	{
-	                                	sb.append(genomicSeq.charAt(refPos0+i));
-	                                	}
-	                                findContext(
-                                            rec.getReferenceIndex(),
-                                            refPos0-1,//we use base *before deletion */
-                                            Allele.create(sb.toString(), true)
-                                            ).
-		                                getSample(sampleName).
-		                                getAllele(Allele.create(String.valueOf(refBase),false)).
-		                                incr( rec.getReadNegativeStrandFlag());
-	                                
-	                                }
-                                refPos0+= ce.getLength();
-                                break;
-                                }
-                            case I:
-                                {
-                                if(refPos0>0)
-	                                {
-                                	//float qual=0;
-                                	char refBase=Character.toUpperCase( genomicSeq.charAt(refPos0-1));
-                                	final StringBuilder sb=new StringBuilder(1+ce.getLength());
-	                                sb.append(refBase);
-	                                for(int i=0;i< ce.getLength();++i)
-	                                	{
-	                                	sb.append((char)bases[readPos+i]);
-	                                	//qual+=(readPos + i < quals.length?quals[ readPos + i]:0);
-	                                	}
-	                                findContext(
-                                            rec.getReferenceIndex(),
-                                            refPos0-1,//we use base *before deletion */
-                                            Allele.create(String.valueOf(refBase), true)
-                                            ).
-	                                		getSample(sampleName).
-	                                		getAllele(Allele.create(sb.toString().toUpperCase(),false)).
-	                                		incr( rec.getReadNegativeStrandFlag())
-	                                		;
-	                                }
-                                readPos+=ce.getLength();
-                                break;
-                                }
-                            case EQ: case M: case X:
-                                {
-                                for(int i=0; i< ce.getLength();++i)
-                                    {
-                                    findContext(
-                                            rec.getReferenceIndex(),
-                                            refPos0 + i,
-                                            Allele.create(String.valueOf(genomicSeq.charAt( refPos0 + i)), true)
-                                    		).
-                                		getSample(sampleName).
-                                		getAllele(Allele.create(String.valueOf((char)bases[ readPos + i ]),false)).
-                                    	incr( rec.getReadNegativeStrandFlag())
-                                    	;
-                                    }
-                                readPos+=ce.getLength();
-                                refPos0+= ce.getLength();
-                                break;
-                                }
-
-                            default : throw new IllegalStateException("Case statement didn't deal with cigar op: "+ op);
-                            }
+                        genomicSeq = this.referenceGenome.getContig(this.dictionary.getSequence(column.getReferenceIndex()).getSequenceName());
                         }
-                    }
-                else
-                    {
-                    break;
-                    }
+                visit(column, genomicSeq);
                 }
-            
-            while(!buffer.isEmpty()) buffer.remove(0).print();
             progress.finish();
-            iter.close();iter=null;
+            pileup.close();pileup=null;
             this.variantContextWriter.close();this.variantContextWriter=null;
             return RETURN_OK;
             }
@@ -638,7 +526,8 @@ public class MiniCaller extends Launcher
             }
         finally
             {
-        	 CloserUtil.close(iter);
+        	CloserUtil.close(pileup);
+        	samReaders.forEach(CloserUtil::close);
             CloserUtil.close(this.referenceGenome);
             CloserUtil.close(this.variantContextWriter);
             }
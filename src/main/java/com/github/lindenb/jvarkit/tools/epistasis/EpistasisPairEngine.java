@@ -0,0 +1,232 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.epistasis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.github.lindenb.jvarkit.util.vcf.GenotypeMatrix;
+
+/**
+ * Bit-parallel all-pairs engine for VcfEpistatis01.
+ * 
+ * The genotypes of the cases and the controls are bit-planes of a {@link GenotypeMatrix}.
+ * With the joint model, the upper triangle of the pairs of rows is cut into square tiles that are scheduled on a ForkJoinPool,
+ * so the threads stay balanced even if the rows of the triangle are shorter and shorter.
+ * With the default model, the score of a pair is the sum of the scores of its rows, so the best pair
+ * is found in one pass over the rows, without enumerating the pairs.
+ */
+class EpistasisPairEngine {
+	/** default number of rows in one side of a tile */
+	static final int DEFAULT_TILE_SIZE = 256;
+	
+	private final GenotypeMatrix matrix;
+	/** index of the variant for each row of the matrix (a multi-allelic variant has one row per ALT) */
+	private final int[] rowToVariant;
+	private final long[] caseMask;
+	private final long[] ctrlMask;
+	private final boolean joint;
+	private final int tileSize;
+	/** score of each row, used by the default model */
+	private final double[] rowScores;
+	
+	/** best pair of rows */
+	static class Best {
+		final int row1;
+		final int row2;
+		final double score;
+		Best(final int row1,final int row2,final double score) {
+			this.row1 = row1;
+			this.row2 = row2;
+			this.score = score;
+			}
+		}
+	
+	/** one tile of the triangle: rows [begin1,end1[ x rows [begin2,end2[ */
+	private static class Tile {
+		final int begin1,end1,begin2,end2;
+		Tile(int begin1,int end1,int begin2,int end2) {
+			this.begin1 = begin1;
+			this.end1 = end1;
+			this.begin2 = begin2;
+			this.end2 = end2;
+			}
+		}
+	
+	/**
+	 * @param matrix the genotypes, one row per variant/ALT. Rows must be sorted on the variant index.
+	 * @param rowToVariant the index of the variant for each row
+	 * @param caseMask mask of the cases
+	 * @param ctrlMask mask of the controls
+	 * @param joint if true, the score of a pair is the number of cases carrying both alleles minus the number of controls carrying both alleles.
+	 *        Otherwise the score is the sum of the scores of the two alleles (historical model)
+	 * @param tileSize number of rows per tile
+	 */
+	EpistasisPairEngine(
+			final GenotypeMatrix matrix,
+			final int[] rowToVariant,
+			final long[] caseMask,
+			final long[] ctrlMask,
+			final boolean joint,
+			final int tileSize) {
+		this.matrix = matrix;
+		this.rowToVariant = rowToVariant;
+		this.caseMask = caseMask;
+		this.ctrlMask = ctrlMask;
+		this.joint = joint;
+		this.tileSize = Math.max(1, tileSize);
+		this.rowScores = new double[matrix.size()];
+		for(int r=0;r< matrix.size();r++) {
+			/* cases: 0 ALT: 0, 1 ALT: 10, 2 ALT: 30 ; controls: 0, -10, -30 */
+			this.rowScores[r] = 
+				10 * matrix.countCarriers(r, caseMask) + 20 * matrix.countHomVar(r, caseMask) -
+				10 * matrix.countCarriers(r, ctrlMask) - 20 * matrix.countHomVar(r, ctrlMask);
+			}
+		}
+	
+	/** return true if 'a' is better than 'b'. Ties are resolved on the order of the variants, then the order of the alleles */
+	private boolean isBetter(final Best a,final Best b) {
+		if(a==null) return false;
+		if(b==null) return true;
+		if(a.score!=b.score) return a.score > b.score;
+		int i = Integer.compare(this.rowToVariant[a.row1], this.rowToVariant[b.row1]);
+		if(i!=0) return i<0;
+		i = Integer.compare(this.rowToVariant[a.row2], this.rowToVariant[b.row2]);
+		if(i!=0) return i<0;
+		i = Integer.compare(a.row1, b.row1);
+		if(i!=0) return i<0;
+		return a.row2 < b.row2;
+		}
+	
+	/** copy the carrier bit-planes of [begin,end[ masked with 'mask' into a heap array */
+	private long[][] load(final int begin,final int end,final long[] mask) {
+		final long[][] planes = new long[end-begin][];
+		final int nWords = this.matrix.getWordCount();
+		for(int r=begin;r< end;r++) {
+			final long[] words = this.matrix.getCarriers(r, new long[nWords]);
+			for(int w=0;w< nWords;w++) words[w] &= mask[w];
+			planes[r-begin] = words;
+			}
+		return planes;
+		}
+	
+	private static int andCount(final long[] a,final long[] b) {
+		int n = 0;
+		for(int w=0;w< a.length;w++) n += Long.bitCount(a[w] & b[w]);
+		return n;
+		}
+	
+	private Best scoreTile(final Tile tile) {
+		Best best = null;
+		final long[][] cases1 = load(tile.begin1, tile.end1, this.caseMask);
+		final long[][] ctrls1 = load(tile.begin1, tile.end1, this.ctrlMask);
+		final long[][] cases2 = load(tile.begin2, tile.end2, this.caseMask);
+		final long[][] ctrls2 = load(tile.begin2, tile.end2, this.ctrlMask);
+		for(int r1=tile.begin1;r1< tile.end1;r1++) {
+			final int v1 = this.rowToVariant[r1];
+			for(int r2=Math.max(r1+1, tile.begin2);r2< tile.end2;r2++) {
+				/* no pair for the alleles of the same variant */
+				if(this.rowToVariant[r2]==v1) continue;
+				final double score = 10 * andCount(cases1[r1-tile.begin1], cases2[r2-tile.begin2]) -
+						10 * andCount(ctrls1[r1-tile.begin1], ctrls2[r2-tile.begin2]);
+				if(best!=null && score < best.score) continue;
+				final Best candidate = new Best(r1, r2, score);
+				if(isBetter(candidate, best)) best = candidate;
+				}
+			}
+		return best;
+		}
+	
+	private class TilesTask extends RecursiveTask<Best> {
+		private static final long serialVersionUID = 1L;
+		private final List<Tile> tiles;
+		private final int begin;
+		private final int end;
+		TilesTask(final List<Tile> tiles,int begin,int end) {
+			this.tiles = tiles;
+			this.begin = begin;
+			this.end = end;
+			}
+		@Override
+		protected Best compute() {
+			if(this.end - this.begin == 1) {
+				return scoreTile(this.tiles.get(this.begin));
+				}
+			final int mid = (this.begin + this.end) >>> 1;
+			final TilesTask left = new TilesTask(this.tiles, this.begin, mid);
+			final TilesTask right = new TilesTask(this.tiles, mid, this.end);
+			left.fork();
+			final Best b2 = right.compute();
+			final Best b1 = left.join();
+			return isBetter(b2, b1)?b2:b1;
+			}
+		}
+	
+	/**
+	 * default model: the score of a pair is rowScores[r1]+rowScores[r2].
+	 * Every best pair contains a row 't' with the max score 'M1' (otherwise, one of its rows could be replaced by 't'),
+	 * so the best pair is either two rows with the score M1 and different variants,
+	 * or the first row with the score M1 and the best row of another variant. 
+	 * As the rows are sorted on the variant index, taking the first rows gives the same
+	 * pair as the enumeration of the pairs.
+	 */
+	private Best runSeparable(final int firstRow) {
+		final int nRows = this.matrix.size();
+		int t0 = -1;
+		for(int r=Math.max(0, firstRow);r< nRows;r++) {
+			if(t0==-1 || this.rowScores[r] > this.rowScores[t0]) t0 = r;
+			}
+		if(t0==-1) return null;
+		final int v0 = this.rowToVariant[t0];
+		int u0 = -1;
+		for(int r=Math.max(0, firstRow);r< nRows;r++) {
+			if(this.rowToVariant[r]==v0) continue;
+			if(u0==-1 || this.rowScores[r] > this.rowScores[u0]) u0 = r;
+			}
+		if(u0==-1) return null;
+		return new Best(Math.min(t0, u0), Math.max(t0, u0), this.rowScores[t0] + this.rowScores[u0]);
+		}
+	
+	/**
+	 * find the best pair of rows
+	 * @param pool the ForkJoinPool
+	 * @param firstRow the first row of the pairs (for the option '--start')
+	 * @return the best pair or null
+	 */
+	Best run(final ForkJoinPool pool,final int firstRow) {
+		if(!this.joint) return runSeparable(firstRow);
+		final int nRows = this.matrix.size();
+		final List<Tile> tiles = new ArrayList<>();
+		for(int i=Math.max(0, firstRow);i< nRows;i+=this.tileSize) {
+			for(int j=i;j< nRows;j+=this.tileSize) {
+				tiles.add(new Tile(i, Math.min(nRows, i+this.tileSize), j, Math.min(nRows, j+this.tileSize)));
+				}
+			}
+		if(tiles.isEmpty()) return null;
+		return pool.invoke(new TilesTask(tiles, 0, tiles.size()));
+		}
+	}
@@ -28,30 +28,24 @@ package com.github.lindenb.jvarkit.tools.epistasis;
 import java.io.File;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Vector;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.function.Function;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import com.beust.jcommander.Parameter;
-import com.github.lindenb.jvarkit.tools.vcflist.VcfList;
-import com.github.lindenb.jvarkit.tools.vcflist.VcfOffsetsIndexFactory;
 import com.github.lindenb.jvarkit.util.Pedigree;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.vcf.GenotypeMatrix;
 import com.github.lindenb.jvarkit.util.vcf.JexlVariantPredicate;
 
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.variant.variantcontext.Allele;
-import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFFileReader;
@@ -71,9 +65,9 @@ public class VcfEpistatis01 extends Launcher {
 	private File outputFile = null;
 	@Parameter(names={"-p","--pedigree"},description=Pedigree.OPT_DESCRIPTION)
 	private File pedigreeFile = null;
-	@Parameter(names={"--memory"},description="Load all variants in memory")
+	@Parameter(names={"--memory"},description="Load the genotypes in memory. Default is a memory-mapped temporary file.")
 	private  boolean load_variants_in_memory=false;
-	@Parameter(names={"-j","--jobs"},description="Number of parallel jobs.")
+	@Parameter(names={"-j","--jobs"},description="Number of parallel jobs. With --joint, the pairs of alleles are split into tiles distributed on a ForkJoinPool. The default model does not enumerate the pairs.")
 	private  int number_of_jobs =1;
 	@Parameter(names={"-start","--start"},description="Specify start index in variant list. (for parallelisation)")
 	private  int start_index_at=0;
@@ -83,21 +77,12 @@ public class VcfEpistatis01 extends Launcher {
 	private boolean output_score = false;
 	
 	
-	private static final Function<Long,Integer> CTRLS_nAlt2score=(N)->{switch(N.intValue()){
-		case 0: return 0;
-		case 1 : return -10;
-		case 2: //cont
-		default: return -30;
-		}};
-	private static final Function<Long,Integer> CASES_nAlt2score=(N)->{switch(N.intValue()){
-		case 0: return 0;
-		case 1 : return 10;
-		case 2: //cont
-		default: return 30;
-		}};
+	@Parameter(names={"--joint"},description="[20181016] Joint model: the score of a pair is 10 x (number of cases carrying both ALT alleles) - 10 x (number of controls carrying both ALT alleles). Default is the sum of the scores of each ALT allele.")
+	private boolean joint_model = false;
+	@Parameter(names={"--tile"},description="[20181016] Number of alleles in one side of the square tiles of pairs distributed to the parallel jobs (--joint only).")
+	private int tile_size = EpistasisPairEngine.DEFAULT_TILE_SIZE;
 	
 		
-		
 	private static class Result
 		{
 		final VariantContext ctx1;
@@ -129,93 +114,18 @@ public class VcfEpistatis01 extends Launcher {
 			}
 		}
 	
-	
-	private static  class Runner implements Callable<Result>
-		{
-		private final List<VariantContext> variants;
-		private final int caseIndexes[];
-		private final int ctrlIndexes[];
-		private final int startIndex;
-		private Result result = null;
-		private long duration=0L;
-		Runner(
-				final List<VariantContext> variants,
-				final int startIndex,
-				final int[] caseIndexes,
-				final int[] ctrlIndexes
-				)
-			{
-			this.variants = variants;
-			this.startIndex = startIndex;
-			this.caseIndexes = caseIndexes;
-			this.ctrlIndexes = ctrlIndexes;
-			}
-		
-		private double score(
-				final VariantContext ctx,
-				final Allele alt,
-				final int samples_indexes[],
-				final Function<Long,Integer> nAlt2score
-				) 
-			{
-			double score_a1 = 0;
-			
-			for(final int  idx : samples_indexes) {
-				final Genotype g = ctx.getGenotype(idx);
-				if(g==null || g.isFiltered()) continue;
-				score_a1 +=nAlt2score.apply( g.getAlleles().stream().filter(A->A.equals(alt)).count());
-				}
-			return score_a1;
-			}
-		@Override
-		public Result call() throws Exception {
-			final VariantContext ctx1 = this.variants.get(this.startIndex);
-			final long startup = System.currentTimeMillis();
-
-			int i = this.startIndex + 1;
-			
-			while(i< this.variants.size())
-				{
-				final VariantContext ctx2 = this.variants.get(i);
-				for(final Allele a1 : ctx1.getAlleles())//faster then getAlternateAlleles
-					{
-					if(a1.isReference()) continue;
-					double score_a1 = 0;
-					score_a1 += score(ctx1,a1,this.ctrlIndexes,CTRLS_nAlt2score);
-					score_a1 += score(ctx1,a1,this.caseIndexes,CASES_nAlt2score);
-					
-					for(final Allele a2 : ctx2.getAlleles())//faster then getAlternateAlleles
-						{
-						if(a2.isReference()) continue;
-						double score_a2 = score_a1;
-						score_a2 += score(ctx2,a2,this.ctrlIndexes,CTRLS_nAlt2score);
-						score_a2 += score(ctx2,a2,this.caseIndexes,CASES_nAlt2score);
-						if(this.result == null || this.result.score< score_a2)
-							{
-							final Result nr = new Result(ctx1,a1,this.startIndex,ctx2,a2,i,score_a2);
-							
-							
-							this.result = nr;
-							}
-						
-						}
-					}
-				i++;
-				}
-			if(this.variants instanceof VcfList)
-				{
-				CloserUtil.close(VcfList.class.cast(this.variants));
-				}
-			this.duration = System.currentTimeMillis() - startup;
-			LOG.info("index ["+startIndex+"] That took "+(duration/1000f)+" seconds.");
-			return this.result;
-			}
-		}
-	
 	public VcfEpistatis01()
 		{
 		}
 	
+	/** stream the variants of the VCF, using the same filters for the two passes */
+	private Stream<VariantContext> streamVariants(final CloseableIterator<VariantContext> iter) {
+		Stream<VariantContext> st = iter.stream().filter(this.variantFilter);
+		if(this.load_variants_in_memory) {
+			st = st.filter(V->V.getGenotypes().stream().filter(G->G.isCalled()).count()>0);//should fix https://github.com/samtools/htsjdk/issues/1026 ?
+			}
+		return st;
+		}
 	
 	@Override
 	public int doWork(final List<String> args) {
@@ -223,12 +133,12 @@ public class VcfEpistatis01 extends Launcher {
 			LOG.error("bad number of jobs");
 			return -1;
 			}
+		File tmpMatrixFile = null;
+		GenotypeMatrix matrix = null;
+		ForkJoinPool pool = null;
 		try
 			{
-			final int variantsCount;
-			final List<VariantContext> inMemoryVariants;
 			final File vcfFile = new File(oneAndOnlyOneFile(args));
-			final File tmpIndexFile;
 			
 			if(vcfFile.equals(this.outputFile))
 				{
@@ -236,7 +146,7 @@ public class VcfEpistatis01 extends Launcher {
 				return -1;
 				}
 			
-			VCFFileReader vcfFileReader = new VCFFileReader(vcfFile,false);
+			final VCFFileReader vcfFileReader = new VCFFileReader(vcfFile,false);
 			final VCFHeader header =  vcfFileReader.getFileHeader();
 
 			
@@ -275,127 +185,113 @@ public class VcfEpistatis01 extends Launcher {
 					return -1;
 					}
 
-			
+			/* load the genotypes in a 2-bit matrix, one row per ALT allele */
+			final int nSamples = header.getNGenotypeSamples();
 			if(this.load_variants_in_memory) {
-				LOG.info("loading variants in memory");
-				tmpIndexFile = null;
-				final CloseableIterator<VariantContext> iter2=vcfFileReader.iterator();
-				inMemoryVariants =  Collections.unmodifiableList(iter2.stream().
-						filter(this.variantFilter).
-						filter(V->V.getGenotypes().stream().filter(G->G.isCalled()).count()>0).//should fix https://github.com/samtools/htsjdk/issues/1026 ?
-						collect(Collectors.toList())
-						);
-				variantsCount = inMemoryVariants.size();
-				iter2.close();
+				LOG.info("loading genotypes in memory");
+				matrix = GenotypeMatrix.allocate(nSamples);
 				}
 			else
 				{
-				tmpIndexFile = File.createTempFile("epistatsis",VcfOffsetsIndexFactory.INDEX_EXTENSION);
-				tmpIndexFile.deleteOnExit();
-				new VcfOffsetsIndexFactory().
-					setLogger(LOG).
-					setPredicate(variantFilter).
-					indexVcfFile(vcfFile,tmpIndexFile);
-				final VcfList tmpList = VcfList.fromFile(vcfFile, tmpIndexFile);
-				variantsCount = tmpList.size();
-				tmpList.close();
-				inMemoryVariants = null;
+				tmpMatrixFile = File.createTempFile("epistasis", ".bin");
+				tmpMatrixFile.deleteOnExit();
+				matrix = GenotypeMatrix.map(nSamples, tmpMatrixFile);
 				}
+			int rowToVariant[] = new int[1000];
+			int variantsCount = 0;
+			int firstRow = -1;
+			try(CloseableIterator<VariantContext> iter = vcfFileReader.iterator()) {
+				final Iterator<VariantContext> iter2 = streamVariants(iter).iterator();
+				while(iter2.hasNext()) {
+					final VariantContext ctx = iter2.next();
+					if(variantsCount == this.start_index_at) firstRow = matrix.size();
+					for(final Allele alt: ctx.getAlternateAlleles()) {
+						final int row = matrix.add(ctx, alt, true);
+						if(row>=rowToVariant.length) rowToVariant = Arrays.copyOf(rowToVariant, row*2);
+						rowToVariant[row] = variantsCount;
+						}
+					variantsCount++;
+					}
+				}
+			LOG.info("Number of variants: "+variantsCount+" Number of ALT alleles: "+matrix.size());
 			
-
-			
-			vcfFileReader.close();
-			LOG.info("Number of variants: "+variantsCount);
+			final long startup = System.currentTimeMillis();
+			pool = new ForkJoinPool(this.number_of_jobs);
+			final EpistasisPairEngine engine = new EpistasisPairEngine(
+					matrix,
+					Arrays.copyOf(rowToVariant, matrix.size()),
+					matrix.createMask(caseIndexes),
+					matrix.createMask(ctrlIndexes),
+					this.joint_model,
+					this.tile_size
+					);
+			final EpistasisPairEngine.Best best = (firstRow<0?null:engine.run(pool, firstRow));
+			LOG.info("That took "+ ((System.currentTimeMillis()-startup)/1000f)+" seconds.");
 			
+			if(best==null) {
+				LOG.info("no pair of variants was found.");
+				vcfFileReader.close();
+				return 0;
+				}
 			
-			Result bestResult =null;
-			int x= this.start_index_at;
-			while(x+1 < variantsCount)
-				{
-				final List<Runner> runners = new Vector<>(this.number_of_jobs);
-				while(x+1 < variantsCount && runners.size() < this.number_of_jobs)
-					{
-					LOG.info("starting "+x+"/"+variantsCount);
-					runners.add(new Runner(
-							inMemoryVariants == null? 
-									VcfList.fromFile(vcfFile,tmpIndexFile):
-									new Vector<>(inMemoryVariants)
-							,x,
-							caseIndexes,
-							ctrlIndexes
-							)
-							);
-					++x;
-					}
-				final ExecutorService execSvc;
-				if(this.number_of_jobs==1)
-					{
-					execSvc = null;
-					}
-				else
-					{
-					execSvc = Executors.newFixedThreadPool(this.number_of_jobs);;
-					}
-
-				if(this.number_of_jobs==1)
-					{
-					runners.get(0).call();
-					}
-				else
-					{
-					execSvc.invokeAll(runners);
+			/* second pass: fetch the two variants */
+			final int idx1 = rowToVariant[best.row1];
+			final int idx2 = rowToVariant[best.row2];
+			int alt1 = 0;
+			while(best.row1-alt1>0 && rowToVariant[best.row1-alt1-1]==idx1) alt1++;
+			int alt2 = 0;
+			while(best.row2-alt2>0 && rowToVariant[best.row2-alt2-1]==idx2) alt2++;
+			VariantContext ctx1 = null;
+			VariantContext ctx2 = null;
+			try(CloseableIterator<VariantContext> iter = vcfFileReader.iterator()) {
+				final Iterator<VariantContext> iter2 = streamVariants(iter).iterator();
+				int n = 0;
+				while(iter2.hasNext() && n<=idx2) {
+					final VariantContext ctx = iter2.next();
+					if(n==idx1) ctx1 = ctx;
+					if(n==idx2) ctx2 = ctx;
+					n++;
 					}
-					
-				if(execSvc!=null) {
-					execSvc.shutdown();
-					execSvc.awaitTermination(10000L, TimeUnit.DAYS);
-					execSvc.shutdownNow();
 				}
-				runners.stream().mapToLong(R->R.duration).min().ifPresent(D->{
-					LOG.info("That took "+ (D/1000f)+" seconds.");
-					});
-				
-				
-				for(final Runner r: runners)
-					{
-					final Result rez=r.result;
-					if(rez==null) continue;
-					if(bestResult==null || bestResult.score<rez.score)
-						{
-						bestResult =rez;
-						
-						if(this.output_score) {
-							final PrintWriter pw = super.openFileOrStdoutAsPrintWriter(this.outputFile);
-							pw.println(bestResult.score+ "\t"+bestResult.toString());
-							pw.flush();
-							pw.close();
-							}
-						else
-							{
-							final VariantContextWriter w = openVariantContextWriter(this.outputFile);
-							final VCFHeader header2= new VCFHeader(header);
-							header2.addMetaDataLine(new VCFHeaderLine(VcfEpistatis01.class.getName(),bestResult.toString()));
-							w.writeHeader(header2);
-							w.add(bestResult.ctx1);
-							w.add(bestResult.ctx2);
-							w.close();
-							}
-						}
-					}
-				LOG.info("best: "+bestResult);
+			vcfFileReader.close();
+			if(ctx1==null || ctx2==null) {
+				throw new IllegalStateException("cannot find variants "+idx1+" and "+idx2+" in "+vcfFile);
 				}
-			if(tmpIndexFile!=null) tmpIndexFile.delete();
+			final Result bestResult = new Result(
+					ctx1, ctx1.getAlternateAllele(alt1), idx1,
+					ctx2, ctx2.getAlternateAllele(alt2), idx2,
+					best.score
+					);
 			
+			if(this.output_score) {
+				final PrintWriter pw = super.openFileOrStdoutAsPrintWriter(this.outputFile);
+				pw.println(bestResult.score+ "\t"+bestResult.toString());
+				pw.flush();
+				pw.close();
+				}
+			else
+				{
+				final VariantContextWriter w = openVariantContextWriter(this.outputFile);
+				final VCFHeader header2= new VCFHeader(header);
+				header2.addMetaDataLine(new VCFHeaderLine(VcfEpistatis01.class.getName(),bestResult.toString()));
+				w.writeHeader(header2);
+				w.add(bestResult.ctx1);
+				w.add(bestResult.ctx2);
+				w.close();
+				}
+			LOG.info("best: "+bestResult);
 			return 0;
 			}
 		catch(final Exception err)
 			{
-			err.printStackTrace();
 			LOG.error(err);
 			return -1;
 			}
 		finally
 			{
+			if(pool!=null) pool.shutdownNow();
+			CloserUtil.close(matrix);
+			if(tmpMatrixFile!=null) tmpMatrixFile.delete();
 			}
 		}
 	 	
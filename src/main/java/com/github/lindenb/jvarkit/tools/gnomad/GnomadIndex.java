@@ -0,0 +1,301 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.gnomad;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.lindenb.jvarkit.io.MappedRecords;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.vcf.VCFConstants;
+
+/**
+ * Binary index of the allele frequencies of gnomad, created by {@link GnomadIndexer}.
+ * 
+ * Layout of the file:
+ * <pre>
+ * MAGIC
+ * int: number of fields ; for each field: UTF name, byte type (0:Integer 1:Float), byte (1 if one value per ALT)
+ * records (big endian, fixed width, sorted on position for each contig):
+ *     int pos ; long ref-key ; long alt-key ; int line ; byte number-of-alts ; byte flags ; 4 bytes for each field
+ * contigs: int count ; for each contig: UTF name, long offset of the first record, long number of records
+ * long: offset of the contigs table
+ * </pre>
+ * There is one record per ALT allele of each gnomad line.
+ * 
+ * The records are memory-mapped. A query looks for the first record at a given position, starting
+ * from the last position found on the same contig (galloping search) so sorted input behaves like a merge-join.
+ * This class is not thread safe.
+ */
+class GnomadIndex implements Closeable {
+	static final String EXTENSION = ".gnomad.idx";
+	static final byte MAGIC[]= "GNOMADX.1".getBytes();
+	static final byte TYPE_INTEGER = 0;
+	static final byte TYPE_FLOAT = 1;
+	static final byte FLAG_FILTERED = 1;
+	static final int MISSING_INT = Integer.MIN_VALUE;
+	/** pos, ref-key, alt-key, line, n-alts, flags */
+	static final int RECORD_HEADER_SIZEOF = Integer.BYTES + Long.BYTES + Long.BYTES + Integer.BYTES + 1 + 1;
+	
+	/** a field extracted from gnomad */
+	static class Field {
+		final String name;
+		final byte type;
+		final boolean perAllele;
+		Field(final String name,final byte type,final boolean perAllele) {
+			this.name = name;
+			this.type = type;
+			this.perAllele = perAllele;
+			}
+		@Override
+		public String toString() {
+			return name;
+			}
+		}
+	
+	/** records of a contig */
+	private class ContigBlock {
+		final long offset;
+		final long count;
+		/** index of the last record found, for galloping */
+		long cursor = 0L;
+		ContigBlock(final long offset,final long count) {
+			this.offset = offset;
+			this.count = count;
+			}
+		}
+	
+	private final File file;
+	private final List<Field> fields;
+	private final int recordSize;
+	private final Map<String,ContigBlock> contigs = new HashMap<>();
+	private final MappedRecords records;
+	
+	GnomadIndex(final File file) throws IOException {
+		this.file = file;
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			final byte magic[] = new byte[MAGIC.length];
+			raf.readFully(magic);
+			if(!Arrays.equals(magic, MAGIC)) throw new JvarkitException.FileFormatError("bad magic in "+file);
+			final int nFields = raf.readInt();
+			final List<Field> L = new ArrayList<>(nFields);
+			for(int i=0;i< nFields;i++) {
+				final String name = raf.readUTF();
+				final byte type = raf.readByte();
+				final boolean perAllele = raf.readByte()==1;
+				L.add(new Field(name, type, perAllele));
+				}
+			this.fields = Collections.unmodifiableList(L);
+			this.recordSize = RECORD_HEADER_SIZEOF + nFields * Integer.BYTES;
+			final long recordsOffset = raf.getFilePointer();
+			
+			raf.seek(raf.length() - Long.BYTES);
+			final long tableOffset = raf.readLong();
+			raf.seek(tableOffset);
+			final int nContigs = raf.readInt();
+			for(int i=0;i< nContigs;i++) {
+				final String contig = raf.readUTF();
+				final long offset = raf.readLong();
+				final long count = raf.readLong();
+				this.contigs.put(contig, new ContigBlock(offset, count));
+				}
+			
+			this.records = new MappedRecords(raf.getChannel(), recordsOffset, (tableOffset - recordsOffset) / this.recordSize, this.recordSize);
+			}
+		}
+	
+	List<Field> getFields() {
+		return this.fields;
+		}
+	
+	/** encode the bases of an allele: 2 bits per base for short ACGT alleles, otherwise a hash with the highest bit set */
+	static long alleleKey(final Allele allele) {
+		final byte bases[] = allele.getDisplayString().getBytes();
+		if(bases.length <= 28) {
+			long key = ((long)bases.length) << 56;
+			int i=0;
+			for(i=0;i< bases.length;i++) {
+				final long b;
+				switch(bases[i]) {
+					case 'A': case 'a': b = 0; break;
+					case 'C': case 'c': b = 1; break;
+					case 'G': case 'g': b = 2; break;
+					case 'T': case 't': b = 3; break;
+					default: b = -1; break;
+					}
+				if(b<0) break;
+				key |= b << (2*i);
+				}
+			if(i==bases.length) return key;
+			}
+		/* FNV-1a */
+		long h = 0xcbf29ce484222325L;
+		for(final byte b: bases) {
+			h ^= (b & 0xFF);
+			h *= 0x100000001b3L;
+			}
+		return Long.MIN_VALUE | (h & Long.MAX_VALUE);
+		}
+	
+	private ByteBuffer chunk(final long record) {
+		return this.records.getBuffer(record);
+		}
+	private int offset(final long record) {
+		return this.records.getOffset(record);
+		}
+	private int getPos(final long record) {
+		return this.records.getInt(record, 0);
+		}
+	
+	/** index of the first record of the block with a position &gt;= pos */
+	private long lowerBound(final ContigBlock block,final int pos) {
+		return MappedRecords.gallop(0L, block.count, block.cursor, I->getPos(block.offset + I) < pos);
+		}
+	
+	/**
+	 * find the first gnomad line having the same contig/position/REF as the user's variant.
+	 * @return a variant containing the user's REF, the user's ALT found in gnomad and the values of the fields, or null.
+	 */
+	VariantContext query(
+			final VariantContext userCtx,
+			final boolean skipFiltered,
+			final boolean skipMultiAlt
+			) {
+		final ContigBlock block = this.contigs.get(userCtx.getContig());
+		if(block==null) return null;
+		final int pos = userCtx.getStart();
+		final long first = lowerBound(block, pos);
+		block.cursor = first;
+		final long refKey = alleleKey(userCtx.getReference());
+		long i = first;
+		while(i < block.count) {
+			final long record = block.offset + i;
+			final ByteBuffer buf = chunk(record);
+			final int off = offset(record);
+			if(buf.getInt(off)!=pos) break;
+			final int line = buf.getInt(off + Integer.BYTES + 2 * Long.BYTES);
+			/* records of this line */
+			long end = i + 1;
+			while(end < block.count) {
+				final long r2 = block.offset + end;
+				if(chunk(r2).getInt(offset(r2) + Integer.BYTES + 2 * Long.BYTES)!=line) break;
+				end++;
+				}
+			final int nAlts = buf.get(off + Integer.BYTES + 2 * Long.BYTES + Integer.BYTES);
+			final byte flags = buf.get(off + Integer.BYTES + 2 * Long.BYTES + Integer.BYTES + 1);
+			if(buf.getLong(off + Integer.BYTES)==refKey &&
+				!(skipFiltered && (flags & FLAG_FILTERED)!=0) &&
+				!(skipMultiAlt && nAlts>1)) {
+				return decode(userCtx, block.offset + i, block.offset + end, flags);
+				}
+			i = end;
+			}
+		return null;
+		}
+	
+	/** create the variant for the records [begin,end[ of a gnomad line */
+	private VariantContext decode(final VariantContext userCtx,final long begin,final long end,final byte flags) {
+		final List<Allele> alleles = new ArrayList<>();
+		final List<Long> records = new ArrayList<>();
+		alleles.add(userCtx.getReference());
+		for(final Allele alt: userCtx.getAlternateAlleles()) {
+			final long altKey = alleleKey(alt);
+			for(long r = begin;r< end;r++) {
+				if(chunk(r).getLong(offset(r) + Integer.BYTES + Long.BYTES)==altKey) {
+					alleles.add(alt);
+					records.add(r);
+					break;
+					}
+				}
+			}
+		final VariantContextBuilder vcb = new VariantContextBuilder(null,
+				userCtx.getContig(),
+				userCtx.getStart(),
+				userCtx.getEnd(),
+				alleles
+				);
+		if((flags & FLAG_FILTERED)!=0) {
+			vcb.filter("FILTERED");
+			}
+		else
+			{
+			vcb.passFilters();
+			}
+		for(int f=0;f< this.fields.size();++f) {
+			final Field field = this.fields.get(f);
+			final int fieldOffset = RECORD_HEADER_SIZEOF + f * Integer.BYTES;
+			if(field.perAllele) {
+				final List<Object> values = new ArrayList<>(records.size());
+				for(final long r: records) {
+					final Object o = getValue(field, chunk(r), offset(r) + fieldOffset);
+					values.add(o==null?VCFConstants.MISSING_VALUE_v4:o);
+					}
+				if(!values.isEmpty()) vcb.attribute(field.name, values);
+				}
+			else
+				{
+				final Object o = getValue(field, chunk(begin), offset(begin) + fieldOffset);
+				if(o!=null) vcb.attribute(field.name, o);
+				}
+			}
+		return vcb.make();
+		}
+	
+	private static Object getValue(final Field field,final ByteBuffer buf,final int off) {
+		if(field.type==TYPE_FLOAT) {
+			final float f = buf.getFloat(off);
+			return Float.isNaN(f)?null:f;
+			}
+		else
+			{
+			final int v = buf.getInt(off);
+			return v==MISSING_INT?null:v;
+			}
+		}
+	
+	@Override
+	public void close() {
+		this.records.close();
+		this.contigs.clear();
+		}
+	
+	@Override
+	public String toString() {
+		return this.file.getPath();
+		}
+	}
@@ -0,0 +1,261 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.gnomad;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+import com.github.lindenb.jvarkit.util.jcommander.Program;
+import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
+import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
+
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFConstants;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLineCount;
+import htsjdk.variant.vcf.VCFHeaderLineType;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+
+/**
+BEGIN_DOC
+
+Extract the allele counts, numbers and frequencies of a gnomad VCF into a compact binary file.
+The output file (suffix `.gnomad.idx`) can be used in the manifest of `vcfgnomad` instead of the VCF file: the data are then
+memory-mapped and the INFO column of gnomad is never parsed again.
+
+## Example:
+
+```
+java -jar dist/gnomadindexer.jar -o gnomad.exomes.gnomad.idx gnomad.exomes.r2.0.1.sites.vcf.gz
+```
+
+## See also
+
+* VcfGnomad
+
+END_DOC
+ */
+@Program(name="gnomadindexer",
+	description="Extract the allele counts/frequencies of a gnomad VCF into a binary index that can be used by `vcfgnomad`.",
+	keywords= {"vcf","gnomad","annotation"}
+)
+public class GnomadIndexer extends Launcher{
+	private static final Logger LOG = Logger.build(GnomadIndexer.class).make();
+	@Parameter(names= {"-o","--out"},description="Output file. Must end with '"+GnomadIndex.EXTENSION+"'",required=true)
+	private File outputFile=null;
+	@Parameter(names= {"-F","--fields"},description="INFO fields to extract (comma or space separated). Default: the fields used by vcfgnomad: AC, AN, AF and their populations.")
+	private String fieldsStr="";
+	
+	/** default fields: the ones used by VcfGnomad */
+	private static List<String> getDefaultFields() {
+		final List<String> L = new ArrayList<>();
+		for(final String pop: VcfGnomad.POPS) {
+			L.add("AC_"+pop);
+			L.add("AF_"+pop);
+			L.add("AN_"+pop);
+			}
+		L.addAll(Arrays.asList("AC","AF","AN"));
+		return L;
+		}
+	
+	private static void writeValue(final DataOutputStream dos,final GnomadIndex.Field field,final String value) throws IOException {
+		final boolean missing = value==null || value.isEmpty() || value.equals(VCFConstants.MISSING_VALUE_v4);
+		if(field.type==GnomadIndex.TYPE_FLOAT) {
+			dos.writeFloat(missing?Float.NaN:Float.parseFloat(value));
+			}
+		else
+			{
+			dos.writeInt(missing?GnomadIndex.MISSING_INT:Integer.parseInt(value));
+			}
+		}
+	
+	@Override
+	public int doWork(final List<String> args) {
+		VcfIterator iter = null;
+		DataOutputStream dos = null;
+		try
+			{
+			if(!this.outputFile.getName().endsWith(GnomadIndex.EXTENSION)) {
+				LOG.error("output filename doesn't end with "+GnomadIndex.EXTENSION+" :"+this.outputFile);
+				return -1;
+				}
+			iter = super.openVcfIterator(oneFileOrNull(args));
+			final VCFHeader header = iter.getHeader();
+			
+			final List<String> fieldNames = this.fieldsStr.trim().isEmpty()?
+					getDefaultFields():
+					Arrays.asList(this.fieldsStr.split("[ ,]+"))
+					;
+			final List<GnomadIndex.Field> fields = new ArrayList<>();
+			for(final String name: fieldNames) {
+				if(name.isEmpty()) continue;
+				final VCFInfoHeaderLine info = header.getInfoHeaderLine(name);
+				if(info==null) {
+					LOG.warn("INFO field "+name+" is not defined in the VCF header. Skipping.");
+					continue;
+					}
+				final byte type;
+				if(info.getType()==VCFHeaderLineType.Integer) {
+					type = GnomadIndex.TYPE_INTEGER;
+					}
+				else if(info.getType()==VCFHeaderLineType.Float) {
+					type = GnomadIndex.TYPE_FLOAT;
+					}
+				else
+					{
+					LOG.warn("INFO field "+name+" is not a Integer or a Float. Skipping.");
+					continue;
+					}
+				fields.add(new GnomadIndex.Field(name, type, info.getCountType()==VCFHeaderLineCount.A));
+				}
+			LOG.info("fields: "+fields);
+			
+			dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.outputFile), 1<<20));
+			long offset = 0L;
+			dos.write(GnomadIndex.MAGIC);
+			offset += GnomadIndex.MAGIC.length;
+			dos.writeInt(fields.size());
+			offset += Integer.BYTES;
+			for(final GnomadIndex.Field field: fields) {
+				final int before = dos.size();
+				dos.writeUTF(field.name);
+				dos.writeByte(field.type);
+				dos.writeByte(field.perAllele?1:0);
+				offset += dos.size() - before;
+				}
+			final long recordsOffset = offset;
+			final int recordSize = GnomadIndex.RECORD_HEADER_SIZEOF + fields.size() * Integer.BYTES;
+			
+			/* contig -> [first record, count] */
+			final Map<String,long[]> contig2records = new LinkedHashMap<>();
+			final Set<String> seenContigs = new HashSet<>();
+			final SAMSequenceDictionaryProgress progress = new SAMSequenceDictionaryProgress(header).logger(LOG);
+			long nRecords = 0L;
+			String prevContig = null;
+			int prevPos = 0;
+			int line = 0;
+			final List<List<String>> perAlleleValues = new ArrayList<>(fields.size());
+			while(iter.hasNext()) {
+				final VariantContext ctx = progress.watch(iter.next());
+				if(!ctx.getContig().equals(prevContig)) {
+					if(!seenContigs.add(ctx.getContig())) {
+						throw new JvarkitException.FileFormatError("input is not sorted: contig "+ctx.getContig()+" was already seen.");
+						}
+					contig2records.put(ctx.getContig(), new long[] {nRecords,0L});
+					prevContig = ctx.getContig();
+					prevPos = 0;
+					line = 0;
+					}
+				if(prevPos > ctx.getStart()) {
+					throw new JvarkitException.FileFormatError("input is not sorted "+prevPos +" before "+ctx.getContig()+":"+ctx.getStart());
+					}
+				prevPos = ctx.getStart();
+				line++;
+				final List<Allele> alts = ctx.getAlternateAlleles();
+				if(alts.isEmpty()) continue;
+				
+				perAlleleValues.clear();
+				for(final GnomadIndex.Field field: fields) {
+					if(field.perAllele) {
+						perAlleleValues.add(ctx.getAttributeAsStringList(field.name, null));
+						}
+					else
+						{
+						final List<String> L = ctx.getAttributeAsStringList(field.name, null);
+						perAlleleValues.add(L.isEmpty()?L:L.subList(0, 1));
+						}
+					}
+				
+				final long refKey = GnomadIndex.alleleKey(ctx.getReference());
+				for(int a=0;a< alts.size();a++) {
+					dos.writeInt(ctx.getStart());
+					dos.writeLong(refKey);
+					dos.writeLong(GnomadIndex.alleleKey(alts.get(a)));
+					dos.writeInt(line);
+					dos.writeByte(Math.min(alts.size(),Byte.MAX_VALUE));
+					dos.writeByte(ctx.isFiltered()?GnomadIndex.FLAG_FILTERED:0);
+					for(int f=0;f< fields.size();f++) {
+						final GnomadIndex.Field field = fields.get(f);
+						final List<String> values = perAlleleValues.get(f);
+						final int idx = field.perAllele?a:0;
+						writeValue(dos, field, idx< values.size()?values.get(idx):null);
+						}
+					nRecords++;
+					}
+				contig2records.get(ctx.getContig())[1] = nRecords - contig2records.get(ctx.getContig())[0];
+				}
+			progress.finish();
+			
+			/* table of contigs */
+			final long tableOffset = recordsOffset + nRecords * recordSize;
+			dos.writeInt(contig2records.size());
+			for(final String contig: contig2records.keySet()) {
+				final long[] v = contig2records.get(contig);
+				dos.writeUTF(contig);
+				dos.writeLong(v[0]);
+				dos.writeLong(v[1]);
+				}
+			dos.writeLong(tableOffset);
+			dos.flush();
+			dos.close();
+			dos = null;
+			iter.close();
+			iter = null;
+			LOG.info("Done "+nRecords+" records. File size:"+this.outputFile.length());
+			return 0;
+			}
+		catch(final Exception err)
+			{
+			LOG.error(err);
+			if(this.outputFile!=null) this.outputFile.delete();
+			return -1;
+			}
+		finally
+			{
+			CloserUtil.close(dos);
+			CloserUtil.close(iter);
+			}
+		}
+	
+	public static void main(String[] args) {
+		new GnomadIndexer().instanceMainWithExit(args);
+		}
+	}
@@ -84,6 +84,9 @@ BEGIN_DOC
    * 2d column is a contig name e.g: '1' .  Use '*' for 'any' chromosome
    * 3d column is a URL or file path where to find the data
  
+ The file path can be a binary index (suffix `.gnomad.idx`) created by `gnomadindexer`. The index
+ only contains the AC/AN/AF fields and the FILTER status: it is memory-mapped and is much faster than parsing the gnomad VCF.
+ 
  
 ## Example:
  
@@ -125,7 +128,7 @@ public class VcfGnomad extends Launcher{
 	
 	private static final Logger LOG = Logger.build(VcfGnomad.class).make();
 	/** allele specific population in gnomad */
-	private final static String POPS[]=new String[]{"AFR", "AMR", "ASJ", "EAS", "FIN", "NFE", "OTH", "Male", "Female","SAS", "raw", "POPMAX"}; 
+	final static String POPS[]=new String[]{"AFR", "AMR", "ASJ", "EAS", "FIN", "NFE", "OTH", "Male", "Female","SAS", "raw", "POPMAX"}; 
 	/** 'ome'-type section */
 	private enum OmeType {exome,genome};
 	
@@ -145,7 +148,7 @@ public class VcfGnomad extends Launcher{
 		implements VariantContextWriterFactory
 		{		
 		@XmlElement(name="manifest")
-		@Parameter(names={"-m","--manifest"},description="manifest file descibing how to map a contig to an URI . 3 columns: 1) exome|genome 2) contig 3) path or URL.")
+		@Parameter(names={"-m","--manifest"},description="manifest file descibing how to map a contig to an URI . 3 columns: 1) exome|genome 2) contig 3) path or URL. The path can be a binary index ending with '"+GnomadIndex.EXTENSION+"' created by gnomadindexer.")
 		private File manifestFile=null;
 		
 		@XmlElement(name="skip-filtered")
@@ -289,6 +292,8 @@ public class VcfGnomad extends Launcher{
 			/** when using vcf streaming */
 			VcfIterator gnomad_vcf_iterator = null;
 			EqualRangeVcfIterator gnomad_equal_range=null;
+			/** when using a binary index created by GnomadIndexer */
+			GnomadIndex gnomad_index = null;
 			
 			int buffferChromEnd=0;
 			final Map<ContigPosRef,VariantContext> buffer=new HashMap<>();
@@ -297,15 +302,21 @@ public class VcfGnomad extends Launcher{
 				CloserUtil.close(gnomad_tabix);
 				CloserUtil.close(gnomad_equal_range);
 				CloserUtil.close(gnomad_vcf_iterator);
+				CloserUtil.close(gnomad_index);
 				this.buffer.clear();
 				this.buffferChromEnd=0;
 				this.gnomad_tabix=null;
 				this.gnomad_vcf_iterator=null;
+				this.gnomad_index=null;
 				}
 			public void open()
 				{
 				try {
-					if(CtxWriterFactory.this.streaming)
+					if(this.uri.endsWith(GnomadIndex.EXTENSION))
+						{
+						this.gnomad_index = new GnomadIndex(new File(this.uri));
+						}
+					else if(CtxWriterFactory.this.streaming)
 						{
 						this.gnomad_vcf_iterator = VCFUtils.createVcfIterator(this.uri);
 						final SAMSequenceDictionary dict = this.gnomad_vcf_iterator.getHeader().getSequenceDictionary();
@@ -329,8 +340,14 @@ public class VcfGnomad extends Launcher{
 			/** find matching variant in tabix file, use a buffer to avoid multiple random accesses */
 			VariantContext findMatching(final VariantContext userVariantCtx)
 				{
-				
-				if( CtxWriterFactory.this.streaming) {
+				if(this.gnomad_index!=null) {
+					return this.gnomad_index.query(
+							userVariantCtx,
+							CtxWriterFactory.this.filteredGnomad,
+							CtxWriterFactory.this.noMultiAltGnomad
+							);
+					}
+				else if( CtxWriterFactory.this.streaming) {
 					try {
 						final List<VariantContext> found = this.gnomad_equal_range.next(
 								userVariantCtx
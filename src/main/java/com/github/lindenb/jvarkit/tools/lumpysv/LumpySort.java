@@ -24,7 +24,10 @@ SOFTWARE.
 package com.github.lindenb.jvarkit.tools.lumpysv;
 
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -32,7 +35,9 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
@@ -42,12 +47,15 @@ import java.util.stream.Collectors;
 
 
 import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.math.stats.Percentile;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLineCodec;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.ExternalSortingCollection;
 import com.github.lindenb.jvarkit.util.vcf.JexlVariantPredicate;
 import com.sleepycat.bind.tuple.TupleBinding;
 import com.sleepycat.bind.tuple.TupleInput;
@@ -97,8 +105,20 @@ input is a set of VCF file or a file ending with '.list' and containing one line
 
 ```
 $ find DIR -name "*.vcf" > vcf.list
+$ java -jar dist/lumpysort.jar vcf.list > merged.vcf
+```
+
+## Backends
+
+By default, the variants are sorted on disk in compressed sorted runs (options `--maxRecordsInRam`, `--tmpDir`, `--sort-threads`)
+and the runs are merged and scanned once. The variants that may still be merged with the current variant are kept in a
+sliding window, so memory only depends on the number of overlapping variants.
+
+The former Berkeley DB backend is still available with `--bdb DIR` (e.g. for benchmarking). Both backends produce the same output.
+
+```
 $ mkdir -p BDB
-$ java -jar dist/lumpysort.jar --bdb BDB/  vcf.list > merged.ved
+$ java -jar dist/lumpysort.jar --bdb BDB/  vcf.list > merged.vcf
 ```
 
 END_DOC
@@ -128,8 +148,10 @@ public class LumpySort
 	private boolean do_genotype = false;
 	@Parameter(names={"-B","--bed"},description="restrict to variants overlapping this BED file.")
 	private File bedFile = null;
-	@Parameter(names={"-bdb","--bdb"},description="Berkeley DB working directory. It must exists and must be writeable.",required=true)
+	@Parameter(names={"-bdb","--bdb"},description="Berkeley DB working directory. It must exists and must be writeable. [20181016] If this option is not set, the variants are sorted using sorted runs on disk.")
 	private File bdbHomeDir = null;
+	@ParametersDelegate
+	private WritingSortingCollection writingSortingCollection = new WritingSortingCollection();
 	
 	/** encoder for VariantCtx -> line */
 	private VCFEncoder vcfEncoder = null;
@@ -147,14 +169,12 @@ public class LumpySort
 			int L=in.readInt();
 			byte array[]=new byte[L];
 			in.readFast(array);
-			final LumpyVar v= new LumpyVar(linetoVariantContext(new String(array)),id);
-			return v;
+			return new LumpyVar(new String(array),id);
 			}
 		@Override
 		public void objectToEntry(final LumpyVar v,final TupleOutput out) {
 			out.writeLong(v.id);
-			final String line = variantContextToLine(v.ctx);
-			final byte array[]=line.getBytes();
+			final byte array[]=v.getLine().getBytes();
 			out.writeInt(array.length);
 			out.write(array);
 			}
@@ -162,6 +182,46 @@ public class LumpySort
 	
 	
 
+	/** SortingCollection LumpyVar codec, the sort key is saved with the VCF line */
+	private class LumpyVarCodec extends AbstractDataCodec<LumpyVar>
+		{
+		private final StructuralVariantType sttypes[]=StructuralVariantType.values();
+		@Override
+		public LumpyVar decode(final DataInputStream dis) throws IOException {
+			final KeySorter ks= new KeySorter();
+			try {
+				ks.st = this.sttypes[(int)dis.readByte()];
+				}
+			catch(final IOException err)
+				{
+				return null;
+				}
+			ks.contig1 = dis.readUTF();
+			ks.contig2 = (ks.st.equals(StructuralVariantType.BND)?dis.readUTF():ks.contig1);
+			ks.start = dis.readInt();
+			ks.end = dis.readInt();
+			ks.id = dis.readLong();
+			return new LumpyVar(ks, readString(dis));
+			}
+		@Override
+		public void encode(final DataOutputStream dos,final LumpyVar v) throws IOException {
+			final KeySorter ks = v.getSortKey();
+			dos.writeByte((byte)ks.st.ordinal());
+			dos.writeUTF(ks.contig1);
+			if(ks.st.equals(StructuralVariantType.BND)) {
+				dos.writeUTF(ks.contig2);
+				}
+			dos.writeInt(ks.start);
+			dos.writeInt(ks.end);
+			dos.writeLong(ks.id);
+			writeString(dos, v.getLine());
+			}
+		@Override
+		public LumpyVarCodec clone() {
+			return new LumpyVarCodec();
+			}
+		}
+	
 	/** berkeley DB 'key' object */
 	private static class KeySorter
 		{
@@ -252,7 +312,10 @@ public class LumpySort
 	/** VariantContext wrapper */
 	private class LumpyVar
 		{
-		private final VariantContext ctx;
+		/** variant, lazily decoded from 'line' */
+		private VariantContext ctx;
+		/** VCF line, lazily encoded from 'ctx' */
+		private String line;
 		private final long id;
 		private Interval _interval=null;
 		private Interval _bndinterval=null;
@@ -261,10 +324,34 @@ public class LumpySort
 		LumpyVar(final VariantContext ctx,final long id)
 			{
 			this.ctx = ctx;
+			this.line = null;
+			this.id=id;
+			}
+		LumpyVar(final String line,final long id)
+			{
+			this.ctx = null;
+			this.line = line;
 			this.id=id;
 			}
+		/** variant decoded from the sorted runs, the sort key was saved with the line */
+		LumpyVar(final KeySorter sortKey,final String line)
+			{
+			this(line,sortKey.id);
+			this._sortKey = sortKey;
+			}
+		
+		VariantContext getContext() {
+			if(this.ctx==null) this.ctx = linetoVariantContext(this.line);
+			return this.ctx;
+			}
+		
+		String getLine() {
+			if(this.line==null) this.line = variantContextToLine(this.ctx);
+			return this.line;
+			}
+		
 		private Set<String> getGenotypedSamples() {
-			return ctx.getGenotypes().stream().
+			return getContext().getGenotypes().stream().
 					filter(G->isAvailableGenotype(G)).
 					map(G->G.getSampleName()).
 					collect(Collectors.toSet());
@@ -272,13 +359,14 @@ public class LumpySort
 		
 		private KeySorter getSortKey() {
 			if(_sortKey==null) {
+				final VariantContext ctx = getContext();
 				final Function<String,String> normalize=C->C.startsWith("chr")?C.substring(3):C;
 				final Interval rgn = getInterval() ;
 				_sortKey = new KeySorter();
-				_sortKey.st = this.ctx.getStructuralVariantType();
+				_sortKey.st = ctx.getStructuralVariantType();
 				_sortKey.contig1 = normalize.apply(rgn.getContig());
 				if(_sortKey.st.equals(StructuralVariantType.BND)) {
-					_sortKey.contig2 = normalize.apply(LumpyConstants.getBnDContig(this.ctx.getAlternateAllele(0).getDisplayString()));
+					_sortKey.contig2 = normalize.apply(LumpyConstants.getBnDContig(ctx.getAlternateAllele(0).getDisplayString()));
 					}
 				else
 					{
@@ -293,6 +381,7 @@ public class LumpySort
 		
 		private Interval getInterval() {
 			if(this._interval==null) {
+				final VariantContext ctx = getContext();
 				if(!ctx.hasAttribute("CIPOS")) throw new IllegalArgumentException("No CIPOS in "+ctx);
 				final List<Integer> ciposL= ctx.getAttributeAsIntList("CIPOS",0);
 				if(ciposL.size()!=2) throw new IllegalArgumentException("len(CIPOS)!=2 in "+ctx);
@@ -310,6 +399,7 @@ public class LumpySort
 			}
 		private Interval getBndInterval() {
 			if(this._bndinterval==null) {
+				final VariantContext ctx = getContext();
 				if(!ctx.hasAttribute("CIPOS")) throw new IllegalArgumentException("No CIPOS in "+ctx);
 				final List<Integer> ciposL= ctx.getAttributeAsIntList("CIPOS",0);
 				if(ciposL.size()!=2) throw new IllegalArgumentException("len(CIPOS)!=2 in "+ctx);
@@ -353,7 +443,7 @@ public class LumpySort
 			Interval L1 = this.getInterval();
 			Interval L2 = o.getInterval();
 			if(!LumpySort.this.overlap(L1,L2)) return false;
-			if(this.ctx.getStructuralVariantType()==StructuralVariantType.BND) {
+			if(getContext().getStructuralVariantType()==StructuralVariantType.BND) {
 				L1 = this.getBndInterval();
 				L2 = o.getBndInterval();
 				if(!LumpySort.this.overlap(L1,L2)) return false;
@@ -400,12 +490,86 @@ public class LumpySort
 		return true;
 		}
 	
+	/** merge a set of overlapping variants, the first variant of 'buffer' is the reference */
+	private VariantContext mergeLumpyVars(
+			final List<LumpyVar> buffer,
+			final Set<String> sampleNames,
+			final VCFInfoHeaderLine nSampleInfoHeaderLine,
+			final List<Allele> ALLELES_NO_CALLS
+			) {
+		final LumpyVar first = buffer.get(0);
+		final int variantStartA = buffer.stream().
+				mapToInt(V->V.getContext().getStart()).
+				min().getAsInt();
+		final int variantStartB = (int)buffer.stream().
+				mapToInt(V->V.getContext().getStart()).
+				average().getAsDouble();
+		final int variantStartC = buffer.stream().
+				mapToInt(V->V.getContext().getStart()).
+				max().getAsInt();
+		
+		final int variantEndA = buffer.stream().
+				mapToInt(V->V.getContext().getEnd()).
+				min().getAsInt();
+		final int variantEndB = (int)buffer.stream().
+				mapToInt(V->V.getContext().getEnd()).
+				average().getAsDouble();
+		final int variantEndC = buffer.stream().
+				mapToInt(V->V.getContext().getEnd()).
+				max().getAsInt();
+		
+		final VariantContextBuilder vcb = new VariantContextBuilder(
+				"lumpymerge",
+				first.getContext().getContig(),
+				variantStartB,
+				variantEndB,
+				first.getContext().getAlleles()
+				);
+		vcb.attribute("END", variantEndB);
+		vcb.attribute("SVTYPE", first.getContext().getAttribute("SVTYPE"));
+		vcb.attribute("SVLEN", (int)Percentile.median().evaluate(buffer.stream().mapToInt(V->V.getContext().getEnd()-V.getContext().getStart())));
+		vcb.attribute("CIPOS",Arrays.asList(variantStartB-variantStartA,variantStartC-variantStartB));
+		vcb.attribute("CIEND",Arrays.asList(variantEndB-variantEndA,variantEndC-variantEndB));
+		vcb.attribute("SU",buffer.stream().flatMap(V->V.getContext().getGenotypes().stream()).mapToInt(G->G.getAttributeAsInt("SU", 0)).sum());
+		vcb.attribute("SR",buffer.stream().flatMap(V->V.getContext().getGenotypes().stream()).mapToInt(G->G.getAttributeAsInt("SR", 0)).sum());
+		vcb.attribute("PE",buffer.stream().flatMap(V->V.getContext().getGenotypes().stream()).mapToInt(G->G.getAttributeAsInt("PE", 0)).sum());
+
+		
+		
+		final Map<String,Genotype> sample2genotype = new HashMap<>(sampleNames.size());
+		
+		
+		buffer.stream().flatMap(V->V.getContext().getGenotypes().stream()).
+			filter(G->isAvailableGenotype(G)).
+			forEach(G->{
+			sample2genotype.put(G.getSampleName(), G);
+		});
+		
+		vcb.attribute(nSampleInfoHeaderLine.getID(), sample2genotype.size());
+		
+		for(final String sn: sampleNames)
+			{
+			if(!sample2genotype.containsKey(sn))
+				{
+				sample2genotype.put(sn, new GenotypeBuilder(sn,ALLELES_NO_CALLS).
+						attribute("SU",0).
+						attribute("SR",0).
+						attribute("PE",0).
+						make());
+				}	
+			}
+		
+		vcb.genotypes(sample2genotype.values());
+		return vcb.make();
+		}
+	
 	@Override
 	public int doWork(final List<String> args) {
 	VariantContextWriter vcw = null;
 	LineIterator vcfIn= null;
 	Environment environment = null;
 	Database variantsDb1=null;
+	ExternalSortingCollection<LumpyVar> sorter = null;
 	final List<File> inputs = IOUtil.unrollFiles(
 			args.stream().map(S->new File(S)).collect(Collectors.toList()),
 			".vcf",".vcf.gz");
@@ -414,7 +578,7 @@ public class LumpySort
 		return -1;
 		}
 	try {
-		IOUtil.assertDirectoryIsWritable(this.bdbHomeDir);
+		if(this.bdbHomeDir!=null) IOUtil.assertDirectoryIsWritable(this.bdbHomeDir);
 
 		final Set<VCFHeaderLine> metaData = new HashSet<>();
 		final Set<String> sampleNames = new TreeSet<>();
@@ -492,21 +656,31 @@ public class LumpySort
 				);
 		
 		
-		/* open BDB env */
 		final Transaction txn=null;
-		environment = new Environment(this.bdbHomeDir, 
-				new EnvironmentConfig().
+		if(this.bdbHomeDir!=null)
+			{
+			/* open BDB env */
+			environment = new Environment(this.bdbHomeDir, 
+					new EnvironmentConfig().
+						setAllowCreate(true).
+						setReadOnly(false)
+				);
+			
+			variantsDb1 = environment.openDatabase(txn,"variants1",
+				new DatabaseConfig().
+					setBtreeComparator(KeySorterComparator.class).
 					setAllowCreate(true).
-					setReadOnly(false)
-			);
-		
-		variantsDb1 = environment.openDatabase(txn,"variants1",
-			new DatabaseConfig().
-				setBtreeComparator(KeySorterComparator.class).
-				setAllowCreate(true).
-				setReadOnly(false).
-				setTemporary(true)
-			);
+					setReadOnly(false).
+					setTemporary(true)
+				);
+			}
+		else
+			{
+			sorter = this.writingSortingCollection.newSortingCollection(
+					new LumpyVarCodec(),
+					(A,B)->A.getSortKey().compare2(B.getSortKey())
+					);
+			}
 		
 		long total_variants = 0L;
 		
@@ -569,16 +743,24 @@ public class LumpySort
 						make();
 				
 				final LumpyVar lvar = new LumpyVar(ctx,total_variants);
-				final DatabaseEntry key = new DatabaseEntry();
-				final DatabaseEntry data = new DatabaseEntry();
-				
-				lumpVarBinding.objectToEntry(lvar, data);
-				keySorterBinding.objectToEntry(lvar.getSortKey(), key);
-				if(variantsDb1.put(txn, key, data)!=OperationStatus.SUCCESS)
+				if(sorter!=null)
 					{
-					r.close();
-					LOG.error("insertion failed");
-					return -1;
+					/* only keep the sort key and the VCF line in memory */
+					sorter.add(new LumpyVar(lvar.getSortKey(),lvar.getLine()));
+					}
+				else
+					{
+					final DatabaseEntry key = new DatabaseEntry();
+					final DatabaseEntry data = new DatabaseEntry();
+					
+					lumpVarBinding.objectToEntry(lvar, data);
+					keySorterBinding.objectToEntry(lvar.getSortKey(), key);
+					if(variantsDb1.put(txn, key, data)!=OperationStatus.SUCCESS)
+						{
+						r.close();
+						LOG.error("insertion failed");
+						return -1;
+						}
 					}
 				nVariant++;
 				total_variants++;
@@ -602,132 +784,140 @@ public class LumpySort
 				? Collections.singletonList(Allele.NO_CALL)
 				: Arrays.asList(Allele.NO_CALL,Allele.NO_CALL)
 				;
-		final Cursor cursor = variantsDb1.openCursor(txn, null);
-
-
 		vcw = super.openVariantContextWriter(this.outputFile);
 		vcw.writeHeader(outHeader);
 		
-		for(;;)
+		if(sorter!=null)
 			{
-			final DatabaseEntry key = new DatabaseEntry();
-			final DatabaseEntry data = new DatabaseEntry();
-			OperationStatus status = cursor.getNext(key, data, LockMode.DEFAULT);
-			if(!status.equals(OperationStatus.SUCCESS)) break;
-			final LumpyVar first = lumpVarBinding.entryToObject(data);
-			if(this.do_not_merge_ctx)
-				{
-				vcw.add(first.ctx);
-				continue;
-				}
-
-			final KeySorter keySorter1 = keySorterBinding.entryToObject(key);
-
-			
-			final List<LumpyVar> buffer = new ArrayList<>();
-			buffer.add(first);
-			
-			final DatabaseEntry key2 = new DatabaseEntry();
-			final DatabaseEntry data2 = new DatabaseEntry();
-
-			final Cursor cursor2=cursor.dup(true);
+			sorter.doneAdding();
+			sorter.setDestructiveIteration(true);
+			final CloseableIterator<LumpyVar> iter = sorter.iterator();
+			/* sweep-line: variants following the current one in the sort order that have not been merged yet */
+			final LinkedList<LumpyVar> window = new LinkedList<>();
 			for(;;)
 				{
-				status = cursor2.getNext(key2, data2, LockMode.DEFAULT);
-				if(!status.equals(OperationStatus.SUCCESS)) break;
-				final KeySorter keySorter2 = keySorterBinding.entryToObject(key2);
-
-				if(keySorter1.compare1(keySorter2)!=0) 
+				if(window.isEmpty())
 					{
-					break;
+					if(!iter.hasNext()) break;
+					window.add(iter.next());
 					}
-				
-				final LumpyVar lv = lumpVarBinding.entryToObject(data2);
-				if(lv.ctx.getStart()>first.ctx.getEnd()) {
-					break;
+				final LumpyVar first = window.removeFirst();
+				if(this.do_not_merge_ctx)
+					{
+					vcw.add(first.getContext());
+					continue;
 					}
-				if(first.canMerge(lv))
+				final KeySorter keySorter1 = first.getSortKey();
+				final List<LumpyVar> buffer = new ArrayList<>();
+				buffer.add(first);
+				
+				/* same scan as the Berkeley DB cursor: stop at the first variant that cannot overlap 'first' */
+				final ListIterator<LumpyVar> li = window.listIterator();
+				for(;;)
 					{
-					buffer.add(lv);
-					cursor2.delete();
+					final boolean inWindow;
+					final LumpyVar lv;
+					if(li.hasNext())
+						{
+						lv = li.next();
+						inWindow = true;
+						}
+					else if(iter.hasNext())
+						{
+						lv = iter.next();
+						inWindow = false;
+						}
+					else
+						{
+						break;
+						}
+					final boolean stop = keySorter1.compare1(lv.getSortKey())!=0 ||
+							lv.getContext().getStart() > first.getContext().getEnd();
+					if(!stop && first.canMerge(lv))
+						{
+						buffer.add(lv);
+						if(inWindow) li.remove();
+						}
+					else if(!inWindow)
+						{
+						li.add(lv);
+						}
+					if(stop) break;
 					}
+				vcw.add(mergeLumpyVars(buffer, sampleNames, nSampleInfoHeaderLine, ALLELES_NO_CALLS));
 				}
-			cursor2.close();
-			
-			
-			cursor.delete();//delete 'first'
-			
-			
-			
-			final int variantStartA = buffer.stream().
-					mapToInt(V->V.ctx.getStart()).
-					min().getAsInt();
-			final int variantStartB = (int)buffer.stream().
-					mapToInt(V->V.ctx.getStart()).
-					average().getAsDouble();
-			final int variantStartC = buffer.stream().
-					mapToInt(V->V.ctx.getStart()).
-					max().getAsInt();
+			iter.close();
+			sorter.cleanup();
+			sorter = null;
+			}
+		else
+			{
+			final Cursor cursor = variantsDb1.openCursor(txn, null);
+			for(;;)
+				{
+				final DatabaseEntry key = new DatabaseEntry();
+				final DatabaseEntry data = new DatabaseEntry();
+				OperationStatus status = cursor.getNext(key, data, LockMode.DEFAULT);
+				if(!status.equals(OperationStatus.SUCCESS)) break;
+				final LumpyVar first = lumpVarBinding.entryToObject(data);
+				if(this.do_not_merge_ctx)
+					{
+					vcw.add(first.getContext());
+					continue;
+					}
+
+				final KeySorter keySorter1 = keySorterBinding.entryToObject(key);
+
 			
-			final int variantEndA = buffer.stream().
-					mapToInt(V->V.ctx.getEnd()).
-					min().getAsInt();
-			final int variantEndB = (int)buffer.stream().
-					mapToInt(V->V.ctx.getEnd()).
-					average().getAsDouble();
-			final int variantEndC = buffer.stream().
-					mapToInt(V->V.ctx.getEnd()).
-					max().getAsInt();
+				final List<LumpyVar> buffer = new ArrayList<>();
+				buffer.add(first);
 			
-			final VariantContextBuilder vcb = new VariantContextBuilder(
-					"lumpymerge",
-					first.ctx.getContig(),
-					variantStartB,
-					variantEndB,
-					first.ctx.getAlleles()
-					);
-			vcb.attribute("END", variantEndB);
-			vcb.attribute("SVTYPE", first.ctx.getAttribute("SVTYPE"));
-			vcb.attribute("SVLEN", (int)Percentile.median().evaluate(buffer.stream().mapToInt(V->V.ctx.getEnd()-V.ctx.getStart())));
-			vcb.attribute("CIPOS",Arrays.asList(variantStartB-variantStartA,variantStartC-variantStartB));
-			vcb.attribute("CIEND",Arrays.asList(variantEndB-variantEndA,variantEndC-variantEndB));
-			vcb.attribute("SU",buffer.stream().flatMap(V->V.ctx.getGenotypes().stream()).mapToInt(G->G.getAttributeAsInt("SU", 0)).sum());
-			vcb.attribute("SR",buffer.stream().flatMap(V->V.ctx.getGenotypes().stream()).mapToInt(G->G.getAttributeAsInt("SR", 0)).sum());
-			vcb.attribute("PE",buffer.stream().flatMap(V->V.ctx.getGenotypes().stream()).mapToInt(G->G.getAttributeAsInt("PE", 0)).sum());
+				final DatabaseEntry key2 = new DatabaseEntry();
+				final DatabaseEntry data2 = new DatabaseEntry();
 
+				final Cursor cursor2=cursor.dup(true);
+				for(;;)
+					{
+					status = cursor2.getNext(key2, data2, LockMode.DEFAULT);
+					if(!status.equals(OperationStatus.SUCCESS)) break;
+					final KeySorter keySorter2 = keySorterBinding.entryToObject(key2);
+
+					if(keySorter1.compare1(keySorter2)!=0) 
+						{
+						break;
+						}
+				
+					final LumpyVar lv = lumpVarBinding.entryToObject(data2);
+					if(lv.getContext().getStart()>first.getContext().getEnd()) {
+						break;
+						}
+					if(first.canMerge(lv))
+						{
+						buffer.add(lv);
+						cursor2.delete();
+						}
+					}
+				cursor2.close();
 			
 			
-			final Map<String,Genotype> sample2genotype = new HashMap<>(sampleNames.size());
-			
+				cursor.delete();//delete 'first'
 			
-			buffer.stream().flatMap(V->V.ctx.getGenotypes().stream()).
-				filter(G->isAvailableGenotype(G)).
-				forEach(G->{
-				sample2genotype.put(G.getSampleName(), G);
-			});
 			
-			vcb.attribute(nSampleInfoHeaderLine.getID(), sample2genotype.size());
 			
-			for(final String sn: sampleNames)
-				{
-				if(!sample2genotype.containsKey(sn))
-					{
-					sample2genotype.put(sn, new GenotypeBuilder(sn,ALLELES_NO_CALLS).
-							attribute("SU",0).
-							attribute("SR",0).
-							attribute("PE",0).
-							make());
-					}	
+				vcw.add(mergeLumpyVars(buffer, sampleNames, nSampleInfoHeaderLine, ALLELES_NO_CALLS));
 				}
-			
-			vcb.genotypes(sample2genotype.values());
-			vcw.add(vcb.make());
+			cursor.close();
 			}
-		cursor.close();
 		vcw.close();vcw=null;
 		
-		variantsDb1.close();variantsDb1=null;
-		environment.close();environment=null;
+		if(variantsDb1!=null) {
+			variantsDb1.close();
+			variantsDb1=null;
+			}
+		if(environment!=null) {
+			environment.close();
+			environment=null;
+			}
 		return 0;
 		}
 	catch(final Exception err)
@@ -741,6 +931,7 @@ public class LumpySort
 		CloserUtil.close(vcw);
 		CloserUtil.close(variantsDb1);
 		CloserUtil.close(environment);
+		if(sorter!=null) sorter.cleanup();
 		} 
 	}
 	 
@@ -0,0 +1,105 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.misc;
+
+import java.io.File;
+import java.util.List;
+
+import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.util.bio.fasta.TwoBitSequenceFile;
+import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+import com.github.lindenb.jvarkit.util.jcommander.Program;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+import htsjdk.samtools.util.CloserUtil;
+
+/**
+BEGIN_DOC
+
+## Motivation
+
+Converts a FASTA reference to the UCSC '.2bit' format. Bases other than ACGT are stored as 'N', lowercase (soft-masked)
+bases are kept. The output can be used by the tools accepting a reference with `ReferenceGenomeFactory`
+(the 2bit file is memory-mapped and shared between the threads) and by the UCSC tools (twoBitToFa...).
+
+The contigs are converted one by one, so the memory must be large enough to hold the largest contig.
+
+## Example
+
+```
+$ java -jar dist/fasta2twobit.jar -o ref.2bit ref.fa
+```
+
+END_DOC
+ */
+@Program(name="fasta2twobit",
+	description="Converts a FASTA reference to the UCSC 2bit format.",
+	keywords={"fasta","reference","2bit"}
+	)
+public class FastaToTwoBit extends Launcher
+	{
+	private static final Logger LOG = Logger.build(FastaToTwoBit.class).make();
+
+	@Parameter(names={"-o","--output"},description="Output 2bit file.",required=true)
+	private File outputFile = null;
+	
+	@Override
+	public int doWork(final List<String> args) {
+		ReferenceSequenceFile ref = null;
+		try
+			{
+			if(!this.outputFile.getName().endsWith(TwoBitSequenceFile.SUFFIX)) {
+				LOG.error("output file must end with "+TwoBitSequenceFile.SUFFIX);
+				return -1;
+				}
+			final File fastaFile = new File(oneAndOnlyOneFile(args));
+			ref = ReferenceSequenceFileFactory.getReferenceSequenceFile(fastaFile);
+			TwoBitSequenceFile.write(ref, this.outputFile);
+			ref.close();
+			ref = null;
+			
+			/* check the output can be read */
+			try(TwoBitSequenceFile twoBit = new TwoBitSequenceFile(this.outputFile)) {
+				LOG.info("wrote "+twoBit.getSequenceDictionary().size()+" sequence(s) in "+this.outputFile);
+				}
+			return 0;
+			}
+		catch(final Exception err)
+			{
+			LOG.error(err);
+			return -1;
+			}
+		finally
+			{
+			CloserUtil.close(ref);
+			}
+		}
+	
+	public static void main(final String[] args) {
+		new FastaToTwoBit().instanceMainWithExit(args);
+		}
+	}
@@ -30,28 +30,29 @@ package com.github.lindenb.jvarkit.tools.misc;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
 
-import htsjdk.samtools.Cigar;
-import htsjdk.samtools.CigarElement;
 import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.SAMRecord;
-import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.filter.FilteringSamIterator;
 import htsjdk.samtools.filter.SamRecordFilter;
 import htsjdk.samtools.reference.IndexedFastaSequenceFile;
 import htsjdk.samtools.util.CloserUtil;
@@ -59,10 +60,10 @@ import htsjdk.samtools.util.StringUtil;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
-import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLine;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLineCodec;
 import com.github.lindenb.jvarkit.util.bio.fasta.ContigNameConverter;
+import com.github.lindenb.jvarkit.util.samtools.ColumnarPileup;
 import com.github.lindenb.jvarkit.util.samtools.SamRecordJEXLFilter;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
@@ -102,6 +103,8 @@ $ find ./testdata/ -type f -name "*.bam" | \
 ## History
 
  * 2017: moved to jcommander
+ * 2018-10-16: all the BAMs are scanned at once, contig by contig, with a multi-sample pileup. The rows are now grouped by position (previously grouped by BAM).
+ * 2018-10-16: fixed the cigar walk: when a position was reached inside a cigar element, the read was counted again for the next element (e.g. 'M' then 'S', 'D' or 'M'). The depth and the counts of the previous versions could be too high. Clipped bases are counted for all the reads whose clipped bases are projected on the position, at most '--clip-margin' bases from their aligned bases.
 
 END_DOC
  */
@@ -116,6 +119,7 @@ public class FindAllCoverageAtPosition extends Launcher
 	private static final char INSERTION_CHAR='^';
 	private static final char DELETION_CHAR='-';
 	private static final char BASES_To_PRINT[]=new char[]{'A','C','G','T','N',INSERTION_CHAR,DELETION_CHAR};
+	private static final String DEFAULT_SAMPLE_NAME="(undefined)";
 
 	@Parameter(names={"-p","--position"},description="-p chrom:pos . Multiple separated by space. Add this chrom/position. Required")
 	private String positionStr = "";
@@ -131,6 +135,10 @@ public class FindAllCoverageAtPosition extends Launcher
 	private SamRecordFilter filter = SamRecordJEXLFilter.buildDefault();
 	@Parameter(names={"-r","-R","--reference"},description="[20171201]"+Launcher.INDEXED_FASTA_REFERENCE_DESCRIPTION)
 	private File referenceFileFile=null;
+	@Parameter(names={"--clip-margin"},description="[20181016] The reads are fetched this number of bases around each position, "
+			+ "and a clipped base is counted if it is projected on the position at most this distance from the aligned bases of its read. "
+			+ "Increase it for long clipped sequences. '1' gives the reads of the previous versions: only the reads aligned next to the position.")
+	private int clipMargin = 1_000;
 	
 	private IndexedFastaSequenceFile indexedFastaSequenceFile=null;
 	private GenomicSequence genomicSequence=null;
@@ -194,11 +202,6 @@ public class FindAllCoverageAtPosition extends Launcher
 		
 		}
 	
-	private static class CigarAndBases
-		{
-		Counter<CigarOperator> operators = new Counter<>();
-		Counter<Character> bases = new Counter<>();
-		}
 	private PrintWriter out=null;
 	private SamReaderFactory samReaderFactory;
     public FindAllCoverageAtPosition()
@@ -238,20 +241,36 @@ public class FindAllCoverageAtPosition extends Launcher
     	return genomicSequence.charAt(pos1-1);
     	}
 
-    private void scan(final BufferedReader in,final Set<Mutation> mutations) throws Exception
+    /** a BAM file and the index of its first sample in the pileup */
+    private static class BamInput
+    	{
+    	final File file;
+    	final SamReader samReader;
+    	final List<String> samples;
+    	final int firstSample;
+    	/** true if there is no read group in the header */
+    	final boolean noReadGroup;
+    	BamInput(final File file,final SamReader samReader,final List<String> samples,final int firstSample,final boolean noReadGroup) {
+    		this.file = file;
+    		this.samReader = samReader;
+    		this.samples = samples;
+    		this.firstSample = firstSample;
+    		this.noReadGroup = noReadGroup;
+    		}
+    	}
+    
+    /** read the paths of the BAMs and open them */
+    private void readBamList(final BufferedReader in,final List<BamInput> inputs) throws IOException
     	{
-
-    	final String DEFAULT_SAMPLE_NAME="(undefined)";
     	String line;
     	while((line=in.readLine())!=null)
 			{
-    		if(out.checkError()) break;
 			if(line.isEmpty() || line.startsWith("#")) continue;
-			File f=new File(line);
+			final File f=new File(line);
 			if(!f.exists()) continue;
 			if(!f.isFile()) continue;
 			if(!f.canRead()) continue;
-			String filename=f.getName();
+			final String filename=f.getName();
 			if(filename.endsWith(".cram"))
 				{
 				LOG.warn("Sorry CRAM is not supported "+filename);
@@ -259,181 +278,186 @@ public class FindAllCoverageAtPosition extends Launcher
 				}
 			if(!filename.endsWith(".bam")) continue;
 			
-    			
-			SamReader samReader=null;
-			SAMRecordIterator iter=null;
-			try
+			final SamReader samReader = this.samReaderFactory.open(f);
+			if(!samReader.hasIndex())
 				{
-				samReader = this.samReaderFactory.open(f);
-				if(!samReader.hasIndex())
-					{
-					LOG.warn("no index for "+f);
-					continue;
-					}
-				final SAMFileHeader header=samReader.getFileHeader();
-				for(final Mutation src:mutations)
-					{
-					final Map<String, CigarAndBases> sample2count=new TreeMap<String,CigarAndBases>();
-					for(SAMReadGroupRecord rg:header.getReadGroups())
-						{
-						if(rg!=null)
-							{
-							String sn=this.groupBy.apply(rg);
-							if(sn!=null && !sn.trim().isEmpty())
-								{
-								sample2count.put(sn, new CigarAndBases());
-								}
-							}
-						}
-					
-					if(sample2count.isEmpty())
-						{
-						sample2count.put(DEFAULT_SAMPLE_NAME, new CigarAndBases());
-						}
-
-					
-					
-					final Mutation m = convertFromSamHeader(f,header,src);
-					if(m==null) continue;
-					iter=samReader.query(m.chrom, m.pos-1, m.pos+1,	false);
-					while(iter.hasNext())
-						{
-						final SAMRecord rec=iter.next();
-						if(rec.getReadUnmappedFlag()) continue;
-						if(this.filter.filterOut(rec)) continue;
-						final Cigar cigar=rec.getCigar();
-						if(cigar==null) continue;
-						final String readString = rec.getReadString().toUpperCase();
-						String sampleName=DEFAULT_SAMPLE_NAME;
-						final SAMReadGroupRecord rg=rec.getReadGroup();
-						if(rg!=null)
-							{
-							String sn= groupBy.apply(rg);
-							if(!StringUtil.isBlank(sn))
-								{
-								sampleName=sn;
-								}
-							}
-						CigarAndBases counter= sample2count.get(sampleName);
-						if(counter==null)
-							{
-							counter=new CigarAndBases();
-							sample2count.put(sampleName, counter);
-							}	
-						
-						
-						int ref= rec.getUnclippedStart();
-						int readPos = 0;
-						for(int k=0;k<cigar.numCigarElements() && ref< m.pos+1;++k)
-							{
-							final CigarElement ce=cigar.getCigarElement(k);
-							final CigarOperator op=ce.getOperator();
-							switch(op)
-								{
-								case P: break;
-								case I: 
-									{
-									if(ref==m.pos)
-										{
-										counter.operators.incr(op);
-										counter.bases.incr(INSERTION_CHAR);
-										}
-									readPos += ce.getLength();
-									break;
-									}
-								case D:case N:
-								case M: case X: case EQ: 
-								case H:
-								case S:
-									{
-									for(int i=0;i< ce.getLength();++i )
-										{
-										if(ref==m.pos)
-											{
-											counter.operators.incr(op);
-											switch(op)
-												{
-												case M:case X:case EQ:
-													counter.bases.incr(readString.charAt(readPos));
-													break;
-												case D:case N:
-													counter.bases.incr(DELETION_CHAR);
-													break;
-												default:break;
-												}
-											break;
-											}	
-										if(op.consumesReadBases()) ++readPos;
-										ref++;
-										}
-									break;
-									}
-								default: throw new RuntimeException("unknown operator:"+op);
-								}
-							}
-						}
-					iter.close();
-					iter=null;
-						
-					
-					for(final String sample:sample2count.keySet())
-						{
-						final CigarAndBases counter= sample2count.get(sample);
-						
-						out.print(f);
-						out.print('\t');
-						out.print(m.chrom);
-						out.print('\t');
-						out.print(m.pos);
-						
-						if(this.indexedFastaSequenceFile!=null) {
-							out.print('\t');
-							out.print(getReferenceAt(m.chrom,m.pos));
-							}
-						
-						out.print('\t');
-						out.print(sample);
-						out.print('\t');
-						out.print(
-								counter.operators.count(CigarOperator.M)+
-								counter.operators.count(CigarOperator.EQ)+
-								counter.operators.count(CigarOperator.X)
-								);
-						for(final CigarOperator op:CigarOperator.values())
-							{
-							out.print('\t');
-							out.print(counter.operators.count(op));
-							}
-						for(char c:BASES_To_PRINT)
-							{
-							out.print('\t');
-							out.print(counter.bases.count(c));
-							}
-						
-						out.println();
-						}
-					}//end of loop over mutations
+				LOG.warn("no index for "+f);
+				samReader.close();
+				continue;
 				}
-			catch(final Exception err)
+			final Set<String> samples = new TreeSet<>();
+			for(final SAMReadGroupRecord rg:samReader.getFileHeader().getReadGroups())
 				{
-				LOG.error(err);
-				throw err;
+				final String sn=this.groupBy.apply(rg);
+				if(!StringUtil.isBlank(sn)) samples.add(sn);
 				}
-			finally
-				{
-				CloserUtil.close(iter);
-				CloserUtil.close(samReader);
-				}    				
-			}		
-	    
+			final boolean noReadGroup = samples.isEmpty();
+			samples.add(DEFAULT_SAMPLE_NAME);
+			final int firstSample = inputs.isEmpty()?0:
+				inputs.get(inputs.size()-1).firstSample + inputs.get(inputs.size()-1).samples.size();
+			inputs.add(new BamInput(f, samReader, new ArrayList<>(samples), firstSample, noReadGroup));
+			}
+    	}
+    
+    /** scan all the BAMs at once, for all the positions on the same contig */
+    private void scan(final List<BamInput> inputs,final List<Mutation> mutations) throws Exception
+    	{
+    	final int nSamples = inputs.stream().mapToInt(B->B.samples.size()).sum();
+    	/* position of the mutation on the contig of each BAM */
+    	final Mutation bamMutation[][] = new Mutation[inputs.size()][];
+    	final List<ColumnarPileup.Source> sources = new ArrayList<>(inputs.size());
+    	for(int i=0;i< inputs.size();i++)
+    		{
+    		final BamInput input = inputs.get(i);
+    		final SAMFileHeader header = input.samReader.getFileHeader();
+    		final Mutation m0 = convertFromSamHeader(input.file, header, mutations.get(0));
+    		if(m0==null) continue;
+    		final int tid = header.getSequenceIndex(m0.chrom);
+    		if(tid<0) continue;
+    		bamMutation[i] = new Mutation[mutations.size()];
+    		final QueryInterval intervals[] = new QueryInterval[mutations.size()];
+    		for(int j=0;j< mutations.size();j++)
+    			{
+    			final Mutation m = mutations.get(j);
+    			bamMutation[i][j] = new Mutation(m0.chrom, m.pos);
+    			intervals[j] = new QueryInterval(tid, Math.max(1, m.pos-this.clipMargin), m.pos+this.clipMargin);
+    			}
+    		final Map<String,Integer> sample2index = new HashMap<>(input.samples.size());
+    		for(final String sn: input.samples) sample2index.put(sn, input.firstSample + sample2index.size());
+    		final int defaultIndex = sample2index.get(DEFAULT_SAMPLE_NAME);
+    		sources.add(new ColumnarPileup.Source(
+    				new FilteringSamIterator(input.samReader.query(QueryInterval.optimizeIntervals(intervals), false), this.filter),
+    				R->{
+    					final SAMReadGroupRecord rg=R.getReadGroup();
+    					if(rg==null) return defaultIndex;
+    					final String sn= groupBy.apply(rg);
+    					if(StringUtil.isBlank(sn)) return defaultIndex;
+    					final Integer idx = sample2index.get(sn);
+    					return idx==null?defaultIndex:idx.intValue();
+    					}) {
+    				/* all the reads are on the same contig */
+    				@Override
+    				protected int getReferenceIndex(final SAMRecord rec) {
+    					return 0;
+    					}
+    				});
+    		}
+    	if(sources.isEmpty()) return;
+    	
+    	final int positions[] = mutations.stream().mapToInt(M->M.pos).toArray();
+    	try(ColumnarPileup pileup = new ColumnarPileup(nSamples, sources)) {
+    		pileup.setColumnFilter((TID,POS)->Arrays.binarySearch(positions, POS)>=0);
+    		/* the counts of a position don't depend on the reads fetched for the other positions */
+    		pileup.setMaxClipProjection(this.clipMargin);
+    		ColumnarPileup.Column column = null;
+	    	for(int j=0;j< mutations.size();j++)
+	    		{
+	    		if(this.out.checkError()) break;
+	    		final int pos = positions[j];
+	    		while((column==null || column.getPosition() < pos) && pileup.hasNext())
+	    			{
+	    			column = pileup.next();
+	    			}
+	    		final ColumnarPileup.Column col = (column!=null && column.getPosition()==pos?column:null);
+	    		for(int i=0;i< inputs.size();i++)
+	    			{
+	    			if(bamMutation[i]==null) continue;
+	    			final BamInput input = inputs.get(i);
+	    			final Mutation m = bamMutation[i][j];
+	    			for(int k=0;k< input.samples.size();k++)
+	    				{
+	    				final String sample = input.samples.get(k);
+	    				final int idx = input.firstSample + k;
+	    				if(sample.equals(DEFAULT_SAMPLE_NAME) && !input.noReadGroup && (col==null || !isCovered(col,idx))) continue;
+	    				print(input.file, m, sample, col, idx);
+	    				}
+	    			}
+	    		}
+    		}
     	}
     
+    /** return true if the sample has any read at this position */
+    private static boolean isCovered(final ColumnarPileup.Column col,final int sample) {
+    	for(int c=0;c< ColumnarPileup.NUM_CATEGORIES;++c) {
+    		if(col.getCount(sample, c)>0) return true;
+    		}
+    	return false;
+    	}
+    
+    /** count of a cigar operator at this position */
+    private static int getOperatorCount(final ColumnarPileup.Column col,final int sample,final CigarOperator op) {
+    	if(col==null) return 0;
+    	switch(op)
+    		{
+    		case M: return col.getDepth(sample) - col.getCount(sample, ColumnarPileup.OP_EQ) - col.getCount(sample, ColumnarPileup.OP_X);
+    		case I: return col.getCount(sample, ColumnarPileup.INSERTION);
+    		case D: return col.getCount(sample, ColumnarPileup.DELETION);
+    		case N: return col.getCount(sample, ColumnarPileup.REF_SKIP);
+    		case S: return col.getCount(sample, ColumnarPileup.SOFT_CLIP);
+    		case H: return col.getCount(sample, ColumnarPileup.HARD_CLIP);
+    		case P: return 0;
+    		case EQ: return col.getCount(sample, ColumnarPileup.OP_EQ);
+    		case X: return col.getCount(sample, ColumnarPileup.OP_X);
+    		default: throw new IllegalStateException("unknown operator:"+op);
+    		}
+    	}
+    
+    /** count of a symbol of BASES_To_PRINT at this position */
+    private static int getBaseCount(final ColumnarPileup.Column col,final int sample,final char c) {
+    	if(col==null) return 0;
+    	switch(c)
+    		{
+    		case 'A': return col.getCount(sample, ColumnarPileup.BASE_A);
+    		case 'C': return col.getCount(sample, ColumnarPileup.BASE_C);
+    		case 'G': return col.getCount(sample, ColumnarPileup.BASE_G);
+    		case 'T': return col.getCount(sample, ColumnarPileup.BASE_T);
+    		case 'N': return col.getCount(sample, ColumnarPileup.BASE_N);
+    		case INSERTION_CHAR: return col.getCount(sample, ColumnarPileup.INSERTION);
+    		case DELETION_CHAR: return col.getCount(sample, ColumnarPileup.DELETION) + col.getCount(sample, ColumnarPileup.REF_SKIP);
+    		default: throw new IllegalStateException("unknown symbol:"+c);
+    		}
+    	}
+    
+    private void print(final File f,final Mutation m,final String sample,final ColumnarPileup.Column col,final int idx) {
+		out.print(f);
+		out.print('\t');
+		out.print(m.chrom);
+		out.print('\t');
+		out.print(m.pos);
+		
+		if(this.indexedFastaSequenceFile!=null) {
+			out.print('\t');
+			out.print(getReferenceAt(m.chrom,m.pos));
+			}
+		
+		out.print('\t');
+		out.print(sample);
+		out.print('\t');
+		out.print(col==null?0:col.getDepth(idx));
+		for(final CigarOperator op:CigarOperator.values())
+			{
+			out.print('\t');
+			out.print(getOperatorCount(col, idx, op));
+			}
+		for(char c:BASES_To_PRINT)
+			{
+			out.print('\t');
+			out.print(getBaseCount(col, idx, c));
+			}
+		out.println();
+		}
+    
     @Override
     public int doWork(final List<String> args) {
     	final Set<Mutation> mutations=new TreeSet<>();
+    	final List<BamInput> inputs = new ArrayList<>();
 
 		
 		BufferedReader r = null;
+		if(this.clipMargin<1) {
+			LOG.error("--clip-margin must be greater than 0");
+			return -1;
+			}
 		try
 			{
 			if(this.referenceFileFile!=null) {
@@ -524,7 +548,7 @@ public class FindAllCoverageAtPosition extends Launcher
 				{
 				LOG.info("Reading from stdin");
 				r = new BufferedReader(new InputStreamReader(stdin()));
-				scan(r,mutations);
+				readBamList(r,inputs);
 				r.close();
 				r=null;
 				}
@@ -534,11 +558,25 @@ public class FindAllCoverageAtPosition extends Launcher
 					{
 					LOG.info("Reading from "+filename);
 					r=IOUtils.openURIForBufferedReading(filename);
-					scan(r,mutations);
+					readBamList(r,inputs);
 					r.close();
 					r=null;
 					}
 				}
+			LOG.info("number of BAMs "+inputs.size());
+			
+			/* one sweep over all the BAMs for each contig */
+			final List<Mutation> sameContig = new ArrayList<>();
+			for(final Mutation m: mutations)
+				{
+				if(!sameContig.isEmpty() && !sameContig.get(0).chrom.equals(m.chrom))
+					{
+					scan(inputs,sameContig);
+					sameContig.clear();
+					}
+				sameContig.add(m);
+				}
+			if(!sameContig.isEmpty() && !inputs.isEmpty()) scan(inputs,sameContig);
 			this.out.flush();
 			return 0;
 			}
@@ -549,6 +587,7 @@ public class FindAllCoverageAtPosition extends Launcher
 			}
 		finally
 			{
+			inputs.forEach(B->CloserUtil.close(B.samReader));
 			CloserUtil.close(this.indexedFastaSequenceFile);
 			CloserUtil.close(this.out);
 			CloserUtil.close(r);
@@ -28,15 +28,20 @@ import java.io.File;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Constructor;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 
 import com.beust.jcommander.Parameter;
@@ -56,7 +61,6 @@ import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
-import htsjdk.samtools.util.Iso8601Date;
 import htsjdk.samtools.util.StringUtil;
 
 
@@ -134,6 +138,12 @@ The method `apply` returns an object that can either:
 * a [SAMRecord](https://samtools.github.io/htsjdk/javadoc/htsjdk/htsjdk/samtools/SAMRecord.html) to replace the current read
 * a [java.util.List](https://docs.oracle.com/javase/8/docs/api/java/util/List.html)<[SAMRecord](https://samtools.github.io/htsjdk/javadoc/htsjdk/htsjdk/samtools/SAMRecord.html) > to replace the current record with a list of records.
 
+## Compiled classes cache and parallel mode
+
+With the option `--class-cache`, the compiled byte code is saved in a directory and re-used the next time the same script is invoked.
+
+With the option `--threads` (>1, not available in `--pair` mode), one instance of the filter is created per thread and the reads are sent by batches of `--batch-size` reads to the threads. The order of the reads is preserved in the output. In this mode, the user's code must not depend on the previous reads (`userData` is not shared between the threads).
+
 
 ## Example
 
@@ -379,6 +389,13 @@ public class SamJdk
 	private long LIMIT = -1L ;
 	@ParametersDelegate
 	private WritingBamArgs writingBamArgs = new WritingBamArgs();
+	@ParametersDelegate
+	private ReadAheadArgs readAheadArgs = new ReadAheadArgs();
+	
+	@Override
+	protected ReadAheadArgs getReadAheadArgs() {
+		return this.readAheadArgs;
+		}
 	@Parameter(names={"-e","--expression"},description="java expression")
 	private String scriptExpr=null;
 	@Parameter(names={"-f","--file"},description="java file. Either option -e or -f is required.")
@@ -398,6 +415,12 @@ public class SamJdk
 			+ "This function must return `true` to accept the whole list, `false` to reject eveything, or another `List<SAMRecord>`."
 			+ "Input MUST be sorted on query name using picard SortSam (not `samtools sort` https://github.com/samtools/hts-specs/issues/5 ). ")
 	private boolean pair_mode=false;
+	@Parameter(names={"--class-cache"},description=InMemoryCompiler.OPT_CACHE_DIR_DESC)
+	private File classCacheDir=null;
+	@Parameter(names={"--threads"},description="[20181016] Number of threads. One filter is created per thread and the reads are sent by batches to the threads. Output order is preserved. Not available in '--pair' mode.")
+	private int nThreads = 1;
+	@Parameter(names={"--batch-size"},description="[20181016] When --threads > 1, number of reads sent to each thread.")
+	private int batchSize = 1_000;
 
 	
 	public static abstract class AbstractBaseFilter<T>
@@ -461,9 +484,85 @@ public class SamJdk
 		if(failingReadsWriter!=null) failingReadsWriter.addAlignment(rec);
 		}
 	
+	/** write the result of the filter for one record in non-pair mode, returns the number of records written */
+	private long writeResult(final SAMRecord record,final Object result,final SAMFileWriter sw,final SAMFileHeader header)
+		{
+		long n=0L;
+		// result is an array of a collection of reads
+		if(result!=null && (result.getClass().isArray() || (result instanceof Collection)))
+			{
+			final  Collection<?> col;
+			if(result.getClass().isArray())
+				{
+				final Object array[]=(Object[])result;
+				col= Arrays.asList(array);
+				}
+			else
+				{
+				col =( Collection<?>)result;
+				}
+			// write all of reads
+			for(final Object item:col)
+				{
+				if(item==null) throw new JvarkitException.UserError("item in array is null");
+				if(!(item instanceof SAMRecord)) throw new JvarkitException.UserError("item in array is not a SAMRecord "+item.getClass());
+				++n;
+				sw.addAlignment(SAMRecord.class.cast(item));
+				}
+			}
+		// result is a SAMRecord
+		else if(result!=null && (result instanceof SAMRecord)) {
+			++n;
+			sw.addAlignment(SAMRecord.class.cast(result));
+			}
+		else
+			{
+			boolean accept=true;
+			if(result==null)
+				{
+				accept=false;
+				}
+			else if(result instanceof Boolean)
+				{
+				if(Boolean.FALSE.equals(result)) accept = false;
+				}
+			else if(result instanceof Number)
+				{
+				if(((Number)result).intValue()!=1) accept = false;
+				}
+			else
+				{
+				LOG.warn("Script returned something that is not a boolean or a number:"+result.getClass());
+				accept = false;
+				}
+			if (!accept)
+				{
+				failing(record,header);
+				}
+			else
+				{
+				++n;
+				sw.addAlignment(record);
+				}
+			}
+		return n;
+		}
+	
+	/** results of a batch of reads processed by a worker thread */
+	private static class Batch
+		{
+		final List<SAMRecord> records;
+		final Object results[];
+		Batch(final List<SAMRecord> records) {
+			this.records = records;
+			this.results = new Object[records.size()];
+			}
+		}
+	
 	@Override
 	public int doWork(final List<String> args) {
 		SAMRecordIterator iter=null;
+		ExecutorService executor = null;
 		SamReader samFileReader=null;
 		SAMFileWriter sw=null;
 		try
@@ -483,10 +582,17 @@ public class SamJdk
 				LOG.error("Option -e or -f are required. The content of those empty mut be not empty");
 				return -1;
 				}
+			if(this.batchSize<1) {
+				LOG.error("bad batch size");
+				return -1;
+				}
+			if(this.pair_mode && this.nThreads>1) {
+				LOG.warn("option --threads is ignored in --pair mode");
+				}
 
-			final Random rand= new  Random(System.currentTimeMillis());
+			/* the name of the class only depends on the user's code, so the compiled class can be cached */
 			final String javaClassName =SamJdk.class.getSimpleName()+
-					"Custom"+ Math.abs(rand.nextInt());
+					"Custom"+ Integer.toHexString(code.hashCode()) + (this.user_code_is_body?"B":"") + (this.pair_mode?"P":"");
 			
 			final StringWriter codeWriter=new StringWriter();
 			final PrintWriter pw = new PrintWriter(codeWriter);
@@ -497,7 +603,7 @@ public class SamJdk
 			pw.println("import htsjdk.samtools.util.*;");
 			pw.println("import javax.annotation.Generated;");
 
-			pw.println("@Generated(value=\""+SamJdk.class.getSimpleName()+"\",date=\""+ new Iso8601Date(new Date()) +"\")");
+			pw.println("@Generated(value=\""+SamJdk.class.getSimpleName()+"\")");
 			pw.println("public class "+javaClassName+" extends "+
 					(this.pair_mode?AbstractListFilter.class:AbstractFilter.class).getName().replace('$', '.')+" {");
 			pw.println("  public "+javaClassName+"(final SAMFileHeader header) {");
@@ -553,7 +659,8 @@ public class SamJdk
 					}
 				}
 			
-			final InMemoryCompiler inMemoryCompiler = new InMemoryCompiler();
+			final InMemoryCompiler inMemoryCompiler = new InMemoryCompiler().
+					setCacheDirectory(this.classCacheDir);
 			final Class<?> compiledClass = inMemoryCompiler.compileClass(
 					javaClassName,
 					codeWriter.toString()
@@ -580,7 +687,7 @@ public class SamJdk
 				}
 			
 			long count=0L;
-	        final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(header).logger(LOG);
+	        final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(header).logger(LOG).bytesCounter(getInflatedBytesCounter());
 	        sw = this.writingBamArgs.openSAMFileWriter(this.outputFile,header, true);
 	        iter = samFileReader.iterator();
 	        
@@ -682,6 +789,53 @@ public class SamJdk
 					}// infinite loop
 				
 	        	}
+	        else if(this.nThreads>1)
+	        	{
+	        	executor = Executors.newFixedThreadPool(this.nThreads);
+	        	/* one instance of the filter per thread */
+	        	final BlockingQueue<AbstractFilter> filters = new ArrayBlockingQueue<>(this.nThreads);
+	        	for(int i=0;i< this.nThreads;i++) {
+	        		filters.add((AbstractFilter)ctor.newInstance(header));
+	        		}
+	        	/* batches submitted to the executor, written in the input order */
+	        	final Deque<Future<Batch>> pending = new ArrayDeque<>();
+	        	final int maxPending = this.nThreads * 2;
+	        	boolean done = false;
+	        	List<SAMRecord> buffer = new ArrayList<>(this.batchSize);
+	        	for(;;) {
+	        		final SAMRecord record = (!done && iter.hasNext()?progress.watch(iter.next()):null);
+	        		if(record!=null) buffer.add(record);
+	        		if(!done && !buffer.isEmpty() && (record==null || buffer.size()>=this.batchSize)) {
+	        			final Batch batch = new Batch(buffer);
+	        			pending.add(executor.submit(()->{
+	        				final AbstractFilter filter = filters.take();
+	        				try {
+	        					for(int i=0;i< batch.results.length;i++) {
+	        						batch.results[i] = filter.apply(batch.records.get(i));
+	        						}
+	        					}
+	        				finally
+	        					{
+	        					filters.put(filter);
+	        					}
+	        				return batch;
+	        				}));
+	        			buffer = new ArrayList<>(this.batchSize);
+	        			}
+	        		while(!pending.isEmpty() && (record==null || pending.size()>=maxPending)) {
+	        			final Batch batch = pending.pop().get();
+	        			for(int i=0;i< batch.results.length && !done;i++) {
+	        				count += writeResult(batch.records.get(i), batch.results[i], sw, header);
+	        				if(this.LIMIT>0L && count>=this.LIMIT) done=true;
+	        				}
+	        			if(done) {
+	        				pending.forEach(F->F.cancel(true));
+	        				pending.clear();
+	        				}
+	        			}
+	        		if(record==null) break;
+	        		}
+	        	}
 	        else
 		        {
 				final AbstractFilter filter = (AbstractFilter)ctor.newInstance(header);
@@ -689,65 +843,7 @@ public class SamJdk
 				while(iter.hasNext())
 					{
 					final SAMRecord record=progress.watch(iter.next());
-					final Object result = filter.apply(record);
-					
-					// result is an array of a collection of reads
-					if(result!=null && (result.getClass().isArray() || (result instanceof Collection)))
-						{
-						final  Collection<?> col;
-						if(result.getClass().isArray())
-							{
-							final Object array[]=(Object[])result;
-							col= Arrays.asList(array);
-							}
-						else
-							{
-							col =( Collection<?>)result;
-							}
-						// write all of reads
-						for(final Object item:col)
-							{
-							if(item==null) throw new JvarkitException.UserError("item in array is null");
-							if(!(item instanceof SAMRecord)) throw new JvarkitException.UserError("item in array is not a SAMRecord "+item.getClass());
-							++count;
-							sw.addAlignment(SAMRecord.class.cast(item));
-							}
-						}
-					// result is a SAMRecord
-					else if(result!=null && (result instanceof SAMRecord)) {
-						++count;
-						sw.addAlignment(SAMRecord.class.cast(result));
-						}
-					else
-						{
-						boolean accept=true;
-						if(result==null)
-							{
-							accept=false;
-							}
-						else if(result instanceof Boolean)
-							{
-							if(Boolean.FALSE.equals(result)) accept = false;
-							}
-						else if(result instanceof Number)
-							{
-							if(((Number)result).intValue()!=1) accept = false;
-							}
-						else
-							{
-							LOG.warn("Script returned something that is not a boolean or a number:"+result.getClass());
-							accept = false;
-							}
-						if (!accept)
-							{
-							failing(record,header);
-							}
-						else
-							{
-							++count;
-							sw.addAlignment(record);
-							}
-						}
+					count += writeResult(record, filter.apply(record), sw, header);
 	
 					if(this.LIMIT>0L && count>=this.LIMIT) break;
 					}
@@ -764,6 +860,7 @@ public class SamJdk
 			}
 		finally
 			{
+			if(executor!=null) executor.shutdownNow();
 			CloserUtil.close(iter);
 			CloserUtil.close(samFileReader);
 			CloserUtil.close(sw);
@@ -32,8 +32,10 @@ import java.io.PrintWriter;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -50,15 +52,36 @@ import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.DefaultHandler;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.tools.bam2wig.CoveragePyramid;
+import com.github.lindenb.jvarkit.util.bio.IntervalParser;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 
+import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.StringUtil;
+import htsjdk.variant.utils.SAMSequenceDictionaryExtractor;
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.util.log.Logger;
 
 
+/**
+BEGIN_DOC
+
+## Input
+
+Input is a file containing the path to the project files. A project file contains the path to
+the BAM/VCF files, and some optional lines `#id:`, `#name:`, `#desc:`
+
+## Coverage
+
+`/coverage?project=(id)&bam=(index)&rgn=(region)&width=(n)` returns a tab-delimited summary of the depth
+of a BAM in the region, using at most 'width' bins. The BAM must have a coverage pyramid (see `bamcoveragepyramid`).
+
+END_DOC
+ */
 @Program(name="projectserver",
 	description="Jetty Based http server serving VCF, BAM files")
 public  class ProjectServer extends Launcher {
@@ -175,20 +198,28 @@ public  class ProjectServer extends Launcher {
 		}
 		
 	List<Path> getBams() {
-		return this.ngsFiles.stream().filter(p->p.endsWith(".bam")).collect(Collectors.toList());
+		return this.ngsFiles.stream().filter(p->p.toString().endsWith(".bam")).sorted().collect(Collectors.toList());
 		}
 	List<Path> getVcfs() {
-		return this.ngsFiles.stream().filter(p->p.endsWith(".vcf.gz")).collect(Collectors.toList());
+		return this.ngsFiles.stream().filter(p->p.toString().endsWith(".vcf.gz")).sorted().collect(Collectors.toList());
 		}
 	}
 	
 	
 	private static class ProjectHandler extends DefaultHandler{
-		final List<ProjectFile> projects;
+		final List<ProjectFile> projects= new ArrayList<>();
+		/** coverage pyramids, opened on demand. value is null if there is no pyramid */
+		private final Map<Path,CoveragePyramid> path2pyramid = new HashMap<>();
 		ProjectHandler(final File configFile) {
 		BufferedReader in= null;
 		try {
 			in= new BufferedReader(new FileReader(configFile));
+			String line;
+			while((line=in.readLine())!=null)
+				{
+				if(line.trim().isEmpty() || line.startsWith("#")) continue;
+				this.projects.add(new ProjectFile(new File(line.trim())));
+				}
 		} catch (IOException e) {
 			throw new RuntimeIOException(e);
 			}
@@ -196,8 +227,6 @@ public  class ProjectServer extends Launcher {
 			{
 			CloserUtil.close(in);
 			}
-		//TODO
-		projects= new ArrayList<>();
 		}
 		
 		@Override
@@ -207,12 +236,86 @@ public  class ProjectServer extends Launcher {
 				request.getPathInfo();
 			  if(target==null) target="/";
 			  
-			  doListProjects(target,baseRequest,request,response);
+			  if(target.equals("/coverage")) {
+				doShowBam(target,baseRequest,request,response);
+			  	}
+			  else
+			  	{
+				doListProjects(target,baseRequest,request,response);
+			  	}
 			 baseRequest.setHandled(true);
 		}
 	
+	private CoveragePyramid getCoveragePyramid(final Path bam) throws IOException {
+		synchronized(this.path2pyramid) {
+			if(!this.path2pyramid.containsKey(bam)) {
+				this.path2pyramid.put(bam, CoveragePyramid.openIfExists(bam.toFile()));
+				}
+			return this.path2pyramid.get(bam);
+			}
+		}
+	
+	/** print the coverage summary of a BAM from its coverage pyramid */
 	private void doShowBam(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)	throws IOException, ServletException
 		{
+		final String projectId = request.getParameter("project");
+		final ProjectFile project = this.projects.stream().filter(P->P.getId().equals(projectId)).findFirst().orElse(null);
+		if(project==null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "no such project");
+			return;
+			}
+		final List<Path> bams = project.getBams();
+		final int bamIndex;
+		final int width;
+		try {
+			bamIndex = Integer.parseInt(StringUtil.isBlank(request.getParameter("bam"))?"0":request.getParameter("bam"));
+			width = Integer.parseInt(StringUtil.isBlank(request.getParameter("width"))?"1000":request.getParameter("width"));
+			}
+		catch(final NumberFormatException err) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "bad number");
+			return;
+			}
+		if(bamIndex<0 || bamIndex>=bams.size() || width<1) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "bad parameter");
+			return;
+			}
+		final Path bam = bams.get(bamIndex);
+		final CoveragePyramid pyramid = getCoveragePyramid(bam);
+		if(pyramid==null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "no coverage pyramid for "+bam);
+			return;
+			}
+		final SAMSequenceDictionary dict = SAMSequenceDictionaryExtractor.extractDictionary(bam.toFile());
+		final IntervalParser parser = new IntervalParser(dict);
+		parser.setFixContigName(true);
+		parser.setContigNameIsWholeContig(true);
+		parser.setRaiseExceptionOnError(false);
+		final String rgn = request.getParameter("rgn");
+		final Interval interval = (StringUtil.isBlank(rgn)?null:parser.parse(rgn));
+		if(interval==null) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "bad region");
+			return;
+			}
+		response.setContentType("text/plain; charset=utf-8");
+		response.setCharacterEncoding("UTF-8");
+		final PrintWriter pw = response.getWriter();
+		pw.println("#contig\tstart\tend\tmean\tmin\tmax");
+		for(final CoveragePyramid.Bin bin:pyramid.query(interval, width)) {
+			pw.print(bin.getContig());
+			pw.print('\t');
+			pw.print(bin.getStart()-1);
+			pw.print('\t');
+			pw.print(bin.getEnd());
+			pw.print('\t');
+			pw.print(bin.getMean());
+			pw.print('\t');
+			pw.print(bin.getMin());
+			pw.print('\t');
+			pw.print(bin.getMax());
+			pw.println();
+			}
+		pw.flush();
+		pw.close();
 		}
 		
 	private void doListProjects(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)	throws IOException, ServletException
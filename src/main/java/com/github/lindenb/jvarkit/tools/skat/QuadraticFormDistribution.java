@@ -0,0 +1,529 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.skat;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.distribution.ChiSquaredDistribution;
+import org.apache.commons.math3.special.Gamma;
+
+/**
+ * Distribution of a quadratic form in normal variables: Q = sum( lambda_i * chi2_1 ).
+ * 
+ * Java port of the algorithm AS 155 of R. B. Davies (1980) 'The distribution of a linear combination of chi-2 random variables' 
+ * (qfc.c in the R packages CompQuadForm and SKAT), and of the modified Liu et al. (2009) moment matching approximation.
+ * 
+ * A new instance must be used for each call of {@link #davies}: the algorithm keeps its state in the fields.
+ */
+class QuadraticFormDistribution {
+	private static final double LOG28 = 0.0866; /* log(2.0) / 8.0 */
+	private static final int[] RATS = {1,2,4,8};
+	private static final double[] DIVIS = {2.0,1.4,1.2,1.1};
+
+	/** result of {@link #davies} */
+	static class DaviesResult {
+		/** P(Q &lt; c) */
+		final double cdf;
+		/** 0: ok, 1: required accuracy not achieved, 2: round-off error possibly significant, 3: invalid parameters, 4: unable to locate integration parameters, 5: out of memory */
+		final int ifault;
+		DaviesResult(final double cdf,final int ifault) {
+			this.cdf = cdf;
+			this.ifault = ifault;
+			}
+		}
+
+	/** thrown when the max number of integration terms is reached */
+	@SuppressWarnings("serial")
+	private static class TooManyTermsException extends RuntimeException {
+		}
+
+	private double sigsq, lmax, lmin, mean, c;
+	private double intl, ersm;
+	private int count, r, lim;
+	private boolean ndtsrt, fail;
+	private int[] n, th;
+	private double[] lb, nc;
+
+	private static double exp1(final double x) {
+		return x < -50.0 ? 0.0 : Math.exp(x);
+		}
+
+	private static double square(final double x) {
+		return x * x;
+		}
+
+	private void counter() {
+		this.count++;
+		if(this.count > this.lim) throw new TooManyTermsException();
+		}
+
+	/** if (first) log(1 + x) ; else log(1 + x) - x */
+	private static double log1(final double x,final boolean first) {
+		if(Math.abs(x) > 0.1) {
+			return first ? Math.log(1.0 + x) : (Math.log(1.0 + x) - x);
+			}
+		double y = x / (2.0 + x);
+		double term = 2.0 * y * y * y;
+		double k = 3.0;
+		double s = (first ? 2.0 : -x) * y;
+		y = square(y);
+		for(double s1 = s + term / k; s1 != s; s1 = s + term / k) {
+			k += 2.0;
+			term *= y;
+			s = s1;
+			}
+		return s;
+		}
+
+	/** find order of absolute values of lb */
+	private void order() {
+		for(int j = 0; j < this.r; j++) {
+			final double lj = Math.abs(this.lb[j]);
+			int k;
+			for(k = j - 1; k >= 0; k--) {
+				if(lj > Math.abs(this.lb[this.th[k]])) {
+					this.th[k + 1] = this.th[k];
+					}
+				else
+					{
+					break;
+					}
+				}
+			this.th[k + 1] = j;
+			}
+		this.ndtsrt = false;
+		}
+
+	/** find bound on tail probability using mgf, cutoff point returned to cx[0] */
+	private double errbd(double u,final double[] cx) {
+		counter();
+		double xconst = u * this.sigsq;
+		double sum1 = u * xconst;
+		u = 2.0 * u;
+		for(int j = this.r - 1; j >= 0; j--) {
+			final int nj = this.n[j];
+			final double lj = this.lb[j];
+			final double ncj = this.nc[j];
+			final double x = u * lj;
+			final double y = 1.0 - x;
+			xconst = xconst + lj * (ncj / y + nj) / y;
+			sum1 = sum1 + ncj * square(x / y) + nj * (square(x) / (1.0 - x) + log1(-x, false));
+			}
+		cx[0] = xconst;
+		return exp1(-0.5 * sum1);
+		}
+
+	/** find ctff so that p(qf &gt; ctff) &lt; accx if (upn &gt; 0), p(qf &lt; ctff) &lt; accx otherwise */
+	private double ctff(final double accx,final double[] upn) {
+		double u2 = upn[0];
+		double u1 = 0.0;
+		double c1 = this.mean;
+		final double[] c2 = new double[1];
+		final double[] xconst = new double[1];
+		final double rb = 2.0 * ((u2 > 0.0) ? this.lmax : this.lmin);
+		for(double u = u2 / (1.0 + u2 * rb); errbd(u, c2) > accx; u = u2 / (1.0 + u2 * rb)) {
+			u1 = u2;
+			c1 = c2[0];
+			u2 = 2.0 * u2;
+			}
+		for(double u = (c1 - this.mean) / (c2[0] - this.mean); u < 0.9; u = (c1 - this.mean) / (c2[0] - this.mean)) {
+			u = (u1 + u2) / 2.0;
+			if(errbd(u / (1.0 + u * rb), xconst) > accx) {
+				u1 = u;
+				c1 = xconst[0];
+				}
+			else
+				{
+				u2 = u;
+				c2[0] = xconst[0];
+				}
+			}
+		upn[0] = u2;
+		return c2[0];
+		}
+
+	/** bound integration error due to truncation at u */
+	private double truncation(double u,final double tausq) {
+		counter();
+		double sum1 = 0.0, prod2 = 0.0, prod3 = 0.0;
+		int s = 0;
+		final double sum2 = (this.sigsq + tausq) * square(u);
+		double prod1 = 2.0 * sum2;
+		u = 2.0 * u;
+		for(int j = 0; j < this.r; j++) {
+			final double lj = this.lb[j];
+			final double ncj = this.nc[j];
+			final int nj = this.n[j];
+			final double x = square(u * lj);
+			sum1 = sum1 + ncj * x / (1.0 + x);
+			if(x > 1.0) {
+				prod2 = prod2 + nj * Math.log(x);
+				prod3 = prod3 + nj * log1(x, true);
+				s = s + nj;
+				}
+			else
+				{
+				prod1 = prod1 + nj * log1(x, true);
+				}
+			}
+		sum1 = 0.5 * sum1;
+		prod2 = prod1 + prod2;
+		prod3 = prod1 + prod3;
+		double x = exp1(-sum1 - 0.25 * prod2) / Math.PI;
+		final double y = exp1(-sum1 - 0.25 * prod3) / Math.PI;
+		double err1 = (s == 0) ? 1.0 : x * 2.0 / s;
+		double err2 = (prod3 > 1.0) ? 2.5 * y : 1.0;
+		if(err2 < err1) err1 = err2;
+		x = 0.5 * sum2;
+		err2 = (x <= y) ? 1.0 : y / x;
+		return (err1 < err2) ? err1 : err2;
+		}
+
+	/** find u such that truncation(u) &lt; accx and truncation(u / 1.2) &gt; accx */
+	private double findu(final double utx,final double accx) {
+		double ut = utx;
+		double u = ut / 4.0;
+		if(truncation(u, 0.0) > accx) {
+			for(u = ut; truncation(u, 0.0) > accx; u = ut) ut = ut * 4.0;
+			}
+		else
+			{
+			ut = u;
+			for(u = u / 4.0; truncation(u, 0.0) <= accx; u = u / 4.0) ut = u;
+			}
+		for(int i = 0; i < DIVIS.length; i++) {
+			u = ut / DIVIS[i];
+			if(truncation(u, 0.0) <= accx) ut = u;
+			}
+		return ut;
+		}
+
+	/** carry out integration with nterm terms, at stepsize interv. if (! mainx) multiply integrand by 1.0-exp(-0.5*tausq*u^2) */
+	private void integrate(final int nterm,final double interv,final double tausq,final boolean mainx) {
+		final double inpi = interv / Math.PI;
+		for(int k = nterm; k >= 0; k--) {
+			final double u = (k + 0.5) * interv;
+			double sum1 = -2.0 * u * this.c;
+			double sum2 = Math.abs(sum1);
+			double sum3 = -0.5 * this.sigsq * square(u);
+			for(int j = this.r - 1; j >= 0; j--) {
+				final int nj = this.n[j];
+				final double x = 2.0 * this.lb[j] * u;
+				double y = square(x);
+				sum3 = sum3 - 0.25 * nj * log1(y, true);
+				y = this.nc[j] * x / (1.0 + y);
+				final double z = nj * Math.atan(x) + y;
+				sum1 = sum1 + z;
+				sum2 = sum2 + Math.abs(z);
+				sum3 = sum3 - 0.5 * x * y;
+				}
+			double x = inpi * exp1(sum3) / u;
+			if(!mainx) x = x * (1.0 - exp1(-0.5 * tausq * square(u)));
+			sum1 = Math.sin(0.5 * sum1) * x;
+			sum2 = 0.5 * sum2 * x;
+			this.intl += sum1;
+			this.ersm += sum2;
+			}
+		}
+
+	/** coef of tausq in error when convergence factor of exp1(-0.5*tausq*u^2) is used when df is evaluated at x */
+	private double cfe(final double x) {
+		counter();
+		if(this.ndtsrt) order();
+		double axl = Math.abs(x);
+		final double sxl = (x > 0.0) ? 1.0 : -1.0;
+		double sum1 = 0.0;
+		for(int j = this.r - 1; j >= 0; j--) {
+			final int t = this.th[j];
+			if(this.lb[t] * sxl > 0.0) {
+				final double lj = Math.abs(this.lb[t]);
+				final double axl1 = axl - lj * (this.n[t] + this.nc[t]);
+				final double axl2 = lj / LOG28;
+				if(axl1 > axl2) {
+					axl = axl1;
+					}
+				else
+					{
+					if(axl > axl2) axl = axl2;
+					sum1 = (axl - axl1) / lj;
+					for(int k = j - 1; k >= 0; k--) {
+						sum1 = sum1 + (this.n[this.th[k]] + this.nc[this.th[k]]);
+						}
+					break;
+					}
+				}
+			}
+		if(sum1 > 100.0) {
+			this.fail = true;
+			return 1.0;
+			}
+		return Math.pow(2.0, (sum1 / 4.0)) / (Math.PI * square(axl));
+		}
+
+	/**
+	 * Davies' method: P( sum(lambda_i * chi2(n_i, nc_i)) + sigma * N(0,1) &lt; c )
+	 * @param lambda the coefficients
+	 * @param nonCentral the non-centrality parameters
+	 * @param df the degrees of freedom
+	 * @param sigma coefficient of the normal term
+	 * @param q the quantile
+	 * @param limit maximum number of integration terms
+	 * @param accuracy error bound
+	 */
+	DaviesResult davies(
+			final double[] lambda,
+			final double[] nonCentral,
+			final int[] df,
+			final double sigma,
+			final double q,
+			final int limit,
+			final double accuracy
+			) {
+		this.r = lambda.length;
+		this.lim = limit;
+		this.c = q;
+		this.n = df;
+		this.lb = lambda;
+		this.nc = nonCentral;
+		this.th = new int[this.r];
+		this.count = 0;
+		this.intl = 0.0;
+		this.ersm = 0.0;
+		this.ndtsrt = true;
+		this.fail = false;
+		double acc1 = accuracy;
+		double xlim = this.lim;
+		try {
+			/* find mean, sd, max and min of lb, check that parameter values are valid */
+			this.sigsq = square(sigma);
+			double sd = this.sigsq;
+			this.lmax = 0.0;
+			this.lmin = 0.0;
+			this.mean = 0.0;
+			for(int j = 0; j < this.r; j++) {
+				final int nj = this.n[j];
+				final double lj = this.lb[j];
+				final double ncj = this.nc[j];
+				if(nj < 0 || ncj < 0.0) return new DaviesResult(-1.0, 3);
+				sd = sd + square(lj) * (2 * nj + 4.0 * ncj);
+				this.mean = this.mean + lj * (nj + ncj);
+				if(this.lmax < lj) {
+					this.lmax = lj;
+					}
+				else if(this.lmin > lj) {
+					this.lmin = lj;
+					}
+				}
+			if(sd == 0.0) return new DaviesResult((this.c > 0.0) ? 1.0 : 0.0, 0);
+			if(this.lmin == 0.0 && this.lmax == 0.0 && sigma == 0.0) return new DaviesResult(-1.0, 3);
+			sd = Math.sqrt(sd);
+			final double almx = (this.lmax < -this.lmin) ? -this.lmin : this.lmax;
+
+			/* starting values for findu, ctff */
+			double utx = 16.0 / sd;
+			final double[] up = new double[] {4.5 / sd};
+			final double[] un = new double[] {-up[0]};
+			/* truncation point with no convergence factor */
+			utx = findu(utx, 0.5 * acc1);
+			/* does convergence factor help */
+			if(this.c != 0.0 && (almx > 0.07 * sd)) {
+				final double tausq = 0.25 * acc1 / cfe(this.c);
+				if(this.fail) {
+					this.fail = false;
+					}
+				else if(truncation(utx, tausq) < 0.2 * acc1) {
+					this.sigsq = this.sigsq + tausq;
+					utx = findu(utx, 0.25 * acc1);
+					}
+				}
+			acc1 = 0.5 * acc1;
+
+			double intv;
+			double xnt;
+			for(;;) {
+				/* find RANGE of distribution, quit if outside this */
+				final double d1 = ctff(acc1, up) - this.c;
+				if(d1 < 0.0) return new DaviesResult(1.0, 0);
+				final double d2 = this.c - ctff(acc1, un);
+				if(d2 < 0.0) return new DaviesResult(0.0, 0);
+				/* find integration interval */
+				intv = 2.0 * Math.PI / ((d1 > d2) ? d1 : d2);
+				/* calculate number of terms required for main and auxillary integrations */
+				xnt = utx / intv;
+				final double xntm = 3.0 / Math.sqrt(acc1);
+				if(xnt <= xntm * 1.5) break;
+				/* parameters for auxillary integration */
+				if(xntm > xlim) return new DaviesResult(-1.0, 1);
+				final int ntm = (int)Math.floor(xntm + 0.5);
+				final double intv1 = utx / ntm;
+				final double x = 2.0 * Math.PI / intv1;
+				if(x <= Math.abs(this.c)) break;
+				/* calculate convergence factor */
+				final double tausq = 0.33 * acc1 / (1.1 * (cfe(this.c - x) + cfe(this.c + x)));
+				if(this.fail) break;
+				acc1 = 0.67 * acc1;
+				/* auxillary integration */
+				integrate(ntm, intv1, tausq, false);
+				xlim = xlim - xntm;
+				this.sigsq = this.sigsq + tausq;
+				/* find truncation point with new convergence factor */
+				utx = findu(utx, 0.25 * acc1);
+				acc1 = 0.75 * acc1;
+				}
+
+			/* main integration */
+			if(xnt > xlim) return new DaviesResult(-1.0, 1);
+			final int nt = (int)Math.floor(xnt + 0.5);
+			integrate(nt, intv, 0.0, true);
+			final double qfval = 0.5 - this.intl;
+
+			/* test whether round-off error could be significant allow for radix 8 or 16 machines */
+			int ifault = 0;
+			final double x = this.ersm + acc1 / 10.0;
+			for(int j = 0; j < RATS.length; j++) {
+				if(RATS[j] * x == RATS[j] * this.ersm) ifault = 2;
+				}
+			return new DaviesResult(qfval, ifault);
+			}
+		catch(final TooManyTermsException err) {
+			return new DaviesResult(-1.0, 4);
+			}
+		}
+
+	/** Davies' method for central chi-2 with one degree of freedom, as called by SKAT: returns P(Q &gt; q) or a value outside ]0,1] on failure */
+	static double daviesUpperTail(final double q,final double[] lambda) {
+		final DaviesResult rez = new QuadraticFormDistribution().davies(
+				lambda,
+				new double[lambda.length],
+				filled(lambda.length,1),
+				0.0,
+				q,
+				10_000,
+				1e-6
+				);
+		if(rez.ifault!=0) return -1.0;
+		return 1.0 - rez.cdf;
+		}
+
+	private static int[] filled(final int len,final int value) {
+		final int[] a = new int[len];
+		Arrays.fill(a, value);
+		return a;
+		}
+
+	/** parameters of the modified Liu approximation */
+	static class LiuParams {
+		final double muQ;
+		final double sigmaQ;
+		final double muX;
+		final double sigmaX;
+		/** degrees of freedom */
+		final double l;
+		/** non-centrality */
+		final double d;
+		LiuParams(final double[] lambda) {
+			final double[] c1 = new double[4];
+			for(final double v: lambda) {
+				c1[0] += v;
+				c1[1] += v * v;
+				c1[2] += v * v * v;
+				c1[3] += v * v * v * v;
+				}
+			this.muQ = c1[0];
+			this.sigmaQ = Math.sqrt(2.0 * c1[1]);
+			final double s1 = c1[2] / Math.pow(c1[1], 1.5);
+			final double s2 = c1[3] / square(c1[1]);
+			final double a;
+			if(square(s1) > s2) {
+				a = 1.0 / (s1 - Math.sqrt(square(s1) - s2));
+				this.d = s1 * a * a * a - a * a;
+				this.l = a * a - 2.0 * this.d;
+				}
+			else
+				{
+				this.l = 1.0 / s2;
+				a = Math.sqrt(this.l);
+				this.d = 0.0;
+				}
+			this.muX = this.l + this.d;
+			this.sigmaX = Math.sqrt(2.0) * a;
+			}
+		}
+
+	/** modified Liu et al. approximation of P(Q &gt; q) */
+	static double liuUpperTail(final double q,final double[] lambda) {
+		final LiuParams param = new LiuParams(lambda);
+		final double qNorm = (q - param.muQ) / param.sigmaQ;
+		final double qNorm1 = qNorm * param.sigmaX + param.muX;
+		return chiSquareUpperTail(qNorm1, param.l, param.d);
+		}
+
+	/** P(Q &gt; q) using Davies' method, or the Liu approximation if Davies' method failed. Same as 'Get_PValue.Lambda' in SKAT */
+	static double upperTail(final double q,final double[] lambda) {
+		double p;
+		if(lambda.length == 1) {
+			p = chiSquareUpperTail(q / lambda[0], 1.0, 0.0);
+			}
+		else
+			{
+			p = daviesUpperTail(q, lambda);
+			}
+		if(p > 1.0 || p <= 0.0) {
+			p = liuUpperTail(q, lambda);
+			}
+		return p;
+		}
+
+	/** upper tail of the (non-central) chi-2 distribution */
+	static double chiSquareUpperTail(final double x,final double df,final double ncp) {
+		if(x <= 0.0) return 1.0;
+		if(ncp <= 0.0) {
+			return Gamma.regularizedGammaQ(df / 2.0, x / 2.0);
+			}
+		/* poisson mixture of central chi-2, summed from the mode of the poisson distribution */
+		final double lambda = ncp / 2.0;
+		final int mode = (int)Math.floor(lambda);
+		final double logWeightMode = -lambda + mode * Math.log(lambda) - Gamma.logGamma(mode + 1.0);
+		double sum = 0.0;
+		double w = Math.exp(logWeightMode);
+		for(int j = mode; w > 1e-17 || j < mode + 10; j++) {
+			sum += w * Gamma.regularizedGammaQ(df / 2.0 + j, x / 2.0);
+			w *= lambda / (j + 1);
+			if(j - mode > 100_000) break;
+			}
+		w = Math.exp(logWeightMode);
+		for(int j = mode - 1; j >= 0; j--) {
+			w *= (j + 1) / lambda;
+			sum += w * Gamma.regularizedGammaQ(df / 2.0 + j, x / 2.0);
+			if(w < 1e-17) break;
+			}
+		return Math.min(1.0, sum);
+		}
+
+	/** central chi-2 distribution */
+	static ChiSquaredDistribution chiSquare(final double df) {
+		return new ChiSquaredDistribution(null, df, ChiSquaredDistribution.DEFAULT_INVERSE_ABSOLUTE_ACCURACY);
+		}
+	}
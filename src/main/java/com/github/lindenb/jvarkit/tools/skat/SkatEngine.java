@@ -0,0 +1,352 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.skat;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.analysis.UnivariateFunction;
+import org.apache.commons.math3.analysis.integration.IterativeLegendreGaussIntegrator;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.EigenDecomposition;
+
+/**
+ * In-process implementation of SKAT / SKAT-O for a dichotomous phenotype without covariate,
+ * the model used by {@link SkatFactory}: <code>SKAT_Null_Model(phenotypes~1, out_type="D")</code>
+ * and <code>SKAT(kernel="linear.weighted", method="davies"|"optimal")</code>.
+ * 
+ * It follows the R code of the package SKAT (Lee S, Wu MC, Lin X).
+ */
+class SkatEngine {
+	/** values of rho used by SKAT for method="optimal" */
+	static final double[] OPTIMAL_RHOS = {0.0,0.1,0.2,0.3,0.4,0.5,0.6,0.7,0.8,0.9,1.0};
+	private static final double SQRT_2PI = Math.sqrt(2.0 * Math.PI);
+	
+	/** number of samples */
+	private final int n;
+	/** number of variants */
+	private final int p;
+	/** weighted genotypes, n x p */
+	private final double[][] Z;
+	/** residuals of the null model */
+	private final double[] res;
+	/** variance mu(1-mu) of the null model */
+	private final double pi1;
+	/** t(Zc) Zc , where Zc is the column-centered weighted genotypes */
+	private final double[][] ZtZ;
+	
+	/**
+	 * @param genotypes number of ALT alleles: genotypes[sample][variant]
+	 * @param phenotypes 0: control, 1: case
+	 * @param weights weight of each variant
+	 */
+	SkatEngine(final double[][] genotypes,final double[] phenotypes,final double[] weights) {
+		this.n = phenotypes.length;
+		if(this.n==0) throw new IllegalArgumentException("no sample");
+		if(genotypes.length!=this.n) throw new IllegalArgumentException("genotypes.length!=phenotypes.length");
+		final int nVariants = weights.length;
+		/* like SKAT_MAIN_Check_Z: flip the genotypes if MAF > 0.5, remove the monomorphic variants */
+		final double[][] columns = new double[nVariants][];
+		int nColumns = 0;
+		for(int j=0;j< nVariants;j++) {
+			final double[] col = new double[this.n];
+			double sum = 0;
+			for(int i=0;i< this.n;i++) {
+				col[i] = genotypes[i][j];
+				sum += col[i];
+				}
+			final boolean flip = (sum / this.n) / 2.0 > 0.5;
+			if(sum==0.0 || (flip && sum==2.0*this.n)) continue;
+			if(!Double.isFinite(weights[j])) throw new IllegalArgumentException("bad weight "+weights[j]);
+			for(int i=0;i< this.n;i++) {
+				col[i] = (flip?2.0-col[i]:col[i]) * weights[j];
+				}
+			columns[nColumns++] = col;
+			}
+		if(nColumns==0) throw new IllegalArgumentException("all variants are monomorphic");
+		this.p = nColumns;
+		this.Z = new double[this.n][this.p];
+		for(int j=0;j< this.p;j++) {
+			for(int i=0;i< this.n;i++) this.Z[i][j] = columns[j][i];
+			}
+		
+		/* null model with intercept only: the fitted value is the mean of the phenotypes */
+		double mu = 0;
+		for(final double y : phenotypes) mu += y;
+		mu /= this.n;
+		if(mu<=0.0 || mu>=1.0) throw new IllegalArgumentException("no variance in the phenotypes");
+		this.pi1 = mu * (1.0 - mu);
+		this.res = new double[this.n];
+		for(int i=0;i< this.n;i++) this.res[i] = phenotypes[i] - mu;
+		
+		/* t(Z) P0 Z = pi1 * t(Zc) Zc */
+		final double[] colMeans = new double[this.p];
+		for(int i=0;i< this.n;i++) {
+			for(int j=0;j< this.p;j++) colMeans[j] += this.Z[i][j];
+			}
+		for(int j=0;j< this.p;j++) colMeans[j] /= this.n;
+		this.ZtZ = new double[this.p][this.p];
+		for(int i=0;i< this.n;i++) {
+			final double[] row = this.Z[i];
+			for(int j=0;j< this.p;j++) {
+				final double zj = row[j] - colMeans[j];
+				for(int k=j;k< this.p;k++) {
+					this.ZtZ[j][k] += zj * (row[k] - colMeans[k]);
+					}
+				}
+			}
+		for(int j=0;j< this.p;j++) {
+			for(int k=0;k< j;k++) this.ZtZ[j][k] = this.ZtZ[k][j];
+			}
+		}
+	
+	/** number of variants used in the test (monomorphic variants are removed) */
+	int getVariantCount() {
+		return this.p;
+		}
+	
+	/** t(res) Z */
+	private double[] scores() {
+		final double[] temp = new double[this.p];
+		for(int i=0;i< this.n;i++) {
+			for(int j=0;j< this.p;j++) temp[j] += this.res[i] * this.Z[i][j];
+			}
+		return temp;
+		}
+	
+	/** eigen values of K larger than mean(positive eigen values)/100000. Same as 'Get_Lambda' in SKAT */
+	static double[] getLambda(final double[][] K) {
+		final double[] values = new EigenDecomposition(new Array2DRowRealMatrix(K, false)).getRealEigenvalues();
+		final double meanPositive = Arrays.stream(values).filter(V->V>=0).average().orElse(0.0);
+		final double[] lambda = Arrays.stream(values).filter(V->V > meanPositive/100000.0).toArray();
+		if(lambda.length==0) throw new IllegalStateException("No Eigenvalue is bigger than 0!!");
+		return lambda;
+		}
+	
+	private double[][] scaled(final double[][] m,final double f) {
+		final double[][] a = new double[m.length][];
+		for(int j=0;j< m.length;j++) {
+			a[j] = m[j].clone();
+			for(int k=0;k< a[j].length;k++) a[j][k] *= f;
+			}
+		return a;
+		}
+	
+	/** SKAT with Davies' method */
+	double skat() {
+		double q = 0;
+		for(final double t : scores()) q += t * t;
+		/* SKAT calls Get_Davies_PVal(Q/2, W.1) with Q = t(res) K res / 2 and lambda = eigen(W.1/2) */
+		return QuadraticFormDistribution.upperTail(q / 4.0, getLambda(scaled(this.ZtZ, this.pi1 / 2.0)));
+		}
+	
+	/** mixture parameters for SKAT-O, as in 'SKAT_Optimal_Param' */
+	private static class OptimalParam {
+		double muQ;
+		double varQ;
+		double varRemain;
+		double[] lambda;
+		double[] tau;
+		}
+	
+	/** SKAT-O, method="optimal" */
+	double skatO() {
+		if(this.p==1) return skat();
+		final double[] rhos = OPTIMAL_RHOS.clone();
+		for(int r=0;r< rhos.length;r++) if(rhos[r]>=0.999) rhos[r]=0.999;
+		final int nr = rhos.length;
+		
+		/* Q for each rho, 'SKAT_Optimal_Get_Q' */
+		final double[] temp = scores();
+		double sumSq = 0, sum = 0;
+		for(final double t: temp) {
+			sumSq += t * t;
+			sum += t;
+			}
+		final double[] Q = new double[nr];
+		for(int r=0;r< nr;r++) {
+			Q[r] = ((1.0 - rhos[r]) * sumSq + rhos[r] * sum * sum) / 2.0;
+			}
+		
+		/* Z1 = sqrt(pi1) * Zc / sqrt(2) , t(Z1) Z1 = pi1/2 * t(Zc) Zc */
+		final double[][] A = scaled(this.ZtZ, this.pi1 / 2.0);
+		final double[][] lambdas = new double[nr][];
+		for(int r=0;r< nr;r++) {
+			/* eigen values of R^1/2 A R^1/2 with R = (1-rho) I + rho 1 1' , R^1/2 = a I + b 1 1' */
+			final double a = Math.sqrt(1.0 - rhos[r]);
+			final double b = (Math.sqrt(1.0 - rhos[r] + rhos[r] * this.p) - a) / this.p;
+			final double[] rowSums = new double[this.p];
+			double total = 0;
+			for(int j=0;j< this.p;j++) {
+				for(int k=0;k< this.p;k++) rowSums[j] += A[j][k];
+				total += rowSums[j];
+				}
+			final double[][] K1 = new double[this.p][this.p];
+			for(int j=0;j< this.p;j++) {
+				for(int k=0;k< this.p;k++) {
+					K1[j][k] = a * a * A[j][k] + a * b * (rowSums[j] + rowSums[k]) + b * b * total;
+					}
+				}
+			lambdas[r] = getLambda(K1);
+			}
+		
+		final OptimalParam param = optimalParam(rhos);
+		
+		/* p-value of each rho, 'SKAT_Optimal_Each_Q' */
+		final double[] pvals = new double[nr];
+		final double[][] liu = new double[nr][];
+		double pmin = 1.0;
+		for(int r=0;r< nr;r++) {
+			final QuadraticFormDistribution.LiuParams lp = new QuadraticFormDistribution.LiuParams(lambdas[r]);
+			final double varQ = lp.sigmaQ * lp.sigmaQ;
+			final double qNorm = (Q[r] - lp.muQ) / Math.sqrt(varQ) * Math.sqrt(2.0 * lp.l) + lp.l;
+			pvals[r] = QuadraticFormDistribution.chiSquareUpperTail(qNorm, lp.l, 0.0);
+			liu[r] = new double[] {lp.muQ, varQ, lp.l};
+			if(r==0 || pvals[r] < pmin) pmin = pvals[r];
+			}
+		final double[] pminQ = new double[nr];
+		for(int r=0;r< nr;r++) {
+			final double df = liu[r][2];
+			final double qOrg = QuadraticFormDistribution.chiSquare(df).inverseCumulativeProbability(1.0 - pmin);
+			pminQ[r] = (qOrg - df) / Math.sqrt(2.0 * df) * Math.sqrt(liu[r][1]) + liu[r][0];
+			}
+		
+		/* 'SKAT_Optimal_PValue_Davies' */
+		double pval;
+		try {
+			pval = 1.0 - integrate(X->optimalIntegrandDavies(X, pminQ, param, rhos));
+			}
+		catch(final IllegalStateException err) {
+			pval = 1.0 - integrate(X->optimalIntegrandLiu(X, pminQ, param, rhos));
+			}
+		if(pmin * nr < pval) pval = pmin * nr;
+		
+		/* check the p-value: SKAT-O p-value should be <= min(p-values) * 3 */
+		final int multi = (nr < 3 ? 2 : 3);
+		final long nPositive = Arrays.stream(pvals).filter(P->P>0).count();
+		if(pval <= 0 || nPositive < nr) pval = pmin * multi;
+		if(pval == 0 && nPositive > 0) pval = Arrays.stream(pvals).filter(P->P>0).min().getAsDouble();
+		return pval;
+		}
+	
+	private OptimalParam optimalParam(final double[] rhos) {
+		final double f = Math.sqrt(this.pi1 / 2.0);
+		final double[] colMeans = new double[this.p];
+		for(int i=0;i< this.n;i++) {
+			for(int j=0;j< this.p;j++) colMeans[j] += this.Z[i][j];
+			}
+		for(int j=0;j< this.p;j++) colMeans[j] /= this.n;
+		/* z_mean = rowMeans(Z1) */
+		final double[] zMean = new double[this.n];
+		double zMeanSq = 0;
+		for(int i=0;i< this.n;i++) {
+			for(int j=0;j< this.p;j++) zMean[i] += f * (this.Z[i][j] - colMeans[j]);
+			zMean[i] /= this.p;
+			zMeanSq += zMean[i] * zMean[i];
+			}
+		/* cof1 = t(z_mean) Z1 / sum(z_mean^2) */
+		final double[] cof1 = new double[this.p];
+		for(int i=0;i< this.n;i++) {
+			for(int j=0;j< this.p;j++) cof1[j] += zMean[i] * f * (this.Z[i][j] - colMeans[j]);
+			}
+		double cof1Sq = 0;
+		for(int j=0;j< this.p;j++) {
+			cof1[j] /= zMeanSq;
+			cof1Sq += cof1[j] * cof1[j];
+			}
+		/* Z.item2 = Z1 - z_mean %*% cof1 ; W3.2 = t(Z.item2) Z.item2 */
+		final double[][] W32 = new double[this.p][this.p];
+		final double[] item2 = new double[this.p];
+		for(int i=0;i< this.n;i++) {
+			for(int j=0;j< this.p;j++) item2[j] = f * (this.Z[i][j] - colMeans[j]) - zMean[i] * cof1[j];
+			for(int j=0;j< this.p;j++) {
+				for(int k=j;k< this.p;k++) W32[j][k] += item2[j] * item2[k];
+				}
+			}
+		for(int j=0;j< this.p;j++) {
+			for(int k=0;k< j;k++) W32[j][k] = W32[k][j];
+			}
+		final OptimalParam param = new OptimalParam();
+		param.lambda = getLambda(W32);
+		/* W3.3 = sum( (t(Z.item1) Z.item1) * (t(Z.item2) Z.item2) ) * 4 , t(Z.item1) Z.item1 = sum(z_mean^2) cof1 t(cof1) */
+		double w33 = 0;
+		for(int j=0;j< this.p;j++) {
+			for(int k=0;k< this.p;k++) w33 += zMeanSq * cof1[j] * cof1[k] * W32[j][k];
+			}
+		param.varRemain = w33 * 4.0;
+		double sumL = 0, sumL2 = 0;
+		for(final double v: param.lambda) {
+			sumL += v;
+			sumL2 += v * v;
+			}
+		param.muQ = sumL;
+		param.varQ = sumL2 * 2.0 + param.varRemain;
+		param.tau = new double[rhos.length];
+		for(int r=0;r< rhos.length;r++) {
+			param.tau[r] = (this.p * this.p * rhos[r] + cof1Sq * (1.0 - rhos[r])) * zMeanSq;
+			}
+		return param;
+		}
+	
+	/** min over rho of (pmin.q - tau * x) / (1 - rho) */
+	private static double minQ(final double x,final double[] pminQ,final OptimalParam param,final double[] rhos) {
+		double min = Double.POSITIVE_INFINITY;
+		for(int r=0;r< rhos.length;r++) {
+			min = Math.min(min, (pminQ[r] - param.tau[r] * x) / (1.0 - rhos[r]));
+			}
+		return min;
+		}
+	
+	/** 'SKAT_Optimal_Integrate_Func_Davies' without the density of chi2(1) */
+	private static double optimalIntegrandDavies(final double x,final double[] pminQ,final OptimalParam param,final double[] rhos) {
+		final double min1 = minQ(x, pminQ, param, rhos);
+		double temp;
+		if(min1 > param.muQ * 10000) {
+			temp = 0;
+			}
+		else
+			{
+			final double sd1 = Math.sqrt(param.varQ - param.varRemain) / Math.sqrt(param.varQ);
+			final double min1St = (min1 - param.muQ) * sd1 + param.muQ;
+			temp = QuadraticFormDistribution.daviesUpperTail(min1St, param.lambda);
+			if(temp < 0) throw new IllegalStateException("dav.re$ifault is not 0");
+			}
+		if(temp > 1) temp = 1;
+		return 1.0 - temp;
+		}
+	
+	/** 'SKAT_Optimal_Integrate_Func_Liu' without the density of chi2(1) */
+	private static double optimalIntegrandLiu(final double x,final double[] pminQ,final OptimalParam param,final double[] rhos) {
+		final double df = 12.0 / (Arrays.stream(param.lambda).map(V->V*V*V*V).sum() / Math.pow(Arrays.stream(param.lambda).map(V->V*V).sum(), 2) * 12.0);
+		final double min1 = minQ(x, pminQ, param, rhos);
+		final double q = (min1 - param.muQ) / Math.sqrt(param.varQ) * Math.sqrt(2.0 * df) + df;
+		return 1.0 - QuadraticFormDistribution.chiSquareUpperTail(q, df, 0.0);
+		}
+	
+	/** integrate f(x) * dchisq(x,df=1) for x in [0,40], using x = t^2 to remove the singularity at 0 */
+	private static double integrate(final UnivariateFunction f) {
+		final UnivariateFunction g = T -> f.value(T * T) * 2.0 * Math.exp(-T * T / 2.0) / SQRT_2PI;
+		return new IterativeLegendreGaussIntegrator(5, 1e-6, 1e-25).integrate(100_000, g, 0.0, Math.sqrt(40.0));
+		}
+	}
@@ -65,6 +65,8 @@ public class SkatFactory {
 	private boolean acceptFILTERED = false;
 	@Parameter(names={"--skat-num-retry"},description="compute n-times the p-value")
 	private int n_retry = 1;
+	@Parameter(names={"--skat-rscript"},description="[20181016] Compute the p-values with the R package SKAT and Rscript instead of the in-process java implementation. R is always used with '--skat-adjusted'.")
+	private boolean useRscript = false;
 
 	private String RScript= "Rscript";
 	
@@ -135,37 +137,28 @@ public boolean isOptimal() {
 	return optimal;
 	}
 
-public SkatExecutor build() {
-	return new ExecutorImpl();
+public void setUseRscript(boolean useRscript) {
+	this.useRscript = useRscript;
+	}
+@XmlElement(name = "rscript")
+public boolean isUseRscript() {
+	return useRscript;
 	}
 
-
-private class ExecutorImpl implements SkatExecutor {
-
-private final boolean	adjusted = SkatFactory.this.adjusted;
-private final boolean	optimal = SkatFactory.this.optimal;
-private final boolean acceptFILTERED = SkatFactory.this.acceptFILTERED;
-private final int n_retry = SkatFactory.this.n_retry;
-private final String RScript=  SkatFactory.this.RScript;
-private final int set_random_seed_value = SkatFactory.this.set_random_seed_value;
-private final File scriptFile;
-private final File saveFile;
-
-public ExecutorImpl() {
-	try 
-		{
-		this.scriptFile = File.createTempFile("skat", ".R");
-		//this.scriptFile.deleteOnExit();
-		this.saveFile = File.createTempFile("skat", ".txt");
-		//this.saveFile.deleteOnExit();		
-		if(this.n_retry<1) throw new IllegalArgumentException("n_retry <1");
-		}
-	catch(final IOException err)
-		{
-		throw new RuntimeIOException(err);
+/** build a new executor. The java executor is used unless Rscript was requested or the small-sample adjustment is needed */
+public SkatExecutor build() {
+	if(this.useRscript || this.adjusted) {
+		return new RExecutorImpl();
 		}
+	return new JavaExecutorImpl();
 	}
 
+/** base class of the executors: filters the variants and the samples */
+private abstract class AbstractExecutorImpl implements SkatExecutor {
+protected final boolean	adjusted = SkatFactory.this.adjusted;
+protected final boolean	optimal = SkatFactory.this.optimal;
+protected final boolean acceptFILTERED = SkatFactory.this.acceptFILTERED;
+
 @Override
 public Predicate<VariantContext> getUpstreamVariantFilter() {
 		return new Predicate<VariantContext>()
@@ -180,7 +173,7 @@ public Predicate<VariantContext> getUpstreamVariantFilter() {
 		}
 
 
-private MafCalculator calculateMaf(final VariantContext ctx,final Collection<Pedigree.Person>  samples) {
+protected MafCalculator calculateMaf(final VariantContext ctx,final Collection<Pedigree.Person>  samples) {
 	final Allele observed_alt = ctx.getAltAlleleWithHighestAlleleCount();
 	final MafCalculator mafCalculator= new MafCalculator(observed_alt,ctx.getContig());
 	for (final Pedigree.Person person : samples) {
@@ -191,23 +184,14 @@ private MafCalculator calculateMaf(final VariantContext ctx,final Collection<Ped
 	}
 
 
-private boolean isAdjusted() {
+protected boolean isAdjusted() {
 	return adjusted;
 	}
 
-private boolean isOptimal() {
+protected boolean isOptimal() {
 	return optimal;
 	}
 
-
-private String getMethod() {
-	return isOptimal()?"optimal":"davies";
-	}
-
-private String getKernel() {
-	return "linear.weighted";
-	}
-
 	
 @Override
 public SkatFactory.SkatResult execute(
@@ -240,7 +224,98 @@ public SkatFactory.SkatResult execute(
 			filter(V->!calculateMaf(V,samples).isEmpty()).
 			collect(Collectors.toList());
 	if(variants.isEmpty()) return new ResultError("no variants with valid MAF");
-	
+	return compute(variants,samples);
+	}
+
+/** compute the p-value for the filtered variants and samples */
+protected abstract SkatFactory.SkatResult compute(
+		final List<VariantContext> variants,
+		final List<Pedigree.Person> samples
+		);
+}
+
+/** in-process implementation */
+private class JavaExecutorImpl extends AbstractExecutorImpl {
+
+@Override
+protected SkatFactory.SkatResult compute(
+		final List<VariantContext> variants,
+		final List<Pedigree.Person> samples
+		)
+	{
+	try {
+		final double[] phenotypes = new double[samples.size()];
+		final double[][] genotypes = new double[samples.size()][variants.size()];
+		final double[] weights = new double[variants.size()];
+		for(int i=0;i< samples.size();i++) {
+			phenotypes[i] = samples.get(i).isUnaffected()?0:1;
+			}
+		for(int j=0;j< variants.size();j++) {
+			final VariantContext ctx = variants.get(j);
+			final double maf = calculateMaf(ctx, samples).getMaf();
+			weights[j] = 1.0/Math.sqrt(samples.size()*maf*(1.0-maf));
+			for(int i=0;i< samples.size();i++) {
+				final Genotype genotype= ctx.getGenotype(samples.get(i).getId());
+				if(genotype.isHomVar())
+					{
+					genotypes[i][j] = 2;
+					}
+				else if(genotype.isHet())
+					{
+					genotypes[i][j] = 1;
+					}
+				}
+			}
+		final SkatEngine engine = new SkatEngine(genotypes, phenotypes, weights);
+		final double pvalue = (isOptimal()?engine.skatO():engine.skat());
+		if(Double.isNaN(pvalue)) return new ResultError("p-value is NaN");
+		return new ResultImpl(pvalue);
+		}
+	catch(final Throwable err)
+		{
+		LOG.error(err);
+		return  new ResultError(err.getMessage());
+		}
+	}
+}
+
+/** implementation using R and the package SKAT */
+private class RExecutorImpl extends AbstractExecutorImpl {
+private final int n_retry = SkatFactory.this.n_retry;
+private final String RScript=  SkatFactory.this.RScript;
+private final int set_random_seed_value = SkatFactory.this.set_random_seed_value;
+private final File scriptFile;
+private final File saveFile;
+
+public RExecutorImpl() {
+	try 
+		{
+		this.scriptFile = File.createTempFile("skat", ".R");
+		//this.scriptFile.deleteOnExit();
+		this.saveFile = File.createTempFile("skat", ".txt");
+		//this.saveFile.deleteOnExit();		
+		if(this.n_retry<1) throw new IllegalArgumentException("n_retry <1");
+		}
+	catch(final IOException err)
+		{
+		throw new RuntimeIOException(err);
+		}
+	}
+
+private String getMethod() {
+	return isOptimal()?"optimal":"davies";
+	}
+
+private String getKernel() {
+	return "linear.weighted";
+	}
+
+@Override
+protected SkatFactory.SkatResult compute(
+		final List<VariantContext> variants,
+		final List<Pedigree.Person> samples
+		)
+	{
 	PrintWriter pw = null;
 	try {
 		pw = new PrintWriter(this.scriptFile);
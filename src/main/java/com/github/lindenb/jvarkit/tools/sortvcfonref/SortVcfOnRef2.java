@@ -44,13 +44,13 @@ import htsjdk.variant.vcf.VCFHeader;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.ExternalSortingCollection;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
-import htsjdk.samtools.util.SortingCollection;
 
 
 import com.beust.jcommander.Parameter;
@@ -269,15 +269,12 @@ public class SortVcfOnRef2 extends Launcher
 			}
 		
     	CloseableIterator<ChromPosLine> iter=null;
-    	SortingCollection<ChromPosLine> array=null;
+    	ExternalSortingCollection<ChromPosLine> array=null;
     	VariantContextWriter w =null;
     	try {
-			array= SortingCollection.newInstance(
-					ChromPosLine.class,
+			array= this.writingSortingCollection.newSortingCollection(
 					new VariantCodec(),
-					new VariantComparator(),
-					this.writingSortingCollection.getMaxRecordsInRam(),
-					this.writingSortingCollection.getTmpPaths()
+					new VariantComparator()
 					);
 			array.setDestructiveIteration(true);
 			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(this.dict);
@@ -30,10 +30,10 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -50,7 +50,7 @@ import javax.xml.bind.annotation.XmlType;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.io.IOUtils;
-import com.github.lindenb.jvarkit.util.Algorithms;
+import com.github.lindenb.jvarkit.io.MappedRecords;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -63,7 +63,6 @@ import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.RuntimeIOException;
-import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
@@ -103,14 +102,37 @@ public class VcfTrap extends Launcher {
 	private CtxWriterFactory component = new CtxWriterFactory();
 	
 	
-	private static class IndexFile extends AbstractList<TrapRecord>
+	/**
+	 * A TRAP index file opened with FileChannel.map. The records are decoded in place
+	 * and a query starts from the last position found (galloping search), so a sorted VCF
+	 * is annotated with mostly sequential reads.
+	 */
+	static class IndexFile extends AbstractList<TrapRecord>
 		implements Closeable
 		{
+		/** score of the 3 digits after '0.' , decoded like TrapIndexer.decode */
+		private static final float DIGITS2SCORE[] = new float[1000];
+		static {
+			for(int i=0;i< DIGITS2SCORE.length;i++) {
+				DIGITS2SCORE[i] = Float.parseFloat(String.format("0.%03d",i));
+				}
+			}
+		private static final int REF_OFFSET = Integer.BYTES;
+		private static final int ALT_OFFSET = REF_OFFSET + 1;
+		private static final int ENSG_OFFSET = ALT_OFFSET + 1;
+		private static final int SCORE_OFFSET = ENSG_OFFSET + Integer.BYTES;
 		final String contig;
 		final File file;
-		private RandomAccessFile io;
+		private final MappedRecords records;
 		final int _size;
+		/** index of the last record found, for galloping */
+		private int cursor = 0;
+		
 		IndexFile(final String contig,final File file) throws IOException {
+			this(contig,file,Integer.MAX_VALUE);
+			}
+		/** @param maxChunkSize max size of a mapped region in bytes */
+		IndexFile(final String contig,final File file,final int maxChunkSize) throws IOException {
 			this.contig = contig;
 			this.file=file;
 			long length = file.length();
@@ -122,28 +144,88 @@ public class VcfTrap extends Launcher {
 			length -=  TrapIndexer.MAGIC.length;
 			
 			if(length % TrapIndexer.RECORD_SIZOF!=0) throw new  IOException("not a multiple of "+TrapIndexer.RECORD_SIZOF+":"+length);
+			if(length/TrapIndexer.RECORD_SIZOF > Integer.MAX_VALUE) throw new  IOException("too many records in "+file);
 			this._size = (int)(length/TrapIndexer.RECORD_SIZOF);
-			this.io = new RandomAccessFile(this.file, "r");
-			final byte magic[]=new byte[TrapIndexer.MAGIC.length];
-			this.io.readFully(magic);
-			if(!Arrays.equals(magic,  TrapIndexer.MAGIC))
-				{
-				this.io.close();
-				throw new IOException("not a TrapIndexer file:"+file);
+			try(RandomAccessFile io = new RandomAccessFile(this.file, "r")) {
+				final byte magic[]=new byte[TrapIndexer.MAGIC.length];
+				io.readFully(magic);
+				if(!Arrays.equals(magic,  TrapIndexer.MAGIC))
+					{
+					throw new IOException("not a TrapIndexer file:"+file);
+					}
+				this.records = new MappedRecords(io.getChannel(), TrapIndexer.MAGIC.length, this._size, TrapIndexer.RECORD_SIZOF, maxChunkSize);
+				}
+			}
+		
+		private ByteBuffer chunk(final int index) {
+			return this.records.getBuffer(index);
+			}
+		private int offset(final int index) {
+			return this.records.getOffset(index);
+			}
+		
+		int getPos(final int index) {
+			return chunk(index).getInt(offset(index));
+			}
+		char getRef(final int index) {
+			return (char)chunk(index).get(offset(index) + REF_OFFSET);
+			}
+		char getAlt(final int index) {
+			return (char)chunk(index).get(offset(index) + ALT_OFFSET);
+			}
+		String getGene(final int index) {
+			return String.format("ENSG%011d",chunk(index).getInt(offset(index) + ENSG_OFFSET));
+			}
+		float getScore(final int index) {
+			final ByteBuffer buf = chunk(index);
+			final int off = offset(index) + SCORE_OFFSET;
+			if(buf.get(off)==(byte)1) return 1.0f;
+			int n = 0;
+			for(int i=0;i< 3;i++) {
+				final int d = buf.get(off+i) - '0';
+				if(d<0 || d>9) throw new RuntimeIOException("bad score in "+this.file+" at record "+index);
+				n = n*10 + d;
 				}
+			return DIGITS2SCORE[n];
+			}
+		
+		/** index of the first record with a position &gt;= pos */
+		int lowerBound(final int pos) {
+			this.cursor = (int)MappedRecords.gallop(0L, this._size, this.cursor, I->getPos((int)I) < pos);
+			return this.cursor;
 			}
+		
 		@Override
 		public TrapRecord get(final int index) {
-			try {
-				final byte array[]=new byte[TrapIndexer.RECORD_SIZOF];
-				this.io.seek((long)TrapIndexer.MAGIC.length + (long)TrapIndexer.RECORD_SIZOF*(long)index);
-				this.io.readFully(array);
-				return TrapIndexer.decode(this.contig, array);
-				}
-			catch(final IOException err)
-				{
-				throw new RuntimeIOException(err);
-				}
+			if(index<0 || index>=this._size) throw new IndexOutOfBoundsException("0<="+index+"<"+this._size);
+			final String contig = this.contig;
+			final int pos = getPos(index);
+			final char ref = getRef(index);
+			final char alt = getAlt(index);
+			final String ensg = getGene(index);
+			final float score = getScore(index);
+			return new TrapRecord() {
+				@Override
+				public int getStart() { return pos; }
+				@Override
+				public int getEnd() { return pos; }
+				@Override
+				public String getContig() { return contig;}
+				@Override
+				public String getChr() { return getContig(); }
+				@Override
+				public float getScore() { return score; }
+				@Override
+				public char getRef() {return ref;}
+				@Override
+				public String getGene() {return ensg;}
+				@Override
+				public char getAlt() { return alt; }
+				@Override
+				public String toString() {
+					return contig+":"+pos+":"+ref+"/"+alt+" "+ensg+" "+score;
+					}
+				};
 			}
 		
 		@Override
@@ -154,8 +236,7 @@ public class VcfTrap extends Launcher {
 		@Override
 		public void close() throws IOException {
 			LOG.debug("closing "+contig);
-			CloserUtil.close(this.io);
-			this.io = null;
+			this.records.close();
 			}
 		}
 	
@@ -187,10 +268,6 @@ public class VcfTrap extends Launcher {
 				private final String ATT_MIN = CtxWriterFactory.this.ATT+"_MIN";
 				private final String ATT_MAX = CtxWriterFactory.this.ATT+"_MAX";
 				private final Set<String> contigs_not_found=new HashSet<>();
-				private final Comparator<TrapRecord> comparator = (A,B) ->{
-					if(! A.getContig().equals(B.getContig())) throw new IllegalStateException("not the same contigs ???");
-					return Integer.compare(A.getStart(), B.getStart());
-					};
 				
 				CtxWriter(final VariantContextWriter delegate) {
 					super(delegate);
@@ -250,48 +327,32 @@ public class VcfTrap extends Launcher {
 					final Float min_score[]=new Float[] {null};
 					final Float max_score[]=new Float[] {null};
 					
-					Algorithms.equal_range_stream(
-							this.current,
-							0,
-							this.current.size(),
-							new TrapRecord() {
-								@Override
-								public int getStart() { return var.getStart(); }
-								@Override
-								public int getEnd() { return var.getEnd(); }
-								@Override
-								public String getContig() { return var.getContig();}
-								@Override
-								public String getChr() { return getContig(); }
-								@Override
-								public float getScore() { return 0f; }
-								@Override
-								public char getRef() {return '\0';}
-								@Override
-								public String getGene() {return "";}
-								@Override
-								public char getAlt() { return '\0'; }
-								},
-							this.comparator
-							).
-							filter(R->var.getReference().equals(Allele.create((byte)R.getRef(),true))).
-							filter(R->var.getAlternateAlleles().stream().anyMatch(A->A.equals(Allele.create((byte)R.getAlt(),false)))).
-							forEach(R->{
-								
-								annotations.add(String.join("|",
-										String.valueOf(R.getAlt()),
-										R.getGene(),
-										String.format("%."+TrapIndexer.SCORE_STRLEN+"f", R.getScore())
-										));
-								if(min_score[0]==null || min_score[0].compareTo(R.getScore())>0)
-									{
-									min_score[0]=R.getScore();
-									}
-								if(max_score[0]==null || max_score[0].compareTo(R.getScore())<0)
-									{
-									max_score[0]=R.getScore();
-									}
-								});
+					final int pos = var.getStart();
+					final String ref = var.getReference().getDisplayString();
+					if(ref.length()==1) {
+						for(int i= this.current.lowerBound(pos);
+							i< this.current.size() && this.current.getPos(i)==pos;
+							++i)
+							{
+							if(Character.toUpperCase(this.current.getRef(i))!=Character.toUpperCase(ref.charAt(0))) continue;
+							final char alt = this.current.getAlt(i);
+							if(!var.getAlternateAlleles().stream().anyMatch(A->A.length()==1 && !A.isSymbolic() && Character.toUpperCase(A.getDisplayString().charAt(0))==Character.toUpperCase(alt))) continue;
+							final float score = this.current.getScore(i);
+							annotations.add(String.join("|",
+									String.valueOf(alt),
+									this.current.getGene(i),
+									String.format("%."+TrapIndexer.SCORE_STRLEN+"f", score)
+									));
+							if(min_score[0]==null || min_score[0].compareTo(score)>0)
+								{
+								min_score[0]=score;
+								}
+							if(max_score[0]==null || max_score[0].compareTo(score)<0)
+								{
+								max_score[0]=score;
+								}
+							}
+						}
 					if(annotations.isEmpty())
 						{
 						super.add(var);
@@ -305,7 +366,7 @@ public class VcfTrap extends Launcher {
 					}
 				@Override
 				public void close() {
-					try { this.current.close();}
+					try { if(this.current!=null) this.current.close();}
 					catch(IOException err) {LOG.error(err);} //CloserUtil doenst' work ??
 					this.current=null;
 					super.close();
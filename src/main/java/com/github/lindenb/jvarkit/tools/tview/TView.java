@@ -36,6 +36,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -307,6 +309,8 @@ public class TView implements Closeable
 	private final List<SamReader> samReaders=new ArrayList<>();
 	private final List<VcfSource> vcfReaders=new ArrayList<>();
 	private TabixKnownGeneFileReader tabixKnownGene =null;
+	/** tested while the reads are loaded, used by the server to stop a query */
+	private BooleanSupplier isCancelled = ()->false;
 	
 	public TView() {
 		
@@ -379,6 +383,11 @@ public class TView implements Closeable
 		this.samRecordFilter = samRecordFilter;
 	}
 	
+	/** set a test called while the reads are loaded. If it returns true, paint throws a CancellationException */
+	public void setCancelled(final BooleanSupplier isCancelled) {
+		this.isCancelled = (isCancelled==null?()->false:isCancelled);
+	}
+	
 	public int initialize() throws IOException
 		{
 		if(this.referenceFile!=null) {
@@ -512,6 +521,10 @@ public class TView implements Closeable
 					);
 			while(iter.hasNext())
 				{
+				if(this.isCancelled.getAsBoolean()) {
+					iter.close();
+					throw new CancellationException("query was cancelled");
+					}
 				final SAMRecord rec = iter.next();
 				if(rec.getReadUnmappedFlag()) continue;
 				if(rec.getCigar()==null) continue;
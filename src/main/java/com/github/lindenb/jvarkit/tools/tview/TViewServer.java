@@ -33,7 +33,10 @@ import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.stream.Collectors;
 
 import javax.servlet.http.HttpServletRequest;
@@ -42,16 +45,20 @@ import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
+import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jetty.server.handler.HandlerList;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.tools.bam2wig.CoveragePyramid;
 import com.github.lindenb.jvarkit.tools.tview.TView.Formatout;
 import com.github.lindenb.jvarkit.util.bio.IntervalParser;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+import com.github.lindenb.jvarkit.util.jetty.AsyncQueryRunner;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 
@@ -82,6 +89,16 @@ https://twitter.com/yokofakun/status/925395272225746944
 
 ![twitter](https://pbs.twimg.com/media/DNepyjOW4AA-_rz.jpg "Screenshot")
 
+## Concurrency
+
+The BAM queries are run on a pool of worker threads (option `--threads`), outside of the jetty threads.
+The number of concurrent queries on the same BAM is limited (option `--max-per-file`): the other
+queries get a HTTP 503 error. The query is stopped when the timeout is reached or when the client is disconnected.
+
+## Coverage summary
+
+When the region is larger than `--max` and the BAM has a coverage pyramid (see `bamcoveragepyramid`),
+the server displays the depth of the whole region from the pyramid instead of the reads of the first bases.
 
 ## Example 
 
@@ -127,6 +144,23 @@ private int max_interval_length = 2000;
 private String userCustomUrl=null;
 @Parameter(names={"--shutdown-after"},description="Stop the server after 'x' seconds.")
 private long shutdownAferSeconds=-1L;
+@Parameter(names={"-timeout","--timeout"},description="[20181016] query timeout in seconds. It's the deadline of the whole request, including the time spent waiting for a worker thread. <=0 : no timeout")
+private long timeout_seconds =60;
+@Parameter(names={"--threads"},description="[20181016] Number of worker threads running the queries.")
+private int nThreads = 16;
+@Parameter(names={"--max-per-file"},description="[20181016] Maximum number of concurrent queries on the same BAM file. Other queries are rejected with a HTTP 503 error. <=0 : no limit")
+private int max_queries_per_file = 4;
+@Parameter(names={"--summary-width"},description="[20181016] Number of columns of the coverage summary, displayed when the region is larger than '--max' and the BAM has a coverage pyramid ("+CoveragePyramid.SUFFIX+" file).")
+private int summary_width = 100;
+@Parameter(names={"--summary-height"},description="[20181016] Number of rows of the coverage summary.")
+private int summary_height = 15;
+
+/** run the queries outside the jetty threads */
+private AsyncQueryRunner queryRunner = null;
+/** the running server, or null */
+private volatile Server runningServer = null;
+/** coverage pyramids, opened on demand. value is null if there is no pyramid */
+private final Map<File,CoveragePyramid> file2pyramid = new HashMap<>();
 
 
 private class SamViewHandler extends AbstractHandler
@@ -437,12 +471,15 @@ private class SamViewHandler extends AbstractHandler
 	
 	private class ShowBamHandler extends DelegateHandler
 		{
+		private final AsyncQueryRunner.Query query;
 		ShowBamHandler(
 				final HttpServletRequest request,
-				final HttpServletResponse response
+				final HttpServletResponse response,
+				final AsyncQueryRunner.Query query
 				)
 			{ 
 			super(request,response);
+			this.query = query;
 			}
 		@Override
 		String getTitle() {
@@ -504,7 +541,19 @@ private class SamViewHandler extends AbstractHandler
 						parser.setFixContigName(true);
 						parser.setContigNameIsWholeContig(true);
 						parser.setRaiseExceptionOnError(false);
-						interval = TViewServer.this.trimInterval(parser.parse(rgn_str));	
+						final Interval userInterval = parser.parse(rgn_str);
+						if(userInterval==null) {
+							writeError("Cannot parse interval "+rgn_str);
+							return;
+							}
+						if(userInterval.length() > TViewServer.this.max_interval_length &&
+							writeCoverageSummary(samFile,userInterval)) {
+							interval = null;
+							}
+						else
+							{
+							interval = TViewServer.this.trimInterval(userInterval);
+							}
 						}
 					else
 						{
@@ -512,79 +561,88 @@ private class SamViewHandler extends AbstractHandler
 						interval = TViewServer.this.trimInterval(new Interval(rec.getSequenceName(),1,Math.min(100, rec.getSequenceLength())));
 						}
 					
-					tview.setInterval(interval);
-					if(optionalReferenceFile!=null) tview.setReferenceFile(optionalReferenceFile);
-					tview.setFormatOut(Formatout.html);
-					tview.setShowClip("true".equals(this.request.getParameter(SHOWCLIP)));
-					tview.setShowReadName("true".equals(this.request.getParameter(SHOWNAME)));
-					tview.setShowInsertions("true".equals(this.request.getParameter(SHOWINSERT)));
-					tview.setHideBases("true".equals(this.request.getParameter(HIDEBASES)));
-					tview.setBamFiles(Collections.singletonList(SamInputResource.of(samFile)));
-	
-					if(!TViewServer.this.disable_javascript)
+					if(interval!=null)
 						{
-						final String js_expr = this.request.getParameter(JAVASCRIPT_PARAM);
-						if(!StringUtil.isBlank(js_expr))
+						tview.setInterval(interval);
+						if(optionalReferenceFile!=null) tview.setReferenceFile(optionalReferenceFile);
+						tview.setFormatOut(Formatout.html);
+						tview.setShowClip("true".equals(this.request.getParameter(SHOWCLIP)));
+						tview.setShowReadName("true".equals(this.request.getParameter(SHOWNAME)));
+						tview.setShowInsertions("true".equals(this.request.getParameter(SHOWINSERT)));
+						tview.setHideBases("true".equals(this.request.getParameter(HIDEBASES)));
+						tview.setBamFiles(Collections.singletonList(SamInputResource.of(samFile)));
+						tview.setCancelled(()->this.query.isCancelled());
+	
+						if(!TViewServer.this.disable_javascript)
 							{
-							final JavascriptSamRecordFilter filter;
-							try 
-								{
-								StringReader strReader = new StringReader(js_expr);
-								filter = new JavascriptSamRecordFilter(
-										js_expr,
-										SamReaderFactory.makeDefault().getFileHeader(samFile)
-										);
-								strReader.close();
-								}
-							catch(Exception err)
+							final String js_expr = this.request.getParameter(JAVASCRIPT_PARAM);
+							if(!StringUtil.isBlank(js_expr))
 								{
-								writeException(err);
-								return;
+								final JavascriptSamRecordFilter filter;
+								try 
+									{
+									StringReader strReader = new StringReader(js_expr);
+									filter = new JavascriptSamRecordFilter(
+											js_expr,
+											SamReaderFactory.makeDefault().getFileHeader(samFile)
+											);
+									strReader.close();
+									}
+								catch(Exception err)
+									{
+									writeException(err);
+									return;
+									}
+								tview.setSamRecordFilter(filter);
 								}
-							tview.setSamRecordFilter(filter);
 							}
-						}
 					
-					if(tview.initialize()!=0)
-						{
-						writeError("cannot initialize tview");
-						return ;
-						}
+						if(tview.initialize()!=0)
+							{
+							writeError("cannot initialize tview");
+							return ;
+							}
 					
-					/* Hyperlink to IGV */
-					if(!StringUtil.isBlank(TViewServer.this.userCustomUrl)) {
-						final String gotostr=Launcher.createUrlFromInterval(
-								TViewServer.this.userCustomUrl,
-								interval
-								);
-						if(!StringUtil.isBlank(gotostr)) {
-							this.writer.writeStartElement("div");
-							this.writer.writeStartElement("a");
-							this.writer.writeAttribute("title","URL");
-							this.writer.writeAttribute("rel","nofollow");
-							this.writer.writeAttribute("href", gotostr );
-							this.writer.writeCharacters("[URL]");
-							this.writer.writeEndElement();//a
-							this.writer.writeEndElement();//div
-							this.writer.writeCharacters("");
+						/* Hyperlink to IGV */
+						if(!StringUtil.isBlank(TViewServer.this.userCustomUrl)) {
+							final String gotostr=Launcher.createUrlFromInterval(
+									TViewServer.this.userCustomUrl,
+									interval
+									);
+							if(!StringUtil.isBlank(gotostr)) {
+								this.writer.writeStartElement("div");
+								this.writer.writeStartElement("a");
+								this.writer.writeAttribute("title","URL");
+								this.writer.writeAttribute("rel","nofollow");
+								this.writer.writeAttribute("href", gotostr );
+								this.writer.writeCharacters("[URL]");
+								this.writer.writeEndElement();//a
+								this.writer.writeEndElement();//div
+								this.writer.writeCharacters("");
+								}
 							}
-						}
 					
-					this.writer.writeStartElement("pre");
-					this.writer.writeCharacters("");
-					this.writer.flush();
+						this.writer.writeStartElement("pre");
+						this.writer.writeCharacters("");
+						this.writer.flush();
 					
-					final PrintStream out  = new PrintStream(IOUtils.uncloseableOutputStream(this.response.getOutputStream()));
-					tview.paint(out);
-					out.flush();
-					tview.close();
-					tview=null;
-					this.writer.flush();
-					this.writer.writeCharacters("");
-					this.writer.writeEndElement();//pre
-					this.writer.writeEmptyElement("hr");
-					this.writer.writeCharacters("");
-					this.flush();
+						final PrintStream out  = new PrintStream(IOUtils.uncloseableOutputStream(this.response.getOutputStream()));
+						tview.paint(out);
+						out.flush();
+						tview.close();
+						tview=null;
+						this.writer.flush();
+						this.writer.writeCharacters("");
+						this.writer.writeEndElement();//pre
+						this.writer.writeEmptyElement("hr");
+						this.writer.writeCharacters("");
+						this.flush();
+						}
+					}
+				catch(final CancellationException err)
+					{
+					writeError("Time out reached!");
+					return;
 					}
 				catch(final Exception err)
 					{
@@ -603,6 +661,47 @@ private class SamViewHandler extends AbstractHandler
 			} while(sam_file_index< getOwner().samFiles.size());
 			
 			}
+		
+		/** display the coverage of a large region from the coverage pyramid. return false if there is no pyramid for this BAM */
+		private boolean writeCoverageSummary(final File samFile,final Interval interval) throws IOException,XMLStreamException {
+			final CoveragePyramid pyramid = TViewServer.this.getCoveragePyramid(samFile);
+			if(pyramid==null || !pyramid.hasContig(interval.getContig())) return false;
+			final int width = Math.max(1, TViewServer.this.summary_width);
+			final int height = Math.max(1, TViewServer.this.summary_height);
+			final List<CoveragePyramid.Bin> bins = pyramid.query(interval, width);
+			if(bins.isEmpty()) return false;
+			final int maxDepth = Math.max(1,bins.stream().mapToInt(B->B.getMax()).max().orElse(1));
+			final int binLength = bins.get(0).getLengthOnReference();
+			final StringBuilder sb = new StringBuilder();
+			sb.append("Coverage summary of ").append(interval.getContig()).append(":").
+				append(bins.get(0).getStart()).append("-").append(bins.get(bins.size()-1).getEnd()).
+				append(" bin-size:").append(binLength).
+				append(" '#': mean depth, '.': max depth.\n");
+			for(int y=height;y>=1;--y) {
+				final double threshold = maxDepth*(y-0.5)/height;
+				sb.append(String.format("%8d |", (int)Math.round(maxDepth*(double)y/height)));
+				for(final CoveragePyramid.Bin bin : bins) {
+					sb.append(bin.getMean()>=threshold?'#':(bin.getMax()>=threshold?'.':' '));
+					}
+				sb.append('\n');
+				}
+			sb.append("         +");
+			for(int x=0;x< bins.size();++x) sb.append(x%10==0?'+':'-');
+			sb.append('\n');
+			sb.append("          ");
+			for(int x=0;x< bins.size();x+=10) {
+				final String label = String.valueOf(bins.get(x).getStart());
+				sb.append(label.length()<10?label+StringUtil.repeatCharNTimes(' ', 10-label.length()):label.substring(0,9)+" ");
+				}
+			sb.append('\n');
+			this.writer.writeStartElement("pre");
+			this.writer.writeCharacters(sb.toString());
+			this.writer.writeEndElement();//pre
+			this.writer.writeEmptyElement("hr");
+			this.writer.writeCharacters("");
+			this.flush();
+			return true;
+			}
 		}
 
 	
@@ -636,7 +735,19 @@ private class SamViewHandler extends AbstractHandler
 			}
 		else 
 			{
-			delegate = new ShowBamHandler(req,res);
+			/* slow query: run it on a worker thread */
+			final List<File> resources = (samFile==null?this.samFiles:Collections.singletonList(samFile));
+			TViewServer.this.queryRunner.submit(jetty, req, res, resources, Q->{
+				final DelegateHandler showBam = new ShowBamHandler(req,res,Q);
+				try {
+					showBam.run();
+					}
+				finally
+					{
+					CloserUtil.close(showBam);
+					}
+				});
+			return;
 			}
 		/*if(delegate==null)
 			{
@@ -668,6 +779,18 @@ private Interval trimInterval(final Interval interval) {
 	return interval2;
 	}
 
+/** get the coverage pyramid of a BAM, or null if there is no (up-to-date) pyramid */
+private CoveragePyramid getCoveragePyramid(final File samFile) throws IOException {
+	synchronized(this.file2pyramid) {
+		if(!this.file2pyramid.containsKey(samFile)) {
+			final CoveragePyramid pyramid = CoveragePyramid.openIfExists(samFile);
+			if(pyramid!=null) LOG.info("using coverage pyramid "+pyramid.getFile());
+			this.file2pyramid.put(samFile, pyramid);
+			}
+		return this.file2pyramid.get(samFile);
+		}
+	}
+
 private static boolean showAllBamsInOneWindow(final HttpServletRequest request) {
 	return "true".equals(request.getParameter(SHOWALLBAMS));
 	}
@@ -713,12 +836,14 @@ public int doWork(final List<String> args) {
 			IOUtil.assertFileIsReadable(F);
 			});
 		
+		this.queryRunner = new AsyncQueryRunner(this.nThreads, this.timeout_seconds*1000L, this.max_queries_per_file);
 		server = new Server(this.port);
 		final HandlerList handlers = new HandlerList();
 		handlers.addHandler(new SamViewHandler(samFiles));
 		server.setHandler(handlers);
 		LOG.info("Starting "+TViewServer.class.getName()+" on http://localhost:"+this.port);
 		server.start();
+		this.runningServer = server;
 		if(this.shutdownAferSeconds>0)
 			{
 			final Server theServer = server;
@@ -748,13 +873,32 @@ public int doWork(final List<String> args) {
 		}
 	finally
 		{
+		this.runningServer = null;
 		if(server!=null)
 			{
 			server.destroy();
 			}
+		CloserUtil.close(this.queryRunner);
+		this.file2pyramid.values().forEach(P->CloserUtil.close(P));
 		}
 	}
 
+/** returns the port the server is listening to, or -1 if the server is not running. With '-P 0', the port is chosen by the system */
+int getLocalPort() {
+	final Server s = this.runningServer;
+	if(s==null || !s.isStarted()) return -1;
+	for(final Connector c:s.getConnectors()) {
+		if(c instanceof ServerConnector) return ((ServerConnector)c).getLocalPort();
+		}
+	return -1;
+	}
+
+/** stop the running server: doWork returns */
+void stopServer() throws Exception {
+	final Server s = this.runningServer;
+	if(s!=null) s.stop();
+	}
+
 public static void main(final String args[]) {
 	new TViewServer().instanceMainWithExit(args);
 	}
@@ -156,6 +156,34 @@ public class VCFBed extends Launcher
 	private File outputFile = null;	
 	@ParametersDelegate
 	private CtxWriterFactory component = new CtxWriterFactory();
+	@ParametersDelegate
+	private ParallelVcfArgs parallelVcfArgs = new ParallelVcfArgs();
+	@ParametersDelegate
+	private CompressionArgs vcfCompressionArgs = new CompressionArgs();
+	@ParametersDelegate
+	private ReadAheadArgs readAheadArgs = new ReadAheadArgs();
+	@ParametersDelegate
+	private ScatterVcfArgs scatterVcfArgs = new ScatterVcfArgs();
+	
+	@Override
+	protected ParallelVcfArgs getParallelVcfArgs() {
+		return this.parallelVcfArgs;
+		}
+	
+	@Override
+	protected CompressionArgs getCompressionArgs() {
+		return this.vcfCompressionArgs;
+		}
+	
+	@Override
+	protected ReadAheadArgs getReadAheadArgs() {
+		return this.readAheadArgs;
+		}
+	
+	@Override
+	protected ScatterVcfArgs getScatterVcfArgs() {
+		return this.scatterVcfArgs;
+		}
 	
 	
 	private static final Map<String,Function<BedLine,Object>> MAPPER=new HashMap<>();
@@ -512,6 +540,12 @@ public class VCFBed extends Launcher
 				return 0;
 				}
 			
+			/** the in-memory interval tree is read-only, but the tabix reader cannot be shared between threads */
+			@Override
+			public boolean isStateless() {
+				return this.tabixFile==null;
+				}
+			
 			@Override
 			public VariantContextWriter open(VariantContextWriter delegate) {
 				return new CtxWriter(delegate);
@@ -529,8 +563,8 @@ public class VCFBed extends Launcher
 	@Override
 	protected int doVcfToVcf(final String inputName, final  VcfIterator iter, final  VariantContextWriter delegate)
 		{	
-		final VariantContextWriter out = this.component.open(delegate);
-		final SAMSequenceDictionaryProgress progress = new SAMSequenceDictionaryProgress(iter.getHeader()).logger(LOG);
+		final VariantContextWriter out = this.parallelVcfArgs.open(this.component,delegate);
+		final SAMSequenceDictionaryProgress progress = new SAMSequenceDictionaryProgress(iter.getHeader()).logger(LOG).bytesCounter(getInflatedBytesCounter());
 		out.writeHeader(iter.getHeader());
 		while(iter.hasNext())
 			{
@@ -547,6 +581,10 @@ public class VCFBed extends Launcher
 		try
 			{
 			if(this.component.initialize()!=0) return -1;
+			if(this.scatterVcfArgs.isEnabled() && !this.component.isStateless()) {
+				LOG.error("scatter/gather mode cannot be used with a tabix-indexed bed file.");
+				return -1;
+				}
 			return doVcfToVcf(args, outputFile);
 			}
 		catch(final Exception err)
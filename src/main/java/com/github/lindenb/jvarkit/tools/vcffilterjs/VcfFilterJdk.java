@@ -32,11 +32,9 @@ import java.io.StringWriter;
 import java.lang.reflect.Constructor;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -59,7 +57,6 @@ import com.github.lindenb.jvarkit.util.vcf.VcfTools;
 
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
-import htsjdk.samtools.util.Iso8601Date;
 import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.Allele;
@@ -153,6 +150,12 @@ The method `apply` returns an object that can either:
 * a [VariantContext](https://samtools.github.io/htsjdk/javadoc/htsjdk/htsjdk/variant/variantcontext/VariantContext.html) to replace the current variant
 * a [java.util.List](https://docs.oracle.com/javase/8/docs/api/java/util/List.html)<[VariantContext](https://samtools.github.io/htsjdk/javadoc/htsjdk/htsjdk/variant/variantcontext/VariantContext.html) > to replace the current variant with a list of variants.
 
+## Compiled classes cache and parallel mode
+
+With the option `--class-cache`, the compiled byte code is saved in a directory and re-used the next time the same script is invoked: the name of the generated class depends only on the user's code, and the key of the cache is a hash of the generated code, of the classpath and of the version of java.
+
+With the option `--threads` (>1), one instance of the filter is created per thread and the variants are sent by batches to the threads. The order of the variants is preserved in the output. In this mode the user's code must not depend on the previous variants: each instance only sees a subset of the variants and the `userData` keys `first.variant`, `last.variant` and `STOP` are not available.
+
 ## See also
 
 * VcfFilterJS . Slower, using javascript syntax (rhino engine)
@@ -382,6 +385,20 @@ public class VcfFilterJdk
 	
 	@ParametersDelegate
 	private CtxWriterFactory component = new CtxWriterFactory();
+	@ParametersDelegate
+	private ParallelVcfArgs parallelVcfArgs = new ParallelVcfArgs();
+	@ParametersDelegate
+	private CompressionArgs vcfCompressionArgs = new CompressionArgs();
+	
+	@Override
+	protected ParallelVcfArgs getParallelVcfArgs() {
+		return this.parallelVcfArgs;
+		}
+	
+	@Override
+	protected CompressionArgs getCompressionArgs() {
+		return this.vcfCompressionArgs;
+		}
 	
 	
 	@XmlType(name="vcffilterjdk")
@@ -414,6 +431,10 @@ public class VcfFilterJdk
 			@Parameter(names={"--saveCodeInDir"},description="Save the generated java code in the following directory")
 			private File saveCodeInDir=null;
 			
+			@XmlElement(name="class-cache")
+			@Parameter(names={"--class-cache"},description=InMemoryCompiler.OPT_CACHE_DIR_DESC)
+			private File classCacheDir=null;
+			
 			@XmlTransient
 			private String code = null;
 			@XmlTransient
@@ -549,9 +570,9 @@ public class VcfFilterJdk
 						{
 						this.code = this.scriptExpr;
 						}
-					final Random rand= new  Random(System.currentTimeMillis());
+					/* the name of the class only depends on the user's code, so the compiled class can be cached */
 					final String javaClassName =VcfFilterJdk.class.getSimpleName()+
-							"Custom"+ Math.abs(rand.nextInt());
+							"Custom"+ Integer.toHexString(this.code.hashCode()) + (this.user_code_is_body?"B":"");
 					
 					final StringWriter codeWriter=new StringWriter();
 					final PrintWriter pw = new PrintWriter(codeWriter);
@@ -563,7 +584,7 @@ public class VcfFilterJdk
 					pw.println("import htsjdk.variant.vcf.*;");
 					pw.println("import javax.annotation.Generated;");
 	
-					pw.println("@Generated(value=\""+VcfFilterJdk.class.getSimpleName()+"\",date=\""+ new Iso8601Date(new Date()) +"\")");
+					pw.println("@Generated(value=\""+VcfFilterJdk.class.getSimpleName()+"\")");
 					pw.println("public class "+javaClassName+" extends "+AbstractFilter.class.getName().replace('$', '.')+" {");
 					pw.println("  public "+javaClassName+"(final VCFHeader header) {");
 					pw.println("  super(header);");
@@ -615,7 +636,8 @@ public class VcfFilterJdk
 							}
 						}
 					
-					final InMemoryCompiler inMemoryCompiler = new InMemoryCompiler();
+					final InMemoryCompiler inMemoryCompiler = new InMemoryCompiler().
+							setCacheDirectory(this.classCacheDir);
 					final Class<?> compiledClass = inMemoryCompiler.compileClass(
 							javaClassName,
 							codeWriter.toString()
@@ -629,6 +651,12 @@ public class VcfFilterJdk
 					}
 				}
 			
+			/** each writer has its own instance of the filter */
+			@Override
+			public boolean isStateless() {
+				return true;
+				}
+			
 			@Override
 			public CtxWriter open(final VariantContextWriter delegate) {
 				return new CtxWriter(delegate);
@@ -686,6 +714,19 @@ public class VcfFilterJdk
 			final VariantContextWriter delegate
 			)
 		{	
+		if(this.parallelVcfArgs.getNumberOfThreads()>1) {
+			/* one filter per thread, the userData first.variant/last.variant/STOP are not available */
+			final VariantContextWriter out = this.parallelVcfArgs.open(this.component,delegate);
+			final SAMSequenceDictionaryProgress progress = new SAMSequenceDictionaryProgress(iter.getHeader()).logger(LOG);
+			out.writeHeader(iter.getHeader());
+			while(iter.hasNext() && !out.checkError())
+				{
+				out.add(progress.watch(iter.next()));
+				}
+			progress.finish();
+			out.close();
+			return 0;
+			}
 		final CtxWriterFactory.CtxWriter out = this.component.open(delegate);
 		
 		out.writeHeader(iter.getHeader());
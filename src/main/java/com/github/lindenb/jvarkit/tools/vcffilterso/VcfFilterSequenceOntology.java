@@ -176,6 +176,34 @@ public class VcfFilterSequenceOntology
 	private File outputFile = null;
 	@ParametersDelegate
 	private CtxWriterFactory component = new CtxWriterFactory();
+	@ParametersDelegate
+	private ParallelVcfArgs parallelVcfArgs = new ParallelVcfArgs();
+	@ParametersDelegate
+	private CompressionArgs vcfCompressionArgs = new CompressionArgs();
+	@ParametersDelegate
+	private ReadAheadArgs readAheadArgs = new ReadAheadArgs();
+	@ParametersDelegate
+	private ScatterVcfArgs scatterVcfArgs = new ScatterVcfArgs();
+	
+	@Override
+	protected ParallelVcfArgs getParallelVcfArgs() {
+		return this.parallelVcfArgs;
+		}
+	
+	@Override
+	protected CompressionArgs getCompressionArgs() {
+		return this.vcfCompressionArgs;
+		}
+	
+	@Override
+	protected ReadAheadArgs getReadAheadArgs() {
+		return this.readAheadArgs;
+		}
+	
+	@Override
+	protected ScatterVcfArgs getScatterVcfArgs() {
+		return this.scatterVcfArgs;
+		}
 	@Parameter(names={"-S","--showacn"},description="list the available SO accession and exit.")
 	private boolean showList = false;
 
@@ -702,6 +730,11 @@ public class VcfFilterSequenceOntology
 				return 0;
 				}
 			
+			@Override
+			public boolean isStateless() {
+				return true;
+				}
+			
 			@Override
 			public VariantContextWriter open(final VariantContextWriter delegate) {
 				return new CtxWriter(delegate);
@@ -737,8 +770,8 @@ public class VcfFilterSequenceOntology
 	
 	@Override
 	protected int doVcfToVcf(final String inputName,final VcfIterator iter, final VariantContextWriter delegate) {	
-		final VariantContextWriter out = this.component.open(delegate);
-		final SAMSequenceDictionaryProgress progress = new SAMSequenceDictionaryProgress(iter.getHeader()).logger(LOG);
+		final VariantContextWriter out = this.parallelVcfArgs.open(this.component,delegate);
+		final SAMSequenceDictionaryProgress progress = new SAMSequenceDictionaryProgress(iter.getHeader()).logger(LOG).bytesCounter(getInflatedBytesCounter());
 		out.writeHeader(iter.getHeader());
 		while(iter.hasNext())
 			{
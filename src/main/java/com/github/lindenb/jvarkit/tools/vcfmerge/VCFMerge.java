@@ -23,18 +23,22 @@ SOFTWARE.
 
 
 History:
+* 2018-10-16 --sorted: the inputs are merged with a priority queue, option --prefetch-threads
+* 2018-10-16 the sorted records carry a pre-parsed key (contig index, position, REF), so sorting never decodes the VCF lines
 * 2015 adapted for knime
 * 2014 creation
 
 */
 package com.github.lindenb.jvarkit.tools.vcfmerge;
 
+import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -43,8 +47,12 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -67,12 +75,13 @@ import htsjdk.variant.vcf.VCFHeaderLineType;
 import htsjdk.variant.vcf.VCFInfoHeaderLine;
 
 import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.AbstractIterator;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.PeekableIterator;
+import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.SequenceUtil;
-import htsjdk.samtools.util.SortingCollection;
 import htsjdk.samtools.util.StringUtil;
 
 import com.beust.jcommander.Parameter;
@@ -84,6 +93,7 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.ExternalSortingCollection;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
@@ -125,6 +135,13 @@ public class VCFMerge
 	
 	@Parameter(names={"-region","--region"},description="Merge in that region: " + IntervalParser.OPT_DESC )
 	private String regionStr = "";
+	
+	@Parameter(names={"--prefetch-threads"},description="[20181016] With --sorted, number of threads reading the lines of the input VCFs ahead. "
+			+ "The lines are still decoded on the main thread and the genotypes are only decoded when the row is written. 0: no prefetch. Ignored with --region or for BCF files.")
+	private int prefetchThreads = 0;
+	
+	@Parameter(names={"--prefetch-size"},description="[20181016] With --prefetch-threads, number of lines read ahead for each input VCF. Memory usage is about 2 x (number of VCFs) x (this number) lines.")
+	private int prefetchSize = 100;
 
 	
 	@ParametersDelegate
@@ -170,29 +187,54 @@ public class VCFMerge
 		}
 	
 	
-	/** VariantContext associated to a file index */
+	/** VCF line associated to a file index. The sort key (contig index, position, REF) is parsed
+	 * from the first columns of the line, so comparing two records never decodes the VCF line */
 	private class VariantOfFile
 		implements Comparable<VariantOfFile>
 		{
 		/** will be used to retrieve VCFHeader */
 		int fileIndex=-1;
+		/** index of the contig in the dictionary */
+		int tid=-1;
+		/** POS column */
+		int start=-1;
+		/** REF column, upper case as in the VCF codec */
+		String ref=null;
 		/** vcf line */
 		String line=null;
 		/** variantContext cache */
 		private VariantContext var=null;
 		
+		/** parse the key from the line */
+		void parseKey()
+			{
+			final int t1 = this.line.indexOf('\t');
+			final int t2 = (t1<0?-1:this.line.indexOf('\t',t1+1));
+			final int t3 = (t2<0?-1:this.line.indexOf('\t',t2+1));
+			final int t4 = (t3<0?-1:this.line.indexOf('\t',t3+1));
+			if(t1<=0 || t4<0) throw new JvarkitException.UserError("Bad VCF line in "+vcfHandlers.get(this.fileIndex).origin+" : "+this.line);
+			this.tid = contig2tid.apply(this.line.substring(0, t1));
+			this.start = Integer.parseInt(this.line.substring(t1+1, t2));
+			this.ref = this.line.substring(t3+1, t4).toUpperCase();
+			}
+		
 		boolean same(final VariantOfFile var)
 			{
-			return VCFMerge.this.compareChromPosRef.compare(this.parse(),var.parse())==0;
+			return this.tid==var.tid &&
+					this.start==var.start &&
+					this.ref.equals(var.ref);
 			}
 		
 
 		@Override
 		public int compareTo(final VariantOfFile var)
 			{
-			final VariantContext vc1=parse();
-			final VariantContext vc2=var.parse();
-			final int i= VCFMerge.this.compareChromPosRef.compare(vc1, vc2);
+			int i= Integer.compare(this.tid, var.tid);
+			if(i!=0) return i;
+			i= Integer.compare(this.start, var.start);
+			if(i!=0) return i;
+			/* same order as Allele.compareTo for two REF alleles */
+			i= this.ref.compareTo(var.ref);
 			if(i!=0) return i;
 			return fileIndex - var.fileIndex;
 			}
@@ -227,6 +269,9 @@ public class VCFMerge
 				{
 				return null;
 				}
+			o.tid = dis.readInt();
+			o.start = dis.readInt();
+			o.ref = readString(dis);
 			o.line=readString(dis);
 			return o;
 
@@ -235,6 +280,9 @@ public class VCFMerge
 		public void encode(final DataOutputStream dos,final VariantOfFile s)
 				throws IOException {
 			dos.writeInt(s.fileIndex);
+			dos.writeInt(s.tid);
+			dos.writeInt(s.start);
+			writeString(dos,s.ref);
 			writeString(dos,s.line);
 			}
 		@Override
@@ -309,11 +357,74 @@ public class VCFMerge
 		};
 		
 	
+	/** fast path of buildContextFromVariantContext when all the variants of the row are biallelic with the same ALT allele:
+	 * the genotypes are stored in an array indexed by the sample offset in the header. Returns null if the row
+	 * cannot be handled here. */
+	private VariantContext buildBiallelicContext(
+			final VCFHeader header,
+			final List<VariantContext> row
+			)
+		{
+		final VariantContext ctx0 = row.get(0);
+		if(ctx0.getNAlleles()!=2) return null;
+		final Allele alt = ctx0.getAlternateAllele(0);
+		for(int i=1;i< row.size();i++)
+			{
+			final VariantContext ctx = row.get(i);
+			if(ctx.getNAlleles()!=2 || !ctx.getAlternateAllele(0).equals(alt)) return null;
+			}
+		final Map<String,Integer> sample2offset = header.getSampleNameToOffset();
+		final Genotype best[] = new Genotype[header.getNGenotypeSamples()];
+		for(final VariantContext ctx:row)
+			{
+			for(final Genotype g1:ctx.getGenotypes())
+				{
+				if(!g1.isCalled()) continue;
+				final Integer offset = sample2offset.get(g1.getSampleName());
+				if(offset==null) return null;
+				final Genotype g2 = best[offset];
+				if(g2==null || this.genotypeComparator.compare(g1, g2)<0)
+					{
+					best[offset] = g1;
+					}
+				}
+			}
+		boolean altSeen=false;
+		final List<Genotype> genotypes = new ArrayList<>(best.length);
+		for(int i=0;i< best.length;i++)
+			{
+			final Genotype g = best[i];
+			if(g==null)
+				{
+				genotypes.add(createMissingGenotype(header.getGenotypeSamples().get(i),ctx0.getReference()));
+				continue;
+				}
+			for(final Allele ga: g.getAlleles())
+				{
+				if(ga.isReference()) continue;
+				if(!ga.equals(alt)) return null;
+				altSeen = true;
+				}
+			genotypes.add(g);
+			}
+		final VariantContextBuilder vcb=new VariantContextBuilder();
+		vcb.chr(ctx0.getContig());
+		vcb.start(ctx0.getStart());
+		vcb.stop(ctx0.getEnd());
+		vcb.attributes(new HashMap<String,Object>());
+		vcb.alleles(altSeen?Arrays.asList(ctx0.getReference(),alt):Collections.singletonList(ctx0.getReference()));
+		vcb.genotypes(genotypes);
+		return vcb.make();
+		}
+	
 	private List<VariantContext> buildContextFromVariantContext(
 			final VCFHeader header,
 			final List<VariantContext> row
 			)
 		{
+		final VariantContext fast = buildBiallelicContext(header,row);
+		if(fast!=null) return Collections.singletonList(fast);
+		
 		final VariantContextBuilder vcb=new VariantContextBuilder();
 		final Map<String,Object> atts=new HashMap<String,Object>();
 		final VariantContext ctx0 = row.get(0);
@@ -431,19 +542,112 @@ public class VCFMerge
 		}
 	
 	
+	/** reads the lines of a VCF by batches on the prefetch executor, decodes them on the caller's thread */
+	private class PrefetchVariantIterator extends AbstractIterator<VariantContext>
+		implements CloseableIterator<VariantContext>
+		{
+		private final BufferedReader in;
+		private final AbstractVCFCodec codec;
+		private final ExecutorService executor;
+		private List<String> lines = Collections.emptyList();
+		private int index = 0;
+		private Future<List<String>> nextLines = null;
+		private boolean eof = false;
+		
+		PrefetchVariantIterator(final BufferedReader in,final AbstractVCFCodec codec,final String firstLine,final ExecutorService executor)
+			{
+			this.in = in;
+			this.codec = codec;
+			this.executor = executor;
+			if(firstLine!=null) {
+				this.lines = Collections.singletonList(firstLine);
+				this.nextLines = executor.submit(this::readLines);
+				}
+			else
+				{
+				this.eof = true;
+				}
+			}
+		
+		private List<String> readLines() throws IOException
+			{
+			final List<String> L = new ArrayList<>(VCFMerge.this.prefetchSize);
+			String line;
+			while(L.size() < VCFMerge.this.prefetchSize && (line=this.in.readLine())!=null)
+				{
+				L.add(line);
+				}
+			return L;
+			}
+		
+		@Override
+		protected VariantContext advance()
+			{
+			while(this.index>=this.lines.size())
+				{
+				if(this.eof) return null;
+				try {
+					this.lines = this.nextLines.get();
+					}
+				catch(final Exception err) {
+					throw new RuntimeIOException(err);
+					}
+				this.index = 0;
+				if(this.lines.isEmpty()) {
+					this.eof = true;
+					this.nextLines = null;
+					return null;
+					}
+				this.nextLines = this.executor.submit(this::readLines);
+				}
+			return this.codec.decode(this.lines.get(this.index++));
+			}
+		
+		@Override
+		public void close()
+			{
+			if(this.nextLines!=null) {
+				try { this.nextLines.get();} catch(final Exception err) {/* ignore */}
+				this.nextLines = null;
+				}
+			this.eof = true;
+			CloserUtil.close(this.in);
+			}
+		}
+	
 	/** container uri+vcfIterator */
 	private class PeekVCF implements Closeable
 		{
 		final String uri;
+		/** index in the list of inputs */
+		final int fileIndex;
 		final VCFFileReader reader;
 		final PeekableIterator<VariantContext> iter;
 		final CloseableIterator<VariantContext> iter0;
 		final VCFHeader header;
 		final List<VariantContext> buffer = new ArrayList<>();
+		/** cached result of peek() */
+		private List<VariantContext> head = null;
 		
-		PeekVCF(final String uri) throws IOException {
+		PeekVCF(final String uri,final int fileIndex,final ExecutorService prefetchExecutor) throws IOException {
 			this.uri = uri;
-			if(StringUtil.isBlank(VCFMerge.this.regionStr))
+			this.fileIndex = fileIndex;
+			if(prefetchExecutor!=null && StringUtil.isBlank(VCFMerge.this.regionStr) && !uri.endsWith(".bcf"))
+				{
+				/* header is read synchronously, data lines are read ahead on the executor */
+				this.reader = null;
+				final BufferedReader br = IOUtils.openURIForBufferedReading(uri);
+				final StringBuilder headerLines = new StringBuilder();
+				String line;
+				while((line=br.readLine())!=null && line.startsWith("#"))
+					{
+					headerLines.append(line).append('\n');
+					}
+				final AbstractVCFCodec codec = VCFUtils.createDefaultVCFCodec();
+				this.header = (VCFHeader)codec.readActualHeader(new LineIteratorImpl(new SynchronousLineReader(new StringReader(headerLines.toString()))));
+				this.iter0 = new PrefetchVariantIterator(br, codec, line, prefetchExecutor);
+				}
+			else if(StringUtil.isBlank(VCFMerge.this.regionStr))
 				{
 				this.reader = new VCFFileReader(new File(uri),false);
 				this.header = this.reader.getFileHeader();
@@ -496,15 +700,23 @@ public class VCFMerge
 			}
 		List<VariantContext> peek()
 			{
+			if(this.head!=null) return this.head;
 			final List<VariantContext> L = priv_peek();
-			if(L.isEmpty() || L.size()==1) return L;
-			return L.stream().
+			if(L.isEmpty() || L.size()==1) {
+				this.head = L;
+				}
+			else
+				{
+				this.head = L.stream().
 					filter(V->V==L.get(0) /* compare ptr */|| VCFMerge.this.compareChromPosRef.compare(L.get(0),V)==0).
 					collect(Collectors.toList());
+				}
+			return this.head;
 			}
 		
 		void reset(final VariantContext ctx0)
 			{
+			this.head = null;
 			this.buffer.removeIf(V->
 					 V.getContig().equals(ctx0.getContig()) &&
 					 V.getStart() == ctx0.getStart()  &&
@@ -529,16 +741,26 @@ public class VCFMerge
 		{
 		VariantContextWriter out = null;
 		final List<PeekVCF> input=new ArrayList<PeekVCF>();
-
+		ExecutorService prefetchExecutor = null;
 		try {
 			final Set<String> genotypeSampleNames=new TreeSet<String>();
 			final Set<VCFHeaderLine> metaData=new HashSet<VCFHeaderLine>();
 			
+			if(this.prefetchThreads>0)
+				{
+				if(this.prefetchSize<1) throw new JvarkitException.UserError("bad --prefetch-size");
+				prefetchExecutor = Executors.newFixedThreadPool(this.prefetchThreads,R->{
+					final Thread t = new Thread(R,"prefetch");
+					t.setDaemon(true);
+					return t;
+					});
+				}
+			
 			//get all VCF, check same dict
 			for(final String arg:this.userVcfFiles )
 				{
 				LOG.info("Opening "+arg);
-				final PeekVCF p=new PeekVCF(arg);
+				final PeekVCF p=new PeekVCF(arg,input.size(),prefetchExecutor);
 				input.add(p);
 				genotypeSampleNames.addAll(p.header.getSampleNamesInOrder());
 				metaData.addAll(p.header.getMetaDataInInputOrder());
@@ -571,34 +793,36 @@ public class VCFMerge
 			
 			
 			out.writeHeader(headerOut);
-			final List<VariantContext> row=new ArrayList<VariantContext>(input.size());
-			//find smallest ordered variant
+			final List<VariantContext> row=new ArrayList<VariantContext>();
+			/* inputs ordered on their next variant (chrom/pos/ref), then on their index */
+			final Comparator<PeekVCF> peekComparator = (P1,P2)->{
+				final int i = this.compareChromPosRef.compare(P1.peek().get(0), P2.peek().get(0));
+				if(i!=0) return i;
+				return Integer.compare(P1.fileIndex, P2.fileIndex);
+				};
+			final PriorityQueue<PeekVCF> queue = new PriorityQueue<>(Math.max(1,input.size()),peekComparator);
+			for(final PeekVCF peekVcf: input)
+				{
+				if(!peekVcf.peek().isEmpty()) queue.add(peekVcf);
+				}
+			final List<PeekVCF> rowInputs = new ArrayList<>();
 			long nCountForGC=0L;
-			for(;;)
+			while(!queue.isEmpty())
 				{
+				//find smallest ordered variant and all the inputs having the same variant
+				rowInputs.clear();
+				rowInputs.add(queue.poll());
+				final VariantContext ctx0 = rowInputs.get(0).peek().get(0);
+				while(!queue.isEmpty() && this.compareChromPosRef.compare(queue.peek().peek().get(0), ctx0)==0)
+					{
+					rowInputs.add(queue.poll());
+					}
+				rowInputs.sort((P1,P2)->Integer.compare(P1.fileIndex, P2.fileIndex));
 				row.clear();
-				for(final PeekVCF peekVcf: input)
+				for(final PeekVCF peekVcf: rowInputs)
 					{
-					final List<VariantContext> peekVcfList = peekVcf.peek(); 
-					if(peekVcf.peek().isEmpty()) continue;
-					final VariantContext ctx= peekVcfList.get(0);
-					if(row.isEmpty())
-						{
-						row.addAll(peekVcfList);
-						continue;
-						}
-					final int cmp= this.compareChromPosRef.compare( ctx, row.get(0));
-					if(cmp==0)
-						{
-						row.addAll(peekVcfList);
-						}
-					else if(cmp<0)
-						{
-						row.clear();
-						row.addAll(peekVcfList);
-						}
+					row.addAll(peekVcf.peek());
 					}
-				if(row.isEmpty()) break;
 				
 				for(final VariantContext merged: buildContextFromVariantContext(headerOut, row))
 					{
@@ -606,9 +830,10 @@ public class VCFMerge
 					}
 				
 				//consumme peeked variants
-				for(final PeekVCF peekVcf: input)
+				for(final PeekVCF peekVcf: rowInputs)
 					{
-					peekVcf.reset(row.get(0));
+					peekVcf.reset(ctx0);
+					if(!peekVcf.peek().isEmpty()) queue.add(peekVcf);
 					}
 				if(nCountForGC++%100000==0) System.gc();
 				}
@@ -634,6 +859,7 @@ public class VCFMerge
 				{
 				p.close();
 				}
+			if(prefetchExecutor!=null) prefetchExecutor.shutdownNow();
 			}
 		}
 	
@@ -665,19 +891,16 @@ public class VCFMerge
 	private int workUsingSortingCollection() 
 		{
 		VariantContextWriter w=null;
-		SortingCollection<VariantOfFile> array = null;
+		ExternalSortingCollection<VariantOfFile> array = null;
 		InputStream in = null;
 		CloseableIterator<VariantOfFile> iter=null;
 			try {
 			final List<String> IN=new ArrayList<String>(this.userVcfFiles);
 			final Set<String> genotypeSampleNames=new TreeSet<String>();
 			final Set<VCFHeaderLine> metaData=new HashSet<VCFHeaderLine>();
-			array= SortingCollection.newInstance(
-					VariantOfFile.class,
+			array= this.writingSortingCollection.newSortingCollection(
 					new VariantCodec(),
-					new VariantComparator(),
-					this.writingSortingCollection.getMaxRecordsInRam(),
-					this.writingSortingCollection.getTmpPaths()
+					new VariantComparator()
 					);
 			array.setDestructiveIteration(true);
 			
@@ -728,7 +951,10 @@ public class VCFMerge
 					final VariantOfFile vof=new VariantOfFile();
 					vof.fileIndex=fileIndex;
 					vof.line=lit.next();
+					vof.parseKey();
 					if(!accept.test(vof)) continue;
+					/* don't keep the decoded variant in memory */
+					vof.var=null;
 					array.add(vof);
 					}
 	
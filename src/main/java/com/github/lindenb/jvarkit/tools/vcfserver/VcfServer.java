@@ -25,6 +25,7 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.vcfserver;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FilterOutputStream;
@@ -34,8 +35,13 @@ import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -45,16 +51,20 @@ import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
+import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jetty.server.handler.HandlerList;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.tools.misc.VcfToTable;
+import com.github.lindenb.jvarkit.util.LruCache;
 import com.github.lindenb.jvarkit.util.Pedigree;
 import com.github.lindenb.jvarkit.util.bio.IntervalParser;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+import com.github.lindenb.jvarkit.util.jetty.AsyncQueryRunner;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 
@@ -91,6 +101,17 @@ https://twitter.com/yokofakun/status/924307836968079361
 
 ![twitter](https://pbs.twimg.com/media/DNPNBdQWsAAF-5w.jpg "Screenshot")
 
+## Caches
+
+The server keeps a pool of open readers for each VCF (the header and the index are only read once), 
+a cache of the compiled filters (JEXL or javascript) and a cache of the rendered tables.
+The number of hits/misses and the latency of the queries are displayed at `http://localhost:8080/stats`.
+
+## Concurrency
+
+The queries are run on a pool of worker threads (option `--threads`), outside of the jetty threads.
+The number of concurrent queries on the same VCF is limited (option `--max-per-file`): the other
+queries get a HTTP 503 error. The query is stopped when the timeout is reached or when the client is disconnected.
 
 
 ## Example 
@@ -132,12 +153,107 @@ private static final String TEXT_FORMAT_PARAM="txt";
 private File pedigreeFile=null;
 @Parameter(names={"-P","--port","-port"},description="Server listening port")
 private int port=8080;	
-@Parameter(names={"-timeout","--timeout"},description="query timeout in seconds")
+@Parameter(names={"-timeout","--timeout"},description="query timeout in seconds. It's the deadline of the whole request, including the time spent waiting for a worker thread.")
 private long timeout_seconds =60;	
 @Parameter(names={"-jexl","--jexl"},description="Use/Show JEXL filter instead of Javascript filter (which is not filesystem-safe).")
 private boolean use_jexl = false;
 @Parameter(names={"--url"},description=Launcher.USER_CUSTOM_INTERVAL_URL_DESC)
 private String userCustomUrl=null;
+@Parameter(names={"--readers"},description="[20181016] Maximum number of idle open readers kept for each VCF file.")
+private int max_idle_readers = 4;
+@Parameter(names={"--filter-cache"},description="[20181016] Maximum number of compiled JEXL/Javascript expressions kept in memory. 0 = no cache.")
+private int filter_cache_size = 100;
+@Parameter(names={"--table-cache"},description="[20181016] Maximum number of rendered tables kept in memory. 0 = no cache.")
+private int table_cache_size = 100;
+@Parameter(names={"--threads"},description="[20181016] Number of worker threads running the queries.")
+private int nThreads = 16;
+@Parameter(names={"--max-per-file"},description="[20181016] Maximum number of concurrent queries on the same VCF file. Other queries are rejected with a HTTP 503 error. <=0 : no limit")
+private int max_queries_per_file = 4;
+@Parameter(names={"--shutdown-after"},description="[20181016] Stop the server after 'x' seconds.")
+private long shutdownAferSeconds=-1L;
+
+private static final String STATS_TARGET="/stats";
+
+/** a pool of open readers for one indexed VCF. The header is parsed once. */
+private class VcfReaderPool implements Closeable
+	{
+	private final File vcfFile;
+	private final VCFHeader header;
+	private final Deque<VCFFileReader> idle = new ArrayDeque<>();
+	private long count_created = 0L;
+	
+	VcfReaderPool(final File vcfFile)
+		{
+		this.vcfFile = vcfFile;
+		final VCFFileReader r = new VCFFileReader(vcfFile, true);
+		this.count_created++;
+		this.header = r.getFileHeader();
+		this.idle.push(r);
+		}
+	
+	VCFHeader getHeader() {
+		return this.header;
+		}
+	
+	synchronized VCFFileReader borrow()
+		{
+		if(!this.idle.isEmpty()) return this.idle.pop();
+		this.count_created++;
+		return new VCFFileReader(this.vcfFile, true);
+		}
+	
+	synchronized void release(final VCFFileReader r)
+		{
+		if(r==null) return;
+		if(this.idle.size() < VcfServer.this.max_idle_readers)
+			{
+			this.idle.push(r);
+			}
+		else
+			{
+			CloserUtil.close(r);
+			}
+		}
+	
+	synchronized int getIdleCount() {
+		return this.idle.size();
+		}
+	
+	synchronized long getCreatedCount() {
+		return this.count_created;
+		}
+	
+	@Override
+	public synchronized void close() {
+		while(!this.idle.isEmpty()) CloserUtil.close(this.idle.pop());
+		}
+	}
+
+/** a rendered table */
+private static class RenderedTable
+	{
+	final byte content[];
+	final boolean limit_reached;
+	RenderedTable(final byte content[],final boolean limit_reached) {
+		this.content = content;
+		this.limit_reached = limit_reached;
+		}
+	}
+
+/** one reader pool per file */
+private final Map<File,VcfReaderPool> readerPools = new ConcurrentHashMap<>();
+/** compiled filters. key is the expression, prefixed by the vcf for javascript */
+private LruCache<String,Predicate<VariantContext>> filterCache = null;
+/** rendered tables. key is the VCF, the region, the filter and the display options */
+private LruCache<String,RenderedTable> tableCache = null;
+/** run the queries outside the jetty threads */
+private AsyncQueryRunner queryRunner = null;
+/** the running server, or null */
+private volatile Server runningServer = null;
+/** number of queries and latency */
+private final AtomicLong count_queries = new AtomicLong(0L);
+private final AtomicLong sum_latency_millisec = new AtomicLong(0L);
+private final AtomicLong max_latency_millisec = new AtomicLong(0L);
 
 /** used to escape the text output in pre tag */
 private static class EscapeXmlOutputStream
@@ -576,12 +692,15 @@ private class ViewVcfHandler extends AbstractHandler
 	
 	private class ShowVcfHandler extends DelegateHandler
 		{
+		private final AsyncQueryRunner.Query query;
 		ShowVcfHandler(
 				final HttpServletRequest request,
-				final HttpServletResponse response
+				final HttpServletResponse response,
+				final AsyncQueryRunner.Query query
 				)
 			{ 
 			super(request,response);
+			this.query = query;
 			}
 		@Override
 		String getTitle() {
@@ -597,15 +716,17 @@ private class ViewVcfHandler extends AbstractHandler
 			flush();
 			
 			
+			final long query_start = System.currentTimeMillis();
+			VcfReaderPool pool = null;
 			VCFFileReader reader=null;
 			CloseableIterator<VariantContext> iter=null;
 			try
 				{
-				reader = new VCFFileReader(vcfFile, true);
-				final VCFHeader header = reader.getFileHeader();
+				pool = VcfServer.this.readerPools.computeIfAbsent(vcfFile, F->new VcfReaderPool(F));
+				final VCFHeader header = pool.getHeader();
 				if(header==null)
 					{
-					writeError("Cannot get header of "+header);
+					writeError("Cannot get header of "+vcfFile);
 					return;
 					}
 				final SAMSequenceDictionary dict = header.getSequenceDictionary();
@@ -629,90 +750,9 @@ private class ViewVcfHandler extends AbstractHandler
 					{
 					interval = null;
 					}
-				final Predicate<VariantContext> variantPredicate;
 				final String js_str= (VcfServer.this.use_jexl ?null:this.request.getParameter(JAVASCRIPT_PARAM));
 				final String jexl_str= (VcfServer.this.use_jexl ?this.request.getParameter(JEXL_PARAM):null);
-
-				if(!StringUtil.isBlank(jexl_str) && VcfServer.this.use_jexl)
-					{
-				
-					try
-						{
-						final List<JexlVCMatchExp> exps= VariantContextUtils.initializeMatchExps(
-								Collections.singletonList("CUSTOM_JEXL_FILTER"),
-								Collections.singletonList(jexl_str)
-								);
-						variantPredicate = (V)-> VariantContextUtils.match(V,exps.get(0));
-						}
-					catch(final Exception err)
-						{
-						writeException(err);
-						return;
-						}
-					}
-				else if(!StringUtil.isBlank(js_str) && !VcfServer.this.use_jexl)
-					{
-					try
-						{
-						final StringReader scriptReader = new StringReader(js_str);
-						final JavascriptVariantFilter jsFilter=new JavascriptVariantFilter(scriptReader, header);
-						scriptReader.close();
-						variantPredicate = (V)-> jsFilter.test(V);
-						}
-					catch(final Exception err)
-						{
-						writeException(err);
-						return;
-						}
-					}
-				else
-					{
-					variantPredicate =  (V)->true;
-					}
-				this.writer.writeComment("BEGIN-TABLE");
-				this.writer.writeCharacters("");
-				
 				final boolean text_output= "true".equals(this.request.getParameter(TEXT_FORMAT_PARAM));
-
-				if(text_output) {
-					this.writer.writeStartElement("pre");
-					this.writer.writeCharacters("");
-					}
-				this.flush();
-				
-				
-				final VcfToTable.VcfToTableViewer vcfToTable=new VcfToTable.VcfToTableViewer();
-				vcfToTable.setOutputFormat(text_output?
-						VcfToTable.OutputFormat.text:
-						VcfToTable.OutputFormat.html
-						);
-				final PrintStream newOut= new PrintStream(
-						new EscapeXmlOutputStream(
-						IOUtils.uncloseableOutputStream(this.response.getOutputStream()),
-						text_output
-						));
-				vcfToTable.setOutputStream(newOut);
-				vcfToTable.setHideHtmlHeader(true);//always
-				vcfToTable.setPrintHeader("true".equals(this.request.getParameter(SHOW_HEADER_PARAM)));
-				vcfToTable.setHideGenotypes("true".equals(this.request.getParameter(HIDE_GENOTYPES_PARAM)));
-				vcfToTable.setHideHomRefGenotypes("true".equals(this.request.getParameter(HIDE_HOMREF_PARAM)));
-				vcfToTable.setHideNoCallGenotypes("true".equals(this.request.getParameter(HIDE_NOCALL_PARAM)));
-				vcfToTable.setUseANSIColors(!text_output);
-				vcfToTable.setUserCustomUrl(VcfServer.this.userCustomUrl);
-				
-				vcfToTable.writeHeader(header);
-				if(VcfServer.this.pedigreeFile!=null)
-					{
-					vcfToTable.setPedigreeFile(VcfServer.this.pedigreeFile);
-					}
-				if(interval==null)
-					{
-					iter = reader.iterator();
-					}
-				else
-					{
-					iter = reader.query(interval.getContig(), interval.getStart(), interval.getEnd());
-					}
 				int limit=DEFAULT_LIMIT;
 				final String limit_str = request.getParameter(LIMIT_PARAM);
 				try {
@@ -725,35 +765,165 @@ private class ViewVcfHandler extends AbstractHandler
 					{
 					limit=DEFAULT_LIMIT;
 					}
-				final long start_millisec = System.currentTimeMillis();
+				
+				/* key of the rendered table */
+				final String tableKey = String.join("\u0000",
+						vcfFile.getPath(),
+						interval==null?"":interval.toString(),
+						VcfServer.this.use_jexl?"jexl":"js",
+						StringUtil.isBlank(jexl_str)?"":jexl_str,
+						StringUtil.isBlank(js_str)?"":js_str,
+						String.valueOf(limit),
+						String.valueOf(text_output),
+						String.valueOf("true".equals(this.request.getParameter(SHOW_HEADER_PARAM))),
+						String.valueOf("true".equals(this.request.getParameter(HIDE_GENOTYPES_PARAM))),
+						String.valueOf("true".equals(this.request.getParameter(HIDE_HOMREF_PARAM))),
+						String.valueOf("true".equals(this.request.getParameter(HIDE_NOCALL_PARAM)))
+						);
+				RenderedTable table = VcfServer.this.tableCache.get(tableKey);
 				boolean timeout_flag = false;
-				while(iter!=null && iter.hasNext() && limit>0)
+				
+				if(table==null)
 					{
-					final VariantContext ctx = iter.next();
-					if(!variantPredicate.test(ctx)) continue;
+					final Predicate<VariantContext> variantPredicate;
+					if(!StringUtil.isBlank(jexl_str) && VcfServer.this.use_jexl)
+						{
+						final String filterKey = "jexl\u0000"+jexl_str;
+						Predicate<VariantContext> pred = VcfServer.this.filterCache.get(filterKey);
+						if(pred==null) {
+							try
+								{
+								final List<JexlVCMatchExp> exps= VariantContextUtils.initializeMatchExps(
+										Collections.singletonList("CUSTOM_JEXL_FILTER"),
+										Collections.singletonList(jexl_str)
+										);
+								pred = (V)-> VariantContextUtils.match(V,exps.get(0));
+								}
+							catch(final Exception err)
+								{
+								writeException(err);
+								return;
+								}
+							VcfServer.this.filterCache.put(filterKey, pred);
+							}
+						variantPredicate = pred;
+						}
+					else if(!StringUtil.isBlank(js_str) && !VcfServer.this.use_jexl)
+						{
+						/* the javascript filter is bound to the header of the VCF */
+						final String filterKey = "js\u0000"+vcfFile.getPath()+"\u0000"+js_str;
+						Predicate<VariantContext> pred = VcfServer.this.filterCache.get(filterKey);
+						if(pred==null) {
+							try
+								{
+								final StringReader scriptReader = new StringReader(js_str);
+								final JavascriptVariantFilter jsFilter=new JavascriptVariantFilter(scriptReader, header);
+								scriptReader.close();
+								/* the script engine is not thread safe */
+								pred = (V)-> {synchronized(jsFilter) {return jsFilter.test(V);}};
+								}
+							catch(final Exception err)
+								{
+								writeException(err);
+								return;
+								}
+							VcfServer.this.filterCache.put(filterKey, pred);
+							}
+						variantPredicate = pred;
+						}
+					else
+						{
+						variantPredicate =  (V)->true;
+						}
+					
+					/* render the table in memory */
+					final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+					final VcfToTable.VcfToTableViewer vcfToTable=new VcfToTable.VcfToTableViewer();
+					vcfToTable.setOutputFormat(text_output?
+							VcfToTable.OutputFormat.text:
+							VcfToTable.OutputFormat.html
+							);
+					final PrintStream newOut= new PrintStream(
+							new EscapeXmlOutputStream(
+							buffer,
+							text_output
+							));
+					vcfToTable.setOutputStream(newOut);
+					vcfToTable.setHideHtmlHeader(true);//always
+					vcfToTable.setPrintHeader("true".equals(this.request.getParameter(SHOW_HEADER_PARAM)));
+					vcfToTable.setHideGenotypes("true".equals(this.request.getParameter(HIDE_GENOTYPES_PARAM)));
+					vcfToTable.setHideHomRefGenotypes("true".equals(this.request.getParameter(HIDE_HOMREF_PARAM)));
+					vcfToTable.setHideNoCallGenotypes("true".equals(this.request.getParameter(HIDE_NOCALL_PARAM)));
+					vcfToTable.setUseANSIColors(!text_output);
+					vcfToTable.setUserCustomUrl(VcfServer.this.userCustomUrl);
+					
+					vcfToTable.writeHeader(header);
+					if(VcfServer.this.pedigreeFile!=null)
+						{
+						vcfToTable.setPedigreeFile(VcfServer.this.pedigreeFile);
+						}
+					reader = pool.borrow();
+					if(interval==null)
+						{
+						iter = reader.iterator();
+						}
+					else
+						{
+						iter = reader.query(interval.getContig(), interval.getStart(), interval.getEnd());
+						}
 					
-					final long now_millisec = System.currentTimeMillis();
-					if( now_millisec - start_millisec > VcfServer.this.timeout_seconds * 1000L)
+					while(iter!=null && iter.hasNext() && limit>0)
 						{
-						timeout_flag=true;
-						break;
-						}	
+						/* deadline reached or client disconnected */
+						if(this.query.isCancelled())
+							{
+							timeout_flag=true;
+							break;
+							}	
+						final VariantContext ctx = iter.next();
+						if(!variantPredicate.test(ctx)) continue;
+						
+						
+						vcfToTable.add(ctx);
+						--limit;
+						}
+					
+					vcfToTable.close();
+					
+					newOut.flush();
+					newOut.close();
 					
-					vcfToTable.add(ctx);
-					--limit;
+					table = new RenderedTable(buffer.toByteArray(), iter!=null && iter.hasNext());
+					CloserUtil.close(iter);
+					iter = null;
+					pool.release(reader);
+					reader = null;
+					
+					/* a truncated table is not cached */
+					if(!timeout_flag)
+						{
+						VcfServer.this.tableCache.put(tableKey, table);
+						}
 					}
 				
-				vcfToTable.close();
+				this.writer.writeComment("BEGIN-TABLE");
+				this.writer.writeCharacters("");
+				
+				if(text_output) {
+					this.writer.writeStartElement("pre");
+					this.writer.writeCharacters("");
+					}
+				this.flush();
 				
-				newOut.flush();
-				newOut.close();
+				this.response.getOutputStream().write(table.content);
+				this.response.getOutputStream().flush();
 				
 				if(text_output)
 					{
 					this.writer.writeCharacters("");
 					this.writer.writeEndElement();//pre
 					}
-				if(iter!=null && iter.hasNext())
+				if(table.limit_reached)
 					{
 					this.writer.writeStartElement("p");
 					this.writer.writeAttribute("class", "error");
@@ -782,8 +952,66 @@ private class ViewVcfHandler extends AbstractHandler
 			finally
 				{
 				CloserUtil.close(iter);
+				/* the reader may be in an undefined state after an error */
 				CloserUtil.close(reader);
+				final long latency = System.currentTimeMillis() - query_start;
+				VcfServer.this.count_queries.incrementAndGet();
+				VcfServer.this.sum_latency_millisec.addAndGet(latency);
+				VcfServer.this.max_latency_millisec.accumulateAndGet(latency, Math::max);
+				}
+			}
+		}
+
+	/** display the state of the caches */
+	private class StatsHandler extends DelegateHandler
+		{
+		StatsHandler(
+				final HttpServletRequest request,
+				final HttpServletResponse response
+				)
+			{ 
+			super(request,response);
+			}
+		@Override
+		String getTitle() { return VcfServer.class.getSimpleName()+" : Statistics";}
+		
+		private void writeRow(final String key,final Object value) throws XMLStreamException {
+			this.writer.writeStartElement("tr");
+			this.writer.writeStartElement("th");
+			this.writer.writeCharacters(key);
+			this.writer.writeEndElement();
+			this.writer.writeStartElement("td");
+			this.writer.writeCharacters(String.valueOf(value));
+			this.writer.writeEndElement();
+			this.writer.writeEndElement();
+			}
+		
+		private void writeCache(final String title,final LruCache<?,?> cache) throws XMLStreamException {
+			writeRow(title+" : size",cache.size()+"/"+cache.getMaxSize());
+			writeRow(title+" : hits",cache.getHitCount());
+			writeRow(title+" : misses",cache.getMissCount());
+			writeRow(title+" : hit rate",String.format("%.3f",cache.getHitRate()));
+			}
+		
+		@Override
+		void writeHtmlBody() throws XMLStreamException {
+			final long n = VcfServer.this.count_queries.get();
+			this.writer.writeStartElement("table");
+			writeRow("Queries",n);
+			writeRow("Mean latency (ms)",n==0L?"0":String.format("%.1f",VcfServer.this.sum_latency_millisec.get()/(double)n));
+			writeRow("Max latency (ms)",VcfServer.this.max_latency_millisec.get());
+			writeCache("Tables",VcfServer.this.tableCache);
+			writeCache("Filters",VcfServer.this.filterCache);
+			writeRow("Rejected queries",VcfServer.this.queryRunner.getRejectedCount());
+			writeRow("Cancelled queries",VcfServer.this.queryRunner.getCancelledCount());
+			for(final File f: getOwner().vcfFiles)
+				{
+				final VcfReaderPool pool = VcfServer.this.readerPools.get(f);
+				if(pool==null) continue;
+				writeRow(f.getPath()+" : idle readers",pool.getIdleCount());
+				writeRow(f.getPath()+" : opened readers",pool.getCreatedCount());
 				}
+			this.writer.writeEndElement();//table
 			}
 		}
 
@@ -812,13 +1040,28 @@ private class ViewVcfHandler extends AbstractHandler
 		DelegateHandler delegate=null;
 		final File file = this.getVcfFile(req);
 		
-		if(file==null)
+		if(STATS_TARGET.equals(arg0))
+			{
+			delegate = new StatsHandler(req,res);
+			}
+		else if(file==null)
 			{
 			delegate = new WelcomeHandler(req,res);
 			}
 		else 
 			{
-			delegate = new ShowVcfHandler(req,res);
+			/* slow query: run it on a worker thread */
+			VcfServer.this.queryRunner.submit(jetty, req, res, Collections.singletonList(file), Q->{
+				final DelegateHandler showVcf = new ShowVcfHandler(req,res,Q);
+				try {
+					showVcf.run();
+					}
+				finally
+					{
+					CloserUtil.close(showVcf);
+					}
+				});
+			return;
 			}
 		/*if(delegate==null)
 			{
@@ -840,8 +1083,16 @@ private class ViewVcfHandler extends AbstractHandler
 @Override
 public int doWork(final List<String> args) {
 	Server server = null;
+	if(this.max_idle_readers<0 || this.filter_cache_size<0 || this.table_cache_size<0)
+		{
+		LOG.error("negative cache size");
+		return -1;
+		}
 	try
 		{
+		this.filterCache = new LruCache<>(this.filter_cache_size);
+		this.tableCache = new LruCache<>(this.table_cache_size);
+		this.queryRunner = new AsyncQueryRunner(this.nThreads, this.timeout_seconds*1000L, this.max_queries_per_file);
 		final List<File> vcfFiles = IOUtil.unrollFiles(args.stream().
 			map(S->new File(S)).
 			collect(Collectors.toList()),
@@ -860,6 +1111,26 @@ public int doWork(final List<String> args) {
 		server.setHandler(handlers);
 		LOG.info("Starting "+VcfServer.class.getName()+" on http://localhost:"+this.port);
 		server.start();
+		this.runningServer = server;
+		if(this.shutdownAferSeconds>0)
+			{
+			final Server theServer = server;
+			new java.util.Timer().schedule( 
+			        new java.util.TimerTask() {
+			            @Override
+			            public void run() {
+			                LOG.info("automatic shutdown after "+shutdownAferSeconds);
+			                try {
+			                	theServer.stop();
+			                	}
+			                catch(final Throwable err2) {
+			                	LOG.error(err2);
+			                	}
+			            }
+			        }, 
+			        1000 * this.shutdownAferSeconds 
+					);
+			}
 		server.join();
 		return 0;
 		}
@@ -869,14 +1140,34 @@ public int doWork(final List<String> args) {
 		}
 	finally
 		{
+		this.runningServer = null;
 		if(server!=null)
 			{
 			
 			server.destroy();
 			}
+		CloserUtil.close(this.queryRunner);
+		this.readerPools.values().forEach(P->P.close());
+		this.readerPools.clear();
 		}
 	}
 
+/** returns the port the server is listening to, or -1 if the server is not running. With '-P 0', the port is chosen by the system */
+int getLocalPort() {
+	final Server s = this.runningServer;
+	if(s==null || !s.isStarted()) return -1;
+	for(final Connector c:s.getConnectors()) {
+		if(c instanceof ServerConnector) return ((ServerConnector)c).getLocalPort();
+		}
+	return -1;
+	}
+
+/** stop the running server: doWork returns */
+void stopServer() throws Exception {
+	final Server s = this.runningServer;
+	if(s!=null) s.stop();
+	}
+
 public static void main(final String args[]) {
 	new VcfServer().instanceMainWithExit(args);
 	}
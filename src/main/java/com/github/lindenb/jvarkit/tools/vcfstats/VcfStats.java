@@ -22,7 +22,6 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.vcfstats;
 
-import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -38,6 +37,9 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import com.beust.jcommander.Parameter;
@@ -46,7 +48,7 @@ import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.math.RangeOfIntegers;
 import com.github.lindenb.jvarkit.tools.burden.MafCalculator;
 import com.github.lindenb.jvarkit.tools.lumpysv.LumpyConstants;
-import com.github.lindenb.jvarkit.util.Counter;
+import com.github.lindenb.jvarkit.util.IndexedCounter;
 import com.github.lindenb.jvarkit.util.Pedigree;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
@@ -54,16 +56,14 @@ import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.so.SequenceOntologyTree;
 import com.github.lindenb.jvarkit.util.ucsc.KnownGene;
-import com.github.lindenb.jvarkit.util.vcf.ContigPosRef;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 import com.github.lindenb.jvarkit.util.vcf.VcfTools;
 
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IntervalTreeMap;
-import htsjdk.samtools.util.Locatable;
-import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.GenotypeType;
@@ -71,6 +71,7 @@ import htsjdk.variant.variantcontext.StructuralVariantType;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFConstants;
+import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
 /*
 BEGIN_DOC
@@ -200,6 +201,9 @@ SNP	846677
 
 ```
 
+## History
+
+  * 2018-10-16: the counters are arrays of primitives that can be merged. Option `--threads` processes the contigs of an indexed VCF in parallel.
 
 END_DOC
  */
@@ -252,6 +256,8 @@ public class VcfStats extends Launcher
 	private boolean disableGenotypeConcordance=false;
 	@Parameter(names={"--binSize"},description="[20170718] When plotting data over a genome, divide it into 'N' bp.")
 	private int binSize = 1_000_000;
+	@Parameter(names={"--threads"},description="[20181016] Number of parallel threads. If greater than 1, the contigs are processed in parallel and the statistics are merged. Requires an indexed VCF file with a dictionary. Incompatible with --tee.")
+	private int nThreads = 1;
 	
 	private ArchiveFactory archiveFactory=null;
 	/** the SAMSequenceDictionary used to sort reference */
@@ -259,145 +265,83 @@ public class VcfStats extends Launcher
 	/** list of samples in order*/
 	private List<String> sampleNamesInOrder = Collections.emptyList();
 	
-	private final Function<String, Integer> contig2tid = (S)->{
-		final int tid = the_dictionary.getSequenceIndex(S);
-		if(tid<0) throw new JvarkitException.ContigNotFoundInDictionary(S, the_dictionary);
-		return tid;
-		};
-	
-	private final Comparator<String> contigComparator = (S1,S2) -> {
-		if(S1.equals(S2)) return 0;
-		if(the_dictionary==null) {
-			return S1.compareTo(S2);
-			} else {
-				return contig2tid.apply(S1) - contig2tid.apply(S2);
-			}
-		};
+	/** contig to index, used when there is no dictionary */
+	private final Map<String,Integer> contig2index = new HashMap<>();
+	private final List<String> index2contig = new ArrayList<>();
+	/** the sequence ontology terms to observe */
+	private List<SequenceOntologyTree.Term> sequenceOntologyTerms = Collections.emptyList();
 	
-	private class ContigBin	implements Locatable,Comparable<ContigBin> {
-		final String contig;
-		final int pos;
-		ContigBin(final String contig,final int pos) {
-			this.contig = contig;
-			this.pos = pos - pos%VcfStats.this.binSize;
-		}
-		
-		@Override
-		public String getContig() {
-			return this.contig;
+	/** convert a contig to an index: the index in the dictionary or the order of appearance */
+	private int contigToIndex(final String contig) {
+		if(this.the_dictionary!=null) {
+			final int tid = this.the_dictionary.getSequenceIndex(contig);
+			if(tid<0) throw new JvarkitException.ContigNotFoundInDictionary(contig, this.the_dictionary);
+			return tid;
 			}
-		@Override
-		public int getStart() {
-			return pos+1;
-			}
-		@Override
-		public int getEnd() {
-			return pos + VcfStats.this.binSize;
-			}
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + contig.hashCode();
-			result = prime * result + pos;
-			return result;
-			}
-
-		@Override
-		public boolean equals(final Object obj) {
-			if (this == obj)
-				return true;
-			if (obj == null || getClass() != obj.getClass())
-				return false;
-			final ContigBin other = (ContigBin) obj;
-			return this.pos == other.pos && 
-				  this.contig.equals(other.contig) ; 
-			}
-		@Override
-		public int compareTo(final ContigBin o) {
-			int i = VcfStats.this.contigComparator.compare(this.getContig(), o.getContig());
-			if(i!=0) return i;
-			return pos - o.pos;
-			}
-		@Override
-		public String toString() {
-			return getContig()+";"+this.getStart()+"-"+this.getEnd();
+		Integer tid = this.contig2index.get(contig);
+		if(tid==null) {
+			tid = this.index2contig.size();
+			this.contig2index.put(contig, tid);
+			this.index2contig.add(contig);
 			}
+		return tid;
+		}
+	
+	private String indexToContig(final int tid) {
+		if(this.the_dictionary!=null) return this.the_dictionary.getSequence(tid).getSequenceName();
+		return this.index2contig.get(tid);
 		}
 	
-	//define a pair of samples
-	private class SamplePair
+	/** compare the indexes of two contigs: order of the dictionary or order of the names */
+	private final Comparator<Integer> contigComparator = (T1,T2) -> {
+		if(the_dictionary!=null) return T1.compareTo(T2);
+		return indexToContig(T1).compareTo(indexToContig(T2));
+		};
+	
+	/** number of variants in bins of 'binSize' bases, one counter per contig */
+	private class ContigBins
 		{
-		final int sample1;
-		final int sample2;
+		final List<IndexedCounter> tid2bins = new ArrayList<>();
 		
-		SamplePair(final int sample1,final int sample2)
-			{
-			if(sample1 < sample2)
-				{
-				this.sample1 = sample1;
-				this.sample2 = sample2;
-				}
-			else
-				{
-				this.sample1 = sample2;
-				this.sample2 = sample1;
+		private IndexedCounter get(final int tid) {
+			while(this.tid2bins.size()<=tid) this.tid2bins.add(null);
+			IndexedCounter c = this.tid2bins.get(tid);
+			if(c==null) {
+				c = new IndexedCounter();
+				this.tid2bins.set(tid, c);
 				}
+			return c;
 			}
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + this.sample1;
-			result = prime * result + this.sample2;
-			return result;
-			}
-		@Override
-		public boolean equals(final Object obj) {
-			if (this == obj)  return true;
-			if (obj == null)  return false;
-			if (!(obj instanceof SamplePair)) return false;
-			final SamplePair other = (SamplePair) obj;
-			return other.sample1==this.sample1 && 
-				   other.sample2==this.sample2; 
-			}
-		@Override
-		public String toString() {
-			return  VcfStats.this.sampleNamesInOrder.get(sample1)+"/"+
-					VcfStats.this.sampleNamesInOrder.get(sample2);
+		
+		void incr(final int tid,final int pos) {
+			get(tid).incr(pos/VcfStats.this.binSize);
 			}
-		}
-	
-	
-	private class PlotMaf implements Closeable
-		{
-		//final String title;
-		final String filename;
-		final PrintWriter pw;
-		PlotMaf(final String title)
-			{
-			//this.title=title;
-			this.filename = VcfStats.this.prefix + title+".maf.tsv";
-			try {
-				this.pw = archiveFactory.openWriter(this.filename);
-			} catch (IOException e) {
-				throw new RuntimeIOException(e);
+		
+		long count(final int tid,final int binIndex) {
+			if(tid>=this.tid2bins.size()) return 0L;
+			final IndexedCounter c = this.tid2bins.get(tid);
+			return c==null?0L:c.count(binIndex);
 			}
+		
+		boolean isEmpty() {
+			return this.tid2bins.stream().allMatch(C->C==null || C.isEmpty());
 			}
-		void plot(double xcas,double yctrl) {
-			this.pw.print(xcas);
-			this.pw.print('\t');
-			this.pw.print(yctrl);
-			this.pw.print('\n');
-			}	
-		@Override
-		public void close() throws IOException {
-			this.pw.flush();
-			this.pw.close();
+		
+		void merge(final ContigBins other) {
+			for(int tid=0;tid< other.tid2bins.size();++tid) {
+				final IndexedCounter c = other.tid2bins.get(tid);
+				if(c==null) continue;
+				get(tid).merge(c);
+				}
 			}
 		}
 	
+	/** index of a pair of samples in the upper triangular matrix of the genotype concordance */
+	private static int samplePairIndex(final int sample1,final int sample2) {
+		final int x = Math.min(sample1, sample2);
+		final int y = Math.max(sample1, sample2);
+		return (int)(((long)y*(y+1))/2L) + x;
+		}
 
 		private final Function<VariantContext, Set<String>> variantToCategoryKeys = VC ->{
 			final Set<String> set = new HashSet<>();
@@ -425,36 +369,42 @@ public class VcfStats extends Launcher
 	/** statistics common to variant and samples */
 	private abstract class AbstractStat
 		{
-		final Counter<RangeOfIntegers.Range> countDepth = new Counter<>();
-		final Counter<RangeOfIntegers.Range> countDistances = new Counter<>();
-		final Counter<NucleicAcidChange> nucleicAcidChanges = new Counter<>();
-		final Counter<GeneLocation> geneLocations = new Counter<>();
-		final Counter<String> consequences = new Counter<>();
-		final Counter<String> variantsPerContigs = new Counter<>();
-		final Counter<ContigBin> countBins = new Counter<>();
-		final Counter<StructuralVariantType> countStructuralVariations = new Counter<>();
+		final IndexedCounter countDepth = new IndexedCounter(VcfStats.this.depthTranches.getRanges().size());
+		final IndexedCounter countDistances = new IndexedCounter(VcfStats.this.distanceTranches.getRanges().size());
+		/** indexed by NucleicAcidChange.ordinal() */
+		final IndexedCounter nucleicAcidChanges = new IndexedCounter(NucleicAcidChange.values().length);
+		/** indexed by GeneLocation.ordinal() */
+		final IndexedCounter geneLocations = new IndexedCounter(GeneLocation.values().length);
+		/** indexed by the position in sequenceOntologyTerms */
+		final IndexedCounter consequences = new IndexedCounter(VcfStats.this.sequenceOntologyTerms.size());
+		/** indexed by the index of the contig */
+		final IndexedCounter variantsPerContigs = new IndexedCounter();
+		/** indexed by StructuralVariantType.ordinal() */
+		final IndexedCounter countStructuralVariations = new IndexedCounter(StructuralVariantType.values().length);
 		
-		protected ContigPosRef prevCtx=null;
+		/** previous variant, used for the distances */
+		protected int prevTid = -1;
+		protected int prevStart = 0;
 
-		protected void visitForDistance(final VariantContext ctx)
+		protected void visitForDistance(final VariantContext ctx,final int tid)
 			{
 			//distance
-			final ContigPosRef contigPosRef = new ContigPosRef(ctx);
-			if(prevCtx!=null && prevCtx.getContig().equals(contigPosRef.getContig()) && prevCtx.getStart() <= contigPosRef.getStart())
+			if(this.prevTid == tid && this.prevStart <= ctx.getStart())
 				{
-				final int distance = contigPosRef.getStart() - this.prevCtx.getStart();
-				this.countDistances.incr(VcfStats.this.distanceTranches.getRange(distance));
+				final int distance = ctx.getStart() - this.prevStart;
+				this.countDistances.incr(VcfStats.this.distanceTranches.getRangeIndex(distance));
 				}
-			prevCtx=contigPosRef;
+			this.prevTid = tid;
+			this.prevStart = ctx.getStart();
 			}
 		
-		protected void visitForConsequences(final VariantContext ctx,Collection<SequenceOntologyTree.Term> terms,final VcfTools vcfTools)
+		protected void visitForConsequences(final VariantContext ctx,final VcfTools vcfTools)
 			{
-			for(final SequenceOntologyTree.Term t:terms)
+			for(int i=0;i< VcfStats.this.sequenceOntologyTerms.size();++i)
 				{
-				if(vcfTools.hasSequenceOntologyTerm(ctx, t))
+				if(vcfTools.hasSequenceOntologyTerm(ctx, VcfStats.this.sequenceOntologyTerms.get(i)))
 					{
-					this.consequences.incr(t.getLabel());
+					this.consequences.incr(i);
 					}	
 				}
 			}
@@ -488,10 +438,21 @@ public class VcfStats extends Launcher
 				}
 			if(loc!=GeneLocation.not_in_gene)
 				{
-				this.geneLocations.incr(loc);
+				this.geneLocations.incr(loc.ordinal());
 				}
 			}
 		
+		/** add the counts of 'other', the statistics of another set of contigs */
+		protected void merge(final AbstractStat other)
+			{
+			this.countDepth.merge(other.countDepth);
+			this.countDistances.merge(other.countDistances);
+			this.nucleicAcidChanges.merge(other.nucleicAcidChanges);
+			this.geneLocations.merge(other.geneLocations);
+			this.consequences.merge(other.consequences);
+			this.variantsPerContigs.merge(other.variantsPerContigs);
+			this.countStructuralVariations.merge(other.countStructuralVariations);
+			}
 		}
 	
 	
@@ -507,51 +468,63 @@ public class VcfStats extends Launcher
 	private class VariantStats extends AbstractStat
 		{
 		private final VcfTools vcfTools;
-		private final Set<SequenceOntologyTree.Term> sequenceOntologyTermsToObserve=new HashSet<>();
 		private final String key;
-		private PlotMaf mafPlotter= null;
 		private final Set<String> affectedSamples;
 		private final Set<String> unaffectedSamples;
+		/** samples in the order of the VCF header */
+		private final SampleStat sampleStats[];
+		/** samples sorted on their names */
 		private final Map<String,SampleStat> sample2stats = new TreeMap<>();
-		final Counter<VariantContext.Type> countTypes = new Counter<>();
-		final Counter<RangeOfIntegers.Range> countAffectedSamples = new Counter<>();
-		final Counter<RangeOfIntegers.Range> countAltAlleles = new Counter<>();
-		final Counter<RangeOfIntegers.Range> countIndelSize = new Counter<>();
-		final Counter<SamplePair>  genotypeConcordance = new Counter<>();
+		/** indexed by the index of the contig */
+		final ContigBins countBins = new ContigBins();
+		/** indexed by VariantContext.Type.ordinal() */
+		final IndexedCounter countTypes = new IndexedCounter(VariantContext.Type.values().length);
+		final IndexedCounter countAffectedSamples = new IndexedCounter(VcfStats.this.affectedTranches.getRanges().size());
+		final IndexedCounter countAltAlleles = new IndexedCounter(VcfStats.this.altTranches.getRanges().size());
+		final IndexedCounter countIndelSize = new IndexedCounter(VcfStats.this.indelTranches.getRanges().size());
+		/** upper triangular matrix, see samplePairIndex */
+		final long genotypeConcordance[];
+		/** pairs of MAF cases/controls */
+		private double mafPoints[] = new double[0];
+		private int mafCount = 0;
 
 		private int countVariants=0;
 		
 		/** stats for Samples */
 		private class SampleStat extends AbstractStat
 			{
-			final Counter<GenotypeType> countTypes = new Counter<>();
-			final Counter<String> countMendelianViolations = new Counter<>();
+			/** indexed by GenotypeType.ordinal() */
+			final IndexedCounter countTypes = new IndexedCounter(GenotypeType.values().length);
+			/** indexed by the position in sequenceOntologyTerms */
+			final IndexedCounter countMendelianViolations = new IndexedCounter(VcfStats.this.sequenceOntologyTerms.size());
+			final int sampleIndex;
 			final String sampleName;
 			final Pedigree.Person pedireePerson;
-			SampleStat(final String sampleName) {
+			SampleStat(final int sampleIndex,final String sampleName) {
+				this.sampleIndex = sampleIndex;
 				this.sampleName = sampleName;
 				this.pedireePerson= VcfStats.this.pedigree.getPersonById(sampleName);
 				}
 			
-			public void visit(final VariantContext ctx,final List<KnownGene> knownGenes) {
-				final Genotype genotype = ctx.getGenotype(this.sampleName);
+			public void visit(final VariantContext ctx,final int tid) {
+				if(this.sampleIndex >= ctx.getNSamples()) return;
+				final Genotype genotype = ctx.getGenotype(this.sampleIndex);
 				if(genotype==null) return;
-				this.countTypes.incr(genotype.getType());
+				this.countTypes.incr(genotype.getType().ordinal());
 				if(ctx.isVariant() && genotype.isCalled() && !genotype.isHomRef())
 					{
-					this.variantsPerContigs.incr(ctx.getContig());
-					this.countBins.incr(new ContigBin(ctx.getContig(),ctx.getStart()));
+					this.variantsPerContigs.incr(tid);
 					}
 				
 				if( this.pedireePerson !=null && 
 					this.pedireePerson.hasAtLeastOneParent() &&
 					VariantStats.this.vcfTools.isMendelianIncompatibility(ctx, this.pedireePerson))
 					{
-					for(final SequenceOntologyTree.Term t:VariantStats.this.sequenceOntologyTermsToObserve)
+					for(int i=0;i< VcfStats.this.sequenceOntologyTerms.size();++i)
 						{
-						if(vcfTools.hasSequenceOntologyTerm(ctx, t))
+						if(vcfTools.hasSequenceOntologyTerm(ctx, VcfStats.this.sequenceOntologyTerms.get(i)))
 							{
-							this.countMendelianViolations.incr(t.getLabel());
+							this.countMendelianViolations.incr(i);
 							}
 						}
 					}
@@ -563,7 +536,7 @@ public class VcfStats extends Launcher
 						(LumpyConstants.isLumpyVariant(ctx) && genotype.hasExtendedAttribute("SU") && genotype.getAttributeAsInt("SU", 0)>0)
 						)
 						{
-						this.countStructuralVariations.incr(structuralVariantType);
+						this.countStructuralVariations.incr(structuralVariantType.ordinal());
 						}
 					
 					}
@@ -574,21 +547,24 @@ public class VcfStats extends Launcher
 					final int dp = genotype.getDP();
 					if(dp>=0)
 						{
-						this.countDepth.incr(VcfStats.this.depthTranches.getRange(dp));
+						this.countDepth.incr(VcfStats.this.depthTranches.getRangeIndex(dp));
 						}
 					}
 				
 				if(genotype.isHomVar() || genotype.isHet())
 					{
-					visitForDistance(ctx);
-					visitForGeneLocation(ctx,knownGenes);
-					visitForConsequences(ctx,
-							VariantStats.this.sequenceOntologyTermsToObserve,
-							VariantStats.this.vcfTools
-							);
-
+					visitForDistance(ctx,tid);
+					visitForConsequences(ctx,VariantStats.this.vcfTools);
 					}
 				}
+			
+			void merge(final SampleStat other)
+				{
+				super.merge(other);
+				this.countTypes.merge(other.countTypes);
+				this.countMendelianViolations.merge(other.countMendelianViolations);
+				}
+			
 			public void finish(final PrintWriter makefileWriter) throws IOException
 				{
 				
@@ -603,19 +579,12 @@ public class VcfStats extends Launcher
 			this.key = key;
 			this.vcfTools = new VcfTools(header);
 			
-			
-			this.sequenceOntologyTermsToObserve.addAll(
-				VcfStats.this.sequenceOntologyTermsStr.stream().
-			 	filter(S->!S.trim().isEmpty()).
-			 	map(S->SequenceOntologyTree.createDefault().getTermByAcn(S)).
-			 	collect(Collectors.toSet())
-			 	);
-			
-			
-			
-			for(final String sn: VcfStats.this.sampleNamesInOrder)
+			this.sampleStats = new SampleStat[VcfStats.this.sampleNamesInOrder.size()];
+			for(int i=0;i< this.sampleStats.length;++i)
 				{
-				this.sample2stats.put(sn,new SampleStat(sn));
+				final String sn = VcfStats.this.sampleNamesInOrder.get(i);
+				this.sampleStats[i] = new SampleStat(i,sn);
+				this.sample2stats.put(sn,this.sampleStats[i]);
 				}
 			
 			this.affectedSamples = 
@@ -636,38 +605,37 @@ public class VcfStats extends Launcher
 			// genotype concordance
 			if(!VcfStats.this.disableGenotypeConcordance) {
 				final int n_samples = VcfStats.this.sampleNamesInOrder.size();
-				for(int x=0;x +1 < n_samples;++x)
-					{
-					for(int y= x +1; y < n_samples;++y)
-						{
-						this.genotypeConcordance.initializeIfNotExists(new SamplePair(x,y));
-						}
-					}
+				this.genotypeConcordance = new long[samplePairIndex(0, n_samples)];
+				}
+			else
+				{
+				this.genotypeConcordance = null;
 				}
 			}
 		
 		public void visit(final VariantContext ctx) {
+			final int tid = VcfStats.this.contigToIndex(ctx.getContig());
 			this.countVariants++;
-			this.countTypes.incr(ctx.getType());
+			this.countTypes.incr(ctx.getType().ordinal());
 			if(ctx.isVariant())
 				{
-				this.variantsPerContigs.incr(ctx.getContig());
-				this.countBins.incr(new ContigBin(ctx.getContig(),ctx.getStart()));
+				this.variantsPerContigs.incr(tid);
+				this.countBins.incr(tid,ctx.getStart());
 				}
 			
 			
 			final List<KnownGene> knownGenes =  VcfStats.this.getOverlappingKnownGenes(ctx);			
 
 			visitForGeneLocation(ctx,knownGenes);
-			for(final SampleStat st: this.sample2stats.values()) st.visit(ctx,knownGenes);
+			for(final SampleStat st: this.sampleStats) st.visit(ctx,tid);
 			
 			//distance
-			visitForDistance(ctx);
+			visitForDistance(ctx,tid);
 			
 			final StructuralVariantType structuralVariantType= ctx.getStructuralVariantType();
 			if(structuralVariantType!=null)
 				{
-				this.countStructuralVariations.incr(structuralVariantType);
+				this.countStructuralVariations.incr(structuralVariantType.ordinal());
 				}
 
 			
@@ -675,7 +643,7 @@ public class VcfStats extends Launcher
 
 			
 			/** consequences */
-			visitForConsequences(ctx,this.sequenceOntologyTermsToObserve,this.vcfTools);
+			visitForConsequences(ctx,this.vcfTools);
 			
 			/** transvertion / transition */
 			if(alternates.size()==1 )
@@ -695,15 +663,15 @@ public class VcfStats extends Launcher
 				final Character refChar=asSimpleATGC(ctx.getReference());
 				final Character altChar=asSimpleATGC(alternates.get(0));
 				if(isTransition(refChar,altChar)) {
-					this.nucleicAcidChanges.incr(NucleicAcidChange.transition);
+					this.nucleicAcidChanges.incr(NucleicAcidChange.transition.ordinal());
 					if(VcfStats.this.knownGeneTreeMap!=null && in_cds) {
-						this.nucleicAcidChanges.incr(NucleicAcidChange.transition_in_cds);
+						this.nucleicAcidChanges.incr(NucleicAcidChange.transition_in_cds.ordinal());
 						}
 					}	
 				else if(isTransversion(refChar,altChar)) {
-					this.nucleicAcidChanges.incr(NucleicAcidChange.transversion);
+					this.nucleicAcidChanges.incr(NucleicAcidChange.transversion.ordinal());
 					if(VcfStats.this.knownGeneTreeMap!=null && in_cds) {
-						this.nucleicAcidChanges.incr(NucleicAcidChange.transversion_in_cds);
+						this.nucleicAcidChanges.incr(NucleicAcidChange.transversion_in_cds.ordinal());
 						}
 					}	
 				}
@@ -753,31 +721,13 @@ public class VcfStats extends Launcher
 							}
 						}
 					if(mafs[0]==null || mafs[1]==null) continue;
-					
-					
-						
-						if(this.mafPlotter==null)
-							{
-							//it's a new plotter
-							this.mafPlotter = new PlotMaf(key);
-							
-							//add makefile stuff
-							/**
-							final String png= "$(patsubst %.tsv,%.png,"+plotter.filename+")";
-							makefileWriter.println("ALL_TARGETS+=" + png);
-							makefileWriter.println(png+":"+plotter.filename+" "+generic_maf_gnuplot_filename);
-							makefileWriter.println("\tsed -e '%__OUTPUT__%$@%g' -e '%__INPUT__%$<%g'  -e '%__TITLE__%"+mafkey+"%g' $(word 2,$^) | gnuplot");
-							*/
-							}
-						this.mafPlotter.plot(mafs[0], mafs[1]);
-						
-					
+					addMaf(mafs[0], mafs[1]);
 					}//end of loop over ALT
 				} // end of MAF
 			
 			
 			this.countAffectedSamples.incr(
-					VcfStats.this.affectedTranches.getRange(
+					VcfStats.this.affectedTranches.getRangeIndex(
 						(int)ctx.getGenotypes().stream().
 							filter(G->G.isCalled() && !(G.isHomRef() || G.isFiltered() )).
 							count()	)
@@ -787,7 +737,7 @@ public class VcfStats extends Launcher
 				int dp = ctx.getAttributeAsInt(VCFConstants.DEPTH_KEY, -1);
 				if(dp>=0)
 					{
-					this.countDepth.incr(VcfStats.this.depthTranches.getRange(dp));
+					this.countDepth.incr(VcfStats.this.depthTranches.getRangeIndex(dp));
 					}
 				}
 			if(ctx.isIndel())
@@ -795,30 +745,70 @@ public class VcfStats extends Launcher
 				final int longest = ctx.getAlleles().stream().
 						filter(A->!(A.isSymbolic() || A.equals(Allele.SPAN_DEL))).
 						mapToInt(A->A.length()).max().orElse(0);
-				this.countIndelSize.incr(VcfStats.this.indelTranches.getRange(longest));
+				this.countIndelSize.incr(VcfStats.this.indelTranches.getRangeIndex(longest));
 				}	
-			this.countAltAlleles.incr(VcfStats.this.altTranches.getRange(alternates.size()));
+			this.countAltAlleles.incr(VcfStats.this.altTranches.getRangeIndex(alternates.size()));
 			
 			// genotype concordance
 
-			if(!VcfStats.this.disableGenotypeConcordance) {
-				for(int x=0;x < ctx.getNSamples();++x)
+			if(this.genotypeConcordance!=null) {
+				final int n_samples = ctx.getNSamples();
+				for(int x=0;x < n_samples;++x)
 					{
 					final Genotype g1 = ctx.getGenotype(x);
 					if(!g1.isCalled()) continue;
-					for(int y= x ; y < ctx.getNSamples();++y)
+					for(int y= x ; y < n_samples;++y)
 						{
 						final Genotype g2 = ctx.getGenotype(y);
 						if(!g2.isCalled()) continue;
 						if(g1.sameGenotype(g2))
 							{
-							this.genotypeConcordance.incr(new SamplePair(x,y));
+							this.genotypeConcordance[samplePairIndex(x,y)]++;
 							}
 						}
 					}
 				}
 			
 			}
+		
+		private void addMaf(final double cases,final double controls)
+			{
+			if(2*this.mafCount+1 >= this.mafPoints.length)
+				{
+				this.mafPoints = Arrays.copyOf(this.mafPoints, Math.max(100, this.mafPoints.length*2));
+				}
+			this.mafPoints[2*this.mafCount  ] = cases;
+			this.mafPoints[2*this.mafCount+1] = controls;
+			this.mafCount++;
+			}
+		
+		/** add the counts of 'other', the statistics of a set of contigs following the contigs of this object */
+		void merge(final VariantStats other)
+			{
+			super.merge(other);
+			this.countVariants += other.countVariants;
+			this.countBins.merge(other.countBins);
+			this.countTypes.merge(other.countTypes);
+			this.countAffectedSamples.merge(other.countAffectedSamples);
+			this.countAltAlleles.merge(other.countAltAlleles);
+			this.countIndelSize.merge(other.countIndelSize);
+			if(this.genotypeConcordance!=null)
+				{
+				for(int i=0;i< this.genotypeConcordance.length;++i)
+					{
+					this.genotypeConcordance[i] += other.genotypeConcordance[i];
+					}
+				}
+			for(int i=0;i< other.mafCount;++i)
+				{
+				addMaf(other.mafPoints[2*i],other.mafPoints[2*i+1]);
+				}
+			for(int i=0;i< this.sampleStats.length;++i)
+				{
+				this.sampleStats[i].merge(other.sampleStats[i]);
+				}
+			}
+		
 		private String toTsv(final String filename)
 			{
 			return VcfStats.this.prefix+this.key+"."+filename+".tsv";
@@ -842,9 +832,11 @@ public class VcfStats extends Launcher
 			PrintWriter pw = VcfStats.this.archiveFactory.openWriter(filename);
 			pw.println("Type\tCount");
 
-			for(final VariantContext.Type type: this.countTypes.keySet())
+			for(final VariantContext.Type type: VariantContext.Type.values())
 				{
-				pw.println(type.name()+"\t"+this.countTypes.count(type));
+				final long n = this.countTypes.count(type.ordinal());
+				if(n==0L) continue;
+				pw.println(type.name()+"\t"+n);
 				}
 			pw.flush();
 			pw.close();
@@ -880,7 +872,7 @@ public class VcfStats extends Launcher
 				for(final SAMSequenceRecord ssr: VcfStats.this.the_dictionary.getSequences()) {
 					int x = 0;
 					while( x < ssr.getSequenceLength() ) {
-						final long c = this.countBins.count(new ContigBin(ssr.getSequenceName(), x));
+						final long c = this.countBins.count(ssr.getSequenceIndex(), x/VcfStats.this.binSize);
 						if(c>0L) {
 							pw.print(String.valueOf(gpos+x));
 							pw.print('\t');
@@ -914,11 +906,21 @@ public class VcfStats extends Launcher
 					} 
 				else
 					{
-					for(final ContigBin ctgBin : new TreeSet<>(this.countBins.keySet())) {
-						pw.print(ctgBin.toString());
-						pw.print('\t');
-						pw.print(this.countBins.count(ctgBin));
-						pw.println();
+					final List<Integer> tids = new ArrayList<>();
+					for(int tid=0;tid< this.countBins.tid2bins.size();++tid) tids.add(tid);
+					Collections.sort(tids, VcfStats.this.contigComparator);
+					for(final int tid : tids) {
+						final IndexedCounter bins = this.countBins.tid2bins.get(tid);
+						if(bins==null) continue;
+						for(int bin=0;bin< bins.size();++bin) {
+							final long c = bins.count(bin);
+							if(c==0L) continue;
+							final int pos = bin*VcfStats.this.binSize;
+							pw.print(indexToContig(tid)+";"+(pos+1)+"-"+(pos+VcfStats.this.binSize));
+							pw.print('\t');
+							pw.print(c);
+							pw.println();
+							}
 						}
 					
 					makefileWriter.println("\techo '"
@@ -949,9 +951,20 @@ public class VcfStats extends Launcher
 			PrintWriter pw = VcfStats.this.archiveFactory.openWriter(filename);
 			pw.println("Contig\tCount");
 
-			for(final String contig: this.variantsPerContigs.keySetDecreasing())
+			final List<Integer> tids = new ArrayList<>();
+			for(int tid=0;tid< this.variantsPerContigs.size();++tid)
+				{
+				if(this.variantsPerContigs.count(tid)>0L) tids.add(tid);
+				}
+			/* decreasing count */
+			Collections.sort(tids,(T1,T2)->{
+				final int i = Long.compare(this.variantsPerContigs.count(T2), this.variantsPerContigs.count(T1));
+				if(i!=0) return i;
+				return VcfStats.this.contigComparator.compare(T1, T2);
+				});
+			for(final int tid: tids)
 				{
-				pw.println(contig+"\t"+this.variantsPerContigs.count(contig));
+				pw.println(indexToContig(tid)+"\t"+this.variantsPerContigs.count(tid));
 				}
 			pw.flush();
 			pw.close();
@@ -978,21 +991,23 @@ public class VcfStats extends Launcher
 		if(!this.sample2stats.isEmpty())
 			{
 			final String filename=toTsv("sample2contig");
-			final Set<String> contigs = new TreeSet<String>( VcfStats.this.contigComparator);
-			contigs.addAll(this.sample2stats.values().
-					stream().
-					flatMap(S->S.variantsPerContigs.keySet().stream()).
-					collect(Collectors.toSet())
-					);
+			final Set<Integer> contigs = new TreeSet<Integer>( VcfStats.this.contigComparator);
+			for(final SampleStat st: this.sampleStats)
+				{
+				for(int tid=0;tid< st.variantsPerContigs.size();++tid)
+					{
+					if(st.variantsPerContigs.count(tid)>0L) contigs.add(tid);
+					}
+				}
 			
 			PrintWriter pw = VcfStats.this.archiveFactory.openWriter(filename);
-			pw.println("Sample\t"+ String.join("\t",contigs));
+			pw.println("Sample\t"+ contigs.stream().map(T->indexToContig(T)).collect(Collectors.joining("\t")));
 			for(final String sample: this.sample2stats.keySet())
 				{
 				pw.print(sample);
-				for(final String contig: contigs)
+				for(final int tid: contigs)
 					{
-					pw.print("\t"+this.sample2stats.get(sample).variantsPerContigs.count(contig));
+					pw.print("\t"+this.sample2stats.get(sample).variantsPerContigs.count(tid));
 					}
 				pw.println();
 				}
@@ -1017,9 +1032,9 @@ public class VcfStats extends Launcher
 					+ "set boxwidth 0.95;set output \"$@\";"
 					+ "plot \"$<\" using 2:xtic(1)");
 			int k=2;
-			for(final String contig: contigs)
+			for(final int tid: contigs)
 				{
-				makefileWriter.print((k==2?"":", \"\" using "+k)+" ti \""+contig+"\"");
+				makefileWriter.print((k==2?"":", \"\" using "+k)+" ti \""+indexToContig(tid)+"\"");
 				++k;
 				}
 			makefileWriter.println("' | gnuplot");
@@ -1036,7 +1051,7 @@ public class VcfStats extends Launcher
 				pw.print(sample);
 				for(final GenotypeType gtype: GenotypeType.values())
 					{
-					pw.print("\t"+this.sample2stats.get(sample).countTypes.count(gtype));
+					pw.print("\t"+this.sample2stats.get(sample).countTypes.count(gtype.ordinal()));
 					}
 				pw.println();
 				}
@@ -1074,9 +1089,10 @@ public class VcfStats extends Launcher
 				{
 				final String filename=toTsv("affectedSamples");
 				PrintWriter pw = VcfStats.this.archiveFactory.openWriter(filename);
-				for(final RangeOfIntegers.Range k: VcfStats.this.affectedTranches.getRanges())
+				for(int i=0;i< VcfStats.this.affectedTranches.getRanges().size();++i)
 					{
-					long n=this.countAffectedSamples.count(k); if(n==0L) continue;
+					final RangeOfIntegers.Range k = VcfStats.this.affectedTranches.getRanges().get(i);
+					long n=this.countAffectedSamples.count(i); if(n==0L) continue;
 					pw.println(k.toString()+"/"+this.sample2stats.size()+"\t"+n);
 					}
 				pw.flush();
@@ -1108,9 +1124,10 @@ public class VcfStats extends Launcher
 				{
 				final String filename= toTsv("countAltAlleles");
 				PrintWriter pw = VcfStats.this.archiveFactory.openWriter(filename);
-				for(final RangeOfIntegers.Range k: VcfStats.this.altTranches.getRanges())
+				for(int i=0;i< VcfStats.this.altTranches.getRanges().size();++i)
 					{
-					long n=this.countAltAlleles.count(k); if(n==0L) continue;
+					final RangeOfIntegers.Range k = VcfStats.this.altTranches.getRanges().get(i);
+					long n=this.countAltAlleles.count(i); if(n==0L) continue;
 					pw.println(k.toString()+"\t"+n);
 					}
 				pw.flush();
@@ -1143,9 +1160,10 @@ public class VcfStats extends Launcher
 				{
 				final String filename= toTsv("countIndelSize");
 				PrintWriter pw = VcfStats.this.archiveFactory.openWriter(filename);
-				for(final RangeOfIntegers.Range k: VcfStats.this.indelTranches.getRanges())
+				for(int i=0;i< VcfStats.this.indelTranches.getRanges().size();++i)
 					{
-					long n=this.countIndelSize.count(k); if(n==0L) continue;
+					final RangeOfIntegers.Range k = VcfStats.this.indelTranches.getRanges().get(i);
+					long n=this.countIndelSize.count(i); if(n==0L) continue;
 					pw.println(k.toString()+"\t"+n);
 					}
 				pw.flush();
@@ -1179,9 +1197,10 @@ public class VcfStats extends Launcher
 					{
 					final String filename=toTsv("countDepth");
 					PrintWriter pw = VcfStats.this.archiveFactory.openWriter(filename);
-					for(final RangeOfIntegers.Range k: VcfStats.this.depthTranches.getRanges())
+					for(int i=0;i< VcfStats.this.depthTranches.getRanges().size();++i)
 						{
-						long n=this.countDepth.count(k); if(n==0L) continue;
+						final RangeOfIntegers.Range k = VcfStats.this.depthTranches.getRanges().get(i);
+						long n=this.countDepth.count(i); if(n==0L) continue;
 						pw.println(k.toString()+"\t"+n);
 						}
 					pw.flush();
@@ -1219,9 +1238,9 @@ public class VcfStats extends Launcher
 						{
 						if(st.countDepth.isEmpty()) continue;//all sample are HOm_REF
 						pw.print(st.sampleName);
-						for(final RangeOfIntegers.Range range: VcfStats.this.depthTranches.getRanges())
+						for(int i=0;i< VcfStats.this.depthTranches.getRanges().size();++i)
 							{
-							pw.print("\t"+st.countDepth.count(range));
+							pw.print("\t"+st.countDepth.count(i));
 							}
 						pw.println();
 						}
@@ -1264,9 +1283,10 @@ public class VcfStats extends Launcher
 					{
 					final String filename=toTsv("countDistances");
 					PrintWriter pw = VcfStats.this.archiveFactory.openWriter(filename);
-					for(final RangeOfIntegers.Range k: VcfStats.this.distanceTranches.getRanges())
+					for(int i=0;i< VcfStats.this.distanceTranches.getRanges().size();++i)
 						{
-						long n=this.countDistances.count(k); if(n==0L) continue;
+						final RangeOfIntegers.Range k = VcfStats.this.distanceTranches.getRanges().get(i);
+						long n=this.countDistances.count(i); if(n==0L) continue;
 						pw.println(k.toString()+"\t"+n);
 						}
 					pw.flush();
@@ -1303,9 +1323,9 @@ public class VcfStats extends Launcher
 						{
 						if(st.countDistances.isEmpty()) continue;//all sample are HOm_REF
 						pw.print(st.sampleName);
-						for(final RangeOfIntegers.Range range: VcfStats.this.distanceTranches.getRanges())
+						for(int i=0;i< VcfStats.this.distanceTranches.getRanges().size();++i)
 							{
-							pw.print("\t"+st.countDistances.count(range));
+							pw.print("\t"+st.countDistances.count(i));
 							}
 						pw.println();
 						}
@@ -1344,13 +1364,23 @@ public class VcfStats extends Launcher
 				
 				}
 			
-			if(this.mafPlotter!=null)
+			if(this.mafCount>0)
 				{
-				this.mafPlotter.close();
+				final String filename = VcfStats.this.prefix + this.key+".maf.tsv";
+				final PrintWriter pw = VcfStats.this.archiveFactory.openWriter(filename);
+				for(int i=0;i< this.mafCount;++i)
+					{
+					pw.print(this.mafPoints[2*i]);
+					pw.print('\t');
+					pw.print(this.mafPoints[2*i+1]);
+					pw.print('\n');
+					}
+				pw.flush();
+				pw.close();
 				
-				final String png= toPng(this.mafPlotter.filename);
+				final String png= toPng(filename);
 				makefileWriter.println("ALL_TARGETS+=" + png);
-				makefileWriter.println(png+":"+this.mafPlotter.filename);
+				makefileWriter.println(png+":"+filename);
 				makefileWriter.println("\techo 'set terminal png truecolor size ${SCREEN_WIDTH},${SCREEN_HEIGHT};"
 						+ "set title \"MAF Cases/Controls\";"
 						+ "set ylabel \"Controls\";"
@@ -1371,11 +1401,11 @@ public class VcfStats extends Launcher
 				
 				
 				//pw.println("TYPE\tALL\tCDS");
-				//pw.println("TRANSITION\t"+this.nucleicAcidChanges.count(NucleicAcidChange.transition)+"\t"+this.nucleicAcidChanges.count(NucleicAcidChange.transition_in_cds));
-				//pw.println("TRANSVERSION\t"+this.nucleicAcidChanges.count(NucleicAcidChange.transversion)+"\t"+this.nucleicAcidChanges.count(NucleicAcidChange.transversion_in_cds));
+				//pw.println("TRANSITION\t"+this.nucleicAcidChanges.count(NucleicAcidChange.transition.ordinal())+"\t"+this.nucleicAcidChanges.count(NucleicAcidChange.transition_in_cds.ordinal()));
+				//pw.println("TRANSVERSION\t"+this.nucleicAcidChanges.count(NucleicAcidChange.transversion.ordinal())+"\t"+this.nucleicAcidChanges.count(NucleicAcidChange.transversion_in_cds.ordinal()));
 				pw.println("TYPE\tTRANSITION\tTRANSVERSION");
-				pw.println("ALL\t"+this.nucleicAcidChanges.count(NucleicAcidChange.transition)+"\t"+this.nucleicAcidChanges.count(NucleicAcidChange.transversion));
-				pw.println("CDS\t"+this.nucleicAcidChanges.count(NucleicAcidChange.transition_in_cds)+"\t"+this.nucleicAcidChanges.count(NucleicAcidChange.transversion_in_cds));
+				pw.println("ALL\t"+this.nucleicAcidChanges.count(NucleicAcidChange.transition.ordinal())+"\t"+this.nucleicAcidChanges.count(NucleicAcidChange.transversion.ordinal()));
+				pw.println("CDS\t"+this.nucleicAcidChanges.count(NucleicAcidChange.transition_in_cds.ordinal())+"\t"+this.nucleicAcidChanges.count(NucleicAcidChange.transversion_in_cds.ordinal()));
 				pw.flush();
 				pw.close();
 				
@@ -1406,7 +1436,7 @@ public class VcfStats extends Launcher
 				for(GeneLocation loc:GeneLocation.values())
 					{
 					if(loc==GeneLocation.not_in_gene) continue;
-					pw.println(loc.name()+"\t"+this.geneLocations.count(loc));
+					pw.println(loc.name()+"\t"+this.geneLocations.count(loc.ordinal()));
 					}
 				pw.flush();
 				pw.close();
@@ -1439,11 +1469,10 @@ public class VcfStats extends Launcher
 				{
 				final String filename=toTsv("predictions");
 				PrintWriter pw = VcfStats.this.archiveFactory.openWriter(filename);
-				for(final String k: this.consequences.keySet())
+				for(int i=0;i< VcfStats.this.sequenceOntologyTerms.size();++i)
 					{
-				
-					long n=this.consequences.count(k); if(n==0L) continue;
-					pw.println(k.toString()+"\t"+n);
+					long n=this.consequences.count(i); if(n==0L) continue;
+					pw.println(VcfStats.this.sequenceOntologyTerms.get(i).getLabel()+"\t"+n);
 					}
 				pw.flush();
 				pw.close();
@@ -1470,20 +1499,20 @@ public class VcfStats extends Launcher
 						+ "gnuplot");	
 				}
 				
-				if(!this.sample2stats.isEmpty() && !this.sequenceOntologyTermsToObserve.isEmpty())
+				if(!this.sample2stats.isEmpty() && !VcfStats.this.sequenceOntologyTerms.isEmpty())
 					{
 
 					final String filename=toTsv("predictionsBySample");
 					final PrintWriter pw = VcfStats.this.archiveFactory.openWriter(filename);
 
-					pw.println("Sample\t"+ this.sequenceOntologyTermsToObserve.stream().map(D->D.getLabel()).collect(Collectors.joining("\t")));
+					pw.println("Sample\t"+ VcfStats.this.sequenceOntologyTerms.stream().map(D->D.getLabel()).collect(Collectors.joining("\t")));
 					for(final SampleStat st:this.sample2stats.values())
 						{
 						if(st.consequences.isEmpty()) continue;//all sample are HOm_REF
 						pw.print(st.sampleName);
-						for(final SequenceOntologyTree.Term term: this.sequenceOntologyTermsToObserve)
+						for(int i=0;i< VcfStats.this.sequenceOntologyTerms.size();++i)
 							{
-							pw.print("\t"+st.consequences.count(term.getLabel()));
+							pw.print("\t"+st.consequences.count(i));
 							}
 						pw.println();
 						}
@@ -1510,7 +1539,7 @@ public class VcfStats extends Launcher
 							+ "plot \"$<\" using 2:xtic(1)"
 							);
 					int k=0;
-					for(@SuppressWarnings("unused") final SequenceOntologyTree.Term term: this.sequenceOntologyTermsToObserve)
+					for(@SuppressWarnings("unused") final SequenceOntologyTree.Term term: VcfStats.this.sequenceOntologyTerms)
 						{
 						if(k>0) makefileWriter.print(",\"\" using "+(k+2));
 						++k;
@@ -1526,13 +1555,13 @@ public class VcfStats extends Launcher
 					final String filename=toTsv("mendel");
 					final PrintWriter pw = VcfStats.this.archiveFactory.openWriter(filename);
 
-					pw.println("Sample\t"+ this.sequenceOntologyTermsToObserve.stream().map(D->D.getLabel()).collect(Collectors.joining("\t")));
+					pw.println("Sample\t"+ VcfStats.this.sequenceOntologyTerms.stream().map(D->D.getLabel()).collect(Collectors.joining("\t")));
 					for(final SampleStat st:this.sample2stats.values())
 						{
 						pw.print(st.sampleName);
-						for(final SequenceOntologyTree.Term term: this.sequenceOntologyTermsToObserve)
+						for(int i=0;i< VcfStats.this.sequenceOntologyTerms.size();++i)
 							{
-							pw.print("\t"+st.countMendelianViolations.count(term.getLabel()));
+							pw.print("\t"+st.countMendelianViolations.count(i));
 							}
 						pw.println();
 						}
@@ -1560,7 +1589,7 @@ public class VcfStats extends Launcher
 							+ "plot \"$<\" using 2:xtic(1)"
 							);
 					int k=0;
-					for(@SuppressWarnings("unused")final SequenceOntologyTree.Term term: this.sequenceOntologyTermsToObserve)
+					for(@SuppressWarnings("unused")final SequenceOntologyTree.Term term: VcfStats.this.sequenceOntologyTerms)
 						{
 						if(k>0) makefileWriter.print(",\"\" using "+(k+2));
 						++k;
@@ -1571,7 +1600,7 @@ public class VcfStats extends Launcher
 
 				}
 			
-			if(!VcfStats.this.disableGenotypeConcordance && !this.genotypeConcordance.isEmpty())
+			if(this.genotypeConcordance!=null && (this.sampleStats.length>1 || Arrays.stream(this.genotypeConcordance).anyMatch(N->N>0L)))
 				{
 				final String filename = toTsv("gtConcordance");
 				final PrintWriter pw = VcfStats.this.archiveFactory.openWriter(filename);
@@ -1589,7 +1618,7 @@ public class VcfStats extends Launcher
 					for(int x=0;x<  VcfStats.this.sampleNamesInOrder.size();++x)
 						{
 						pw.print(",");
-						pw.print(this.genotypeConcordance.count(new SamplePair(x,y)));
+						pw.print(this.genotypeConcordance[samplePairIndex(x,y)]);
 						}
 					pw.println();
 					}
@@ -1616,7 +1645,7 @@ public class VcfStats extends Launcher
 				PrintWriter pw = VcfStats.this.archiveFactory.openWriter(filename);
 				for(final StructuralVariantType k: StructuralVariantType.values())
 					{
-					final long n=this.countStructuralVariations.count(k);
+					final long n=this.countStructuralVariations.count(k.ordinal());
 					pw.println(k.name()+"\t"+n);
 					}
 				pw.flush();
@@ -1657,7 +1686,7 @@ public class VcfStats extends Launcher
 					pw.print(sample);
 					for(final StructuralVariantType svt: StructuralVariantType.values())
 						{
-						pw.print("\t"+this.sample2stats.get(sample).countStructuralVariations.count(svt));
+						pw.print("\t"+this.sample2stats.get(sample).countStructuralVariations.count(svt.ordinal()));
 						}
 					pw.println();
 					}
@@ -1758,9 +1787,19 @@ public class VcfStats extends Launcher
 			return -1;
 		}
 		
+		if(this.nThreads<1) {
+			LOG.error("bad number of threads");
+			return -1;
+		}
+		if(this.nThreads>1 && this.tee) {
+			LOG.error("--threads is incompatible with --tee");
+			return -1;
+		}
+		
 		VariantContextWriter teeOut=null;
 		VcfIterator iter = null;
-		final Map<String,VariantStats> category2stats = new HashMap<>();
+		ExecutorService executorService = null;
+		Map<String,VariantStats> category2stats = new HashMap<>();
 		
 		PrintWriter makefileWriter =null;
 		try {
@@ -1769,7 +1808,12 @@ public class VcfStats extends Launcher
 			this.archiveFactory = ArchiveFactory.open(this.outputFile);
 			if(this.tee) teeOut = super.openVariantContextWriter(null);
 			
-			iter= super.openVcfIterator(oneFileOrNull(args));
+			final String input = oneFileOrNull(args);
+			if(this.nThreads>1 && input==null) {
+				LOG.error("--threads requires an indexed VCF file, not stdin");
+				return -1;
+				}
+			iter= super.openVcfIterator(input);
 			
 			
 			
@@ -1780,6 +1824,22 @@ public class VcfStats extends Launcher
 			if(dict!=null && !dict.isEmpty()) {
 				this.the_dictionary = dict;
 				}
+			else if(this.nThreads>1)
+				{
+				throw new JvarkitException.VcfDictionaryMissing(input);
+				}
+			
+			final List<SequenceOntologyTree.Term> soTerms = new ArrayList<>();
+			for(final String acn: this.sequenceOntologyTermsStr) {
+				if(acn.trim().isEmpty()) continue;
+				final SequenceOntologyTree.Term term = SequenceOntologyTree.createDefault().getTermByAcn(acn.trim());
+				if(term==null) {
+					LOG.error("Unknown sequence ontology term "+acn);
+					return -1;
+					}
+				if(!soTerms.contains(term)) soTerms.add(term);
+				}
+			this.sequenceOntologyTerms = Collections.unmodifiableList(soTerms);
 			
 			if(this.kgFile!=null)
 				{
@@ -1818,23 +1878,37 @@ public class VcfStats extends Launcher
 			
 			if(teeOut!=null) teeOut.writeHeader(header);
 			final SAMSequenceDictionaryProgress progress= new SAMSequenceDictionaryProgress(header).logger(LOG);
-			while(iter.hasNext())
+			if(this.nThreads>1)
 				{
-				final VariantContext ctx=progress.watch(iter.next());
-				if(teeOut!=null) teeOut.add(ctx);
-
-				
-				for(final String category: this.variantToCategoryKeys.apply(ctx))
+				/* the main iterator is only used to read the header */
+				iter.close();iter=null;
+				final File vcfFile = new File(input);
+				executorService = Executors.newFixedThreadPool(this.nThreads);
+				/* futures are collected in the order of the dictionary, at most 2*nThreads are pending */
+				final List<Future<Map<String,VariantStats>>> pending = new ArrayList<>();
+				for(final SAMSequenceRecord ssr: dict.getSequences())
 					{
-					VariantStats vcstat = category2stats.get(category);
-					if(vcstat==null) {
-						vcstat = new VariantStats(category,header);
-						category2stats.put(category, vcstat);
+					pending.add(executorService.submit(()->visitContig(vcfFile,header,ssr.getSequenceName())));
+					while(pending.size()>= 2*this.nThreads)
+						{
+						mergeStats(category2stats,pending.remove(0).get());
 						}
-					vcstat.visit(ctx);
 					}
-				
-				
+				while(!pending.isEmpty())
+					{
+					mergeStats(category2stats,pending.remove(0).get());
+					}
+				executorService.shutdown();
+				executorService = null;
+				}
+			else
+				{
+				while(iter.hasNext())
+					{
+					final VariantContext ctx=progress.watch(iter.next());
+					if(teeOut!=null) teeOut.add(ctx);
+					visitVariant(category2stats,header,ctx);
+					}
 				}
 			for(final String category: category2stats.keySet())
 				{	
@@ -1846,7 +1920,7 @@ public class VcfStats extends Launcher
 			makefileWriter.println("all_targets : ${ALL_TARGETS}");
 			makefileWriter.flush();makefileWriter.close();makefileWriter=null;
 			
-			iter.close();iter=null;
+			if(iter!=null) {iter.close();iter=null;}
 			this.archiveFactory.close();archiveFactory=null;
 			if(teeOut!=null) teeOut.close(); teeOut=null;
 			return 0;
@@ -1860,10 +1934,57 @@ public class VcfStats extends Launcher
 			CloserUtil.close(teeOut);
 			CloserUtil.close(iter);
 			CloserUtil.close(makefileWriter);
+			if(executorService!=null) executorService.shutdownNow();
 			}
 		
 		}
 	
+	/** dispatch a variant to the statistics of each of its categories */
+	private void visitVariant(final Map<String,VariantStats> category2stats,final VCFHeader header,final VariantContext ctx)
+		{
+		for(final String category: this.variantToCategoryKeys.apply(ctx))
+			{
+			VariantStats vcstat = category2stats.get(category);
+			if(vcstat==null) {
+				vcstat = new VariantStats(category,header);
+				category2stats.put(category, vcstat);
+				}
+			vcstat.visit(ctx);
+			}
+		}
+	
+	/** compute the statistics for one contig of an indexed VCF, called by the worker threads */
+	private Map<String,VariantStats> visitContig(final File vcfFile,final VCFHeader header,final String contig)
+		{
+		final Map<String,VariantStats> category2stats = new HashMap<>();
+		try(VCFFileReader r=new VCFFileReader(vcfFile, true)) {
+			try(CloseableIterator<VariantContext> iter2 = r.query(contig, 1, Integer.MAX_VALUE)) {
+				while(iter2.hasNext())
+					{
+					visitVariant(category2stats,header,iter2.next());
+					}
+				}
+			}
+		LOG.debug("done "+contig);
+		return category2stats;
+		}
+	
+	/** merge the statistics of a contig into the global statistics */
+	private void mergeStats(final Map<String,VariantStats> category2stats,final Map<String,VariantStats> contigStats)
+		{
+		for(final String category: contigStats.keySet())
+			{
+			final VariantStats vcstat = category2stats.get(category);
+			if(vcstat==null) {
+				category2stats.put(category, contigStats.get(category));
+				}
+			else
+				{
+				vcstat.merge(contigStats.get(category));
+				}
+			}
+		}
+	
 			
 	
 	
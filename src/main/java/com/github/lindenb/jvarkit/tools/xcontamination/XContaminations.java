@@ -49,16 +49,28 @@ import htsjdk.variant.vcf.VCFHeaderLineCount;
 import htsjdk.variant.vcf.VCFHeaderLineType;
 import htsjdk.variant.vcf.VCFInfoHeaderLine;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiPredicate;
 import java.util.function.DoublePredicate;
 import java.util.function.Predicate;
@@ -68,7 +80,6 @@ import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.math.stats.FisherExactTest;
-import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.samtools.SamRecordJEXLFilter;
 import com.github.lindenb.jvarkit.util.illumina.ShortReadName;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
@@ -88,6 +99,7 @@ BEGIN_DOC
 ## History
 
 * 20171122: re-written, adding support to vcf output, genotypes and variant filters.
+* 20181016: the counts are stored in a primitive upper-triangular matrix. Option `--threads`: the variants are processed by batches on 'n' workers, each one having its own BAM readers and its own matrix. The matrices are summed at the end (and for `--save-every`). The rows of the tab-delimited output are sorted.
 
 ## Input
 
@@ -233,6 +245,10 @@ public class XContaminations extends Launcher
 	@Parameter(names={"-singleton","--singleton"},description="[20171212] R. Redon's idea: we're not sure that the contamination comes from the watched pair."
 			+ ". With this option, we're sure that there is only one HOM_VAR on the line and no HET.")
 	private boolean use_singleton = false;
+	@Parameter(names={"--threads"},description="[20181016] Number of threads. The variants are sent by batches to 'n' workers, each worker has its own BAM readers and its own contamination matrix.")
+	private int nThreads = 1;
+	@Parameter(names={"--batch-size"},description="[20181016] Number of variants in one batch sent to the workers.")
+	private int batch_size = 100;
 
 	
 	private DoublePredicate passFractionTreshold  = (V) -> V > fraction_treshold;
@@ -428,7 +444,401 @@ public class XContaminations extends Launcher
 		}
 	
 	
-	private void saveToFile(final Map<SamplePair,SampleAlleles> contaminationTable) throws IOException{
+	/** assigns a stable ordinal to each SampleIdentifier. Shared by the workers, the ordinals are never removed */
+	private static class IdentifierRegistry
+		{
+		private final Map<SampleIdentifier,Integer> id2ordinal = new ConcurrentHashMap<>();
+		private final List<SampleIdentifier> ordinal2id = new ArrayList<>();
+		
+		int getOrdinal(final SampleIdentifier id) {
+			final Integer ordinal = this.id2ordinal.get(id);
+			if(ordinal!=null) return ordinal;
+			synchronized(this) {
+				return this.id2ordinal.computeIfAbsent(id, K->{
+					this.ordinal2id.add(K);
+					return this.ordinal2id.size()-1;
+					});
+				}
+			}
+		synchronized SampleIdentifier get(final int ordinal) {
+			return this.ordinal2id.get(ordinal);
+			}
+		synchronized int size() {
+			return this.ordinal2id.size();
+			}
+		}
+	
+	/** 
+	 * dense upper-triangular matrix of the read counts for each pair of SampleIdentifier.
+	 * The pair (i,j) with i&lt;j is stored at index j*(j-1)/2+i, so the matrix can grow when new identifiers are found.
+	 * In each pair, 'sample1' is the identifier having the lowest sample name.
+	 */
+	private static class ContaminationMatrix
+		{
+		private static final int S1S1 = 0;
+		private static final int S1S2 = 1;
+		private static final int S1SO = 2;
+		private static final int S2S2 = 3;
+		private static final int S2S1 = 4;
+		private static final int S2SO = 5;
+		private static final int COMPARISONS = 6;
+		private static final int NUM_FIELDS = 7;
+		private long data[] = new long[0];
+		
+		private static int pairIndex(final int ord1,final int ord2) {
+			final int i = Math.min(ord1, ord2);
+			final int j = Math.max(ord1, ord2);
+			return (int)(((long)j*(j-1))/2L + i);
+			}
+		
+		private int offset(final int ord1,final int ord2,boolean grow) {
+			final int offset = pairIndex(ord1, ord2) * NUM_FIELDS;
+			if(offset >= this.data.length) {
+				if(!grow) return -1;
+				this.data = Arrays.copyOf(this.data, Math.max(offset + NUM_FIELDS, this.data.length*2));
+				}
+			return offset;
+			}
+		
+		/** add the counts of sample1 (ord1) and sample2 (ord2). The counts are int[5] indexed by {@link #baseIndex(char)} */
+		void add(final int ord1,final int counts1[],final int base1,final int ord2,final int counts2[],final int base2) {
+			final int offset = offset(ord1,ord2,true);
+			long s1s1 = 0L, s1s2 = 0L, s1so = 0L, s2s2 = 0L, s2s1 = 0L, s2so = 0L;
+			for(int b=0;b< counts1.length;++b) {
+				if(b==base1) s1s1 += counts1[b];
+				else if(b==base2) s1s2 += counts1[b];
+				else s1so += counts1[b];
+				}
+			for(int b=0;b< counts2.length;++b) {
+				if(b==base2) s2s2 += counts2[b];
+				else if(b==base1) s2s1 += counts2[b];
+				else s2so += counts2[b];
+				}
+			this.data[offset + S1S1] += s1s1;
+			this.data[offset + S1S2] += s1s2;
+			this.data[offset + S1SO] += s1so;
+			this.data[offset + S2S2] += s2s2;
+			this.data[offset + S2S1] += s2s1;
+			this.data[offset + S2SO] += s2so;
+			this.data[offset + COMPARISONS]++;
+			}
+		
+		/** @return the counts of this pair or null if the pair was never compared */
+		SampleAlleles get(final int ord1,final int ord2) {
+			final int offset = offset(ord1, ord2, false);
+			if(offset<0 || this.data[offset + COMPARISONS]==0L) return null;
+			final SampleAlleles sa = new SampleAlleles();
+			sa.reads_sample1_supporting_sample1 = this.data[offset + S1S1];
+			sa.reads_sample1_supporting_sample2 = this.data[offset + S1S2];
+			sa.reads_sample1_supporting_other = this.data[offset + S1SO];
+			sa.reads_sample2_supporting_sample2 = this.data[offset + S2S2];
+			sa.reads_sample2_supporting_sample1 = this.data[offset + S2S1];
+			sa.reads_sample2_supporting_other = this.data[offset + S2SO];
+			sa.number_of_comparaisons = this.data[offset + COMPARISONS];
+			return sa;
+			}
+		
+		/** add the content of 'other' to this matrix */
+		void merge(final ContaminationMatrix other) {
+			if(other.data.length > this.data.length) this.data = Arrays.copyOf(this.data, other.data.length);
+			for(int i=0;i< other.data.length;++i) this.data[i] += other.data[i];
+			}
+		
+		void clear() {
+			Arrays.fill(this.data, 0L);
+			}
+		}
+	
+	/** index of a base in the primitive allele counters: A,C,G,T or 'other' */
+	private static int baseIndex(final char c) {
+		switch(c) {
+			case 'A': return 0;
+			case 'C': return 1;
+			case 'G': return 2;
+			case 'T': return 3;
+			default: return 4;
+			}
+		}
+	
+	/** a variant to be processed by a Worker, with the genotypes of the samples having a BAM */
+	private static class Site
+		{
+		final VariantContext ctx;
+		final Map<String,Genotype> sample2gt;
+		Site(final VariantContext ctx,final Map<String,Genotype> sample2gt) {
+			this.ctx = ctx;
+			this.sample2gt = sample2gt;
+			}
+		}
+	
+	/** 
+	 * scans the reads of a batch of sites. Each worker has its own BAM readers and its own matrix.
+	 * The matrix is only modified while the lock is held, so a consistent copy can be read between two batches.
+	 */
+	private class Worker implements Closeable
+		{
+		private final Map<String,SamReader> sample2samReader = new HashMap<>();
+		private final IdentifierRegistry registry;
+		private final ContaminationMatrix matrix = new ContaminationMatrix();
+		/** used in vcf mode: counts of the current variant */
+		private final ContaminationMatrix siteMatrix;
+		private final ReentrantLock lock = new ReentrantLock();
+		/* allele counts of the current site, one row per SampleIdentifier */
+		private int siteCount = 0;
+		private int siteOrdinals[] = new int[10];
+		private String siteSamples[] = new String[10];
+		private int siteAlleles[][] = new int[10][];
+		
+		Worker(final SamReaderFactory srf,final Map<String,File> sample2bam,final IdentifierRegistry registry) throws IOException {
+			this.registry = registry;
+			this.siteMatrix = (output_as_vcf?new ContaminationMatrix():null);
+			for(final String sampleName: sample2bam.keySet()) {
+				this.sample2samReader.put(sampleName, srf.open(sample2bam.get(sampleName)));
+				}
+			}
+		
+		/** get the allele counters for this identifier at the current site */
+		private int[] getSiteAlleles(final String sampleName,final int ordinal) {
+			for(int i=0;i< this.siteCount;++i) {
+				if(this.siteOrdinals[i]==ordinal) return this.siteAlleles[i];
+				}
+			if(this.siteCount==this.siteOrdinals.length) {
+				final int n = this.siteCount*2;
+				this.siteOrdinals = Arrays.copyOf(this.siteOrdinals, n);
+				this.siteSamples = Arrays.copyOf(this.siteSamples, n);
+				this.siteAlleles = Arrays.copyOf(this.siteAlleles, n);
+				}
+			if(this.siteAlleles[this.siteCount]==null) this.siteAlleles[this.siteCount]=new int[5];
+			final int counts[] = this.siteAlleles[this.siteCount];
+			Arrays.fill(counts, 0);
+			this.siteOrdinals[this.siteCount] = ordinal;
+			this.siteSamples[this.siteCount] = sampleName;
+			this.siteCount++;
+			return counts;
+			}
+		
+		List<VariantContext> run(final List<Site> batch) {
+			this.lock.lock();
+			try {
+				final List<VariantContext> variants = new ArrayList<>(output_as_vcf?batch.size():0);
+				for(final Site site:batch) {
+					final VariantContext vc = visit(site);
+					if(vc!=null) variants.add(vc);
+					}
+				return variants;
+				}
+			finally
+				{
+				this.lock.unlock();
+				}
+			}
+		
+		private VariantContext visit(final Site site) {
+			final VariantContext ctx = site.ctx;
+			final Map<String,Genotype> sample2gt = site.sample2gt;
+			this.siteCount = 0;
+			
+			/* scan Reads for those Genotype/Samples */
+			for(final String sampleName: sample2gt.keySet())
+				{
+				final SamReader samReader = this.sample2samReader.get(sampleName);
+				if(samReader==null) continue;
+				
+				int simpleOrdinal = -1;
+				final SAMRecordIterator iter = samReader.query(
+						ctx.getContig(),
+						ctx.getStart(),
+						ctx.getEnd(),
+						false
+						);
+				while(iter.hasNext())
+					{
+					final SAMRecord record= iter.next();
+					if(record.getEnd()< ctx.getStart()) continue;
+					if(ctx.getEnd()< record.getStart()) continue;
+					
+					if(record.getReadUnmappedFlag()) continue;
+					if(filter.filterOut(record)) continue;
+				
+					
+					final SAMReadGroupRecord srgr = record.getReadGroup();
+					//not current sample
+					if(srgr==null) continue;
+					if(!sampleName.equals(srgr.getSample())) continue;
+					
+					final Cigar cigar=record.getCigar();
+					if(cigar==null || cigar.isEmpty()) continue;
+					byte readSeq[]=record.getReadBases();
+					if(readSeq==null || readSeq.length==0) continue;
+					
+					int readPos = record.getReadPositionAtReferencePosition(ctx.getStart());
+					if(readPos<1) continue;
+					readPos--;
+					if(readPos>=readSeq.length) continue;
+					final char base = Character.toUpperCase((char)readSeq[readPos]);
+					
+					if(base=='N') continue;
+					
+					final int ordinal;
+					if(use_only_sample_name)
+						{
+						if(simpleOrdinal<0) simpleOrdinal = this.registry.getOrdinal(new SimpleSampleIdenfifier(sampleName));
+						ordinal = simpleOrdinal;
+						}
+					else
+						{
+						final ShortReadName readName = ShortReadName.parse(record);
+						if(!readName.isValid())
+							{
+							LOG.info("No a valid read name "+record.getReadName());
+							continue;
+							}
+						ordinal = this.registry.getOrdinal(new SequencerFlowCellRunLaneSample(readName, sampleName));
+						}
+					getSiteAlleles(sampleName, ordinal)[baseIndex(base)]++;
+					}
+				iter.close();
+				}/* end scan reads for this sample */
+			
+			final ContaminationMatrix contaminationTable = (output_as_vcf?this.siteMatrix:this.matrix);
+			
+			for(final String sample1: sample2gt.keySet())
+				{
+				final Genotype g1= sample2gt.get(sample1);
+				final int a1 = baseIndex(g1.getAllele(0).getBaseString().charAt(0));
+				
+				for(final String sample2:  sample2gt.keySet())
+					{
+					if(sample1.compareTo(sample2)>=0) continue;
+					final Genotype g2= sample2gt.get(sample2);
+					if(g2.sameGenotype(g1)) continue;
+					final int a2 =  baseIndex(g2.getAllele(0).getBaseString().charAt(0));
+					
+					for(int i=0;i< this.siteCount;++i)
+						{
+						if(!this.siteSamples[i].equals(sample1)) continue;
+						for(int j=0;j< this.siteCount;++j)
+							{
+							if(!this.siteSamples[j].equals(sample2)) continue;
+							contaminationTable.add(
+								this.siteOrdinals[i], this.siteAlleles[i], a1,
+								this.siteOrdinals[j], this.siteAlleles[j], a2
+								);
+							}
+						}
+					}
+				}
+			if(!output_as_vcf) return null;
+			final VariantContext vc = makeVariant(ctx, sample2gt, contaminationTable);
+			contaminationTable.clear();
+			return vc;
+			}
+		
+		/** add a consistent copy of the matrix of this worker to 'snapshot', waits for the end of the current batch */
+		void copyTo(final ContaminationMatrix snapshot) {
+			this.lock.lock();
+			try {
+				snapshot.merge(this.matrix);
+				}
+			finally
+				{
+				this.lock.unlock();
+				}
+			}
+		
+		@Override
+		public void close() {
+			this.sample2samReader.values().forEach(R->CloserUtil.close(R));
+			this.sample2samReader.clear();
+			}
+		}
+	
+	/* ordinals of the sample names, in --sample mode, for VCF output */
+	private IdentifierRegistry identifierRegistry = null;
+	private List<SamplePair> sampleListForVcf = null;
+	private String vcfSource = null;
+	
+	/** create the VCF record from the counts of one variant */
+	private VariantContext makeVariant(final VariantContext ctx,final Map<String,Genotype> sample2gt,final ContaminationMatrix contaminationTable) {
+		final VariantContextBuilder vcb = new VariantContextBuilder(this.vcfSource, ctx.getContig(), ctx.getStart(), ctx.getEnd(), ctx.getAlleles());
+		if(ctx.hasID()) vcb.id(ctx.getID());
+		final List<Genotype> genotypeList= new ArrayList<>(this.sampleListForVcf.size());
+		final Set<String> bad_samples=new TreeSet<>();
+		boolean fraction_flag=false;
+		int num_lt=0;
+		for(final SamplePair samplepair :this.sampleListForVcf)
+			{
+			final GenotypeBuilder gb = new GenotypeBuilder(samplepair.getLabel());
+			final SampleAlleles sampleAlleles = contaminationTable.get(
+					this.identifierRegistry.getOrdinal(samplepair.sample1),
+					this.identifierRegistry.getOrdinal(samplepair.sample2)
+					);
+			if(sampleAlleles != null)
+				{
+				gb.attribute("S1S1", sampleAlleles.reads_sample1_supporting_sample1);
+				gb.attribute("S1S2", sampleAlleles.reads_sample1_supporting_sample2);
+				gb.attribute("S1SO", sampleAlleles.reads_sample1_supporting_other);
+				gb.attribute("S2S1", sampleAlleles.reads_sample2_supporting_sample1);
+				gb.attribute("S2S2", sampleAlleles.reads_sample2_supporting_sample2);
+				gb.attribute("S2SO", sampleAlleles.reads_sample2_supporting_other);
+				gb.attribute("S1A",sample2gt.get(samplepair.sample1.getSampleName()).getAllele(0).getDisplayString().charAt(0));
+				gb.attribute("S2A",sample2gt.get(samplepair.sample2.getSampleName()).getAllele(0).getDisplayString().charAt(0));
+				final double fraction = sampleAlleles.getFraction();
+				gb.attribute("FR", fraction);
+				if(!this.passFractionTreshold.test(fraction)) {
+					fraction_flag=true;
+					}
+				
+				boolean bad_lt_flag=false;
+				if( sampleAlleles.reads_sample1_supporting_sample1 <= this.fail_factor*sampleAlleles.reads_sample1_supporting_sample2)
+					{
+					bad_samples.add(samplepair.sample1.getSampleName());
+					bad_lt_flag = true;
+					}
+				if(sampleAlleles.reads_sample2_supporting_sample2 <= this.fail_factor*sampleAlleles.reads_sample2_supporting_sample1) {
+					bad_samples.add(samplepair.sample2.getSampleName());
+					bad_lt_flag = true;
+					}
+				
+				if(bad_lt_flag)
+					{
+					num_lt++;
+					}
+				}
+			else
+				{
+				gb.attribute("S1S1", -1);
+				gb.attribute("S1S2", -1);
+				gb.attribute("S1SO", -1);
+				gb.attribute("S2S1", -1);
+				gb.attribute("S2S2", -1);
+				gb.attribute("S2SO", -1);
+				gb.attribute("S1A",'.');
+				gb.attribute("S2A",'.');
+
+				gb.attribute("FR", -1f);
+				}
+			genotypeList.add(gb.make());
+			}
+		if(!bad_samples.isEmpty())
+			{
+			vcb.attribute("BADSAMPLES", new ArrayList<>(bad_samples));
+			}
+		vcb.attribute("LE", num_lt);
+		if(fraction_flag || !bad_samples.isEmpty()) 
+			{
+			if(fraction_flag) vcb.filter("XCONTAMINATION");
+			if(!bad_samples.isEmpty()) vcb.filter("BADSAMPLES");
+			}
+		else
+			{
+			vcb.passFilters();
+			}
+		vcb.genotypes(genotypeList);
+		return vcb.make();
+		}
+	
+	private void saveToFile(final ContaminationMatrix contaminationTable) throws IOException{
 		PrintWriter pw = null;
 		try 
 			{
@@ -471,47 +881,62 @@ public class XContaminations extends Launcher
 			pw.print('\t');
 			pw.print("count_comparison");
 			pw.println();
-			for(final SamplePair pair : contaminationTable.keySet())
+			
+			/* sort the identifiers, the ordinals depend on the order of the reads/threads */
+			final int nIdentifiers = this.identifierRegistry.size();
+			final Integer sortedOrdinals[] = new Integer[nIdentifiers];
+			for(int i=0;i< nIdentifiers;++i) sortedOrdinals[i]=i;
+			Arrays.sort(sortedOrdinals,(A,B)->this.identifierRegistry.get(A).toString().compareTo(this.identifierRegistry.get(B).toString()));
+			
+			for(int x=0;x< nIdentifiers;++x)
 				{
-				final SampleAlleles sampleAlleles = contaminationTable.get(pair);
-				if(sampleAlleles==null) continue;
+				for(int y=0;y< nIdentifiers;++y)
+					{
+					final SampleIdentifier id1 = this.identifierRegistry.get(sortedOrdinals[x]);
+					final SampleIdentifier id2 = this.identifierRegistry.get(sortedOrdinals[y]);
+					/* sample1 is the identifier with the lowest sample name */
+					if(id1.getSampleName().compareTo(id2.getSampleName())>=0) continue;
+					final SampleAlleles sampleAlleles = contaminationTable.get(sortedOrdinals[x], sortedOrdinals[y]);
+					if(sampleAlleles==null) continue;
+					final SamplePair pair = new SamplePair(id1, id2);
 				
-				if(!this.use_only_sample_name) {
-					pw.print(pair.sample1.getLabel());
+					if(!this.use_only_sample_name) {
+						pw.print(pair.sample1.getLabel());
+						pw.print('\t');
+						}
+					pw.print(pair.sample1.getSampleName());
 					pw.print('\t');
-					}
-				pw.print(pair.sample1.getSampleName());
-				pw.print('\t');
-				if(!this.use_only_sample_name) {
-					pw.print(pair.sample2.getLabel());
+					if(!this.use_only_sample_name) {
+						pw.print(pair.sample2.getLabel());
+						pw.print('\t');
+						}
+					pw.print(pair.sample2.getSampleName());
 					pw.print('\t');
-					}
-				pw.print(pair.sample2.getSampleName());
-				pw.print('\t');
-				if(!this.use_only_sample_name) {
-					pw.print(pair.sample1.getLabel().equals(pair.sample2.getLabel())?1:0);
+					if(!this.use_only_sample_name) {
+						pw.print(pair.sample1.getLabel().equals(pair.sample2.getLabel())?1:0);
+						pw.print('\t');
+						}
+					pw.print(sampleAlleles.reads_sample1_supporting_sample1);
+					pw.print('\t');
+					pw.print(sampleAlleles.reads_sample1_supporting_sample2);
+					pw.print('\t');
+					pw.print(sampleAlleles.reads_sample1_supporting_other);
+					pw.print('\t');
+					pw.print(sampleAlleles.reads_sample2_supporting_sample2);
+					pw.print('\t');
+					pw.print(sampleAlleles.reads_sample2_supporting_sample1);
+					pw.print('\t');
+					pw.print(sampleAlleles.reads_sample2_supporting_other);
+					pw.print('\t');
+					final double fraction = sampleAlleles.getFraction();
+					pw.print(fraction);
+					pw.print('\t');
+					pw.print(this.passFractionTreshold.test(fraction)?".":"*");
 					pw.print('\t');
+					pw.print(sampleAlleles.number_of_comparaisons);
+					pw.println();
+					somethingPrinted=true;
 					}
-				pw.print(sampleAlleles.reads_sample1_supporting_sample1);
-				pw.print('\t');
-				pw.print(sampleAlleles.reads_sample1_supporting_sample2);
-				pw.print('\t');
-				pw.print(sampleAlleles.reads_sample1_supporting_other);
-				pw.print('\t');
-				pw.print(sampleAlleles.reads_sample2_supporting_sample2);
-				pw.print('\t');
-				pw.print(sampleAlleles.reads_sample2_supporting_sample1);
-				pw.print('\t');
-				pw.print(sampleAlleles.reads_sample2_supporting_other);
-				pw.print('\t');
-				final double fraction = sampleAlleles.getFraction();
-				pw.print(fraction);
-				pw.print('\t');
-				pw.print(this.passFractionTreshold.test(fraction)?".":"*");
-				pw.print('\t');
-				pw.print(sampleAlleles.number_of_comparaisons);
-				pw.println();
-				somethingPrinted=true;				
 				}
 			pw.flush();
 			pw.close();
@@ -528,6 +953,13 @@ public class XContaminations extends Launcher
 			}
 		}
 	
+	/** sum of the matrices of the workers */
+	private ContaminationMatrix snapshot(final List<Worker> workers) {
+		final ContaminationMatrix snapshot = new ContaminationMatrix();
+		for(final Worker w:workers) w.copyTo(snapshot);
+		return snapshot;
+		}
+	
 	@Override
 	public int doWork(final List<String> args) {
 		long last_save_ms = System.currentTimeMillis();
@@ -541,6 +973,11 @@ public class XContaminations extends Launcher
 			LOG.error("Illegal Number of args");
 			return -1;
 			}
+		if(this.nThreads<1 || this.batch_size<1)
+			{
+			LOG.error("bad number of threads or bad batch size");
+			return -1;
+			}
 		final Set<File> bamFiles = IOUtils.unrollFiles(args.subList(1, args.size())).
 				stream().map(S->new File(S)).collect(Collectors.toSet());
 			
@@ -550,9 +987,10 @@ public class XContaminations extends Launcher
 			return -1;
 			}	
 		
-		SAMRecordIterator iter=null;
 		VcfIterator in=null;
-		Map<String,SamReader> sample2samReader=new HashMap<>();
+		final Map<String,File> sample2bam = new HashMap<>();
+		final List<Worker> workers = new ArrayList<>();
+		ExecutorService executor = null;
 		VariantContextWriter vcfw = null;
 		try {
 			final SamReaderFactory srf= super.createSamReaderFactory();
@@ -565,7 +1003,7 @@ public class XContaminations extends Launcher
 				{
 				in = super.openVcfIterator(args.get(0));
 				}
-			
+			this.vcfSource = args.get(0);
 			
 			VCFHeader vcfHeader=in.getHeader();
 			final SAMSequenceDictionary dict1=vcfHeader.getSequenceDictionary();
@@ -608,6 +1046,7 @@ public class XContaminations extends Launcher
 					LOG.error("sam is not indexed : "+bamFile);
 					return -1;
 					}
+				samReader.close();
 				String sampleName=null;
 				for(final SAMReadGroupRecord rgr:samHeader.getReadGroups())
 					{
@@ -619,45 +1058,44 @@ public class XContaminations extends Launcher
 						}
 					else if(!sampleName.equals(s))
 						{
-						samReader.close();
 						LOG.error("Cannot handle more than one sample/bam  "+bamFile+" "+sampleName);
 						return -1;
 						}
 					}
 				if(sampleName==null)
 					{
-					samReader.close();
 					LOG.error("No sample in "+bamFile);
 					continue;//skip this bam
 					}
 				if(!sampleNames.contains(sampleName))
 					{
-					samReader.close();
 					LOG.error("Not in VCF header: sample "+sampleName+" "+bamFile);
 					continue;//skip this bam
 					}
-				if(sample2samReader.containsKey(sampleName))
+				if(sample2bam.containsKey(sampleName))
 					{
-					samReader.close();
 					LOG.error("Cannot handle more than one bam/sample: "+bamFile+" "+sampleName);
 					return -1;
 					}
 				
-				sample2samReader.put(sampleName, samReader);
+				sample2bam.put(sampleName, bamFile);
 				}
 			
-			if(sample2samReader.size()<2)
+			if(sample2bam.size()<2)
 				{
 				LOG.error("Not engough BAM/samples. Expected at least two valid BAMs");
 				return -1;
 				}
 			
-			sampleNames.retainAll(sample2samReader.keySet());
+			sampleNames.retainAll(sample2bam.keySet());
 			
+			this.identifierRegistry = new IdentifierRegistry();
+			if(this.use_only_sample_name) {
+				sampleNames.stream().sorted().forEach(S->this.identifierRegistry.getOrdinal(new SimpleSampleIdenfifier(S)));
+				}
 
 			/* create a VCF is VCF output asked */
 			
-			final List<SamplePair> sampleListForVcf;
 			if(this.output_as_vcf)
 				{
 				vcfw = super.openVariantContextWriter(outputFile);
@@ -682,358 +1120,84 @@ public class XContaminations extends Launcher
 				
 				
 				
-				sampleListForVcf = new ArrayList<>();
+				this.sampleListForVcf = new ArrayList<>();
 				final List<String> sampleList=new ArrayList<>(sampleNames);
 				for(int x=0;x+1<sampleList.size();++x) {
 					for(int y=x+1;y<sampleList.size();++y) {
-						sampleListForVcf.add(new SamplePair(new SimpleSampleIdenfifier(sampleList.get(x)),new SimpleSampleIdenfifier(sampleList.get(y))));
+						this.sampleListForVcf.add(new SamplePair(new SimpleSampleIdenfifier(sampleList.get(x)),new SimpleSampleIdenfifier(sampleList.get(y))));
 					}
 				}
 				
-				final VCFHeader header2 = new VCFHeader(metaData, sampleListForVcf.stream().
+				final VCFHeader header2 = new VCFHeader(metaData, this.sampleListForVcf.stream().
 						map(V->V.getLabel()).
 						sorted().collect(Collectors.toList())
 						);
 				header2.setSequenceDictionary(dict1);
 				vcfw.writeHeader(header2);
 				}
-			else
-				{
-				vcfw = null;
-				sampleListForVcf = null;
-				}
 			
-			final Map<SamplePair,SampleAlleles> contaminationTable=new HashMap<>();
+			/* each worker has its own BAM readers and its own matrix */
+			for(int i=0;i< this.nThreads;++i) {
+				workers.add(new Worker(srf, sample2bam, this.identifierRegistry));
+				}
+			final BlockingQueue<Worker> idleWorkers = new LinkedBlockingQueue<>(workers);
+			executor = Executors.newFixedThreadPool(this.nThreads);
+			/* pending batches, in the order of the VCF */
+			final Deque<Future<List<VariantContext>>> pending = new ArrayDeque<>();
+			List<Site> batch = new ArrayList<>(this.batch_size);
 			
 			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(dict1).logger(LOG);
-			while(in.hasNext())
+			for(;;)
 				{
-				final VariantContext ctx= progress.watch(in.next());
-				if(!ctx.isSNP() || ctx.isFiltered() || !ctx.isBiallelic() || ctx.isSymbolic() || !this.variantFilter.test(ctx)) {
-					continue;
-				}
-				
-				int count_homref=0;
-				int count_homvar=0;
-				int count_het=0;
-				
-				final Map<String,Genotype> sample2gt = new HashMap<>();
-				for(int gidx=0;gidx < ctx.getNSamples();++gidx) {
-					final Genotype G = ctx.getGenotype(gidx);
-					if(!G.isCalled()) continue;
-					if(G.isHet())
-						{
-						count_het++;// here because in use_singleton we must be sure that there is only one hom_var
-						if(this.use_singleton && count_het>0) break;
-						}
-					else if(G.isHomVar())
-						{
-						count_homvar++;// here because in use_singleton we must be sure that there is only one hom_var
-						if(this.use_singleton && count_homvar>1) break;
-						}
-					
-					if(G.isFiltered()) continue;
-					if(!sample2samReader.containsKey(G.getSampleName())) continue;
-					if(!sampleNames.contains(G.getSampleName())) continue;
-					if(!this.genotypeFilter.test(ctx, G)) continue;
-					sample2gt.put(G.getSampleName(), G);
-				}
-				if(this.use_singleton && count_het>0) continue;
-				if(this.use_singleton && count_homvar>1) continue;
-				
-				if(sample2gt.size()<2) continue;
-				
-				
-				//reset and recount
-				count_homref =0;
-				count_homvar =0;
-				count_het = 0;
-				for(final String sampleName:sample2gt.keySet()) {
-					final Genotype G = ctx.getGenotype(sampleName);
-					switch(G.getType()) {
-						case HOM_REF :  count_homref++;break;
-						case HOM_VAR :  count_homvar++;break;
-						case HET :  count_het++;break;
-						default:break;
-						}
-					}
-				
-				
-								
-				// singleton check
-				if(this.use_singleton && ( count_het>0 || count_homvar!=1 ))
+				final VariantContext ctx= (in.hasNext()?progress.watch(in.next()):null);
+				if(ctx!=null)
 					{
-					continue;
+					final Map<String,Genotype> sample2gt = selectGenotypes(ctx, sampleNames);
+					if(sample2gt==null) continue;
+					batch.add(new Site(ctx, sample2gt));
+					if(batch.size() < this.batch_size) continue;
 					}
-				//at least one HOM_REF and one HOM_VAR
-				if(count_homref==0) continue;
-				if(count_homvar==0) continue;
-				
-						
-				final Map<SampleIdentifier,Counter<Character>> sample_identifier_2allelesCount=new HashMap<>();
 				
-				/* scan Reads for those Genotype/Samples */
-				for(final String sampleName: sample2gt.keySet())
-					{
-					if(!sample2samReader.containsKey(sampleName)) continue;
-					//sample name is not in vcf header
-					final SamReader samReader = sample2samReader.get(sampleName);
-					if(samReader==null) continue;
-					
-					final Genotype genotype = sample2gt.get(sampleName);
-					if(genotype==null) continue;
-					
-					iter = samReader.query(
-							ctx.getContig(),
-							ctx.getStart(),
-							ctx.getEnd(),
-							false
-							);
-					while(iter.hasNext())
-						{
-						final SAMRecord record= iter.next();
-						if(record.getEnd()< ctx.getStart()) continue;
-						if(ctx.getEnd()< record.getStart()) continue;
-						
-						if(record.getReadUnmappedFlag()) continue;
-						if(this.filter.filterOut(record)) continue;
-					
-						
-						final SAMReadGroupRecord srgr = record.getReadGroup();
-						//not current sample
-						if(srgr==null) continue;
-						if(!sampleName.equals(srgr.getSample())) continue;
-						
-						final Cigar cigar=record.getCigar();
-						if(cigar==null || cigar.isEmpty()) continue;
-						byte readSeq[]=record.getReadBases();
-						if(readSeq==null || readSeq.length==0) continue;
-						
-						int readPos = record.getReadPositionAtReferencePosition(ctx.getStart());
-						if(readPos<1) continue;
-						readPos--;
-						if(readPos>=readSeq.length) continue;
-						final char base = Character.toUpperCase((char)readSeq[readPos]);
-						
-						if(base=='N') continue;
-						
-						
-						final SampleIdentifier sampleIdentifier;
-						if(this.use_only_sample_name)
-							{
-							sampleIdentifier = new SimpleSampleIdenfifier(sampleName);
-							}
-						else
-							{
-							final ShortReadName readName = ShortReadName.parse(record);
-							if(!readName.isValid())
-								{
-								LOG.info("No a valid read name "+record.getReadName());
-								continue;
-								}
-							sampleIdentifier = new SequencerFlowCellRunLaneSample(readName, sampleName);
+				if(!batch.isEmpty()) {
+					final List<Site> sites = batch;
+					batch = new ArrayList<>(this.batch_size);
+					pending.add(executor.submit(()->{
+						final Worker worker = idleWorkers.take();
+						try {
+							return worker.run(sites);
 							}
-
-						
-						Counter<Character> sampleAlleles= sample_identifier_2allelesCount.get(sampleIdentifier);
-						if(sampleAlleles==null)
+						finally
 							{
-							sampleAlleles=new Counter<Character>();
-							sample_identifier_2allelesCount.put(sampleIdentifier, sampleAlleles);
+							idleWorkers.put(worker);
 							}
-						sampleAlleles.incr(base);
-						}
-					iter.close();
-					iter=null;
-					}/* end scan reads for this sample */
-				
-				
-			
-				
-				/* sum-up data for this SNP */
-				final VariantContextBuilder vcb;
-				final List<Genotype> genotypeList;
-				
-				if(this.output_as_vcf)
-					{
-					vcb = new VariantContextBuilder(args.get(0), ctx.getContig(), ctx.getStart(), ctx.getEnd(), ctx.getAlleles());
-					if(ctx.hasID()) vcb.id(ctx.getID());
-					genotypeList= new ArrayList<>();
+						}));
 					}
-				else
-					{
-					vcb = null;
-					genotypeList = null;
-					}
-				
 				
-				for(final String sample1: sample2gt.keySet())
+				/* write the finished batches, in order */
+				while(!pending.isEmpty() && (ctx==null || pending.size() > 2*this.nThreads || pending.peekFirst().isDone()))
 					{
-					final Genotype g1= sample2gt.get(sample1);
-					final char a1 = g1.getAllele(0).getBaseString().charAt(0);
-					
-					
-					for(final String sample2:  sample2gt.keySet())
-						{
-						if(sample1.compareTo(sample2)>=0) continue;
-						final Genotype g2= sample2gt.get(sample2);
-						if(g2.sameGenotype(g1)) continue;
-						final char a2 =  g2.getAllele(0).getBaseString().charAt(0);
-						
-						for(final SampleIdentifier sfcr1: sample_identifier_2allelesCount.keySet())
-							{
-							if(!sfcr1.getSampleName().equals(sample1)) continue;
-							final Counter<Character> counter1 =  sample_identifier_2allelesCount.get(sfcr1);
-							if(counter1==null) continue;
-
-							
-							for(final SampleIdentifier sfcr2: sample_identifier_2allelesCount.keySet())
-								{
-								if(!sfcr2.getSampleName().equals(sample2)) continue;
-								
-								final SamplePair samplePair = new SamplePair(sfcr1, sfcr2);
-								
-								final Counter<Character> counter2 =  sample_identifier_2allelesCount.get(sfcr2);
-								if(counter2==null) continue;
-								
-								
-								SampleAlleles sampleAlleles = contaminationTable.get(samplePair);
-								if(sampleAlleles==null)
-									{
-									sampleAlleles=new SampleAlleles();
-									contaminationTable.put(samplePair,sampleAlleles);
-									if(!this.output_as_vcf && contaminationTable.size()%10000==0) LOG.info("n(pairs)=" + contaminationTable.size() ); 
-									}
-
-								sampleAlleles.number_of_comparaisons++;
-								
-								for(final Character allele: counter1.keySet())
-									{
-									final long n = counter1.count(allele);
-									if(allele.equals(a1))
-										{
-										sampleAlleles.reads_sample1_supporting_sample1 += n;
-										}
-									else if(allele.equals(a2))
-										{
-										sampleAlleles.reads_sample1_supporting_sample2 += n;
-										}
-									else
-										{
-										sampleAlleles.reads_sample1_supporting_other += n;
-										}
-									}
-								
-								for(final Character allele: counter2.keySet())
-									{
-									final long n = counter2.count(allele);
-									if(allele.equals(a2))
-										{
-										sampleAlleles.reads_sample2_supporting_sample2 += n;
-										}
-									else if(allele.equals(a1))
-										{
-										sampleAlleles.reads_sample2_supporting_sample1 += n;
-										}
-									else
-										{
-										sampleAlleles.reads_sample2_supporting_other += n;
-										}
-									}
-								}
-							}
-						}
+					final List<VariantContext> variants = pending.pollFirst().get();
+					if(vcfw!=null) variants.forEach(vcfw::add);
 					}
+				if(ctx==null) break;
 				
-				if(this.output_as_vcf) 
-					{
-					final Set<String> bad_samples=new TreeSet<>();
-					boolean fraction_flag=false;
-					int num_lt=0;
-					for(final SamplePair samplepair :sampleListForVcf)
-						{
-						final GenotypeBuilder gb = new GenotypeBuilder(samplepair.getLabel());
-						final SampleAlleles sampleAlleles = contaminationTable.get(samplepair);
-						if(sampleAlleles != null)
-							{
-							gb.attribute("S1S1", sampleAlleles.reads_sample1_supporting_sample1);
-							gb.attribute("S1S2", sampleAlleles.reads_sample1_supporting_sample2);
-							gb.attribute("S1SO", sampleAlleles.reads_sample1_supporting_other);
-							gb.attribute("S2S1", sampleAlleles.reads_sample2_supporting_sample1);
-							gb.attribute("S2S2", sampleAlleles.reads_sample2_supporting_sample2);
-							gb.attribute("S2SO", sampleAlleles.reads_sample2_supporting_other);
-							gb.attribute("S1A",sample2gt.get(samplepair.sample1.getSampleName()).getAllele(0).getDisplayString().charAt(0));
-							gb.attribute("S2A",sample2gt.get(samplepair.sample2.getSampleName()).getAllele(0).getDisplayString().charAt(0));
-							final double fraction = sampleAlleles.getFraction();
-							gb.attribute("FR", fraction);
-							if(!this.passFractionTreshold.test(fraction)) {
-								fraction_flag=true;
-								}
-							
-							boolean bad_lt_flag=false;
-							if( sampleAlleles.reads_sample1_supporting_sample1 <= this.fail_factor*sampleAlleles.reads_sample1_supporting_sample2)
-								{
-								bad_samples.add(samplepair.sample1.getSampleName());
-								bad_lt_flag = true;
-								}
-							if(sampleAlleles.reads_sample2_supporting_sample2 <= this.fail_factor*sampleAlleles.reads_sample2_supporting_sample1) {
-								bad_samples.add(samplepair.sample2.getSampleName());
-								bad_lt_flag = true;
-								}
-							
-							if(bad_lt_flag)
-								{
-								num_lt++;
-								}
-							}
-						else
-							{
-							gb.attribute("S1S1", -1);
-							gb.attribute("S1S2", -1);
-							gb.attribute("S1SO", -1);
-							gb.attribute("S2S1", -1);
-							gb.attribute("S2S2", -1);
-							gb.attribute("S2SO", -1);
-							gb.attribute("S1A",'.');
-							gb.attribute("S2A",'.');
-
-							gb.attribute("FR", -1f);
-							}
-						genotypeList.add(gb.make());
-						}
-					if(!bad_samples.isEmpty())
-						{
-						vcb.attribute("BADSAMPLES", new ArrayList<>(bad_samples));
-						}
-					vcb.attribute("LE", num_lt);
-					if(fraction_flag || !bad_samples.isEmpty()) 
-						{
-						if(fraction_flag) vcb.filter("XCONTAMINATION");
-						if(!bad_samples.isEmpty()) vcb.filter("BADSAMPLES");
-						}
-					else
-						{
-						vcb.passFilters();
-						}
-					vcb.genotypes(genotypeList);
-					vcfw.add(vcb.make());
-					
-					contaminationTable.clear();
-					}
-				else
+				if(!this.output_as_vcf)
 					{
 					final long now=System.currentTimeMillis();
 					if(	this.outputFile!=null && 
 						this.save_every_sec>-1L && 
-						last_save_ms+(this.save_every_sec*1000L)> now
+						last_save_ms+(this.save_every_sec*1000L) <= now
 						) {
-						saveToFile(contaminationTable);
+						saveToFile(snapshot(workers));
 						last_save_ms = now;
 						}
 					}
 				}
 			progress.finish();
-						
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+			executor = null;
+			
 			if(this.output_as_vcf)
 				{
 				vcfw.close();
@@ -1041,7 +1205,7 @@ public class XContaminations extends Launcher
 				}
 			else
 				{
-				saveToFile(contaminationTable);
+				saveToFile(snapshot(workers));
 				}
 			return 0;
 			}
@@ -1051,15 +1215,74 @@ public class XContaminations extends Launcher
 			}
 		finally
 			{
+			if(executor!=null) executor.shutdownNow();
 			CloserUtil.close(vcfw);			
 			CloserUtil.close(in);
-			CloserUtil.close(iter);
-			for(SamReader samReader:sample2samReader.values())
-				CloserUtil.close(samReader);
-			sample2samReader.clear();
+			workers.forEach(W->W.close());
 			}
 		
 		}
+	
+	/** @return the genotypes that should be compared for this variant, or null if the variant should be ignored */
+	private Map<String,Genotype> selectGenotypes(final VariantContext ctx,final Set<String> sampleNames) {
+		if(!ctx.isSNP() || ctx.isFiltered() || !ctx.isBiallelic() || ctx.isSymbolic() || !this.variantFilter.test(ctx)) {
+			return null;
+		}
+		
+		int count_homref=0;
+		int count_homvar=0;
+		int count_het=0;
+		
+		final Map<String,Genotype> sample2gt = new HashMap<>();
+		for(int gidx=0;gidx < ctx.getNSamples();++gidx) {
+			final Genotype G = ctx.getGenotype(gidx);
+			if(!G.isCalled()) continue;
+			if(G.isHet())
+				{
+				count_het++;// here because in use_singleton we must be sure that there is only one hom_var
+				if(this.use_singleton && count_het>0) break;
+				}
+			else if(G.isHomVar())
+				{
+				count_homvar++;// here because in use_singleton we must be sure that there is only one hom_var
+				if(this.use_singleton && count_homvar>1) break;
+				}
+			
+			if(G.isFiltered()) continue;
+			if(!sampleNames.contains(G.getSampleName())) continue;
+			if(!this.genotypeFilter.test(ctx, G)) continue;
+			sample2gt.put(G.getSampleName(), G);
+		}
+		if(this.use_singleton && count_het>0) return null;
+		if(this.use_singleton && count_homvar>1) return null;
+		
+		if(sample2gt.size()<2) return null;
+		
+		
+		//reset and recount
+		count_homref =0;
+		count_homvar =0;
+		count_het = 0;
+		for(final String sampleName:sample2gt.keySet()) {
+			final Genotype G = ctx.getGenotype(sampleName);
+			switch(G.getType()) {
+				case HOM_REF :  count_homref++;break;
+				case HOM_VAR :  count_homvar++;break;
+				case HET :  count_het++;break;
+				default:break;
+				}
+			}
+		
+		// singleton check
+		if(this.use_singleton && ( count_het>0 || count_homvar!=1 ))
+			{
+			return null;
+			}
+		//at least one HOM_REF and one HOM_VAR
+		if(count_homref==0) return null;
+		if(count_homvar==0) return null;
+		return sample2gt;
+		}
 
 	
 	
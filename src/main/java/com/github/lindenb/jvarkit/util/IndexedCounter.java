@@ -0,0 +1,107 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util;
+
+import java.util.Arrays;
+
+/**
+ * A counter of primitive longs indexed by an integer (an ordinal, the index of a range, the index of a contig...).
+ * The array grows on demand. Two counters can be merged.
+ */
+public class IndexedCounter
+	{
+	private long counts[];
+	private long total = 0L;
+	
+	public IndexedCounter()
+		{
+		this(10);
+		}
+	
+	public IndexedCounter(final int capacity)
+		{
+		this.counts = new long[Math.max(1, capacity)];
+		}
+	
+	private void ensureCapacity(final int index)
+		{
+		if(index < this.counts.length) return;
+		this.counts = Arrays.copyOf(this.counts, Math.max(index+1, this.counts.length*2));
+		}
+	
+	public long incr(final int index)
+		{
+		return incr(index,1L);
+		}
+	
+	public long incr(final int index,final long n)
+		{
+		if(index<0) throw new IndexOutOfBoundsException("index<0 : "+index);
+		ensureCapacity(index);
+		this.total += n;
+		return (this.counts[index] += n);
+		}
+	
+	public long count(final int index)
+		{
+		if(index<0 || index >= this.counts.length) return 0L;
+		return this.counts[index];
+		}
+	
+	/** @return one plus the highest index that can be non-zero */
+	public int size()
+		{
+		return this.counts.length;
+		}
+	
+	public long getTotal()
+		{
+		return this.total;
+		}
+	
+	/** @return true if nothing was counted */
+	public boolean isEmpty()
+		{
+		return this.total==0L;
+		}
+	
+	/** add the counts of 'other' to this counter */
+	public IndexedCounter merge(final IndexedCounter other)
+		{
+		if(other.counts.length > this.counts.length) ensureCapacity(other.counts.length-1);
+		for(int i=0;i< other.counts.length;++i)
+			{
+			this.counts[i] += other.counts[i];
+			}
+		this.total += other.total;
+		return this;
+		}
+	
+	@Override
+	public String toString()
+		{
+		return Arrays.toString(this.counts);
+		}
+	}
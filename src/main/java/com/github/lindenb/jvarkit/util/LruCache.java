@@ -0,0 +1,130 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A thread-safe, size-bounded, least-recently-used cache.
+ * The number of hits and misses is recorded.
+ * A cache with a maximum size of 0 never keeps anything.
+ */
+public class LruCache<K,V>
+	{
+	private final int maxSize;
+	private final LinkedHashMap<K,V> map;
+	private Consumer<V> onEvict = V->{};
+	private long hits = 0L;
+	private long misses = 0L;
+	
+	public LruCache(final int maxSize)
+		{
+		if(maxSize<0) throw new IllegalArgumentException("maxSize<0: "+maxSize);
+		this.maxSize = maxSize;
+		this.map = new LinkedHashMap<K,V>(16,0.75f,true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+				if(size() <= LruCache.this.maxSize) return false;
+				LruCache.this.onEvict.accept(eldest.getValue());
+				return true;
+				}
+			};
+		}
+	
+	/** set a callback invoked when a value is removed from the cache, e.g. to close a resource */
+	public LruCache<K,V> setOnEvict(final Consumer<V> onEvict)
+		{
+		this.onEvict = (onEvict==null? V->{} : onEvict);
+		return this;
+		}
+	
+	public int getMaxSize()
+		{
+		return this.maxSize;
+		}
+	
+	/** get a value, or null. Record a hit or a miss. */
+	public synchronized V get(final K key)
+		{
+		final V v = this.map.get(key);
+		if(v==null)
+			{
+			this.misses++;
+			}
+		else
+			{
+			this.hits++;
+			}
+		return v;
+		}
+	
+	public synchronized void put(final K key,final V value)
+		{
+		if(this.maxSize==0) {
+			this.onEvict.accept(value);
+			return;
+			}
+		final V old = this.map.put(key, value);
+		if(old!=null && old!=value) this.onEvict.accept(old);
+		}
+	
+	/** remove all the values */
+	public synchronized void clear()
+		{
+		for(final V v: this.map.values()) this.onEvict.accept(v);
+		this.map.clear();
+		}
+	
+	public synchronized int size()
+		{
+		return this.map.size();
+		}
+	
+	public synchronized long getHitCount()
+		{
+		return this.hits;
+		}
+	
+	public synchronized long getMissCount()
+		{
+		return this.misses;
+		}
+	
+	/** fraction of the calls to get() that returned a value */
+	public synchronized double getHitRate()
+		{
+		final long n = this.hits + this.misses;
+		return n==0L ? 0.0 : this.hits/(double)n;
+		}
+	
+	@Override
+	public synchronized String toString()
+		{
+		return "LruCache(size:"+this.map.size()+"/"+this.maxSize+" hits:"+this.hits+" misses:"+this.misses+")";
+		}
+	}
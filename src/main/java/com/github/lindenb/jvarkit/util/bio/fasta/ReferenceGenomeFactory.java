@@ -49,7 +49,6 @@ import com.github.lindenb.jvarkit.util.log.Logger;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.reference.IndexedFastaSequenceFile;
-import htsjdk.samtools.reference.ReferenceSequence;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.RuntimeIOException;
@@ -66,7 +65,8 @@ public static final String OPT_DESCRIPTION_FILE_ONLY="Indexed Genome Reference.
 	
 public static final String OPT_DESCRIPTION="Indexed Genome Reference. "+
 			"It can be a the path to fasta file that must be indexed with samtools faidx and with picard CreateSequenceDictionary."
-			+ " It can also be a BioDAS dsn url like `http://genome.cse.ucsc.edu/cgi-bin/das/hg19/` . BioDAS references are slower, but allow to work without a local reference file.";
+			+ " It can also be a BioDAS dsn url like `http://genome.cse.ucsc.edu/cgi-bin/das/hg19/` . BioDAS references are slower, but allow to work without a local reference file."
+			+ " [20181016] It can also be a UCSC '.2bit' file (see fasta2twobit or UCSC faToTwoBit), the 2bit file is memory-mapped and is faster for random access.";
 
 /** jcommander stuff */
 @Override
@@ -271,6 +271,27 @@ private static class GCPercentImpl implements ReferenceContig.GCPercent
 		this.start1=s1;
 		this.end1=e1;
 		}
+	/** count the bases of 'contig' between start (0-based, inclusive) and end (exclusive) */
+	static GCPercentImpl compute(final ReferenceContig contig,final int start,final int end) {
+		final int L=contig.length();
+		final GCPercentImpl gcp = new GCPercentImpl(
+				contig.getContig(),
+				start+1,
+				Math.min(end, L)
+				);
+		for(int i=start;i< end && i< L;++i) {
+			gcp.count++;
+			switch(contig.charAt(i)) {
+				case 'c': case 'C':
+				case 'g': case 'G':
+				case 's': case 'S':gcp.count_gc++; break;
+				case 'a': case 'A':
+				case 't': case 'T':
+				case 'w': case 'W':gcp.count_at++; break;
+				}
+			}
+		return gcp;
+		}
 	@Override public int getAllCount() { return this.count;}
 	@Override public int getGCCount() { return this.count_gc;}
 	@Override public int getATCount(){ return this.count_at;}
@@ -387,24 +408,7 @@ private abstract class AbstractReferenceContigImpl
 	
 	@Override
 	public GCPercent getGCPercent(final int start,final int end) {
-		final int L=this.length();
-		final GCPercentImpl gcp = new GCPercentImpl(
-				this.getContig(),
-				start+1,
-				Math.min(end, L)
-				);
-		for(int i=start;i< end && i< L;++i) {
-			gcp.count++;
-			switch(this.charAt(i)) {
-				case 'c': case 'C':
-				case 'g': case 'G':
-				case 's': case 'S':gcp.count_gc++; break;
-				case 'a': case 'A':
-				case 't': case 'T':
-				case 'w': case 'W':gcp.count_at++; break;
-				}
-			}
-		return gcp;
+		return GCPercentImpl.compute(this, start, end);
 		}
 	}
 	
@@ -414,12 +418,8 @@ private  class ReferenceGenomeImpl
 	private  class ReferenceContigImpl
 		extends AbstractReferenceContigImpl
 		{
-		final ReferenceSequence referenceSequence;
-
 		ReferenceContigImpl(final SAMSequenceRecord ssr) {
 			super(ReferenceGenomeImpl.this,ssr);
-			this.referenceSequence  = ReferenceGenomeImpl.this.indexedFastaSequenceFile.getSequence(ssr.getSequenceName());
-			if(this.referenceSequence==null) throw new IllegalStateException();
 			}
 
 		@Override
@@ -466,6 +466,74 @@ private  class ReferenceGenomeImpl
 
 
 
+/** memory-mapped UCSC 2bit reference */
+private class TwoBitGenomeImpl
+	extends AbstractReferenceGenome
+	{
+	private class TwoBitContigImpl
+		extends AbstractCharSequence
+		implements ReferenceContig
+		{
+		private final SAMSequenceRecord ssr;
+		private final TwoBitSequenceFile.TwoBitContig sequence;
+		TwoBitContigImpl(final SAMSequenceRecord ssr) {
+			this.ssr = ssr;
+			try {
+				this.sequence = TwoBitGenomeImpl.this.twoBitFile.getContig(ssr.getSequenceIndex());
+				}
+			catch(final IOException err) {
+				throw new RuntimeIOException(err);
+				}
+			}
+		@Override
+		public boolean hasName(final String name) {
+			if(this.getContig().equals(name)) return true;
+			return TwoBitGenomeImpl.this.getDictionary().getSequence(name)==this.ssr;
+			}
+		@Override
+		public SAMSequenceRecord getSAMSequenceRecord() {
+			return this.ssr;
+			}
+		@Override
+		public char charAt(final int index0) {
+			if(index0<0 || index0 >= length())
+				{
+				if(ReferenceGenomeFactory.this.isReturnBaseNOnIndexOutOfRange()) {
+					if(isDebug()) LOG.debug("index out of range "+index0);
+					return 'N';
+					}
+				throw new IndexOutOfBoundsException("index:"+index0);
+				}
+			return this.sequence.charAt(index0);
+			}
+		@Override
+		public GCPercent getGCPercent(final int start,final int end) {
+			return GCPercentImpl.compute(this, start, end);
+			}
+		}
+	
+	private final TwoBitSequenceFile twoBitFile;
+	TwoBitGenomeImpl(final File file) throws IOException
+		{
+		this.twoBitFile = new TwoBitSequenceFile(file);
+		super.dictionary = this.twoBitFile.getSequenceDictionary();
+		if(!ReferenceGenomeFactory.this.isDisableDefaultAliases()) {
+			ContigNameConverter.setDefaultAliases(super.dictionary);
+			}
+		}
+	@Override
+	public String getSource() {
+		return this.twoBitFile.getFile().toString();
+		}
+	@Override
+	protected ReferenceContig create(final SAMSequenceRecord ssr) {
+		return new TwoBitContigImpl(ssr);
+		}
+	@Override
+	public void close() throws IOException {
+		this.twoBitFile.close();
+		}
+	}
 
 private class DasGenomeImpl extends AbstractReferenceGenome
 	{
@@ -607,10 +675,9 @@ private class DasGenomeImpl extends AbstractReferenceGenome
 public ReferenceGenome open(final String ref) throws IOException
 	{
 	if(StringUtil.isBlank(ref)) throw new IllegalArgumentException("null/empty arg");
-	return (IOUtil.isUrl(ref))?
-		openDAS(new URL(ref)):
-		openFastaFile(new File(ref))
-		;
+	if(IOUtil.isUrl(ref)) return openDAS(new URL(ref));
+	if(ref.endsWith(TwoBitSequenceFile.SUFFIX)) return openTwoBitFile(new File(ref));
+	return openFastaFile(new File(ref));
 	}
 /** open a FASTA reference */
 public ReferenceGenome openFastaFile(final File fastaFile) throws IOException
@@ -618,6 +685,12 @@ public ReferenceGenome openFastaFile(final File fastaFile) throws IOException
 	return new ReferenceGenomeImpl(fastaFile);
 	}
 
+/** open a UCSC 2bit reference */
+public ReferenceGenome openTwoBitFile(final File twoBitFile) throws IOException
+	{
+	return new TwoBitGenomeImpl(twoBitFile);
+	}
+
 /** open a DAS URL */
 public ReferenceGenome openDAS(final URL dasUrl) throws IOException
 	{
@@ -0,0 +1,402 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.bio.fasta;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+import com.github.lindenb.jvarkit.lang.AbstractCharSequence;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.util.IOUtil;
+
+/**
+ * Reader/Writer for the UCSC '.2bit' format.
+ * 
+ * The packed DNA of each contig is memory-mapped the first time the contig is requested
+ * and the contigs are shared between the threads: `charAt` is a lookup in the mapped
+ * buffer and in the sorted N-blocks and mask-blocks, it doesn't allocate anything.
+ * 
+ * Files produced by UCSC `faToTwoBit` can be read, files produced by `write` can be
+ * read by the UCSC tools. Bases other than ACGT are stored as 'N', lowercase bases
+ * are restored using the mask blocks.
+ *
+ * See http://genome.ucsc.edu/FAQ/FAQformat.html#format7
+ */
+public class TwoBitSequenceFile implements Closeable {
+	public static final String SUFFIX = ".2bit";
+	/** file signature */
+	public static final int SIGNATURE = 0x1A412743;
+	/** 2 bits code to base */
+	private static final char CODE2BASE[]= {'T','C','A','G'};
+	/** size of header */
+	private static final int HEADER_SIZE = 16;
+	/** version 0 uses 32-bits offsets, we switch to version 1 (64 bits) for larger files */
+	private static final long MAX_PACKED_SIZE_V0 = 3_500_000_000L;
+	
+	private final File file;
+	private final FileChannel channel;
+	private final ByteOrder byteOrder;
+	private final SAMSequenceDictionary dictionary;
+	/** offset of each sequence record, indexed by tid */
+	private final long offsets[];
+	/** loaded contigs, indexed by tid */
+	private final TwoBitContig contigs[];
+	
+	/** a contig of a 2bit file */
+	public static class TwoBitContig extends AbstractCharSequence
+		{
+		private final SAMSequenceRecord ssr;
+		private final int length;
+		private final ByteBuffer packedDna;
+		/** sorted starts/ends (exclusive) of N blocks */
+		private final int nStarts[];
+		private final int nEnds[];
+		/** sorted starts/ends (exclusive) of lowercase blocks */
+		private final int maskStarts[];
+		private final int maskEnds[];
+		
+		private TwoBitContig(
+				final SAMSequenceRecord ssr,
+				final ByteBuffer packedDna,
+				final int nStarts[],final int nEnds[],
+				final int maskStarts[],final int maskEnds[]) {
+			this.ssr = ssr;
+			this.length = ssr.getSequenceLength();
+			this.packedDna = packedDna;
+			this.nStarts = nStarts;
+			this.nEnds = nEnds;
+			this.maskStarts = maskStarts;
+			this.maskEnds = maskEnds;
+			}
+		
+		public SAMSequenceRecord getSAMSequenceRecord() {
+			return this.ssr;
+			}
+		
+		public String getSequenceName() {
+			return this.ssr.getSequenceName();
+			}
+		
+		@Override
+		public int length() {
+			return this.length;
+			}
+		
+		private static boolean inBlock(final int starts[],final int ends[],final int pos0)
+			{
+			if(starts.length==0) return false;
+			int i = Arrays.binarySearch(starts, pos0);
+			if(i>=0) return true;
+			i = -(i+1) - 1;
+			return i>=0 && pos0 < ends[i];
+			}
+		
+		@Override
+		public char charAt(final int pos0) {
+			if(pos0<0 || pos0>=this.length) throw new IndexOutOfBoundsException("index:"+pos0+" length:"+this.length);
+			if(inBlock(this.nStarts,this.nEnds,pos0)) {
+				return inBlock(this.maskStarts,this.maskEnds,pos0)?'n':'N';
+				}
+			final int b = this.packedDna.get(pos0>>2);
+			final char c = CODE2BASE[(b>>>(6-((pos0&3)<<1)))&3];
+			return inBlock(this.maskStarts,this.maskEnds,pos0)?Character.toLowerCase(c):c;
+			}
+		
+		@Override
+		public String toString() {
+			return getSequenceName()+"(length:"+this.length+")";
+			}
+		}
+	
+	/** open a 2bit file */
+	public TwoBitSequenceFile(final File file) throws IOException {
+		IOUtil.assertFileIsReadable(file);
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		boolean ok = false;
+		try {
+			ByteBuffer bb = read(0L,HEADER_SIZE,ByteOrder.BIG_ENDIAN);
+			final int sig = bb.getInt();
+			if(sig==SIGNATURE) {
+				this.byteOrder = ByteOrder.BIG_ENDIAN;
+				}
+			else if(Integer.reverseBytes(sig)==SIGNATURE) {
+				this.byteOrder = ByteOrder.LITTLE_ENDIAN;
+				}
+			else
+				{
+				throw new IOException("Not a 2bit file (bad signature) "+file);
+				}
+			bb.order(this.byteOrder);
+			final int version = bb.getInt();
+			if(version!=0 && version!=1) throw new IOException("Unsupported 2bit version "+version+" in "+file);
+			final int seqCount = bb.getInt();
+			if(seqCount<0) throw new IOException("Bad number of sequences in "+file);
+			
+			this.offsets = new long[seqCount];
+			final List<SAMSequenceRecord> ssrs = new ArrayList<>(seqCount);
+			long pos = HEADER_SIZE;
+			for(int i=0;i< seqCount;++i)
+				{
+				bb = read(pos,1,this.byteOrder);
+				final int nameSize = bb.get() & 0xFF;
+				pos++;
+				final byte name[] = new byte[nameSize];
+				read(pos,nameSize,this.byteOrder).get(name);
+				pos+=nameSize;
+				if(version==0) {
+					this.offsets[i] = read(pos,4,this.byteOrder).getInt() & 0xFFFFFFFFL;
+					pos+=4;
+					}
+				else
+					{
+					this.offsets[i] = read(pos,8,this.byteOrder).getLong();
+					pos+=8;
+					}
+				final long dnaSize = read(this.offsets[i],4,this.byteOrder).getInt() & 0xFFFFFFFFL;
+				if(dnaSize> Integer.MAX_VALUE) throw new IOException("contig too large ("+dnaSize+") in "+file);
+				ssrs.add(new SAMSequenceRecord(new String(name,"US-ASCII"),(int)dnaSize));
+				}
+			this.dictionary = new SAMSequenceDictionary(ssrs);
+			this.contigs = new TwoBitContig[seqCount];
+			ok = true;
+			}
+		finally
+			{
+			if(!ok) this.channel.close();
+			}
+		}
+	
+	/** positional read, thread safe */
+	private ByteBuffer read(final long pos,final int len,final ByteOrder order) throws IOException {
+		final ByteBuffer bb = ByteBuffer.allocate(len);
+		while(bb.hasRemaining()) {
+			if(this.channel.read(bb, pos+bb.position())<0) throw new IOException("Unexpected end of file "+this.file);
+			}
+		bb.flip();
+		bb.order(order);
+		return bb;
+		}
+	
+	private int[] readInts(final long pos,final int n) throws IOException {
+		final int array[] = new int[n];
+		if(n>0) read(pos,n*4,this.byteOrder).asIntBuffer().get(array);
+		return array;
+		}
+	
+	public File getFile() {
+		return this.file;
+		}
+	
+	/** dictionary built from the names and the lengths of the sequences */
+	public SAMSequenceDictionary getSequenceDictionary() {
+		return this.dictionary;
+		}
+	
+	/** returns the contig or null if it is not in the dictionary */
+	public TwoBitContig getContig(final String contig) throws IOException {
+		final SAMSequenceRecord ssr = this.dictionary.getSequence(contig);
+		if(ssr==null) return null;
+		return getContig(ssr.getSequenceIndex());
+		}
+	
+	/** returns the contig for the given tid. The contig is memory-mapped once and shared between the threads */
+	public synchronized TwoBitContig getContig(final int tid) throws IOException {
+		if(this.contigs[tid]!=null) return this.contigs[tid];
+		final SAMSequenceRecord ssr = this.dictionary.getSequence(tid);
+		long pos = this.offsets[tid] + 4;
+		final int nBlockCount = read(pos,4,this.byteOrder).getInt();
+		pos+=4;
+		final int nStarts[] = readInts(pos,nBlockCount);
+		pos+=4L*nBlockCount;
+		final int nEnds[] = readInts(pos,nBlockCount);
+		pos+=4L*nBlockCount;
+		final int maskBlockCount = read(pos,4,this.byteOrder).getInt();
+		pos+=4;
+		final int maskStarts[] = readInts(pos,maskBlockCount);
+		pos+=4L*maskBlockCount;
+		final int maskEnds[] = readInts(pos,maskBlockCount);
+		pos+=4L*maskBlockCount;
+		pos+=4;//reserved
+		for(int i=0;i< nBlockCount;++i) nEnds[i]+=nStarts[i];
+		for(int i=0;i< maskBlockCount;++i) maskEnds[i]+=maskStarts[i];
+		final long packedSize = (ssr.getSequenceLength()+3L)/4L;
+		final ByteBuffer packedDna = this.channel.map(FileChannel.MapMode.READ_ONLY, pos, packedSize);
+		this.contigs[tid] = new TwoBitContig(ssr, packedDna, nStarts, nEnds, maskStarts, maskEnds);
+		return this.contigs[tid];
+		}
+	
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+		}
+	
+	@Override
+	public String toString() {
+		return this.file.getPath();
+		}
+	
+	/** convert base to 2bit code */
+	private static int baseToCode(final byte c) {
+		switch(c) {
+			case 'T': case 't': return 0;
+			case 'C': case 'c': return 1;
+			case 'A': case 'a': return 2;
+			case 'G': case 'g': return 3;
+			default: return -1;
+			}
+		}
+	
+	/** collect the blocks of consecutive bases matching a predicate as starts, sizes */
+	private static int[][] blocks(final byte bases[],final IntPredicate predicate) {
+		int starts[] = new int[16];
+		int sizes[] = new int[16];
+		int n=0;
+		int i=0;
+		while(i< bases.length) {
+			if(!predicate.test(bases[i])) {
+				++i;
+				continue;
+				}
+			int j=i+1;
+			while(j< bases.length && predicate.test(bases[j])) ++j;
+			if(n==starts.length) {
+				starts = Arrays.copyOf(starts, n*2);
+				sizes = Arrays.copyOf(sizes, n*2);
+				}
+			starts[n] = i;
+			sizes[n] = j-i;
+			n++;
+			i=j;
+			}
+		return new int[][] {Arrays.copyOf(starts, n),Arrays.copyOf(sizes, n)};
+		}
+	
+	/** convert a reference to the 2bit format.
+	 * The contigs are read one by one, so the memory must be large enough to hold the largest contig.
+	 * @param ref the reference. If it has no dictionary, it will be read twice
+	 * @param out the 2bit output file
+	 */
+	public static void write(final ReferenceSequenceFile ref,final File out) throws IOException {
+		final List<String> names = new ArrayList<>();
+		long packedSize = 0L;
+		if(ref.getSequenceDictionary()!=null) {
+			for(final SAMSequenceRecord ssr:ref.getSequenceDictionary().getSequences()) {
+				names.add(ssr.getSequenceName());
+				packedSize += (ssr.getSequenceLength()+3L)/4L;
+				}
+			}
+		else
+			{
+			ReferenceSequence seq;
+			while((seq=ref.nextSequence())!=null) {
+				names.add(seq.getName());
+				packedSize += (seq.length()+3L)/4L;
+				}
+			ref.reset();
+			}
+		final int version = (packedSize > MAX_PACKED_SIZE_V0 ? 1 : 0);
+		
+		try(FileChannel fc = FileChannel.open(out.toPath(),
+				StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			ByteBuffer bb = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			bb.putInt(SIGNATURE);
+			bb.putInt(version);
+			bb.putInt(names.size());
+			bb.putInt(0);
+			bb.flip();
+			writeFully(fc,bb);
+			
+			/* index, offsets are written when known */
+			final long indexOffsets[] = new long[names.size()];
+			for(int i=0;i< names.size();++i) {
+				final byte name[] = names.get(i).getBytes("US-ASCII");
+				if(name.length>255) throw new IOException("sequence name too long "+names.get(i));
+				bb = ByteBuffer.allocate(1+name.length+(version==0?4:8)).order(ByteOrder.LITTLE_ENDIAN);
+				bb.put((byte)name.length);
+				bb.put(name);
+				indexOffsets[i] = fc.position()+1+name.length;
+				if(version==0) bb.putInt(0); else bb.putLong(0L);
+				bb.flip();
+				writeFully(fc,bb);
+				}
+			
+			for(int i=0;i< names.size();++i) {
+				final ReferenceSequence seq = ref.nextSequence();
+				if(seq==null || !seq.getName().equals(names.get(i))) {
+					throw new IOException("Expected sequence "+names.get(i)+" but got "+(seq==null?"end of file":seq.getName()));
+					}
+				final long recordOffset = fc.position();
+				if(version==0 && recordOffset>0xFFFFFFFFL) throw new IOException("2bit file is too large for version 0");
+				bb = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+				if(version==0) bb.putInt((int)recordOffset); else bb.putLong(recordOffset);
+				bb.flip();
+				while(bb.hasRemaining()) fc.write(bb, indexOffsets[i]+bb.position());
+				
+				final byte bases[] = seq.getBases();
+				final int nBlocks[][] = blocks(bases, C->baseToCode((byte)C)==-1);
+				final int maskBlocks[][] = blocks(bases, C->Character.isLowerCase((char)C));
+				bb = ByteBuffer.allocate(4*(4+2*nBlocks[0].length+2*maskBlocks[0].length)).order(ByteOrder.LITTLE_ENDIAN);
+				bb.putInt(bases.length);
+				bb.putInt(nBlocks[0].length);
+				for(final int v:nBlocks[0]) bb.putInt(v);
+				for(final int v:nBlocks[1]) bb.putInt(v);
+				bb.putInt(maskBlocks[0].length);
+				for(final int v:maskBlocks[0]) bb.putInt(v);
+				for(final int v:maskBlocks[1]) bb.putInt(v);
+				bb.putInt(0);
+				bb.flip();
+				writeFully(fc,bb);
+				
+				final byte packed[] = new byte[(bases.length+3)/4];
+				for(int j=0;j< bases.length;++j) {
+					final int code = Math.max(0, baseToCode(bases[j]));
+					packed[j>>2] |= (byte)(code << (6-((j&3)<<1)));
+					}
+				writeFully(fc,ByteBuffer.wrap(packed));
+				}
+			if(ref.nextSequence()!=null) throw new IOException("Sequences found after the last sequence of the dictionary");
+			}
+		}
+	
+	private static void writeFully(final FileChannel fc,final ByteBuffer bb) throws IOException {
+		while(bb.hasRemaining()) fc.write(bb);
+		}
+	}
@@ -25,28 +25,47 @@ SOFTWARE.
 package com.github.lindenb.jvarkit.util.jcommander;
 
 import java.awt.Dimension;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.LongSupplier;
 import java.util.jar.Manifest;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -73,26 +92,47 @@ import com.beust.jcommander.ParametersDelegate;
 import com.beust.jcommander.converters.IntegerConverter;
 import com.github.lindenb.jvarkit.annotproc.IncludeSourceInJar;
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.io.ParallelBlockCompressedInputStream;
+import com.github.lindenb.jvarkit.io.ParallelBlockCompressedOutputStream;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.util.bio.bed.BedLine;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLineCodec;
 import com.github.lindenb.jvarkit.util.bio.samfilter.SamFilterParser;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.picard.ExternalSortingCollection;
+import com.github.lindenb.jvarkit.util.samtools.ContigDictComparator;
+import com.github.lindenb.jvarkit.util.samtools.ParallelBamFileWriter;
+import com.github.lindenb.jvarkit.util.vcf.IndexedVcfFileReader;
+import com.github.lindenb.jvarkit.util.vcf.IntervalVcfIterator;
+import com.github.lindenb.jvarkit.util.vcf.ParallelVariantContextWriter;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
+import com.github.lindenb.jvarkit.util.vcf.VariantContextWriterFactory;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 import com.github.lindenb.semontology.Term;
 
+import htsjdk.samtools.BamFileIoUtils;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.filter.SamRecordFilter;
 import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.IntervalTreeMap;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.SortingCollection;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.AsyncVariantContextWriter;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
+import htsjdk.variant.vcf.VCFEncoder;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderLine;
 
@@ -600,13 +640,41 @@ private List<String> files = new ArrayList<>();
 
 private String programName="";
 
-public class CompressionArgs
+public static class CompressionArgs
 	{
 	@Parameter(names={"--compression"},description="Compression Level.",converter=CompressionConverter.class)
 	public int compressionLevel=5;
+	@Parameter(names={"--bgzf-threads"},description="[20181016] Number of threads used to compress the BGZF blocks (*.vcf.gz, *.bam). The blocks are written in order and the virtual offsets of the on-the-fly indexes remain valid. A value lower than 2 means use the standard single-threaded htsjdk writer.")
+	public int bgzfThreads=1;
+	
+	/** open a BGZF output stream, using a ParallelBlockCompressedOutputStream if there is more than one thread */
+	public OutputStream openBlockCompressedOutputStream(final File file) throws IOException {
+		return openBlockCompressedOutputStream(file,this.compressionLevel,this.bgzfThreads);
+		}
+	
+	/** bound the compression level to the values accepted by the Deflater */
+	public static int toDeflaterLevel(final int compressionLevel) {
+		if(compressionLevel<0) return Deflater.NO_COMPRESSION;
+		if(compressionLevel>9) return Deflater.BEST_COMPRESSION;
+		return compressionLevel;
+		}
+	
+	/** open a BGZF output stream, using a ParallelBlockCompressedOutputStream if nThreads &gt; 1 */
+	public static OutputStream openBlockCompressedOutputStream(final File file,int compressionLevel,final int nThreads) throws IOException {
+		compressionLevel = toDeflaterLevel(compressionLevel);
+		if(nThreads<2) {
+			return new BlockCompressedOutputStream(file,compressionLevel);
+			}
+		return new ParallelBlockCompressedOutputStream(file,compressionLevel,nThreads);
+		}
 	}
 public CompressionArgs compressionArgs=new CompressionArgs();
 
+/** return the CompressionArgs used by openVariantContextWriter. A tool declaring a CompressionArgs delegate should override this method */
+protected CompressionArgs getCompressionArgs() {
+	return this.compressionArgs;
+	}
+
 public static class DirectoryExists implements IValueValidator<File> {
 	@Override
 	public void validate(String arg, final File dir) throws ParameterException {
@@ -642,6 +710,13 @@ public class WritingSortingCollection
 	@Parameter(names={"--tmpDir"},description= "tmp working directory. Default: java.io.tmpDir")
 	private List<File> tmpDirs=new ArrayList<>();
 	
+	@Parameter(names={"--sort-threads"},description="[20181016] Number of threads used to sort the records. "
+			+ "The buffers of 'maxRecordsInRam' records are sorted and written to disk on background threads while the next buffer is filled, "
+			+ "and the temporary files are read ahead on those threads. Memory usage is about (1+threads) x 'maxRecordsInRam' records.")
+	public int sortThreads = 1;
+	
+	@Parameter(names={"--sort-compression"},description="[20181016] Deflate compression level (0-9) of the temporary files used to sort the records. 0: no compression.")
+	public int sortCompressionLevel = ExternalSortingCollection.DEFAULT_COMPRESSION_LEVEL;
 	
 	public WritingSortingCollection maxRecordsInRam(final int n)
 		{
@@ -663,6 +738,20 @@ public class WritingSortingCollection
 				map(F->F.toPath()).
 				toArray((i)->new Path[i]);
 		}
+	/** creates a new external sorter using the options of this object */
+	public <T> ExternalSortingCollection<T> newSortingCollection(
+			final SortingCollection.Codec<T> codec,
+			final Comparator<T> comparator
+			) {
+		return new ExternalSortingCollection<>(
+				codec,
+				comparator,
+				getMaxRecordsInRam(),
+				Arrays.asList(getTmpPaths()),
+				Math.max(1, this.sortThreads),
+				this.sortCompressionLevel
+				);
+		}
 	}	
 
 public static enum WritingSamReaderType
@@ -680,14 +769,13 @@ public class WritingBamArgs
 	public int compressionLevel=5;
 	@Parameter(names={"--samoutputformat"},description="Sam output format.")
 	public WritingSamReaderType samoutputformat = WritingSamReaderType.SAM;
+	@Parameter(names={"--bgzf-threads"},description="[20181016] Number of threads used to compress the BAM blocks when writing a BAM file. Only used when the reads are written in the order of the header (no sorting). The BAI index, if any, remains valid. A value lower than 2 means use the standard htsjdk writer.")
+	public int bgzfThreads = 1;
 	
 	/** creates a SAMFileWriterFactory */
 	public htsjdk.samtools.SAMFileWriterFactory createSAMFileWriterFactory() {
 		final SAMFileWriterFactory sfw =  new SAMFileWriterFactory();
-		int n= this.compressionLevel;
-		if(n<0) n= Deflater.NO_COMPRESSION;
-		if(n>9) n= Deflater.BEST_COMPRESSION;
-		sfw.setCompressionLevel(n);
+		sfw.setCompressionLevel(CompressionArgs.toDeflaterLevel(this.compressionLevel));
 		
 		return sfw;
 		}
@@ -734,6 +822,20 @@ public class WritingBamArgs
 				throw new IllegalStateException("Bad output format "+this.samoutputformat+" expected one of "+Arrays.toString(WritingSamReaderType.values()));
 				}
 			}
+		else if(this.bgzfThreads>1 &&
+			outputFileOrNull.getName().endsWith(BamFileIoUtils.BAM_FILE_EXTENSION) &&
+			(presorted || header.getSortOrder().equals(SAMFileHeader.SortOrder.unsorted)) &&
+			!SAMFileWriterFactory.getDefaultCreateMd5File())
+			{
+			try {
+				return new ParallelBamFileWriter(header, outputFileOrNull,
+						CompressionArgs.toDeflaterLevel(this.compressionLevel), this.bgzfThreads,
+						SAMFileWriterFactory.getDefaultCreateIndexWhileWriting());
+				}
+			catch(final IOException err) {
+				throw new RuntimeIOException(err);
+				}
+			}
 		else
 			{
 			return sfw.makeWriter(header, presorted, outputFileOrNull, getReferenceFile());
@@ -743,6 +845,166 @@ public class WritingBamArgs
 
 
 
+/** 
+ * options for multi-threaded VCF-to-VCF tools. A tool declaring this delegate
+ * must override getParallelVcfArgs() to make it used by openVcfIterator and openVariantContextWriter
+ */
+public static class ParallelVcfArgs
+	{
+	@Parameter(names={"--threads"},description="[20181016] Number of threads. The VCF is decoded by batches on 'n' threads, "
+			+ "the variants are processed in parallel if the annotator/filter is stateless (output order is preserved) "
+			+ "and the output is encoded on another thread. A value lower than 1 means use all procs available.")
+	public int nThreads = 1;
+	@Parameter(names={"--threads-batch-size"},description="[20181016] When --threads is used, number of variants sent to each worker.")
+	public int batchSize = ParallelVariantContextWriter.DEFAULT_BATCH_SIZE;
+	
+	/** get the number of threads, min=1 */
+	public int getNumberOfThreads() {
+		if(this.nThreads<1) return Math.max(1, Runtime.getRuntime().availableProcessors());
+		return this.nThreads;
+		}
+	
+	/** wrap the delegate into the writer(s) created by the factory. If the factory is stateless and there is more than
+	 * one thread, the writers are run in parallel */
+	public VariantContextWriter open(final VariantContextWriterFactory factory,final VariantContextWriter delegate) {
+		if(getNumberOfThreads()<2 || !factory.isStateless()) {
+			return factory.open(delegate);
+			}
+		return new ParallelVariantContextWriter(factory,delegate,getNumberOfThreads(),Math.max(1,this.batchSize));
+		}
+	}
+/** return the ParallelVcfArgs used by openVcfIterator and openVariantContextWriter. Default: null */
+protected ParallelVcfArgs getParallelVcfArgs() {
+	return null;
+	}
+
+/** 
+ * options for the read-ahead BGZF inflater. A tool declaring this delegate
+ * must override getReadAheadArgs() to make it used by openVcfIterator and openSamReader
+ */
+public static class ReadAheadArgs
+	{
+	@Parameter(names={"--bgzf-read-threads"},description="[20181016] Number of threads used to inflate the BGZF input (*.vcf.gz, *.sam.gz). "
+			+ "The next blocks are inflated in background. For BAM files, a value greater than 1 enables htsjdk's asynchronous reader. "
+			+ "A value lower than 2 means use the standard single-threaded reader.")
+	public int bgzfThreads = 1;
+	/** the parallel inflaters opened by openStream */
+	private final List<ParallelBlockCompressedInputStream> inflaters = new ArrayList<>();
+	
+	/** open an input (or stdin if inputNameOrNull is null). BGZF blocks are inflated on 'bgzfThreads' threads */
+	public InputStream openStream(final String inputNameOrNull) throws IOException {
+		final InputStream in = (inputNameOrNull==null?
+				IOUtils.openStreamForReading(System.in,this.bgzfThreads):
+				IOUtils.openURIForReading(inputNameOrNull,this.bgzfThreads)
+				);
+		if(in instanceof ParallelBlockCompressedInputStream) {
+			synchronized(this.inflaters) {
+				this.inflaters.add(ParallelBlockCompressedInputStream.class.cast(in));
+				}
+			}
+		return in;
+		}
+	
+	/** return the number of bytes inflated by the streams opened with openStream, or null if no BGZF input was inflated in parallel */
+	public LongSupplier getInflatedBytesCounter() {
+		synchronized(this.inflaters) {
+			if(this.inflaters.isEmpty()) return null;
+			final List<ParallelBlockCompressedInputStream> copy = new ArrayList<>(this.inflaters);
+			return ()->copy.stream().mapToLong(S->S.getInflatedBytes()).sum();
+			}
+		}
+	}
+
+/** return the ReadAheadArgs used by openVcfIterator and openSamReader. Default: null */
+protected ReadAheadArgs getReadAheadArgs() {
+	return null;
+	}
+
+/** return the number of bytes inflated by the input opened with --bgzf-read-threads, used to print the throughput
+ * of a SAMSequenceDictionaryProgress. May be null */
+protected LongSupplier getInflatedBytesCounter() {
+	final ReadAheadArgs readAheadArgs = getReadAheadArgs();
+	return readAheadArgs==null?null:readAheadArgs.getInflatedBytesCounter();
+	}
+
+/** 
+ * options for the scatter/gather mode of doVcfToVcf. A tool declaring this delegate and overriding getScatterVcfArgs()
+ * declares that its doVcfToVcf(String,VcfIterator,VariantContextWriter) can be invoked concurrently.
+ */
+public static class ScatterVcfArgs
+	{
+	@Parameter(names={"--scatter-by-contig"},description="[20181016] Scatter/gather mode. The input must be an indexed VCF file with a dictionary. "
+			+ "Each contig is processed on its own thread and the outputs are concatenated in the order of the dictionary.")
+	public boolean scatterByContig = false;
+	@Parameter(names={"--scatter-bed"},description="[20181016] Scatter/gather mode. The input must be an indexed VCF file with a dictionary. "
+			+ "Each interval of this BED file is processed on its own thread and the outputs are concatenated in the order of the dictionary. "
+			+ "Overlapping intervals are merged. Only the variants starting in one of the intervals are written.")
+	public File scatterBed = null;
+	@Parameter(names={"--scatter-threads"},description="[20181016] Number of threads for the scatter/gather mode. A value lower than 1 means use all procs available.")
+	public int nThreads = -1;
+	@ParametersDelegate
+	public TmpDirectoryArgs tmpDirectoryArgs = new TmpDirectoryArgs();
+	
+	/** return true if the scatter/gather mode was selected */
+	public boolean isEnabled() {
+		return this.scatterByContig || this.scatterBed!=null;
+		}
+	
+	/** get the number of threads, min=1 */
+	public int getNumberOfThreads() {
+		if(this.nThreads<1) return Math.max(1, Runtime.getRuntime().availableProcessors());
+		return this.nThreads;
+		}
+	
+	/** get the sorted, non-overlapping intervals to be processed */
+	public List<Interval> getIntervals(final SAMSequenceDictionary dict) throws IOException {
+		final List<Interval> intervals = new ArrayList<>();
+		if(this.scatterBed==null) {
+			for(final SAMSequenceRecord ssr: dict.getSequences()) {
+				intervals.add(new Interval(ssr.getSequenceName(), 1, ssr.getSequenceLength()));
+				}
+			return intervals;
+			}
+		final BedLineCodec bedCodec=new BedLineCodec();
+		try(BufferedReader r=IOUtils.openFileForBufferedReading(this.scatterBed)) {
+			r.lines().
+				filter(line->!(line.startsWith("#") || BedLine.isBedHeader(line) || line.isEmpty())).
+				map(line->bedCodec.decode(line)).
+				filter(B->B!=null).
+				map(B->B.toInterval()).
+				forEach(L->{
+					if(dict.getSequence(L.getContig())==null) {
+						throw new JvarkitException.ContigNotFoundInDictionary(L.getContig(), dict);
+						}
+					intervals.add(L);
+					});
+			}
+		final ContigDictComparator contigCmp = new ContigDictComparator(dict);
+		intervals.sort((A,B)->{
+			final int i = contigCmp.compare(A.getContig(), B.getContig());
+			if(i!=0) return i;
+			return Integer.compare(A.getStart(), B.getStart());
+			});
+		/* merge overlapping intervals */
+		final List<Interval> merged = new ArrayList<>(intervals.size());
+		for(final Interval L: intervals) {
+			final Interval last = (merged.isEmpty()?null:merged.get(merged.size()-1));
+			if(last!=null && last.getContig().equals(L.getContig()) && L.getStart() <= last.getEnd()) {
+				merged.set(merged.size()-1, new Interval(last.getContig(), last.getStart(), Math.max(last.getEnd(), L.getEnd())));
+				}
+			else
+				{
+				merged.add(L);
+				}
+			}
+		return merged;
+		}
+	}
+/** return the ScatterVcfArgs used by doVcfToVcf. Default: null */
+protected ScatterVcfArgs getScatterVcfArgs() {
+	return null;
+	}
+
 public static class DimensionConverter
 	implements IStringConverter<Dimension>
 {
@@ -983,6 +1245,17 @@ protected Status parseArgs(final String args[])
 	}
 
 protected VcfIterator openVcfIterator(final String inputNameOrNull) throws IOException {
+	final ParallelVcfArgs parallelVcfArgs = getParallelVcfArgs();
+	final ReadAheadArgs readAheadArgs = getReadAheadArgs();
+	if(readAheadArgs!=null && readAheadArgs.bgzfThreads>1 &&
+		(inputNameOrNull==null || !inputNameOrNull.endsWith(IOUtil.BCF_FILE_EXTENSION))) {
+		return VCFUtils.createVcfIterator(readAheadArgs.openStream(inputNameOrNull),
+			parallelVcfArgs==null?1:parallelVcfArgs.getNumberOfThreads()
+			);
+		}
+	if(parallelVcfArgs!=null) {
+		return VCFUtils.createVcfIterator(inputNameOrNull,parallelVcfArgs.getNumberOfThreads());
+		}
 	return VCFUtils.createVcfIterator(inputNameOrNull);
 }
 
@@ -990,14 +1263,22 @@ protected VcfIterator openVcfIterator(final String inputNameOrNull) throws IOExc
  * dict will be using for sorting or indexing. May be null it no indexing.
 */
 protected VariantContextWriter openVariantContextWriter(final File outorNull) throws IOException {
+	final ParallelVcfArgs parallelVcfArgs = getParallelVcfArgs();
+	final VariantContextWriter w;
 	if( outorNull == null)
 		{
-		return VCFUtils.createVariantContextWriterToOutputStream(stdout());
+		w = VCFUtils.createVariantContextWriterToOutputStream(stdout());
 		}
 	else
 		{
-		return VCFUtils.createVariantContextWriter(outorNull);
+		w = VCFUtils.createVariantContextWriter(outorNull,getCompressionArgs());
+		}
+	if(parallelVcfArgs!=null && parallelVcfArgs.getNumberOfThreads()>1)
+		{
+		/* encode and compress on another thread */
+		return new AsyncVariantContextWriter(w);
 		}
+	return w;
 	}
 
 
@@ -1027,6 +1308,10 @@ protected int doVcfToVcf(final String inputName,final VcfIterator iterin,final V
 	return 0;
 	}
 protected int doVcfToVcf(final String inputNameOrNull,final File outorNull){
+	final ScatterVcfArgs scatterVcfArgs = getScatterVcfArgs();
+	if(scatterVcfArgs!=null && scatterVcfArgs.isEnabled()) {
+		return doVcfToVcfScatter(scatterVcfArgs,inputNameOrNull,outorNull);
+		}
 	VcfIterator iterin=null;
 	VariantContextWriter w=null;
 	try {
@@ -1051,6 +1336,209 @@ protected int doVcfToVcf(final String inputNameOrNull,final File outorNull){
 		}
 	}
 
+/** scatter/gather mode: writes the variants of a shard as BGZF, without the header.
+ * The header is kept in memory and written once by the gather step */
+private static class ScatterShardWriter implements VariantContextWriter
+	{
+	private final Writer writer;
+	private VCFHeader header = null;
+	private VCFEncoder encoder = null;
+	ScatterShardWriter(final File file,final int compressionLevel) throws IOException {
+		this.writer = new BufferedWriter(new OutputStreamWriter(
+				new BlockCompressedOutputStream(file, CompressionArgs.toDeflaterLevel(compressionLevel)),
+				VCFEncoder.VCF_CHARSET));
+		}
+	@Override
+	public void writeHeader(final VCFHeader header) {
+		setHeader(header);
+		}
+	@Override
+	public void setHeader(final VCFHeader header) {
+		this.header = header;
+		this.encoder = new VCFEncoder(header, false, false);
+		}
+	@Override
+	public void add(final VariantContext ctx) {
+		try {
+			this.writer.write(this.encoder.encode(ctx));
+			this.writer.write('\n');
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException(err);
+			}
+		}
+	@Override
+	public boolean checkError() {
+		return false;
+		}
+	@Override
+	public void close() {
+		try {
+			this.writer.close();
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException(err);
+			}
+		}
+	}
+
+/** append the BGZF blocks of 'bgzf' to 'out', without the terminal EOF marker */
+private static void appendBgzfBlocks(final File bgzf,final OutputStream out) throws IOException {
+	final long length = bgzf.length() - BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length;
+	if(length<0L) throw new IOException("not a BGZF file "+bgzf);
+	try(FileChannel fc = FileChannel.open(bgzf.toPath(), StandardOpenOption.READ)) {
+		final WritableByteChannel wbc = Channels.newChannel(out);
+		long pos = 0L;
+		while(pos < length) {
+			pos += fc.transferTo(pos, length - pos, wbc);
+			}
+		}
+	}
+
+/** scatter/gather mode: one interval of the input and its temporary BGZF file */
+private static class ScatterShard
+	{
+	final Interval interval;
+	final File tmpFile;
+	/** header set by doVcfToVcf, read by the gather step after the task completed */
+	VCFHeader header = null;
+	ScatterShard(final Interval interval,final File tmpFile) {
+		this.interval = interval;
+		this.tmpFile = tmpFile;
+		}
+	}
+
+/** scatter/gather mode: doVcfToVcf is invoked in parallel for each interval of the indexed input,
+ * each worker writes a BGZF temporary file in --tmpDir. For a *.vcf.gz output, the compressed blocks
+ * of the temporary files are concatenated, otherwise they are inflated to the output.
+ * At most '--scatter-threads' shards are submitted ahead of the gather step, so the number of open
+ * files and of temporary files doesn't depend on the number of intervals. */
+private int doVcfToVcfScatter(final ScatterVcfArgs scatterVcfArgs,final String inputName,final File outorNull){
+	if(inputName==null) {
+		LOG.error("scatter/gather mode requires an indexed VCF file, not stdin.");
+		return -1;
+		}
+	if(outorNull!=null && outorNull.getName().endsWith(".bcf")) {
+		LOG.error("scatter/gather mode cannot write a BCF file.");
+		return -1;
+		}
+	final int compressionLevel = getCompressionArgs().compressionLevel;
+	final List<ScatterShard> shards = new ArrayList<>();
+	ExecutorService executor = null;
+	OutputStream out = null;
+	try {
+		final SAMSequenceDictionary dict;
+		final VCFHeader inputHeader;
+		try(IndexedVcfFileReader r = new IndexedVcfFileReader(inputName)) {
+			inputHeader = r.getHeader();
+			dict = inputHeader.getSequenceDictionary();
+			}
+		if(dict==null || dict.isEmpty()) {
+			throw new JvarkitException.VcfDictionaryMissing(inputName);
+			}
+		final List<Interval> intervals = scatterVcfArgs.getIntervals(dict);
+		LOG.info("scatter "+inputName+" into "+intervals.size()+" interval(s)");
+		final int nThreads = scatterVcfArgs.getNumberOfThreads();
+		executor = Executors.newFixedThreadPool(nThreads);
+		final LinkedList<Future<Integer>> results = new LinkedList<>();
+		
+		final boolean bgzfOutput = outorNull!=null && outorNull.getName().endsWith(".vcf.gz");
+		out = (outorNull==null?stdout():new BufferedOutputStream(new FileOutputStream(outorNull)));
+		int nSubmitted = 0;
+		for(int i=0;i< intervals.size();i++) {
+			/* keep 'nThreads' shards in flight */
+			while(nSubmitted < intervals.size() && nSubmitted < i + nThreads) {
+				final ScatterShard shard = new ScatterShard(
+						intervals.get(nSubmitted),
+						File.createTempFile("scatter.", ".vcf.gz", scatterVcfArgs.tmpDirectoryArgs.tmpDir)
+						);
+				shards.add(shard);
+				results.add(executor.submit(()->{
+					try(VcfIterator iter = new IntervalVcfIterator(inputName, shard.interval);
+						ScatterShardWriter tmpw = new ScatterShardWriter(shard.tmpFile, compressionLevel)) {
+						final int ret = doVcfToVcf(inputName,iter,tmpw);
+						shard.header = tmpw.header;
+						return ret;
+						}
+					}));
+				nSubmitted++;
+				}
+			final int ret = results.removeFirst().get();
+			final ScatterShard shard = shards.get(i);
+			if(ret!=0) {
+				LOG.error("scatter/gather failed for "+shard.interval);
+				return ret;
+				}
+			if(i==0) {
+				writeScatterHeader(shard.header==null?inputHeader:shard.header, compressionLevel, bgzfOutput, out);
+				}
+			if(bgzfOutput) {
+				appendBgzfBlocks(shard.tmpFile, out);
+				}
+			else
+				{
+				try(InputStream in = new BlockCompressedInputStream(shard.tmpFile)) {
+					IOUtils.copyTo(in, out);
+					}
+				}
+			shard.tmpFile.delete();
+			}
+		executor.shutdown();
+		if(intervals.isEmpty()) {
+			writeScatterHeader(inputHeader, compressionLevel, bgzfOutput, out);
+			}
+		if(bgzfOutput) {
+			out.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+			}
+		out.flush();
+		if(outorNull!=null) out.close();
+		out=null;
+		return 0;
+		}
+	catch(final ExecutionException err)
+		{
+		LOG.error(err.getCause());
+		return -1;
+		}
+	catch(final Exception err)
+		{
+		LOG.error(err);
+		return -1;
+		}
+	finally
+		{
+		if(executor!=null) {
+			executor.shutdownNow();
+			try {
+				/* let the running tasks close their shard before deleting it */
+				executor.awaitTermination(1L, TimeUnit.MINUTES);
+				}
+			catch(final InterruptedException err) {
+				Thread.currentThread().interrupt();
+				}
+			}
+		if(outorNull!=null) CloserUtil.close(out);
+		for(final ScatterShard shard:shards) shard.tmpFile.delete();
+		}
+	}
+
+/** write the VCF header of the scatter/gather output. For a BGZF output, the header is written as BGZF blocks without the EOF marker */
+private static void writeScatterHeader(final VCFHeader header,final int compressionLevel,final boolean bgzfOutput,final OutputStream out) throws IOException {
+	final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+	final VariantContextWriter w = VCFUtils.createVariantContextWriterToOutputStream(baos);
+	w.writeHeader(header);
+	w.close();
+	if(!bgzfOutput) {
+		baos.writeTo(out);
+		return;
+		}
+	final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+	try(BlockCompressedOutputStream bgzf = new BlockCompressedOutputStream(compressed,(File)null,CompressionArgs.toDeflaterLevel(compressionLevel))) {
+		baos.writeTo(bgzf);
+		}
+	out.write(compressed.toByteArray(), 0, compressed.size() - BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length);
+	}
+
 protected int doVcfToVcf(final List<String> inputs,final File outorNull) {
 	return doVcfToVcf(oneFileOrNull(inputs),outorNull);
 	}
@@ -1309,6 +1797,23 @@ protected htsjdk.samtools.SamReaderFactory createSamReaderFactory()
 protected htsjdk.samtools.SamReader openSamReader(final String inputName)
 	{
 	final htsjdk.samtools.SamReaderFactory srf= this.createSamReaderFactory();
+	final ReadAheadArgs readAheadArgs = getReadAheadArgs();
+	if(readAheadArgs!=null && readAheadArgs.bgzfThreads>1)
+		{
+		if(inputName!=null && inputName.endsWith(".sam.gz"))
+			{
+			/* text SAM: htsjdk only sees the decompressed bytes */
+			try {
+				return srf.open(htsjdk.samtools.SamInputResource.of(
+					readAheadArgs.openStream(inputName)));
+				}
+			catch(final IOException err) {
+				throw new RuntimeIOException(err);
+				}
+			}
+		/* BAM: htsjdk's BAMFileReader needs the BGZF blocks, use its asynchronous inflater */
+		srf.setUseAsyncIo(true);
+		}
 	if(inputName==null)
 		{
 		return srf.open(htsjdk.samtools.SamInputResource.of(stdin()));
@@ -0,0 +1,221 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.jetty;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.Request;
+
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+/**
+ * Runs the slow queries of a jetty handler (BAM/VCF I/O, rendering) on a pool
+ * of worker threads, so the jetty threads are released immediately (servlet async).
+ * Each query has a deadline and the number of concurrent queries on one resource
+ * (e.g. one BAM file) is capped: a query that cannot get a slot is rejected with
+ * HTTP 503.
+ */
+public class AsyncQueryRunner implements Closeable
+	{
+	private static final Logger LOG = Logger.build(AsyncQueryRunner.class).make();
+	private final ExecutorService executor;
+	private final long timeoutMillis;
+	private final int maxConcurrentPerResource;
+	private final Map<Object,Semaphore> resource2semaphore = new ConcurrentHashMap<>();
+	private final AtomicLong count_rejected = new AtomicLong(0L);
+	private final AtomicLong count_cancelled = new AtomicLong(0L);
+	
+	/** state of a running query, tested by the worker in its loops */
+	public interface Query
+		{
+		/** @return true if the deadline was reached or if the client went away */
+		public boolean isCancelled();
+		/** @return true if the deadline was reached */
+		public boolean isTimedOut();
+		}
+	
+	/** the work to be done by a worker thread */
+	@FunctionalInterface
+	public interface Task
+		{
+		public void run(Query query) throws Exception;
+		}
+	
+	private class QueryImpl implements Query, AsyncListener
+		{
+		private final long deadline;
+		private final EndPoint endPoint;
+		private volatile boolean client_error = false;
+		QueryImpl(final Request baseRequest) {
+			this.deadline = (AsyncQueryRunner.this.timeoutMillis<=0L?
+					Long.MAX_VALUE:
+					System.currentTimeMillis() + AsyncQueryRunner.this.timeoutMillis
+					);
+			this.endPoint = (baseRequest==null || baseRequest.getHttpChannel()==null?
+					null:
+					baseRequest.getHttpChannel().getEndPoint()
+					);
+			}
+		@Override
+		public boolean isTimedOut() {
+			return System.currentTimeMillis() > this.deadline;
+			}
+		@Override
+		public boolean isCancelled() {
+			return this.client_error || 
+				isTimedOut() ||
+				(this.endPoint!=null && !this.endPoint.isOpen());
+			}
+		@Override
+		public void onError(final AsyncEvent event) throws IOException {
+			this.client_error = true;
+			}
+		@Override
+		public void onTimeout(final AsyncEvent event) throws IOException {
+			this.client_error = true;
+			}
+		@Override
+		public void onComplete(AsyncEvent event) throws IOException {
+			}
+		@Override
+		public void onStartAsync(AsyncEvent event) throws IOException {
+			}
+		}
+	
+	/**
+	 * @param nThreads number of worker threads
+	 * @param timeoutMillis deadline of a query. &lt;=0 : no deadline
+	 * @param maxConcurrentPerResource maximum number of concurrent queries on the same resource. &lt;=0 : no limit
+	 */
+	public AsyncQueryRunner(final int nThreads,final long timeoutMillis,final int maxConcurrentPerResource)
+		{
+		if(nThreads<1) throw new IllegalArgumentException("nThreads<1");
+		this.executor = Executors.newFixedThreadPool(nThreads);
+		this.timeoutMillis = timeoutMillis;
+		this.maxConcurrentPerResource = maxConcurrentPerResource;
+		}
+	
+	private Semaphore getSemaphore(final Object resource) {
+		return this.resource2semaphore.computeIfAbsent(resource, K->new Semaphore(this.maxConcurrentPerResource));
+		}
+	
+	/**
+	 * submit a query. The request is put in async mode and the method returns immediately.
+	 * @param resources the resources (files) used by the query
+	 */
+	public void submit(
+			final Request baseRequest,
+			final HttpServletRequest request,
+			final HttpServletResponse response,
+			final Collection<?> resources,
+			final Task task) throws IOException
+		{
+		/* try to get a slot for each resource */
+		final List<Semaphore> acquired = new ArrayList<>(resources.size());
+		if(this.maxConcurrentPerResource>0) {
+			for(final Object resource: resources) {
+				final Semaphore semaphore = getSemaphore(resource);
+				if(!semaphore.tryAcquire()) {
+					acquired.forEach(S->S.release());
+					this.count_rejected.incrementAndGet();
+					if(baseRequest!=null) baseRequest.setHandled(true);
+					response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many concurrent queries on "+resource);
+					return;
+					}
+				acquired.add(semaphore);
+				}
+			}
+		if(baseRequest!=null) baseRequest.setHandled(true);
+		final AsyncContext asyncContext = request.startAsync();
+		/* the deadline is managed by the Query, not by the container */
+		asyncContext.setTimeout(0L);
+		final QueryImpl query = new QueryImpl(baseRequest);
+		asyncContext.addListener(query);
+		
+		final Runnable runnable = ()->{
+			try {
+				if(query.isCancelled()) {
+					this.count_cancelled.incrementAndGet();
+					if(!response.isCommitted()) response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Query was cancelled before it started");
+					}
+				else
+					{
+					task.run(query);
+					if(query.isCancelled()) this.count_cancelled.incrementAndGet();
+					}
+				}
+			catch(final Throwable err) {
+				LOG.error(err);
+				}
+			finally {
+				acquired.forEach(S->S.release());
+				try { asyncContext.complete();}
+				catch(final IllegalStateException err) { /* already completed */ }
+				}
+			};
+		try {
+			this.executor.submit(runnable);
+			}
+		catch(final RejectedExecutionException err) {
+			acquired.forEach(S->S.release());
+			this.count_rejected.incrementAndGet();
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Server is shutting down");
+			asyncContext.complete();
+			}
+		}
+	
+	/** @return number of queries rejected because there were too many concurrent queries on one resource */
+	public long getRejectedCount() {
+		return this.count_rejected.get();
+		}
+	
+	/** @return number of queries cancelled (deadline or client disconnection) */
+	public long getCancelledCount() {
+		return this.count_cancelled.get();
+		}
+	
+	@Override
+	public void close() {
+		this.executor.shutdownNow();
+		}
+	}
@@ -0,0 +1,605 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.SortingCollection;
+
+/**
+ * External merge-sort using the same codecs as htsjdk's SortingCollection (e.g: {@link AbstractDataCodec}).
+ * 
+ * The records are stored in a buffer of 'maxRecordsInRam' items. When the buffer is full, it is sorted
+ * and written to a temporary file (a 'run'). When more than one thread is used, the full buffers are
+ * sorted and written on background threads while the caller fills the next buffer.
+ * 
+ * A run is a sequence of blocks: int(number of records) int(raw length) int(stored length, -1 if not compressed)
+ * followed by the deflated records. A record never spans two blocks, so a block can be decoded independently.
+ * 
+ * The runs are merged with a loser tree. When more than one thread is used, the next block of each run is
+ * read and decoded ahead on a background thread.
+ * 
+ * Usage is the same as SortingCollection: add(), doneAdding(), iterator(), cleanup().
+ */
+public class ExternalSortingCollection<T> implements Iterable<T>, Closeable {
+	private static final Logger LOG = Logger.build(ExternalSortingCollection.class).make();
+	/** default deflate compression level of the runs */
+	public static final int DEFAULT_COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+	/** number of bytes of encoded records in one block */
+	private static final int BLOCK_SIZE = 1<<16;
+	
+	private final SortingCollection.Codec<T> codec;
+	private final Comparator<T> comparator;
+	private final int maxRecordsInRam;
+	private final List<Path> tmpDirs;
+	private final int nThreads;
+	private final int compressionLevel;
+	/** runs, in the order of creation */
+	private final List<Path> runs = new ArrayList<>();
+	/** runs being written on a background thread */
+	private final List<Future<?>> pendingRuns = new ArrayList<>();
+	/** executor for the background threads. null if nThreads==1 */
+	private final ExecutorService executor;
+	/** limits the number of buffers waiting to be written */
+	private final Semaphore bufferPermits;
+	private Object buffer[];
+	private int numRecordsInBuffer = 0;
+	private boolean doneAdding = false;
+	private boolean destructiveIteration = true;
+	private boolean cleanedUp = false;
+	private int tmpDirIndex = 0;
+	
+	/**
+	 * @param codec the codec. It will be cloned for each run.
+	 * @param comparator records comparator
+	 * @param maxRecordsInRam number of records in one buffer
+	 * @param tmpDirs temporary directories, used in turn
+	 * @param nThreads number of threads. Memory usage is about (1+nThreads) x maxRecordsInRam records
+	 * @param compressionLevel deflate compression level, 0 to disable compression.
+	 */
+	public ExternalSortingCollection(
+			final SortingCollection.Codec<T> codec,
+			final Comparator<T> comparator,
+			final int maxRecordsInRam,
+			final List<Path> tmpDirs,
+			final int nThreads,
+			final int compressionLevel
+			) {
+		if(maxRecordsInRam<1) throw new IllegalArgumentException("maxRecordsInRam<1 : "+maxRecordsInRam);
+		if(nThreads<1) throw new IllegalArgumentException("nThreads<1 : "+nThreads);
+		if(compressionLevel<0 || compressionLevel>9) throw new IllegalArgumentException("bad compression level : "+compressionLevel);
+		this.codec = codec;
+		this.comparator = comparator;
+		this.maxRecordsInRam = maxRecordsInRam;
+		this.tmpDirs = new ArrayList<>(tmpDirs);
+		if(this.tmpDirs.isEmpty()) this.tmpDirs.add(IOUtils.getDefaultTmpDir().toPath());
+		this.nThreads = nThreads;
+		this.compressionLevel = compressionLevel;
+		if(nThreads>1) {
+			this.executor = Executors.newFixedThreadPool(nThreads,R->{
+				final Thread t = new Thread(R,"sorting");
+				t.setDaemon(true);
+				return t;
+				});
+			this.bufferPermits = new Semaphore(nThreads);
+			}
+		else
+			{
+			this.executor = null;
+			this.bufferPermits = null;
+			}
+		this.buffer = new Object[Math.min(maxRecordsInRam, 10_000)];
+		}
+	
+	/** same as SortingCollection: if true, the in-memory records are released while iterating */
+	public void setDestructiveIteration(final boolean destructiveIteration) {
+		this.destructiveIteration = destructiveIteration;
+		}
+	
+	public void add(final T record) {
+		if(this.doneAdding) throw new IllegalStateException("Cannot add after calling doneAdding()");
+		if(this.numRecordsInBuffer == this.buffer.length) {
+			if(this.numRecordsInBuffer >= this.maxRecordsInRam) {
+				spillToDisk();
+				}
+			else
+				{
+				this.buffer = Arrays.copyOf(this.buffer, Math.min(this.maxRecordsInRam, this.buffer.length*2));
+				}
+			}
+		this.buffer[this.numRecordsInBuffer++] = record;
+		}
+	
+	@SuppressWarnings("unchecked")
+	private void sortBuffer(final Object array[],final int n) {
+		final Comparator<Object> cmp = (Comparator<Object>)this.comparator;
+		Arrays.sort(array, 0, n, cmp);
+		}
+	
+	private Path createRunPath() throws IOException {
+		final Path dir = this.tmpDirs.get(this.tmpDirIndex % this.tmpDirs.size());
+		this.tmpDirIndex++;
+		final Path path = Files.createTempFile(dir, "sortingcollection.", ".tmp");
+		path.toFile().deleteOnExit();
+		return path;
+		}
+	
+	/** sort and write the current buffer to a new run */
+	private void spillToDisk() {
+		if(this.numRecordsInBuffer==0) return;
+		checkPendingRuns(false);
+		final Object array[] = this.buffer;
+		final int n = this.numRecordsInBuffer;
+		final Path path;
+		try {
+			path = createRunPath();
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException(err);
+			}
+		this.runs.add(path);
+		if(this.executor==null) {
+			writeRun(array, n, path);
+			Arrays.fill(array, 0, n, null);
+			}
+		else
+			{
+			this.bufferPermits.acquireUninterruptibly();
+			this.pendingRuns.add(this.executor.submit(()->{
+				try {
+					writeRun(array, n, path);
+					}
+				finally
+					{
+					this.bufferPermits.release();
+					}
+				}));
+			this.buffer = new Object[this.maxRecordsInRam];
+			}
+		this.numRecordsInBuffer = 0;
+		}
+	
+	/** check for the errors of the background writers. If 'wait', wait for all the writers */
+	private void checkPendingRuns(final boolean wait) {
+		int i=0;
+		while(i< this.pendingRuns.size()) {
+			final Future<?> f = this.pendingRuns.get(i);
+			if(!wait && !f.isDone()) {
+				i++;
+				continue;
+				}
+			try {
+				f.get();
+				}
+			catch(final InterruptedException err) {
+				throw new RuntimeException(err);
+				}
+			catch(final ExecutionException err) {
+				if(err.getCause() instanceof RuntimeException) throw (RuntimeException)err.getCause();
+				throw new RuntimeIOException(err.getCause());
+				}
+			this.pendingRuns.remove(i);
+			}
+		}
+	
+	/** sort the records and write them in a run */
+	private void writeRun(final Object array[],final int n,final Path path) {
+		sortBuffer(array, n);
+		final SortingCollection.Codec<T> c = this.codec.clone();
+		try(BlockOutputStream out = new BlockOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			c.setOutputStream(out);
+			for(int i=0;i< n;i++) {
+				@SuppressWarnings("unchecked")
+				final T record = (T)array[i];
+				c.encode(record);
+				out.endRecord();
+				}
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException(err);
+			}
+		}
+	
+	/** stream of blocks, records are buffered and deflated when the block is full */
+	private class BlockOutputStream extends OutputStream {
+		private final DataOutputStream out;
+		private final Deflater deflater;
+		private byte raw[] = new byte[BLOCK_SIZE];
+		private byte compressed[] = new byte[BLOCK_SIZE];
+		private int rawLength = 0;
+		private int numRecords = 0;
+		BlockOutputStream(final OutputStream out) {
+			this.out = new DataOutputStream(out);
+			this.deflater = (compressionLevel==0?null:new Deflater(compressionLevel,true));
+			}
+		@Override
+		public void write(final int b) throws IOException {
+			ensureCapacity(1);
+			this.raw[this.rawLength++] = (byte)b;
+			}
+		@Override
+		public void write(final byte[] b,final int off,final int len) throws IOException {
+			ensureCapacity(len);
+			System.arraycopy(b, off, this.raw, this.rawLength, len);
+			this.rawLength+=len;
+			}
+		private void ensureCapacity(final int len) {
+			if(this.rawLength + len > this.raw.length) {
+				this.raw = Arrays.copyOf(this.raw, Math.max(this.rawLength + len, this.raw.length*2));
+				}
+			}
+		/** called after each record: flush the block if it is full */
+		void endRecord() throws IOException {
+			this.numRecords++;
+			if(this.rawLength >= BLOCK_SIZE) flushBlock();
+			}
+		private void flushBlock() throws IOException {
+			if(this.numRecords==0) return;
+			this.out.writeInt(this.numRecords);
+			this.out.writeInt(this.rawLength);
+			if(this.deflater==null) {
+				this.out.writeInt(-1);
+				this.out.write(this.raw, 0, this.rawLength);
+				}
+			else
+				{
+				this.deflater.reset();
+				this.deflater.setInput(this.raw, 0, this.rawLength);
+				this.deflater.finish();
+				int n = 0;
+				while(!this.deflater.finished()) {
+					if(n==this.compressed.length) this.compressed = Arrays.copyOf(this.compressed, this.compressed.length*2);
+					n += this.deflater.deflate(this.compressed, n, this.compressed.length-n);
+					}
+				this.out.writeInt(n);
+				this.out.write(this.compressed, 0, n);
+				}
+			this.numRecords = 0;
+			this.rawLength = 0;
+			}
+		@Override
+		public void close() throws IOException {
+			flushBlock();
+			this.out.close();
+			if(this.deflater!=null) this.deflater.end();
+			}
+		}
+	
+	/** a sorted source of records for the merge */
+	private interface Source<T> extends Closeable {
+		/** @return the next record or null */
+		T next();
+		}
+	
+	/** records of the last buffer, kept in memory */
+	private class MemorySource implements Source<T> {
+		private int i=0;
+		@SuppressWarnings("unchecked")
+		@Override
+		public T next() {
+			if(this.i>= numRecordsInBuffer) return null;
+			final T o = (T)buffer[this.i];
+			if(destructiveIteration) buffer[this.i]=null;
+			this.i++;
+			return o;
+			}
+		@Override
+		public void close() {
+			}
+		}
+	
+	/** reads a run, block by block. The next block is decoded on a background thread if there is an executor */
+	private class RunSource implements Source<T> {
+		private final DataInputStream in;
+		private final SortingCollection.Codec<T> c = codec.clone();
+		private final Inflater inflater = new Inflater(true);
+		private byte compressed[] = new byte[BLOCK_SIZE];
+		private Object records[] = new Object[0];
+		private int numRecords = 0;
+		private int index = 0;
+		private Future<Object[]> nextBlock = null;
+		private boolean eof = false;
+		
+		RunSource(final Path path) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+			prefetch();
+			}
+		
+		private void prefetch() {
+			if(executor!=null && !this.eof) this.nextBlock = executor.submit(this::readBlock);
+			}
+		
+		/** read and decode the next block, returns an empty array at the end of the run */
+		private Object[] readBlock() throws IOException, DataFormatException {
+			final int n;
+			try {
+				n = this.in.readInt();
+				}
+			catch(final EOFException err) {
+				this.eof = true;
+				return new Object[0];
+				}
+			final int rawLength = this.in.readInt();
+			final int storedLength = this.in.readInt();
+			final byte raw[] = new byte[rawLength];
+			if(storedLength<0) {
+				this.in.readFully(raw);
+				}
+			else
+				{
+				if(this.compressed.length < storedLength) this.compressed = new byte[storedLength];
+				this.in.readFully(this.compressed, 0, storedLength);
+				this.inflater.reset();
+				this.inflater.setInput(this.compressed, 0, storedLength);
+				int off = 0;
+				while(off< rawLength) {
+					final int count = this.inflater.inflate(raw, off, rawLength-off);
+					if(count==0 && (this.inflater.finished() || this.inflater.needsInput())) throw new IOException("truncated block");
+					off+=count;
+					}
+				}
+			final Object array[] = new Object[n];
+			this.c.setInputStream(new ByteArrayInputStream(raw));
+			for(int i=0;i< n;i++) {
+				array[i] = this.c.decode();
+				if(array[i]==null) throw new IOException("cannot decode record "+(i+1)+"/"+n);
+				}
+			return array;
+			}
+		
+		@SuppressWarnings("unchecked")
+		@Override
+		public T next() {
+			while(this.index>=this.numRecords) {
+				if(this.eof && this.nextBlock==null) return null;
+				try {
+					if(this.nextBlock!=null) {
+						this.records = this.nextBlock.get();
+						this.nextBlock = null;
+						}
+					else
+						{
+						this.records = readBlock();
+						}
+					}
+				catch(final ExecutionException err) {
+					throw new RuntimeIOException(err.getCause());
+					}
+				catch(final Exception err) {
+					throw new RuntimeIOException(err);
+					}
+				this.numRecords = this.records.length;
+				this.index = 0;
+				if(this.numRecords==0) {
+					this.eof = true;
+					return null;
+					}
+				prefetch();
+				}
+			final T o = (T)this.records[this.index];
+			this.records[this.index] = null;
+			this.index++;
+			return o;
+			}
+		
+		@Override
+		public void close() {
+			if(this.nextBlock!=null) {
+				try { this.nextBlock.get();} catch(final Exception err) {/* ignore */}
+				this.nextBlock = null;
+				}
+			this.eof = true;
+			CloserUtil.close(this.in);
+			this.inflater.end();
+			}
+		}
+	
+	/** k-way merge of the sources using a loser tree. Ties are resolved using the index of the source, so the sort is stable */
+	private class MergingIterator implements CloseableIterator<T> {
+		private final List<Source<T>> sources;
+		private final Object heads[];
+		/* tree[0] is the winner, tree[1..k-1] are the losers. The leaves are the nodes k..2k-1 */
+		private final int tree[];
+		private final int k;
+		private boolean closed = false;
+		
+		MergingIterator(final List<Source<T>> sources) {
+			this.sources = sources;
+			this.k = sources.size();
+			this.heads = new Object[this.k];
+			for(int i=0;i< this.k;i++) this.heads[i] = sources.get(i).next();
+			this.tree = new int[Math.max(1, this.k)];
+			if(this.k>0) this.tree[0] = build(1);
+			}
+		
+		/** true if source a comes before source b. An exhausted source is 'infinite' */
+		@SuppressWarnings("unchecked")
+		private boolean before(final int a,final int b) {
+			final Object oa = this.heads[a];
+			final Object ob = this.heads[b];
+			if(ob==null) return oa!=null || a<b;
+			if(oa==null) return false;
+			final int i = comparator.compare((T)oa, (T)ob);
+			if(i!=0) return i<0;
+			return a<b;
+			}
+		
+		private int build(final int node) {
+			if(node>=this.k) return node-this.k;
+			final int l = build(2*node);
+			final int r = build(2*node+1);
+			if(before(l, r)) {
+				this.tree[node] = r;
+				return l;
+				}
+			this.tree[node] = l;
+			return r;
+			}
+		
+		/** replay the matches from the leaf 's' to the root */
+		private void replay(int s) {
+			int node = (s+this.k)/2;
+			while(node>0) {
+				if(before(this.tree[node], s)) {
+					final int tmp = this.tree[node];
+					this.tree[node] = s;
+					s = tmp;
+					}
+				node/=2;
+				}
+			this.tree[0] = s;
+			}
+		
+		@Override
+		public boolean hasNext() {
+			if(this.closed || this.k==0) return false;
+			if(this.heads[this.tree[0]]==null) {
+				close();
+				return false;
+				}
+			return true;
+			}
+		
+		@SuppressWarnings("unchecked")
+		@Override
+		public T next() {
+			if(!hasNext()) throw new NoSuchElementException();
+			final int w = this.tree[0];
+			final T o = (T)this.heads[w];
+			this.heads[w] = this.sources.get(w).next();
+			replay(w);
+			return o;
+			}
+		
+		@Override
+		public void close() {
+			if(this.closed) return;
+			this.closed = true;
+			for(final Source<T> src:this.sources) CloserUtil.close(src);
+			}
+		}
+	
+	/** must be called after the last record was added */
+	public void doneAdding() {
+		if(this.doneAdding) throw new IllegalStateException("doneAdding() called twice");
+		this.doneAdding = true;
+		checkPendingRuns(true);
+		if(this.numRecordsInBuffer>0) {
+			if(this.executor!=null && this.runs.isEmpty()) {
+				@SuppressWarnings("unchecked")
+				final Comparator<Object> cmp = (Comparator<Object>)this.comparator;
+				Arrays.parallelSort(this.buffer, 0, this.numRecordsInBuffer, cmp);
+				}
+			else
+				{
+				sortBuffer(this.buffer,this.numRecordsInBuffer);
+				}
+			}
+		if(!this.runs.isEmpty()) {
+			LOG.debug("merging "+this.runs.size()+" runs.");
+			}
+		}
+	
+	/** @return the number of temporary files */
+	public int getNumberOfRuns() {
+		return this.runs.size();
+		}
+	
+	@Override
+	public CloseableIterator<T> iterator() {
+		if(!this.doneAdding) throw new IllegalStateException("iterator() called before doneAdding()");
+		if(this.cleanedUp) throw new IllegalStateException("iterator() called after cleanup()");
+		final List<Source<T>> sources = new ArrayList<>(this.runs.size()+1);
+		try {
+			for(final Path path: this.runs) {
+				sources.add(new RunSource(path));
+				}
+			}
+		catch(final IOException err) {
+			for(final Source<T> src:sources) CloserUtil.close(src);
+			throw new RuntimeIOException(err);
+			}
+		/* the in-memory records are the last ones to be added */
+		sources.add(new MemorySource());
+		return new MergingIterator(sources);
+		}
+	
+	/** delete the temporary files and stop the threads */
+	public void cleanup() {
+		if(this.cleanedUp) return;
+		this.cleanedUp = true;
+		/* wait for the writers, so they don't re-create a deleted file */
+		for(final Future<?> f: this.pendingRuns) {
+			try { f.get(); } catch(final Exception err) {/* ignore */}
+			}
+		this.pendingRuns.clear();
+		if(this.executor!=null) this.executor.shutdownNow();
+		for(final Path path: this.runs) {
+			try {
+				Files.deleteIfExists(path);
+				}
+			catch(final IOException err) {
+				LOG.warn("cannot delete "+path);
+				}
+			}
+		this.runs.clear();
+		this.buffer = null;
+		this.numRecordsInBuffer = 0;
+		}
+	
+	@Override
+	public void close() {
+		cleanup();
+		}
+	}
@@ -24,21 +24,26 @@ SOFTWARE.
 
 History:
 * 2014 creation
+* 2018-10-16 can be backed by a memory-mapped UCSC 2bit file
 
 */
 package com.github.lindenb.jvarkit.util.picard;
 
+import java.io.IOException;
+
 import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.Locatable;
 import htsjdk.samtools.SAMSequenceRecord;
 
 import com.github.lindenb.jvarkit.lang.AbstractCharSequence;
 import com.github.lindenb.jvarkit.util.bio.ChromosomeSequence;
+import com.github.lindenb.jvarkit.util.bio.fasta.TwoBitSequenceFile;
 
 /**
  * 
  * implementation of java.lang.CharSequence for a given
- * chromosome of a picard IndexedFastaSequenceFile
+ * chromosome of a picard IndexedFastaSequenceFile or of a UCSC 2bit file
  *
  */
 public class GenomicSequence
@@ -46,6 +51,8 @@ public class GenomicSequence
 	implements ChromosomeSequence
 	{
 	private final IndexedFastaSequenceFile indexedFastaSequenceFile;
+	/** memory-mapped sequence, when opened from a 2bit file. No buffer is needed */
+	private final TwoBitSequenceFile.TwoBitContig twoBitContig;
 	private final SAMSequenceRecord samSequenceRecord;
 	private byte buffer[]=null;
 	private int buffer_pos=-1;
@@ -142,6 +149,21 @@ public class GenomicSequence
 			}
 		this.samSequenceRecord=this.indexedFastaSequenceFile.getSequenceDictionary().getSequence(chrom);
 		if(this.samSequenceRecord==null) throw new IllegalArgumentException("not chromosome "+chrom+" in reference.");
+		this.twoBitContig = null;
+		}
+	
+	public GenomicSequence(final TwoBitSequenceFile twoBitFile ,final String chrom)
+		{
+		if(twoBitFile==null) throw new NullPointerException("TwoBitSequenceFile is null");
+		this.indexedFastaSequenceFile = null;
+		try {
+			this.twoBitContig = twoBitFile.getContig(chrom);
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException(err);
+			}
+		if(this.twoBitContig==null) throw new IllegalArgumentException("not chromosome "+chrom+" in reference.");
+		this.samSequenceRecord = this.twoBitContig.getSAMSequenceRecord();
 		}
 	
 	public SAMSequenceRecord getSAMSequenceRecord()
@@ -175,6 +197,10 @@ public class GenomicSequence
 			{
 			throw new IndexOutOfBoundsException("index:"+index0);
 			}
+		if(this.twoBitContig!=null)
+			{
+			return this.twoBitContig.charAt(index0);
+			}
 		if(buffer!=null && index0>=buffer_pos && index0-buffer_pos < buffer.length)
 			{
 			return (char)buffer[index0-buffer_pos];
@@ -30,8 +30,9 @@ History:
 package com.github.lindenb.jvarkit.util.picard;
 
 import java.io.IOException;
+import java.util.function.LongSupplier;
 
-
+import com.github.lindenb.jvarkit.io.ParallelBlockCompressedInputStream;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 
@@ -57,6 +58,8 @@ public class SAMSequenceDictionaryProgress
 	private long print_every_n_seconds=10L;
 	private String logPrefix=null;
 	private Handler handler=null;
+	/** number of bytes read so far, used to print the throughput. May be null */
+	private LongSupplier bytesCounter = null;
 	
 	private Logger getLogger() {
 		return log==null?_LOG:log;
@@ -78,7 +81,8 @@ public class SAMSequenceDictionaryProgress
 		private String speed()
 			{
 			return " Speed: "+
-					(count/(float)(curr_ticks-start_ticks))+" record/millisec.";
+					(count/(float)(curr_ticks-start_ticks))+" record/millisec."+
+					throughput();
 			}
 		
 		void printVoid()
@@ -200,7 +204,7 @@ public class SAMSequenceDictionaryProgress
 			
 			
 			getLogger().info(
-					String.format("%sCount: %d Elapsed: %s(%.2f%%) Remains: %s(%.2f%%) Last: %s:%d",
+					String.format("%sCount: %d Elapsed: %s(%.2f%%) Remains: %s(%.2f%%) Last: %s:%d%s",
 					
 					(logPrefix==null?"":"["+logPrefix+"]"),
 					count,
@@ -212,7 +216,8 @@ public class SAMSequenceDictionaryProgress
 					(100-percentDone*100.0),
 					
 					samSequenceDictionary.getSequence(tid).getSequenceName(),
-					pos
+					pos,
+					throughput()
 					));
 			}
 		}
@@ -275,6 +280,36 @@ public class SAMSequenceDictionaryProgress
 		}
 	
 	
+	/** set the counter of bytes read, used to print the throughput,
+	 * e.g: the getInflatedBytes() method of a {@link ParallelBlockCompressedInputStream}.
+	 * Default is null: no throughput. */
+	public SAMSequenceDictionaryProgress bytesCounter(final LongSupplier bytesCounter)
+		{
+		this.bytesCounter = bytesCounter;
+		return this;
+		}
+	
+	/** return the number of records per second */
+	public double getRecordsPerSecond()
+		{
+		if(this.start_ticks==-1L || this.curr_ticks<=this.start_ticks) return 0.0;
+		return this.count/((this.curr_ticks-this.start_ticks)/1000.0);
+		}
+	
+	/** return the number of bytes per second or 0 if there is no bytesCounter */
+	public double getBytesPerSecond()
+		{
+		if(this.bytesCounter==null || this.start_ticks==-1L || this.curr_ticks<=this.start_ticks) return 0.0;
+		return this.bytesCounter.getAsLong()/((this.curr_ticks-this.start_ticks)/1000.0);
+		}
+	
+	private String throughput()
+		{
+		final double bytesPerSecond = getBytesPerSecond();
+		if(bytesPerSecond<=0) return "";
+		return String.format(" Throughput: %.2f Mb/sec.",bytesPerSecond/1.0E6);
+		}
+	
 	public void setPrintEveryNSeconds(long print_every_n_seconds)
 		{
 		this.print_every_n_seconds = print_every_n_seconds;
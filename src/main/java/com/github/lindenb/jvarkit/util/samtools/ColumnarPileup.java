@@ -0,0 +1,511 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.samtools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.function.ToIntFunction;
+
+import htsjdk.samtools.Cigar;
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+
+/**
+ * Multi-sample pileup.
+ * 
+ * The reads of N coordinate-sorted sources are merged (k-way merge) and, for each sample,
+ * the bases, the indels, the clipped bases and their strand are counted in the primitive
+ * arrays of a sliding window. Each covered reference position is returned as a compact {@link Column}.
+ * 
+ * All the sources must share the same order of the contigs. The clipped bases are projected
+ * on the reference; the emission of a column is delayed by the longest unclipped read seen so far.
+ */
+public class ColumnarPileup implements CloseableIterator<ColumnarPileup.Column>
+	{
+	/** read base is 'A' (M,=,X) */
+	public static final int BASE_A = 0;
+	/** read base is 'C' (M,=,X) */
+	public static final int BASE_C = 1;
+	/** read base is 'G' (M,=,X) */
+	public static final int BASE_G = 2;
+	/** read base is 'T' (M,=,X) */
+	public static final int BASE_T = 3;
+	/** read base is any other symbol (M,=,X) */
+	public static final int BASE_N = 4;
+	/** base is deleted in the read (D) */
+	public static final int DELETION = 5;
+	/** base is skipped in the read (N) */
+	public static final int REF_SKIP = 6;
+	/** read has an insertion just before this base */
+	public static final int INSERTION = 7;
+	/** soft clipped base projected on the reference */
+	public static final int SOFT_CLIP = 8;
+	/** hard clipped base projected on the reference */
+	public static final int HARD_CLIP = 9;
+	/** base was aligned with the '=' operator */
+	public static final int OP_EQ = 10;
+	/** base was aligned with the 'X' operator */
+	public static final int OP_X = 11;
+	/** number of categories */
+	public static final int NUM_CATEGORIES = 12;
+	
+	private static final byte BASE2CATEGORY[] = new byte[256];
+	static {
+		Arrays.fill(BASE2CATEGORY, (byte)BASE_N);
+		BASE2CATEGORY['A'] = BASE2CATEGORY['a'] = BASE_A;
+		BASE2CATEGORY['C'] = BASE2CATEGORY['c'] = BASE_C;
+		BASE2CATEGORY['G'] = BASE2CATEGORY['g'] = BASE_G;
+		BASE2CATEGORY['T'] = BASE2CATEGORY['t'] = BASE_T;
+		}
+	
+	/** a source of coordinate-sorted reads */
+	public static class Source
+		{
+		private final Iterator<SAMRecord> delegate;
+		private final ToIntFunction<SAMRecord> toSample;
+		private int ordinal = 0;
+		private SAMRecord head = null;
+		private int headTid = -1;
+		private int headSample = -1;
+		
+		/**
+		 * @param delegate the coordinate-sorted reads
+		 * @param toSample converts a read to the index of a sample. A negative value means 'ignore this read'
+		 */
+		public Source(final Iterator<SAMRecord> delegate,final ToIntFunction<SAMRecord> toSample)
+			{
+			this.delegate = delegate;
+			this.toSample = toSample;
+			}
+		
+		/** index of the contig of this read, used to merge the sources. Default is <code>rec.getReferenceIndex()</code> */
+		protected int getReferenceIndex(final SAMRecord rec)
+			{
+			return rec.getReferenceIndex();
+			}
+		
+		/** fill the next read, returns false if there is no more read */
+		private boolean advance()
+			{
+			final SAMRecord prev = this.head;
+			final int prevTid = this.headTid;
+			this.head = null;
+			while(this.delegate.hasNext())
+				{
+				final SAMRecord rec = this.delegate.next();
+				if(rec.getReadUnmappedFlag() || rec.getCigar()==null) continue;
+				final int sample = this.toSample.applyAsInt(rec);
+				if(sample<0) continue;
+				final int tid = getReferenceIndex(rec);
+				if(tid<0) continue;
+				if(prev!=null && (tid < prevTid || (tid==prevTid && rec.getAlignmentStart() < prev.getAlignmentStart())))
+					{
+					throw new IllegalStateException("Reads are not sorted on coordinate: got "+
+						rec.getReadName()+" "+rec.getContig()+":"+rec.getAlignmentStart()+" after "+
+						prev.getReadName()+" "+prev.getContig()+":"+prev.getAlignmentStart());
+					}
+				this.head = rec;
+				this.headTid = tid;
+				this.headSample = sample;
+				return true;
+				}
+			return false;
+			}
+		}
+	
+	/** an insertion or a deletion, anchored on the reference base before the event (as in the VCF) */
+	public static class Indel
+		{
+		private final int sample;
+		private final boolean negativeStrand;
+		private final CigarOperator op;
+		private final int length;
+		private final byte bases[];
+		
+		private Indel(final int sample,final boolean negativeStrand,final CigarOperator op,final int length,final byte bases[])
+			{
+			this.sample = sample;
+			this.negativeStrand = negativeStrand;
+			this.op = op;
+			this.length = length;
+			this.bases = bases;
+			}
+		public int getSample() {
+			return this.sample;
+			}
+		public boolean isNegativeStrand() {
+			return this.negativeStrand;
+			}
+		/** @return the cigar operator: I, D or N */
+		public CigarOperator getOperator() {
+			return this.op;
+			}
+		public boolean isInsertion() {
+			return this.op.equals(CigarOperator.I);
+			}
+		/** @return the number of inserted or deleted bases */
+		public int getLength() {
+			return this.length;
+			}
+		/** @return the inserted bases, upper case. null if it is not an insertion */
+		public String getInsertedBases() {
+			return this.bases==null?null:new String(this.bases);
+			}
+		@Override
+		public String toString() {
+			return this.op.name()+"("+(isInsertion()?getInsertedBases():String.valueOf(this.length))+")";
+			}
+		}
+	
+	/** the counts at a reference position */
+	public static class Column
+		{
+		private final int tid;
+		private final int pos;
+		private final int nSamples;
+		private final int counts[];
+		private final List<Indel> indels;
+		
+		private Column(final int tid,final int pos,final int nSamples,final int counts[],final List<Indel> indels)
+			{
+			this.tid = tid;
+			this.pos = pos;
+			this.nSamples = nSamples;
+			this.counts = counts;
+			this.indels = indels;
+			}
+		/** @return the index of the contig */
+		public int getReferenceIndex() {
+			return this.tid;
+			}
+		/** @return the 1-based position */
+		public int getPosition() {
+			return this.pos;
+			}
+		public int getSampleCount() {
+			return this.nSamples;
+			}
+		/** @return the number of reads of the sample for this category and this strand */
+		public int getCount(final int sample,final int category,final boolean negativeStrand) {
+			return this.counts[(sample*NUM_CATEGORIES+category)*2+(negativeStrand?1:0)];
+			}
+		/** @return the number of reads of the sample for this category, both strands */
+		public int getCount(final int sample,final int category) {
+			final int i = (sample*NUM_CATEGORIES+category)*2;
+			return this.counts[i] + this.counts[i+1];
+			}
+		/** @return the number of aligned bases (M,=,X) of the sample */
+		public int getDepth(final int sample) {
+			int n = 0;
+			for(int c=BASE_A;c<=BASE_N;++c) n+= getCount(sample, c);
+			return n;
+			}
+		/** @return the indels anchored on this base */
+		public List<Indel> getIndels() {
+			return this.indels;
+			}
+		@Override
+		public String toString() {
+			return "tid="+this.tid+":"+this.pos;
+			}
+		}
+	
+	/** tells if a column should be returned */
+	@FunctionalInterface
+	public static interface ColumnFilter
+		{
+		public boolean accept(int tid,int pos1);
+		}
+	
+	private final List<Source> sources;
+	private final PriorityQueue<Source> queue;
+	private final int nSamples;
+	/** number of integers per position */
+	private final int stride;
+	private int capacity = 0;
+	private int counts[] = new int[0];
+	private boolean touched[] = new boolean[0];
+	private Object indels[] = new Object[0];
+	/** current contig */
+	private int tid = -1;
+	/** first position that was not emitted, 1-based */
+	private int windowStart = 1;
+	/** last position that was counted, 1-based */
+	private int windowEnd = 0;
+	/** emission of a column is delayed by this number of bases */
+	private int margin = 1;
+	private ColumnFilter columnFilter = null;
+	/** clipped bases are projected at most this distance from the aligned bases of their read */
+	private int maxClipProjection = Integer.MAX_VALUE;
+	private Column next = null;
+	
+	/**
+	 * @param nSamples number of samples
+	 * @param sources sources of reads
+	 */
+	public ColumnarPileup(final int nSamples,final List<Source> sources)
+		{
+		this.nSamples = nSamples;
+		this.stride = nSamples * NUM_CATEGORIES * 2;
+		this.sources = new ArrayList<>(sources);
+		final Comparator<Source> cmp = (A,B)->{
+			int i = Integer.compare(A.headTid, B.headTid);
+			if(i!=0) return i;
+			i = Integer.compare(A.head.getAlignmentStart(), B.head.getAlignmentStart());
+			if(i!=0) return i;
+			return Integer.compare(A.ordinal, B.ordinal);
+			};
+		this.queue = new PriorityQueue<>(Math.max(1, this.sources.size()), cmp);
+		for(int i=0;i< this.sources.size();i++)
+			{
+			final Source src = this.sources.get(i);
+			src.ordinal = i;
+			if(src.advance()) this.queue.add(src);
+			}
+		ensureCapacity(1000);
+		}
+	
+	/** only the columns accepted by this filter will be returned. Default: all the covered columns */
+	public ColumnarPileup setColumnFilter(final ColumnFilter columnFilter) {
+		this.columnFilter = columnFilter;
+		return this;
+		}
+	
+	/** the clipped bases are only counted up to this distance from the aligned bases of their read. Default: no limit */
+	public ColumnarPileup setMaxClipProjection(final int maxClipProjection) {
+		if(maxClipProjection<0) throw new IllegalArgumentException("maxClipProjection<0 : "+maxClipProjection);
+		this.maxClipProjection = maxClipProjection;
+		return this;
+		}
+	
+	public int getSampleCount() {
+		return this.nSamples;
+		}
+	
+	private boolean isWindowEmpty() {
+		return this.windowStart > this.windowEnd;
+		}
+	
+	private void ensureCapacity(final int length) {
+		if(length <= this.capacity) return;
+		final int newCapacity = Math.max(length, this.capacity*2);
+		final int newCounts[] = new int[newCapacity*this.stride];
+		final boolean newTouched[] = new boolean[newCapacity];
+		final Object newIndels[] = new Object[newCapacity];
+		for(int pos=this.windowStart;pos<=this.windowEnd;++pos)
+			{
+			final int s1 = pos % this.capacity;
+			final int s2 = pos % newCapacity;
+			System.arraycopy(this.counts, s1*this.stride, newCounts, s2*this.stride, this.stride);
+			newTouched[s2] = this.touched[s1];
+			newIndels[s2] = this.indels[s1];
+			}
+		this.capacity = newCapacity;
+		this.counts = newCounts;
+		this.touched = newTouched;
+		this.indels = newIndels;
+		}
+	
+	private void increment(final int pos,final int sample,final int category,final int strand) {
+		if(pos < this.windowStart) return;
+		final int s = pos % this.capacity;
+		this.counts[s*this.stride + (sample*NUM_CATEGORIES+category)*2 + strand]++;
+		this.touched[s] = true;
+		if(pos > this.windowEnd) this.windowEnd = pos;
+		}
+	
+	@SuppressWarnings("unchecked")
+	private void addIndel(final int anchor,final Indel indel) {
+		if(anchor < this.windowStart) return;
+		final int s = anchor % this.capacity;
+		List<Indel> L = (List<Indel>)this.indels[s];
+		if(L==null) {
+			L = new ArrayList<>(2);
+			this.indels[s] = L;
+			}
+		L.add(indel);
+		this.touched[s] = true;
+		if(anchor > this.windowEnd) this.windowEnd = anchor;
+		}
+	
+	/** true if a clipped base of 'rec' projected on 'pos' is not too far from the aligned bases */
+	private boolean isClipProjected(final SAMRecord rec,final int pos) {
+		return rec.getAlignmentStart() - pos <= this.maxClipProjection &&
+			pos - rec.getAlignmentEnd() <= this.maxClipProjection;
+		}
+	
+	/** count the read at the head of the queue */
+	private void consume() {
+		final Source src = this.queue.poll();
+		final SAMRecord rec = src.head;
+		final int sample = src.headSample;
+		if(src.advance()) this.queue.add(src);
+		
+		final int start = Math.max(1, Math.min(rec.getUnclippedStart(), rec.getAlignmentStart()-1));
+		if(isWindowEmpty() && start > this.windowStart) {
+			this.windowStart = start;
+			this.windowEnd = start - 1;
+			}
+		final int end = Math.max(rec.getUnclippedEnd(), rec.getAlignmentEnd());
+		this.margin = Math.max(this.margin, end - start + 1);
+		ensureCapacity(end - this.windowStart + 2);
+		
+		final int strand = rec.getReadNegativeStrandFlag()?1:0;
+		final Cigar cigar = rec.getCigar();
+		final byte bases[] = rec.getReadBases();
+		int ref = rec.getUnclippedStart();
+		int readPos = 0;
+		for(final CigarElement ce: cigar.getCigarElements())
+			{
+			final CigarOperator op = ce.getOperator();
+			final int len = ce.getLength();
+			switch(op)
+				{
+				case P: break;
+				case H:
+					{
+					for(int i=0;i< len;++i) if(isClipProjected(rec, ref+i)) increment(ref+i, sample, HARD_CLIP, strand);
+					ref+=len;
+					break;
+					}
+				case S:
+					{
+					for(int i=0;i< len;++i) if(isClipProjected(rec, ref+i)) increment(ref+i, sample, SOFT_CLIP, strand);
+					ref+=len;
+					readPos+=len;
+					break;
+					}
+				case I:
+					{
+					increment(ref, sample, INSERTION, strand);
+					final byte ins[] = new byte[len];
+					for(int i=0;i< len && readPos+i < bases.length;++i)
+						{
+						ins[i] = (byte)Character.toUpperCase(bases[readPos+i]);
+						}
+					if(ref > 1) addIndel(ref-1, new Indel(sample, strand==1, op, len, ins));
+					readPos+=len;
+					break;
+					}
+				case D: case N:
+					{
+					final int category = (op.equals(CigarOperator.D)?DELETION:REF_SKIP);
+					for(int i=0;i< len;++i) increment(ref+i, sample, category, strand);
+					if(ref > 1) addIndel(ref-1, new Indel(sample, strand==1, op, len, null));
+					ref+=len;
+					break;
+					}
+				case M: case EQ: case X:
+					{
+					final int opCategory = (op.equals(CigarOperator.EQ)?OP_EQ:op.equals(CigarOperator.X)?OP_X:-1);
+					for(int i=0;i< len;++i)
+						{
+						final int category = (readPos+i < bases.length ? BASE2CATEGORY[bases[readPos+i]&0xFF] : BASE_N);
+						increment(ref+i, sample, category, strand);
+						if(opCategory!=-1) increment(ref+i, sample, opCategory, strand);
+						}
+					ref+=len;
+					readPos+=len;
+					break;
+					}
+				default: throw new IllegalStateException("unknown operator:"+op);
+				}
+			}
+		}
+	
+	/** remove the first position of the window, returns the column or null if it is not covered or filtered */
+	@SuppressWarnings("unchecked")
+	private Column pollColumn() {
+		final int pos = this.windowStart;
+		final int s = pos % this.capacity;
+		this.windowStart++;
+		if(!this.touched[s]) return null;
+		Column col = null;
+		if(this.columnFilter==null || this.columnFilter.accept(this.tid, pos))
+			{
+			final List<Indel> L = (List<Indel>)this.indels[s];
+			col = new Column(this.tid, pos, this.nSamples,
+				Arrays.copyOfRange(this.counts, s*this.stride, (s+1)*this.stride),
+				L==null?Collections.emptyList():L
+				);
+			}
+		Arrays.fill(this.counts, s*this.stride, (s+1)*this.stride, 0);
+		this.touched[s] = false;
+		this.indels[s] = null;
+		return col;
+		}
+	
+	@Override
+	public boolean hasNext() {
+		while(this.next==null)
+			{
+			final Source src = this.queue.peek();
+			if(src!=null && src.headTid==this.tid)
+				{
+				if(isWindowEmpty() || this.windowStart >= src.head.getAlignmentStart() - this.margin)
+					{
+					consume();
+					continue;
+					}
+				}
+			else if(isWindowEmpty())
+				{
+				if(src==null) return false;
+				/* start a new contig */
+				this.tid = src.headTid;
+				this.windowStart = 1;
+				this.windowEnd = 0;
+				consume();
+				continue;
+				}
+			this.next = pollColumn();
+			}
+		return true;
+		}
+	
+	@Override
+	public Column next() {
+		if(!hasNext()) throw new NoSuchElementException();
+		final Column col = this.next;
+		this.next = null;
+		return col;
+		}
+	
+	/** close the sources */
+	@Override
+	public void close() {
+		for(final Source src:this.sources) CloserUtil.close(src.delegate);
+		this.queue.clear();
+		}
+	}
@@ -0,0 +1,194 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.samtools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.github.lindenb.jvarkit.io.ParallelBlockCompressedOutputStream;
+
+import htsjdk.samtools.BAMFileSpan;
+import htsjdk.samtools.BAMIndex;
+import htsjdk.samtools.BAMIndexer;
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.Chunk;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileSource;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SAMTextHeaderCodec;
+import htsjdk.samtools.util.BinaryCodec;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.ProgressLoggerInterface;
+import htsjdk.samtools.util.RuntimeIOException;
+
+/**
+ * A BAM writer compressing the BGZF blocks on a pool of threads, see {@link ParallelBlockCompressedOutputStream}.
+ * 
+ * The records are never sorted: the caller must send them in the order of the header.
+ * If an index is created, the BAI is built when the virtual offsets of the reads are known.
+ */
+public class ParallelBamFileWriter implements SAMFileWriter {
+	private final SAMFileHeader header;
+	private final ParallelBlockCompressedOutputStream bgzf;
+	private final BAMRecordCodec codec;
+	private final File outputFile;
+	private final BAMIndexer indexer;
+	/** reads waiting for their virtual offsets to be indexed */
+	private final Deque<PendingRead> pending = new ArrayDeque<>();
+	private ProgressLoggerInterface progressLogger = null;
+	private boolean closed = false;
+	
+	/** a light copy of a read for the BAMIndexer. SAMRecord.setFileSource is protected */
+	@SuppressWarnings("serial")
+	private static class IndexedRead extends SAMRecord {
+		IndexedRead(final SAMRecord rec) {
+			super(rec.getHeader());
+			setFlags(rec.getFlags());
+			setReferenceIndex(rec.getReferenceIndex());
+			setAlignmentStart(rec.getAlignmentStart());
+			setCigar(rec.getCigar());
+			}
+		void setChunk(final Chunk chunk) {
+			setFileSource(new SAMFileSource(null, new BAMFileSpan(chunk)));
+			}
+		}
+	
+	private static class PendingRead {
+		final IndexedRead rec;
+		final long deferredStart;
+		final long deferredEnd;
+		PendingRead(final IndexedRead rec,final long deferredStart,final long deferredEnd) {
+			this.rec = rec;
+			this.deferredStart = deferredStart;
+			this.deferredEnd = deferredEnd;
+			}
+		}
+	
+	/**
+	 * @param header the SAM header
+	 * @param outputFile the BAM file
+	 * @param compressionLevel deflate level
+	 * @param nThreads number of compression threads
+	 * @param createIndex create the BAI index. Ignored if the header is not sorted on coordinate
+	 */
+	public ParallelBamFileWriter(
+			final SAMFileHeader header,
+			final File outputFile,
+			final int compressionLevel,
+			final int nThreads,
+			final boolean createIndex
+			) throws IOException {
+		this.header = header;
+		this.outputFile = outputFile;
+		this.bgzf = new ParallelBlockCompressedOutputStream(outputFile, compressionLevel, nThreads);
+		final BinaryCodec binaryCodec = new BinaryCodec(this.bgzf);
+		final StringWriter headerText = new StringWriter();
+		new SAMTextHeaderCodec().encode(headerText, header, true);
+		binaryCodec.writeBytes(new byte[]{'B','A','M',1});
+		binaryCodec.writeString(headerText.toString(), true, false);
+		binaryCodec.writeInt(header.getSequenceDictionary().size());
+		for(final SAMSequenceRecord ssr: header.getSequenceDictionary().getSequences()) {
+			binaryCodec.writeString(ssr.getSequenceName(), true, true);
+			binaryCodec.writeInt(ssr.getSequenceLength());
+			}
+		/* like htsjdk: the header is in its own block(s) */
+		this.bgzf.flush();
+		this.codec = new BAMRecordCodec(header);
+		this.codec.setOutputStream(this.bgzf, outputFile.getPath());
+		
+		if(createIndex && header.getSortOrder().equals(SAMFileHeader.SortOrder.coordinate)) {
+			final File bai = new File(outputFile.getParentFile(), IOUtil.basename(outputFile) + BAMIndex.BAMIndexSuffix);
+			this.indexer = new BAMIndexer(bai, header);
+			}
+		else
+			{
+			this.indexer = null;
+			}
+		}
+	
+	@Override
+	public void addAlignment(final SAMRecord rec) {
+		rec.setHeaderStrict(this.header);
+		if(this.indexer==null) {
+			this.codec.encode(rec);
+			}
+		else
+			{
+			final long start = this.bgzf.getDeferredPosition();
+			this.codec.encode(rec);
+			final long end = this.bgzf.getDeferredPosition();
+			/* only keep the fields used by the indexer, the caller may modify the read later */
+			this.pending.add(new PendingRead(new IndexedRead(rec), start, end));
+			indexResolved();
+			}
+		if(this.progressLogger!=null) this.progressLogger.record(rec);
+		}
+	
+	/** send the reads with a known virtual offset to the indexer */
+	private void indexResolved() {
+		while(!this.pending.isEmpty() && this.bgzf.isResolved(this.pending.peekFirst().deferredEnd)) {
+			final PendingRead p = this.pending.pollFirst();
+			p.rec.setChunk(new Chunk(this.bgzf.resolve(p.deferredStart), this.bgzf.resolve(p.deferredEnd)));
+			this.indexer.processAlignment(p.rec);
+			}
+		}
+	
+	@Override
+	public SAMFileHeader getFileHeader() {
+		return this.header;
+		}
+	
+	@Override
+	public void setProgressLogger(final ProgressLoggerInterface progressLogger) {
+		this.progressLogger = progressLogger;
+		}
+	
+	@Override
+	public void close() {
+		if(this.closed) return;
+		this.closed = true;
+		try {
+			this.bgzf.close();
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException("Cannot close "+this.outputFile, err);
+			}
+		if(this.indexer!=null) {
+			/* all the blocks have been written, the offsets are known */
+			indexResolved();
+			this.indexer.finish();
+			}
+		}
+	
+	@Override
+	public String toString() {
+		return "ParallelBamFileWriter("+this.outputFile+")";
+		}
+	}
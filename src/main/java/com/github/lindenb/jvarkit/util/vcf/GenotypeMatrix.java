@@ -0,0 +1,360 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+
+/**
+ * A compact genotype matrix (variants x samples) for the whole-cohort tools.
+ * 
+ * Each genotype uses 2 bits stored off-heap (direct buffers) or in a memory-mapped file.
+ * A row (one variant/alt allele) is made of two bit-planes of 64-bit words:
+ * <ul>
+ * <li>plane 'A' : the sample carries at least one copy of the allele</li>
+ * <li>plane 'B' : the sample is HOM_VAR if 'A' is set, or the genotype is missing (no call/filtered) if 'A' is not set</li>
+ * </ul>
+ * Counting the carriers of an allele in a set of samples (e.g: cases or controls) is a
+ * few AND/bitCount on the words of the row.
+ * 
+ * This class is not thread-safe for writing, but concurrent readers are allowed once the matrix has been filled.
+ */
+public class GenotypeMatrix implements Closeable {
+	/** dosage value for a missing genotype */
+	public static final int MISSING = -1;
+	/** approximate size of the first chunk of rows, the next chunks are twice larger */
+	private static final long MIN_CHUNK_BYTES = 1L << 22;
+	/** max size of one chunk of rows */
+	private static final long MAX_CHUNK_BYTES = 1L << 30;
+	
+	private final int nSamples;
+	/** number of 64-bit words per plane */
+	private final int nWords;
+	/** number of rows in the first chunk */
+	private final int firstRowsPerChunk;
+	/** number of rows in the largest chunks: firstRowsPerChunk * 2^nGrowingChunks */
+	private final int maxRowsPerChunk;
+	/** number of chunks before the chunks reach maxRowsPerChunk */
+	private final int nGrowingChunks;
+	/** number of rows in the growing chunks */
+	private final int rowsBeforeMaxChunk;
+	private final List<LongBuffer> chunks = new ArrayList<>();
+	private final RandomAccessFile backingFile;
+	private final FileChannel channel;
+	private int nRows = 0;
+	/** temporary row used while filling the matrix */
+	private final long[] tmpRow;
+	
+	private GenotypeMatrix(final int nSamples,final File backingFileOrNull) throws IOException {
+		if(nSamples<0) throw new IllegalArgumentException("nSamples<0");
+		this.nSamples = nSamples;
+		this.nWords = Math.max(1, (nSamples + 63) / 64);
+		final long maxRows = Math.max(1L, MAX_CHUNK_BYTES / getBytesPerRow());
+		this.firstRowsPerChunk = (int)Math.max(1L, Math.min(maxRows, MIN_CHUNK_BYTES / getBytesPerRow()));
+		int k = 0;
+		while(((long)this.firstRowsPerChunk << (k+1)) <= maxRows) k++;
+		this.nGrowingChunks = k;
+		this.maxRowsPerChunk = this.firstRowsPerChunk << k;
+		this.rowsBeforeMaxChunk = this.firstRowsPerChunk * ((1 << k) - 1);
+		this.tmpRow = new long[2 * this.nWords];
+		if(backingFileOrNull!=null) {
+			this.backingFile = new RandomAccessFile(backingFileOrNull, "rw");
+			this.backingFile.setLength(0L);
+			this.channel = this.backingFile.getChannel();
+			}
+		else
+			{
+			this.backingFile = null;
+			this.channel = null;
+			}
+		}
+	
+	/** create a new matrix stored in direct (off-heap) memory. 
+	 * See java option -XX:MaxDirectMemorySize */
+	public static GenotypeMatrix allocate(final int nSamples) {
+		try {
+			return new GenotypeMatrix(nSamples, null);
+			}
+		catch(final IOException err) {
+			throw new IllegalStateException(err);
+			}
+		}
+	
+	/** create a new matrix backed by a memory-mapped file. The file is overwritten. */
+	public static GenotypeMatrix map(final int nSamples,final File backingFile) throws IOException {
+		return new GenotypeMatrix(nSamples, backingFile);
+		}
+	
+	/** number of bytes for one row */
+	private long getBytesPerRow() {
+		return 2L * this.nWords * Long.BYTES;
+		}
+	
+	public int getSampleCount() {
+		return this.nSamples;
+		}
+	
+	/** number of 64-bit words in one bit-plane */
+	public int getWordCount() {
+		return this.nWords;
+		}
+	
+	/** number of variants/rows */
+	public int size() {
+		return this.nRows;
+		}
+	
+	/** index of the chunk containing the row. The chunks grow geometrically up to maxRowsPerChunk */
+	private int chunkIndex(final int row) {
+		if(row < this.rowsBeforeMaxChunk) {
+			return 31 - Integer.numberOfLeadingZeros(row / this.firstRowsPerChunk + 1);
+			}
+		return this.nGrowingChunks + (row - this.rowsBeforeMaxChunk) / this.maxRowsPerChunk;
+		}
+	
+	/** index of the first row of the chunk */
+	private int chunkFirstRow(final int chunkIndex) {
+		if(chunkIndex < this.nGrowingChunks) {
+			return this.firstRowsPerChunk * ((1 << chunkIndex) - 1);
+			}
+		return this.rowsBeforeMaxChunk + (chunkIndex - this.nGrowingChunks) * this.maxRowsPerChunk;
+		}
+	
+	/** number of rows in the chunk */
+	private int chunkRows(final int chunkIndex) {
+		if(chunkIndex < this.nGrowingChunks) {
+			return this.firstRowsPerChunk << chunkIndex;
+			}
+		return this.maxRowsPerChunk;
+		}
+	
+	private LongBuffer newChunk() throws IOException {
+		final int chunkIndex = this.chunks.size();
+		final long chunkBytes = chunkRows(chunkIndex) * getBytesPerRow();
+		final ByteBuffer bb;
+		if(this.channel!=null) {
+			bb = this.channel.map(FileChannel.MapMode.READ_WRITE, chunkFirstRow(chunkIndex) * getBytesPerRow(), chunkBytes);
+			}
+		else
+			{
+			bb = ByteBuffer.allocateDirect((int)chunkBytes);
+			}
+		return bb.order(ByteOrder.nativeOrder()).asLongBuffer();
+		}
+	
+	/** index of the first word of the row in its chunk */
+	private int rowOffset(final int row) {
+		return (row - chunkFirstRow(chunkIndex(row))) * 2 * this.nWords;
+		}
+	
+	private LongBuffer chunk(final int row) {
+		if(row<0 || row>=this.nRows) throw new IndexOutOfBoundsException("row "+row+"/"+this.nRows);
+		return this.chunks.get(chunkIndex(row));
+		}
+	
+	/** number of copies of 'alt' in the genotype (max 2) or MISSING. The called alleles of a partial genotype (e.g: './1') are counted. */
+	public static int dosage(final Genotype g,final Allele alt,final boolean ignoreFiltered) {
+		if(g==null || !g.isCalled() || (ignoreFiltered && g.isFiltered())) return MISSING;
+		int n = 0;
+		for(final Allele a: g.getAlleles()) {
+			if(a.equals(alt) && ++n==2) break;
+			}
+		return n;
+		}
+	
+	/**
+	 * append a new row for the allele 'alt' of the variant
+	 * @param ctx the variant, its samples must be in the same order as the matrix
+	 * @param alt the allele to count
+	 * @param ignoreFiltered treat FILTERed genotypes as missing
+	 * @return the index of the new row
+	 */
+	public int add(final VariantContext ctx,final Allele alt,final boolean ignoreFiltered) {
+		if(ctx.getNSamples()!=this.nSamples) throw new IllegalArgumentException("expected "+this.nSamples+" samples but got "+ctx.getNSamples());
+		final int[] dosages = new int[this.nSamples];
+		for(int i=0;i< this.nSamples;i++) {
+			dosages[i] = dosage(ctx.getGenotype(i),alt,ignoreFiltered);
+			}
+		return add(dosages);
+		}
+	
+	/**
+	 * append a new row
+	 * @param dosages for each sample: 0, 1, 2 or MISSING
+	 * @return the index of the new row
+	 */
+	public int add(final int[] dosages) {
+		if(dosages.length!=this.nSamples) throw new IllegalArgumentException("expected "+this.nSamples+" dosages but got "+dosages.length);
+		Arrays.fill(this.tmpRow, 0L);
+		for(int i=0;i< this.nSamples;i++) {
+			final long bit = 1L << (i & 63);
+			final int w = i >>> 6;
+			switch(dosages[i]) {
+				case 0: break;
+				case 1: this.tmpRow[w] |= bit; break;
+				case 2: this.tmpRow[w] |= bit; this.tmpRow[this.nWords + w] |= bit; break;
+				case MISSING: this.tmpRow[this.nWords + w] |= bit; break;
+				default: throw new IllegalArgumentException("bad dosage "+dosages[i]);
+				}
+			}
+		if(this.nRows == chunkFirstRow(this.chunks.size())) {
+			try {
+				this.chunks.add(newChunk());
+				}
+			catch(final IOException err) {
+				throw new RuntimeIOException(err);
+				}
+			}
+		final int row = this.nRows++;
+		final LongBuffer buf = chunk(row);
+		final int off = rowOffset(row);
+		for(int i=0;i< this.tmpRow.length;i++) {
+			buf.put(off + i, this.tmpRow[i]);
+			}
+		return row;
+		}
+	
+	/** return the dosage of the sample : 0, 1, 2 or MISSING */
+	public int getDosage(final int row,final int sample) {
+		if(sample<0 || sample>=this.nSamples) throw new IndexOutOfBoundsException("sample "+sample);
+		final LongBuffer buf = chunk(row);
+		final int off = rowOffset(row);
+		final long bit = 1L << (sample & 63);
+		final boolean a = (buf.get(off + (sample>>>6)) & bit)!=0L;
+		final boolean b = (buf.get(off + this.nWords + (sample>>>6)) & bit)!=0L;
+		if(a) return b?2:1;
+		return b?MISSING:0;
+		}
+	
+	/** create a bit-mask of samples, to be used with the count* methods */
+	public long[] createMask(final int[] sampleIndexes) {
+		final long[] mask = new long[this.nWords];
+		for(final int i: sampleIndexes) {
+			if(i<0 || i>=this.nSamples) throw new IndexOutOfBoundsException("sample "+i);
+			mask[i>>>6] |= 1L << (i & 63);
+			}
+		return mask;
+		}
+	
+	/** copy the carrier plane (at least one copy of the allele) of the row into 'dest' (length=getWordCount()) */
+	public long[] getCarriers(final int row,final long[] dest) {
+		final LongBuffer buf = chunk(row);
+		final int off = rowOffset(row);
+		for(int i=0;i< this.nWords;i++) dest[i] = buf.get(off + i);
+		return dest;
+		}
+	
+	/** copy the HOM_VAR plane of the row into 'dest' (length=getWordCount()) */
+	public long[] getHomVar(final int row,final long[] dest) {
+		final LongBuffer buf = chunk(row);
+		final int off = rowOffset(row);
+		for(int i=0;i< this.nWords;i++) dest[i] = buf.get(off + i) & buf.get(off + this.nWords + i);
+		return dest;
+		}
+	
+	/** copy the missing plane (no call or filtered) of the row into 'dest' (length=getWordCount()) */
+	public long[] getMissing(final int row,final long[] dest) {
+		final LongBuffer buf = chunk(row);
+		final int off = rowOffset(row);
+		for(int i=0;i< this.nWords;i++) dest[i] = ~buf.get(off + i) & buf.get(off + this.nWords + i);
+		return dest;
+		}
+	
+	/** count the samples in 'mask' carrying at least one copy of the allele */
+	public int countCarriers(final int row,final long[] mask) {
+		final LongBuffer buf = chunk(row);
+		final int off = rowOffset(row);
+		int n = 0;
+		for(int i=0;i< this.nWords;i++) n += Long.bitCount(buf.get(off + i) & mask[i]);
+		return n;
+		}
+	
+	/** count the samples in 'mask' that are HOM_VAR */
+	public int countHomVar(final int row,final long[] mask) {
+		final LongBuffer buf = chunk(row);
+		final int off = rowOffset(row);
+		int n = 0;
+		for(int i=0;i< this.nWords;i++) n += Long.bitCount(buf.get(off + i) & buf.get(off + this.nWords + i) & mask[i]);
+		return n;
+		}
+	
+	/** count the samples in 'mask' with a missing genotype */
+	public int countMissing(final int row,final long[] mask) {
+		final LongBuffer buf = chunk(row);
+		final int off = rowOffset(row);
+		int n = 0;
+		for(int i=0;i< this.nWords;i++) n += Long.bitCount(~buf.get(off + i) & buf.get(off + this.nWords + i) & mask[i]);
+		return n;
+		}
+	
+	/** count the samples in 'mask' with a called genotype */
+	public int countCalled(final int row,final long[] mask) {
+		int n = 0;
+		for(int i=0;i< this.nWords;i++) n += Long.bitCount(mask[i]);
+		return n - countMissing(row, mask);
+		}
+	
+	/** count the number of copies of the allele in the samples of 'mask' */
+	public int countAltAlleles(final int row,final long[] mask) {
+		return countCarriers(row, mask) + countHomVar(row, mask);
+		}
+	
+	/** count the samples in 'mask' carrying both the allele of row1 and the allele of row2 */
+	public int countCarriers(final int row1,final int row2,final long[] mask) {
+		final LongBuffer buf1 = chunk(row1);
+		final LongBuffer buf2 = chunk(row2);
+		final int off1 = rowOffset(row1);
+		final int off2 = rowOffset(row2);
+		int n = 0;
+		for(int i=0;i< this.nWords;i++) n += Long.bitCount(buf1.get(off1 + i) & buf2.get(off2 + i) & mask[i]);
+		return n;
+		}
+	
+	@Override
+	public void close() throws IOException {
+		this.chunks.clear();
+		if(this.channel!=null) this.channel.close();
+		if(this.backingFile!=null) this.backingFile.close();
+		}
+	
+	@Override
+	public String toString() {
+		return "GenotypeMatrix(samples="+this.nSamples+",variants="+this.nRows+")";
+		}
+	}
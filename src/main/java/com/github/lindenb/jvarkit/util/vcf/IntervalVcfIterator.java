@@ -0,0 +1,105 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.io.IOException;
+
+import htsjdk.samtools.util.AbstractIterator;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.AbstractVCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
+
+/**
+ * A VcfIterator over the variants of an indexed VCF <b>starting</b> in a given interval.
+ * Using the start position, each variant belongs to one and only one of a set of non-overlapping intervals.
+ */
+public class IntervalVcfIterator extends AbstractIterator<VariantContext>
+	implements VcfIterator
+	{
+	private final IndexedVcfFileReader reader;
+	private final Interval interval;
+	private final AbstractVCFCodec codec;
+	private CloseableIterator<VariantContext> delegate = null;
+	
+	/**
+	 * @param indexedVcf tabix or tribble indexed vcf
+	 * @param interval the interval to scan
+	 */
+	public IntervalVcfIterator(final String indexedVcf,final Interval interval) throws IOException {
+		this.reader = new IndexedVcfFileReader(indexedVcf);
+		this.interval = interval;
+		final VCFUtils.CodecAndHeader cah = VCFUtils.parseHeader(VCFUtils.convertVCFHeaderToList(this.reader.getHeader()));
+		this.codec = cah.codec;
+		}
+	
+	public Interval getInterval() {
+		return this.interval;
+		}
+	
+	@Override
+	public AbstractVCFCodec getCodec() {
+		return this.codec;
+		}
+	
+	@Override
+	public VCFHeader getHeader() {
+		return this.reader.getHeader();
+		}
+	
+	@Override
+	protected VariantContext advance() {
+		try {
+			if(this.delegate==null) {
+				this.delegate = this.reader.iterator(this.interval.getContig(), this.interval.getStart(), this.interval.getEnd());
+				}
+			while(this.delegate.hasNext()) {
+				final VariantContext ctx = this.delegate.next();
+				if(ctx.getStart() < this.interval.getStart()) continue;
+				if(ctx.getStart() > this.interval.getEnd()) break;
+				return ctx;
+				}
+			return null;
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException(err);
+			}
+		}
+	
+	@Override
+	public void close() throws IOException {
+		CloserUtil.close(this.delegate);
+		this.delegate = null;
+		this.reader.close();
+		}
+	
+	@Override
+	public String toString() {
+		return "IntervalVcfIterator("+this.reader.getSource()+" "+this.interval+")";
+		}
+	}
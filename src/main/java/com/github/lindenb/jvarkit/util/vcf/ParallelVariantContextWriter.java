@@ -0,0 +1,228 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.github.lindenb.jvarkit.lang.JvarkitException;
+
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.vcf.VCFHeader;
+
+/**
+ * A VariantContextWriter running N instances of the writers created by a 
+ * stateless VariantContextWriterFactory on N threads. The variants are sent
+ * by batches to the workers, and the output of each batch is written to the
+ * delegate in the original order.
+ *
+ */
+public class ParallelVariantContextWriter implements VariantContextWriter {
+	/** default number of variants per batch */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	/** final destination */
+	private final VariantContextWriter delegate;
+	/** one slot per thread */
+	private final List<Slot> slots;
+	/** slots not currently used by a worker */
+	private final BlockingQueue<Slot> idleSlots;
+	/** batches being processed, in the input order */
+	private final Deque<Future<List<VariantContext>>> pending = new ArrayDeque<>();
+	private final ExecutorService executor;
+	private final int batchSize;
+	private List<VariantContext> batch;
+	private boolean closed = false;
+	
+	/** collects the output of one instance of the factory's writer */
+	private static class CollectingWriter implements VariantContextWriter {
+		VCFHeader header = null;
+		List<VariantContext> buffer = new ArrayList<>();
+		@Override
+		public void writeHeader(final VCFHeader header) { this.header = header;}
+		@Override
+		public void setHeader(final VCFHeader header) { this.header = header;}
+		@Override
+		public void add(final VariantContext vc) { this.buffer.add(vc);}
+		@Override
+		public boolean checkError() { return false; }
+		@Override
+		public void close() { }
+		List<VariantContext> drain() {
+			final List<VariantContext> L = this.buffer;
+			this.buffer = new ArrayList<>(L.size());
+			return L;
+			}
+		}
+	
+	private static class Slot {
+		final CollectingWriter sink = new CollectingWriter();
+		final VariantContextWriter writer;
+		Slot(final VariantContextWriterFactory factory) {
+			this.writer = factory.open(this.sink);
+			}
+		}
+	
+	/**
+	 * @param factory the factory. Must be stateless ({@link VariantContextWriterFactory#isStateless()} )
+	 * @param delegate final destination
+	 * @param nThreads number of threads
+	 * @param batchSize number of variants sent to each worker
+	 */
+	public ParallelVariantContextWriter(
+			final VariantContextWriterFactory factory,
+			final VariantContextWriter delegate,
+			final int nThreads,
+			final int batchSize
+			) {
+		if(!factory.isStateless()) throw new JvarkitException.ProgrammingError("factory "+factory.getClass()+" is not stateless");
+		if(nThreads<1) throw new IllegalArgumentException("nThreads<1 : "+nThreads);
+		if(batchSize<1) throw new IllegalArgumentException("batchSize<1 : "+batchSize);
+		this.delegate = delegate;
+		this.batchSize = batchSize;
+		this.slots = new ArrayList<>(nThreads);
+		this.idleSlots = new ArrayBlockingQueue<>(nThreads);
+		for(int i=0;i< nThreads;i++) {
+			final Slot slot = new Slot(factory);
+			this.slots.add(slot);
+			this.idleSlots.add(slot);
+			}
+		this.executor = Executors.newFixedThreadPool(nThreads);
+		this.batch = new ArrayList<>(batchSize);
+		}
+	
+	public ParallelVariantContextWriter(
+			final VariantContextWriterFactory factory,
+			final VariantContextWriter delegate,
+			final int nThreads
+			) {
+		this(factory,delegate,nThreads,DEFAULT_BATCH_SIZE);
+		}
+	
+	@Override
+	public void writeHeader(final VCFHeader header) {
+		for(final Slot slot:this.slots) slot.writer.writeHeader(header);
+		this.delegate.writeHeader(this.slots.get(0).sink.header);
+		}
+	
+	@Override
+	public void setHeader(final VCFHeader header) {
+		for(final Slot slot:this.slots) slot.writer.setHeader(header);
+		this.delegate.setHeader(this.slots.get(0).sink.header);
+		}
+	
+	@Override
+	public void add(final VariantContext ctx) {
+		if(this.closed) return;
+		this.batch.add(ctx);
+		if(this.batch.size()>=this.batchSize) submitBatch();
+		}
+	
+	private void submitBatch() {
+		if(this.batch.isEmpty()) return;
+		final List<VariantContext> variants = this.batch;
+		this.batch = new ArrayList<>(this.batchSize);
+		final Slot slot;
+		try {
+			slot = this.idleSlots.take();
+			}
+		catch(final InterruptedException err) {
+			throw new RuntimeException(err);
+			}
+		this.pending.add(this.executor.submit(()->{
+			try {
+				for(final VariantContext ctx: variants) slot.writer.add(ctx);
+				return slot.sink.drain();
+				}
+			finally
+				{
+				this.idleSlots.add(slot);
+				}
+			}));
+		while(this.pending.size() > this.slots.size()) {
+			writePending(this.pending.pollFirst());
+			}
+		}
+	
+	private void writePending(final Future<List<VariantContext>> future) {
+		final List<VariantContext> variants;
+		try {
+			variants = future.get();
+			}
+		catch(final ExecutionException err) {
+			final Throwable cause = err.getCause();
+			if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+			if(cause instanceof Error) throw (Error)cause;
+			throw new RuntimeIOException(cause);
+			}
+		catch(final InterruptedException err) {
+			throw new RuntimeException(err);
+			}
+		for(final VariantContext ctx:variants) this.delegate.add(ctx);
+		}
+	
+	@Override
+	public boolean checkError() {
+		return this.delegate.checkError();
+		}
+	
+	@Override
+	public void close() {
+		if(this.closed) return;
+		try {
+			submitBatch();
+			while(!this.pending.isEmpty()) {
+				writePending(this.pending.pollFirst());
+				}
+			/* variants flushed by the writers themselves when they're closed */
+			for(final Slot slot:this.slots) {
+				slot.writer.close();
+				for(final VariantContext ctx:slot.sink.drain()) this.delegate.add(ctx);
+				}
+			}
+		finally
+			{
+			this.closed = true;
+			this.executor.shutdownNow();
+			this.pending.clear();
+			CloserUtil.close(this.delegate);
+			}
+		}
+	
+	@Override
+	public String toString() {
+		return "ParallelVariantContextWriter("+this.slots.size()+" threads)";
+		}
+	}
@@ -26,13 +26,18 @@ SOFTWARE.
 package com.github.lindenb.jvarkit.util.vcf;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 
 import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParametersDelegate;
+import com.github.lindenb.jvarkit.io.ParallelBlockCompressedOutputStream;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.Options;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
@@ -49,6 +54,8 @@ public class PostponedVariantContextWriter implements VariantContextWriter {
 		private boolean createIndex=false;
 		@Parameter(names={"--outputbcf"},description="Output bcf (for streams)")
 		private boolean outputbcf=false;
+		@ParametersDelegate
+		private Launcher.CompressionArgs compressionArgs = new Launcher.CompressionArgs();
 	
 		private SAMSequenceDictionary dict=null;
 		private File referenceFile=null;
@@ -57,6 +64,8 @@ public class PostponedVariantContextWriter implements VariantContextWriter {
 			this.createIndex = config.createIndex;
 			this.createMd5 = config.createMd5;
 			this.outputbcf = config.outputbcf;
+			this.compressionArgs.compressionLevel = config.compressionArgs.compressionLevel;
+			this.compressionArgs.bgzfThreads = config.compressionArgs.bgzfThreads;
 			this.dict = config.dict;
 			this.referenceFile = config.referenceFile;
 			}
@@ -154,6 +163,32 @@ public class PostponedVariantContextWriter implements VariantContextWriter {
 				builder.setOutputVCFStream(this._stdout);
 				}
 			}
+		else if(this.config.compressionArgs.bgzfThreads>1 &&
+				!this.config.createMd5 &&
+				this.outputFileOrNull.getName().endsWith(".vcf.gz"))
+			{
+			/* BGZF blocks compressed in parallel, the tabix index is created by TabixIndexingVariantContextWriter */
+			if(this.config.createIndex && (dict==null|| dict.isEmpty())) {
+				throw new JvarkitException.DictionaryMissing("Cannot index vcf when SamSequence dictionary missing");
+				}
+			builder.setCreateMD5(false);
+			final ParallelBlockCompressedOutputStream bgzf;
+			try {
+				bgzf = new ParallelBlockCompressedOutputStream(
+					this.outputFileOrNull,
+					this.config.compressionArgs.compressionLevel,
+					this.config.compressionArgs.bgzfThreads
+					);
+				}
+			catch(final IOException err) {
+				throw new RuntimeIOException(err);
+				}
+			builder.setOutputVCFStream(bgzf);
+			this.delegate = builder.build();
+			if(this.config.createIndex) {
+				this.delegate = new TabixIndexingVariantContextWriter(this.delegate, bgzf, this.outputFileOrNull, dict);
+				}
+			}
 		else
 			{
 			builder.setCreateMD5(this.config.createMd5);
@@ -166,7 +201,7 @@ public class PostponedVariantContextWriter implements VariantContextWriter {
 				}
 			builder.setOutputFile(this.outputFileOrNull);
 			}
-		this.delegate = builder.build();
+		if(this.delegate==null) this.delegate = builder.build();
 		this.delegate.writeHeader(header);
 		}
 
@@ -0,0 +1,127 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.github.lindenb.jvarkit.io.ParallelBlockCompressedOutputStream;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.Tribble;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+
+/**
+ * A VariantContextWriter writing into a {@link ParallelBlockCompressedOutputStream} and
+ * creating the tabix index on the fly. The file offsets of the variants are
+ * only known when their BGZF blocks have been compressed, so the variants are kept in a small queue
+ * until their virtual offsets can be resolved.
+ */
+public class TabixIndexingVariantContextWriter extends DelegateVariantContextWriter {
+	private static final Logger LOG = Logger.build(TabixIndexingVariantContextWriter.class).make();
+	private final ParallelBlockCompressedOutputStream bgzf;
+	private final File outputFile;
+	private final TabixIndexCreator indexCreator;
+	private final Deque<PendingFeature> pending = new ArrayDeque<>();
+	
+	private static class PendingFeature {
+		final SimpleFeature feature;
+		final long deferredPosition;
+		PendingFeature(final SimpleFeature feature,final long deferredPosition) {
+			this.feature = feature;
+			this.deferredPosition = deferredPosition;
+			}
+		}
+	
+	/**
+	 * @param delegate the vcf writer. Must write its records directly into 'bgzf'
+	 * @param bgzf the BGZF output stream
+	 * @param outputFile the vcf.gz file. The tabix index will be 'outputFile'.tbi
+	 * @param dict the sequence dictionary, may be null
+	 */
+	public TabixIndexingVariantContextWriter(
+			final VariantContextWriter delegate,
+			final ParallelBlockCompressedOutputStream bgzf,
+			final File outputFile,
+			final SAMSequenceDictionary dict
+			) {
+		super(delegate);
+		this.bgzf = bgzf;
+		this.outputFile = outputFile;
+		this.indexCreator = (dict==null || dict.isEmpty()?
+				new TabixIndexCreator(TabixFormat.VCF):
+				new TabixIndexCreator(dict, TabixFormat.VCF)
+				);
+		}
+	
+	@Override
+	public void add(final VariantContext ctx) {
+		if(isClosed()) return;
+		final long deferredPosition = this.bgzf.getDeferredPosition();
+		super.add(ctx);
+		this.pending.add(new PendingFeature(new SimpleFeature(ctx.getContig(), ctx.getStart(), ctx.getEnd()),deferredPosition));
+		indexResolved();
+		}
+	
+	/** send the variants with a known file offset to the index creator */
+	private void indexResolved() {
+		while(!this.pending.isEmpty() && this.bgzf.isResolved(this.pending.peekFirst().deferredPosition)) {
+			final PendingFeature f = this.pending.pollFirst();
+			this.indexCreator.addFeature(f.feature, this.bgzf.resolve(f.deferredPosition));
+			}
+		}
+	
+	@Override
+	public void close() {
+		if(isClosed()) return;
+		/* waits for all the blocks */
+		final long finalPosition = this.bgzf.getPosition();
+		indexResolved();
+		final Index index = this.indexCreator.finalizeIndex(finalPosition);
+		super.close();
+		final File tbi = Tribble.tabixIndexFile(this.outputFile);
+		try {
+			index.write(tbi);
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException("Cannot write tabix index "+tbi, err);
+			}
+		LOG.debug("wrote "+tbi);
+		}
+	
+	@Override
+	public String toString() {
+		return "TabixIndexingVariantContextWriter("+this.outputFile+")";
+		}
+	}
@@ -0,0 +1,181 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import htsjdk.samtools.util.AbstractIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.tribble.readers.LineIterator;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.GenotypesContext;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.vcf.AbstractVCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
+
+/**
+ * A VcfIterator reading the lines on the caller thread and decoding them by
+ * batches on a pool of threads. Each thread owns its own codec because 
+ * htsjdk's codecs are not thread-safe. The genotypes remain lazy: they are decoded
+ * by the codec of the thread that first reads them, so the VCF writers still
+ * print the raw genotype string and the output is the same as the serial reader.
+ */
+public class ThreadedVcfIterator extends AbstractIterator<VariantContext>
+	implements VcfIterator
+	{
+	/** default number of lines per batch */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	private final LineIterator lineIterator;
+	private final AbstractVCFCodec codec;
+	private final VCFHeader header;
+	private final int nThreads;
+	private final int batchSize;
+	/** one codec per thread, used to decode the variants and their lazy genotypes */
+	private final ThreadLocal<AbstractVCFCodec> threadCodecs;
+	private final ExecutorService executor;
+	/** batches being decoded, in the input order */
+	private final Deque<Future<List<VariantContext>>> pending = new ArrayDeque<>();
+	private Iterator<VariantContext> current = Collections.emptyIterator();
+	
+	public ThreadedVcfIterator(final LineIterator lineIterator,final int nThreads) {
+		this(lineIterator,nThreads,DEFAULT_BATCH_SIZE);
+		}
+	
+	public ThreadedVcfIterator(final LineIterator lineIterator,final int nThreads,final int batchSize) {
+		if(nThreads<1) throw new IllegalArgumentException("nThreads<1 : "+nThreads);
+		if(batchSize<1) throw new IllegalArgumentException("batchSize<1 : "+batchSize);
+		this.lineIterator = lineIterator;
+		this.nThreads = nThreads;
+		this.batchSize = batchSize;
+		final List<String> headerLines = new ArrayList<>();
+		while(lineIterator.hasNext())
+			{
+			final String line = lineIterator.peek();
+			if(!line.startsWith("#")) break;
+			headerLines.add(lineIterator.next());
+			if(line.startsWith("#CHROM\t")) break;
+			}
+		final VCFUtils.CodecAndHeader cah = VCFUtils.parseHeader(headerLines);
+		this.codec = cah.codec;
+		this.header = cah.header;
+		this.threadCodecs = ThreadLocal.withInitial(()->VCFUtils.parseHeader(headerLines).codec);
+		this.executor = Executors.newFixedThreadPool(nThreads);
+		}
+	
+	@Override
+	public AbstractVCFCodec getCodec() {
+		return this.codec;
+		}
+	
+	@Override
+	public VCFHeader getHeader() {
+		return this.header;
+		}
+	
+	/** fill the queue of batches to be decoded */
+	private void fill() {
+		while(this.pending.size() < 2*this.nThreads && this.lineIterator.hasNext()) {
+			final List<String> lines = new ArrayList<>(this.batchSize);
+			while(lines.size() < this.batchSize && this.lineIterator.hasNext()) {
+				lines.add(this.lineIterator.next());
+				}
+			this.pending.add(this.executor.submit(()->{
+				final AbstractVCFCodec workerCodec = this.threadCodecs.get();
+				final List<VariantContext> variants = new ArrayList<>(lines.size());
+				for(final String line:lines) {
+					variants.add(detachGenotypes(workerCodec.decode(line)));
+					}
+				return variants;
+				}));
+			}
+		}
+	
+	/** the LazyGenotypesContext created by the codec would use the codec of the worker, on any thread.
+	 * Replace it with a LazyGenotypesContext using the codec of the thread decoding the genotypes */
+	private VariantContext detachGenotypes(final VariantContext ctx) {
+		final GenotypesContext gc = ctx.getGenotypes();
+		if(!gc.isLazyWithData()) return ctx;
+		final LazyGenotypesContext lazy = LazyGenotypesContext.class.cast(gc);
+		final Object unparsed = lazy.getUnparsedGenotypeData();
+		if(!(unparsed instanceof String)) {
+			/* unknown data: decode it now, while we own the codec */
+			lazy.decode();
+			return ctx;
+			}
+		final List<Allele> alleles = ctx.getAlleles();
+		final String contig = ctx.getContig();
+		final int start = ctx.getStart();
+		final LazyGenotypesContext.LazyParser parser = (DATA)->this.threadCodecs.get().
+				createGenotypeMap(String.class.cast(DATA), alleles, contig, start);
+		return new VariantContextBuilder(ctx).
+				genotypesNoValidation(new LazyGenotypesContext(parser, unparsed, lazy.size())).
+				make();
+		}
+	
+	@Override
+	protected VariantContext advance() {
+		while(!this.current.hasNext()) {
+			fill();
+			if(this.pending.isEmpty()) return null;
+			try {
+				this.current = this.pending.pollFirst().get().iterator();
+				}
+			catch(final ExecutionException err) {
+				final Throwable cause = err.getCause();
+				if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+				if(cause instanceof Error) throw (Error)cause;
+				throw new RuntimeIOException(cause);
+				}
+			catch(final InterruptedException err) {
+				throw new RuntimeException(err);
+				}
+			}
+		return this.current.next();
+		}
+	
+	@Override
+	public void close() {
+		this.executor.shutdownNow();
+		this.pending.clear();
+		CloserUtil.close(this.lineIterator);
+		}
+	
+	@Override
+	public String toString() {
+		return "ThreadedVcfIterator("+this.nThreads+" threads). Codec: "+this.codec;
+		}
+	}
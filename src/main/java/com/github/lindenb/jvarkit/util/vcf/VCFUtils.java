@@ -79,6 +79,7 @@ import htsjdk.variant.vcf.VCFInfoHeaderLine;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.samtools.ContigDictComparator;
 
@@ -329,6 +330,51 @@ public class VCFUtils
 			return new VcfIteratorImpl(IOUtils.openURIForReading(IN));
 			}
 		}
+	/** create a VCF iterator decoding the variants on 'nThreads' threads.
+	 * BCF files and nThreads&lt;2 fall back to {@link #createVcfIterator(String)}
+	 * 
+	 * @param IN : input uri or null for stdin
+	 * @param nThreads : number of decoding threads
+	 * */
+	public static  VcfIterator createVcfIterator(final String IN,final int nThreads) throws IOException
+		{
+		return createVcfIterator(IN,nThreads,1);
+		}
+	
+	/** create a VCF iterator decoding the variants on 'nThreads' threads and inflating the BGZF blocks
+	 * on 'bgzfThreads' threads. BCF files fall back to {@link #createVcfIterator(String)}
+	 * 
+	 * @param IN : input uri or null for stdin
+	 * @param nThreads : number of decoding threads
+	 * @param bgzfThreads : number of inflater threads
+	 * */
+	public static  VcfIterator createVcfIterator(final String IN,final int nThreads,final int bgzfThreads) throws IOException
+		{
+		if((nThreads<2 && bgzfThreads<2) || (IN!=null && IN.endsWith(IOUtil.BCF_FILE_EXTENSION)))
+			{
+			return createVcfIterator(IN);
+			}
+		final InputStream in = (IN==null?
+				IOUtils.openStreamForReading(System.in,bgzfThreads):
+				IOUtils.openURIForReading(IN,bgzfThreads)
+				);
+		return createVcfIterator(in,nThreads);
+		}
+	
+	/** create a VCF iterator from an opened, decompressed, stream. The variants are decoded on 'nThreads' threads
+	 * 
+	 * @param in : decompressed VCF stream
+	 * @param nThreads : number of decoding threads
+	 * */
+	public static  VcfIterator createVcfIterator(final InputStream in,final int nThreads) throws IOException
+		{
+		if(nThreads<2)
+			{
+			return new VcfIteratorImpl(in);
+			}
+		return new ThreadedVcfIterator(IOUtils.openStreamForLineIterator(in),nThreads);
+		}
+	
 	/** create a VCF iterator
 	 * 
 	 * @param IN : input uri or null for stdin
@@ -411,6 +457,29 @@ public class VCFUtils
 			}
 		}
 	
+	/**
+	 * create a VariantContextWriter. If the output is a *.vcf.gz file, the BGZF stream
+	 * is opened with the compression level and the number of threads of 'compression'.
+	 * @param OUT output file or null to stdout
+	 * @param compression compression options
+	 * @return
+	 * @throws IOException
+	 */
+	public static  VariantContextWriter createVariantContextWriter(final File OUT,final Launcher.CompressionArgs compression) throws IOException
+		{
+		if(OUT==null || compression==null || !OUT.getName().endsWith(".vcf.gz"))
+			{
+			return createVariantContextWriter(OUT);
+			}
+		IOUtil.assertFileIsWritable(OUT);
+		final VariantContextWriterBuilder vcwb=new VariantContextWriterBuilder();
+		vcwb.setCreateMD5(false);
+		vcwb.setReferenceDictionary(null);
+		vcwb.clearOptions();
+		vcwb.setOutputVCFStream(compression.openBlockCompressedOutputStream(OUT));
+		return new VariantContextWriterDelayedFlush(vcwb.build());
+		}
+	
 	public static SAMSequenceRecord contigLineToSamSequenceRecord(String line)
 		{
 		if(!line.startsWith(VCFConstants.CONTIG_HEADER_START+"="))
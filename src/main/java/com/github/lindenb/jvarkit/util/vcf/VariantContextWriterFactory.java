@@ -36,6 +36,10 @@ public default int initialize() { return 0;}
 /** dispose the resources associated with this factory (e.g: close a database) */
 @Override
 default void close() throws IOException {}
+/** return true if the writers created by this factory don't share any mutable state and
+ * if the output of 'add' only depends on the current variant. Such factories can be run
+ * in parallel with {@link ParallelVariantContextWriter}. Default: false */
+public default boolean isStateless() { return false;}
 /** wrap a VariantContextWriter into another one */
 public VariantContextWriter open(final VariantContextWriter delegate);
 }
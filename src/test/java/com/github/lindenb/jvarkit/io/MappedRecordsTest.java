@@ -0,0 +1,60 @@
+package com.github.lindenb.jvarkit.io;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+public class MappedRecordsTest extends TestUtils {
+	
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][]{
+				{0,1000},
+				{1,1000},
+				{100,16},
+				{10_000,1000},
+				{10_000,12}
+		};
+	}
+	
+	@Test(dataProvider="src1")
+	public void testSearch(final int n,final int maxChunkSize) throws IOException {
+		final long array[] = new long[n];
+		for(int i=0;i< n;i++) array[i] = this.random.nextInt(n/2+1);
+		Arrays.sort(array);
+		
+		final File tmp = createTmpFile(".bin");
+		try(DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+			out.writeInt(-1);/* header */
+			for(final long v:array) {
+				out.writeLong(v);
+				out.writeInt(0);
+				}
+			}
+		try(RandomAccessFile io = new RandomAccessFile(tmp, "r");
+			MappedRecords records = new MappedRecords(io.getChannel(), 4L, n, 12, maxChunkSize)) {
+			Assert.assertEquals(records.size(), n);
+			for(int i=0;i< n;i++) {
+				Assert.assertEquals(records.getLong(i,0), array[i]);
+				}
+			long cursor = 0L;
+			for(int i=0;i< 1000;i++) {
+				final long key = this.random.nextInt(n/2+3)-1;
+				long expect = 0L;
+				while(expect< n && array[(int)expect] < key) expect++;
+				Assert.assertEquals(MappedRecords.lowerBound(0L, n, I->records.getLong(I,0) < key),expect);
+				cursor = MappedRecords.gallop(0L, n, cursor, I->records.getLong(I,0) < key);
+				Assert.assertEquals(cursor,expect);
+				}
+			}
+		}
+	}
@@ -0,0 +1,103 @@
+package com.github.lindenb.jvarkit.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.function.LongSupplier;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
+import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.variant.variantcontext.VariantContext;
+
+public class ParallelBlockCompressedInputStreamTest extends TestUtils {
+	
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][]{
+				{SRC_TEST_RESOURCE+"/S1.vcf.gz",1},
+				{SRC_TEST_RESOURCE+"/S1.bam",2},
+				{SRC_TEST_RESOURCE+"/rotavirus_rf.vcf.gz",3},
+				{SRC_TEST_RESOURCE+"/ExAC.r1.sites.vep.vcf.gz",4}
+		};
+	}
+	
+	@Test(dataProvider="src1")
+	public void testSameBytes(final String path,final int nThreads) throws IOException {
+		final File f = new File(path);
+		final ByteArrayOutputStream expect = new ByteArrayOutputStream();
+		try(InputStream in1 = new BlockCompressedInputStream(f)) {
+			IOUtils.copyTo(in1, expect);
+			}
+		final ByteArrayOutputStream got = new ByteArrayOutputStream();
+		try(ParallelBlockCompressedInputStream in2 = new ParallelBlockCompressedInputStream(Files.newInputStream(f.toPath()), nThreads)) {
+			final byte[] buffer = new byte[1+random.nextInt(100000)];
+			for(;;) {
+				/* mix single byte and bulk reads */
+				if(random.nextBoolean()) {
+					final int c = in2.read();
+					if(c==-1) break;
+					got.write(c);
+					}
+				else
+					{
+					final int n = in2.read(buffer, 0, 1+random.nextInt(buffer.length));
+					if(n==-1) break;
+					got.write(buffer, 0, n);
+					}
+				}
+			Assert.assertEquals(in2.getUncompressedBytesRead(), (long)expect.size());
+			Assert.assertEquals(in2.getInflatedBytes(), (long)expect.size());
+			Assert.assertEquals(in2.getCompressedBytesRead(), f.length());
+			}
+		Assert.assertEquals(got.toByteArray(), expect.toByteArray());
+		}
+	
+	@Test(dataProvider="src1")
+	public void testVcfIterator(final String path,final int nThreads) throws IOException {
+		if(!path.endsWith(".vcf.gz")) return;
+		long n1=0L,n2=0L;
+		try(VcfIterator r = VCFUtils.createVcfIterator(path)) {
+			while(r.hasNext()) {r.next();n1++;}
+			}
+		try(VcfIterator r = VCFUtils.createVcfIterator(path,1,nThreads)) {
+			while(r.hasNext()) {
+				final VariantContext ctx=r.next();
+				Assert.assertNotNull(ctx.getContig());
+				n2++;
+				}
+			}
+		Assert.assertEquals(n2, n1);
+		}
+	
+	@Test(dataProvider="src1")
+	public void testReadAheadArgsCounter(final String path,final int nThreads) throws IOException {
+		if(!path.endsWith(".vcf.gz")) return;
+		final Launcher.ReadAheadArgs readAheadArgs = new Launcher.ReadAheadArgs();
+		readAheadArgs.bgzfThreads = nThreads;
+		Assert.assertNull(readAheadArgs.getInflatedBytesCounter());
+		long expect = 0L;
+		try(InputStream in = readAheadArgs.openStream(path)) {
+			while(in.read()!=-1) expect++;
+			}
+		final LongSupplier counter = readAheadArgs.getInflatedBytesCounter();
+		if(nThreads<2) {
+			/* standard single-threaded reader */
+			Assert.assertNull(counter);
+			}
+		else
+			{
+			Assert.assertNotNull(counter);
+			Assert.assertEquals(counter.getAsLong(), expect);
+			}
+		}
+	}
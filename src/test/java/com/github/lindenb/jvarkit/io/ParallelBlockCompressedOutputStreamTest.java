@@ -0,0 +1,134 @@
+package com.github.lindenb.jvarkit.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.beust.jcommander.JCommander;
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+import com.github.lindenb.jvarkit.util.samtools.ParallelBamFileWriter;
+import com.github.lindenb.jvarkit.util.vcf.PostponedVariantContextWriter;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.vcf.VCFFileReader;
+
+public class ParallelBlockCompressedOutputStreamTest extends TestUtils {
+	
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][]{
+				{1,100},{2,1000},{4,100000},{8,50000}
+		};
+	}
+	
+	@Test(dataProvider="src1")
+	public void testVirtualOffsets(final int nThreads,final int nLines) throws IOException {
+		final File out = createTmpFile(".txt.gz");
+		final List<Long> offsets = new ArrayList<>(nLines);
+		final List<Long> deferred = new ArrayList<>(nLines);
+		final ParallelBlockCompressedOutputStream os = new ParallelBlockCompressedOutputStream(out, 5, nThreads);
+		for(int i=0;i< nLines;i++) {
+			deferred.add(os.getDeferredPosition());
+			if(i%1000==0) offsets.add(os.getPosition());
+			os.write(("line "+i+" "+ random.nextInt()+"\n").getBytes());
+			}
+		os.close();
+		try(BlockCompressedInputStream in = new BlockCompressedInputStream(out)) {
+			for(int i=0;i< nLines;i++) {
+				final long vptr = os.resolve(deferred.get(i));
+				if(i%1000==0) Assert.assertEquals(vptr, offsets.get(i/1000).longValue());
+				if(i%97!=0) continue;
+				in.seek(vptr);
+				Assert.assertTrue(in.readLine().startsWith("line "+i+" "));
+				}
+			}
+		Assert.assertTrue(BlockCompressedInputStream.checkTermination(out)==BlockCompressedInputStream.FileTermination.HAS_TERMINATOR_BLOCK);
+		}
+	
+	@Test
+	public void testBamWithIndex() throws IOException {
+		final File out = createTmpFile(".bam");
+		final File bai = new File(out.getParentFile(),out.getName().replaceAll("\\.bam$", ".bai"));
+		deleteOnExit(bai);
+		final SamReaderFactory srf = SamReaderFactory.makeDefault();
+		try(SamReader sr = srf.open(new File(SRC_TEST_RESOURCE,"S1.bam"))) {
+			try(SAMFileWriter w = new ParallelBamFileWriter(sr.getFileHeader(), out, 5, 4, true)) {
+				try(SAMRecordIterator iter=sr.iterator()) {
+					while(iter.hasNext()) w.addAlignment(iter.next());
+					}
+				}
+			}
+		Assert.assertTrue(bai.exists());
+		try(SamReader sr1 = srf.open(new File(SRC_TEST_RESOURCE,"S1.bam"));
+			SamReader sr2 = srf.open(out)) {
+			Assert.assertTrue(sr2.hasIndex());
+			for(final SAMSequenceRecord ssr:sr1.getFileHeader().getSequenceDictionary().getSequences()) {
+				for(int pos=1;pos< ssr.getSequenceLength();pos+=100) {
+					Assert.assertEquals(
+						count(sr2.queryOverlapping(ssr.getSequenceName(), pos, pos+50)),
+						count(sr1.queryOverlapping(ssr.getSequenceName(), pos, pos+50))
+						);
+					}
+				}
+			}
+		}
+	
+	private static int count(final CloseableIterator<SAMRecord> iter) {
+		int n=0;
+		while(iter.hasNext()) {iter.next();n++;}
+		iter.close();
+		return n;
+		}
+	
+	@Test
+	public void testVcfWithIndex() throws IOException {
+		final File out = createTmpFile(".vcf.gz");
+		deleteOnExit(new File(out.getPath()+".tbi"));
+		final File in = new File(SRC_TEST_RESOURCE,"rotavirus_rf.vcf.gz");
+		final PostponedVariantContextWriter.WritingVcfConfig config = new PostponedVariantContextWriter.WritingVcfConfig();
+		config.createIndex(true);
+		final JCommander jc = new JCommander(config);
+		jc.parse("--bgzf-threads","3","--compression","9");
+		try(VCFFileReader r= new VCFFileReader(in,false)) {
+			final VariantContextWriter w = new PostponedVariantContextWriter(config, out);
+			w.writeHeader(r.getFileHeader());
+			try(CloseableIterator<VariantContext> iter=r.iterator()) {
+				while(iter.hasNext()) w.add(iter.next());
+				}
+			w.close();
+			}
+		assertIsVcf(out);
+		try(VCFFileReader r1= new VCFFileReader(in,true);
+			VCFFileReader r2= new VCFFileReader(out,true)) {
+			for(final SAMSequenceRecord ssr:r1.getFileHeader().getSequenceDictionary().getSequences()) {
+				for(int pos=1;pos< ssr.getSequenceLength();pos+=50) {
+					Assert.assertEquals(
+						count2(r2.query(ssr.getSequenceName(), pos, pos+100)),
+						count2(r1.query(ssr.getSequenceName(), pos, pos+100))
+						);
+					}
+				}
+			}
+		}
+	
+	private static int count2(final CloseableIterator<VariantContext> iter) {
+		int n=0;
+		while(iter.hasNext()) {iter.next();n++;}
+		iter.close();
+		return n;
+		}
+	}
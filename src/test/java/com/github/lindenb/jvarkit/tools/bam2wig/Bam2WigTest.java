@@ -0,0 +1,121 @@
+package com.github.lindenb.jvarkit.tools.bam2wig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+import com.github.lindenb.jvarkit.util.Counter;
+
+public class Bam2WigTest extends TestUtils {
+	
+	@DataProvider(name="src01")
+	public Object[][] testData01() {
+		return new Object[][] {
+			{"COVERAGE"},
+			{"CLIPPING"},
+			{"INSERTION"},
+			{"DELETION"},
+			{"READ_GROUPS"}
+		};
+	}
+	
+	@Test(dataProvider="src01")
+	public void test01(final String display) throws IOException {
+		final File out = super.createTmpFile(".bedgraph");
+		Assert.assertEquals(new Bam2Wig().instanceMain(newCmd().
+				add("-o",out.getPath()).
+				add("--display",display).
+				add("-bg").
+				add("-w","10").add("-s","5").
+				add(SRC_TEST_RESOURCE+"/S1.bam",SRC_TEST_RESOURCE+"/S2.bam",SRC_TEST_RESOURCE+"/S3.bam").
+				make()
+				),0);
+		assertTsvTableIsConsitent(out, null);
+		}
+	
+	@Test(dataProvider="src01")
+	public void testThreads(final String display) throws IOException {
+		final File out1 = super.createTmpFile(".wig");
+		final File out2 = super.createTmpFile(".wig");
+		for(int i=0;i< 2;i++) {
+			final CommandBuilder cmd = newCmd().
+				add("-o",(i==0?out1:out2).getPath()).
+				add("--display",display).
+				add("-w","10").add("-s","5");
+			if(i==1) cmd.add("--threads","3").add("--chunk-size","100");
+			Assert.assertEquals(new Bam2Wig().instanceMain(cmd.
+				add(SRC_TEST_RESOURCE+"/S1.bam",SRC_TEST_RESOURCE+"/S2.bam",SRC_TEST_RESOURCE+"/S3.bam").
+				make()
+				),0);
+			}
+		Assert.assertEquals(
+			new String(Files.readAllBytes(out2.toPath())),
+			new String(Files.readAllBytes(out1.toPath()))
+			);
+		}
+	
+	/** random reads: sample, start, length */
+	private int[][] createReads(final int nReads,final int nSamples) {
+		final int reads[][] = new int[nReads][];
+		int pos = 1;
+		for(int i=0;i< nReads;i++) {
+			pos += random.nextInt(3);
+			reads[i] = new int[] {random.nextInt(nSamples), pos, 50 + random.nextInt(100)};
+			}
+		return reads;
+		}
+	
+	/** the previous implementation: a Counter per position */
+	private Map<Integer,Counter<String>> legacy(final int reads[][]) {
+		final Map<Integer,Counter<String>> pos2sample2depth = new HashMap<>();
+		for(final int read[]: reads) {
+			final String sample = "S"+read[0];
+			for(int i=0;i< read[2];++i) {
+				final int nx = read[1] + i;
+				Counter<String> sample2coverage = pos2sample2depth.get(nx);
+				if(sample2coverage==null) {
+					sample2coverage = new Counter<String>();
+					pos2sample2depth.put(nx, sample2coverage);
+					}
+				sample2coverage.incr(sample);
+				}
+			}
+		return pos2sample2depth;
+		}
+	
+	/** returns the sum of the depths, checks the depths if 'expect' is not null */
+	private long sweep(final int reads[][],final int nSamples,final Map<Integer,Counter<String>> expect) {
+		final DepthSweep sweep = new DepthSweep(nSamples, 16);
+		final long sum[] = new long[] {0L};
+		final DepthSweep.Consumer consumer = (POS,DEPTHS,OFFSET)->{
+			for(int i=0;i< nSamples;i++) {
+				sum[0] += DEPTHS[OFFSET+i];
+				if(expect!=null) {
+					final Counter<String> c = expect.get(POS);
+					Assert.assertEquals(DEPTHS[OFFSET+i], c==null?0:(int)c.count("S"+i), "pos "+POS+" sample "+i);
+					}
+				}
+			};
+		sweep.reset(1);
+		for(final int read[]: reads) {
+			sweep.advance(read[1], consumer);
+			sweep.increment(read[0], read[1], read[2]);
+			}
+		sweep.advance(reads[reads.length-1][1] + 1000, consumer);
+		return sum[0];
+		}
+	
+	@Test
+	public void testSweep() {
+		final int nSamples = 20;
+		final int reads[][] = createReads(10_000, nSamples);
+		sweep(reads, nSamples, legacy(reads));
+		}
+}
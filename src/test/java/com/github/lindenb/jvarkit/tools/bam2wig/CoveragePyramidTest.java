@@ -0,0 +1,171 @@
+package com.github.lindenb.jvarkit.tools.bam2wig;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.AlignmentBlock;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.StringUtil;
+
+public class CoveragePyramidTest extends TestUtils {
+	
+	@DataProvider(name="src01")
+	public Object[][] testData01() {
+		return new Object[][] {
+			{SRC_TEST_RESOURCE+"/S1.bam",10},
+			{SRC_TEST_RESOURCE+"/S2.bam",1},
+			{SRC_TEST_RESOURCE+"/toy.bam",3}
+		};
+	}
+	
+	/** compare the pyramid with the depth computed from the reads */
+	@Test(dataProvider="src01")
+	public void test01(final String bam,int binSize) throws IOException {
+		final File out = super.createTmpFile(CoveragePyramid.SUFFIX);
+		Assert.assertEquals(new BamCoveragePyramid().instanceMain(newCmd().
+				add("-o",out.getPath()).
+				add("-b",binSize).
+				add("--filter","").
+				add(bam).
+				make()
+				),0);
+		assertPyramidMatchesReads(new File(bam), out, binSize);
+		}
+	
+	/** the depth in the pyramid is the same as the depth computed from the reads */
+	private void assertPyramidMatchesReads(final File bam,final File out,final int binSize) throws IOException {
+		final Map<String,int[]> contig2depth = new HashMap<>();
+		try(SamReader sr = SamReaderFactory.makeDefault().open(bam)) {
+			for(final SAMSequenceRecord ssr: sr.getFileHeader().getSequenceDictionary().getSequences()) {
+				contig2depth.put(ssr.getSequenceName(), new int[ssr.getSequenceLength()]);
+				}
+			try(SAMRecordIterator iter = sr.iterator()) {
+				while(iter.hasNext()) {
+					final SAMRecord rec = iter.next();
+					if(rec.getReadUnmappedFlag()) continue;
+					final int depth[] = contig2depth.get(rec.getContig());
+					for(final AlignmentBlock block: rec.getAlignmentBlocks()) {
+						for(int i=0;i< block.getLength();i++) {
+							final int pos0 = block.getReferenceStart()-1+i;
+							if(pos0<depth.length) depth[pos0]++;
+							}
+						}
+					}
+				}
+			}
+		
+		try(CoveragePyramid pyramid = new CoveragePyramid(out)) {
+			Assert.assertEquals(pyramid.getBaseBinSize(), binSize);
+			for(final String contig: contig2depth.keySet()) {
+				final int depth[] = contig2depth.get(contig);
+				for(int maxBins: new int[] {1,10,1_000_000}) {
+					final List<CoveragePyramid.Bin> bins = pyramid.query(contig, 1, depth.length, maxBins);
+					Assert.assertFalse(bins.isEmpty());
+					if(maxBins==1_000_000) Assert.assertEquals(bins.get(0).getLengthOnReference(), Math.min(depth.length,binSize));
+					Assert.assertEquals(bins.get(0).getStart(), 1);
+					Assert.assertEquals(bins.get(bins.size()-1).getEnd(), depth.length);
+					for(final CoveragePyramid.Bin bin:bins) {
+						Assert.assertEquals(bin.getContig(), contig);
+						long sum=0L;
+						int min=Integer.MAX_VALUE;
+						int max=0;
+						for(int pos=bin.getStart();pos<=bin.getEnd();++pos) {
+							final int d = depth[pos-1];
+							sum += d;
+							min = Math.min(min, d);
+							max = Math.max(max, d);
+							}
+						Assert.assertEquals(bin.getMean(), (float)(sum/(double)bin.getLengthOnReference()), 0.001, bin.toString());
+						Assert.assertEquals(bin.getMin(), min, bin.toString());
+						Assert.assertEquals(bin.getMax(), max, bin.toString());
+						}
+					}
+				}
+			}
+		}
+		
+	/** a placed unmapped mate is followed by other reads on the same contig and by other contigs */
+	@Test
+	public void testPlacedUnmappedMate() throws IOException {
+		final SAMSequenceDictionary dict = new SAMSequenceDictionary(Arrays.asList(
+				new SAMSequenceRecord("chr1", 1_000),
+				new SAMSequenceRecord("chr2", 500),
+				new SAMSequenceRecord("chr3", 200)
+				));
+		final SAMFileHeader header = new SAMFileHeader();
+		header.setSequenceDictionary(dict);
+		header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+		final File bam = super.createTmpFile(".bam");
+		try(SAMFileWriter w = new SAMFileWriterFactory().makeBAMWriter(header, true, bam)) {
+			final int n[] = new int[] {0};
+			final BiConsumer<String,Integer> mapped = (C,P)->{
+				final SAMRecord rec = new SAMRecord(header);
+				rec.setReadName("r"+(++n[0]));
+				rec.setReferenceName(C);
+				rec.setAlignmentStart(P);
+				rec.setCigarString("50M");
+				rec.setReadString(StringUtil.repeatCharNTimes('A', 50));
+				rec.setBaseQualityString(StringUtil.repeatCharNTimes('I', 50));
+				rec.setMappingQuality(60);
+				w.addAlignment(rec);
+				};
+			final BiConsumer<String,Integer> unmapped = (C,P)->{
+				final SAMRecord rec = new SAMRecord(header);
+				rec.setReadName("u"+(++n[0]));
+				rec.setReadPairedFlag(true);
+				rec.setSecondOfPairFlag(true);
+				rec.setReadUnmappedFlag(true);
+				rec.setMateUnmappedFlag(P==SAMRecord.NO_ALIGNMENT_START);
+				rec.setReferenceName(C);
+				rec.setAlignmentStart(P);
+				rec.setMateReferenceName(C);
+				rec.setMateAlignmentStart(P);
+				rec.setReadString(StringUtil.repeatCharNTimes('A', 50));
+				rec.setBaseQualityString(StringUtil.repeatCharNTimes('I', 50));
+				w.addAlignment(rec);
+				};
+			mapped.accept("chr1", 100);
+			unmapped.accept("chr1", 100);
+			mapped.accept("chr1", 120);
+			mapped.accept("chr1", 900);
+			unmapped.accept("chr1", 900);
+			mapped.accept("chr2", 5);
+			mapped.accept("chr2", 30);
+			unmapped.accept("chr3", 10);
+			mapped.accept("chr3", 10);
+			mapped.accept("chr3", 151);
+			unmapped.accept(SAMRecord.NO_ALIGNMENT_REFERENCE_NAME, SAMRecord.NO_ALIGNMENT_START);
+			}
+		final File out = super.createTmpFile(CoveragePyramid.SUFFIX);
+		try(SamReader sr = SamReaderFactory.makeDefault().open(bam)) {
+			CoveragePyramid.build(sr, out, 10, R->true);
+			}
+		assertPyramidMatchesReads(bam, out, 10);
+		try(CoveragePyramid pyramid = new CoveragePyramid(out)) {
+			for(final String contig: new String[] {"chr2","chr3"}) {
+				final List<CoveragePyramid.Bin> bins = pyramid.query(contig, 1, dict.getSequence(contig).getSequenceLength(), 1);
+				Assert.assertEquals(bins.size(), 1);
+				Assert.assertTrue(bins.get(0).getMax()>0, contig);
+				}
+			}
+		}
+}
@@ -0,0 +1,169 @@
+package com.github.lindenb.jvarkit.tools.bam2wig;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.lindenb.jvarkit.util.Counter;
+import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.samtools.SAMRecordPartition;
+
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.SAMReadGroupRecord;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.util.StringUtil;
+
+/**
+ * Standalone benchmark, not part of the TestNG suite: times the previous per-position
+ * Counter aggregation of Bam2Wig (BufferedAggregator.fillPositions) against DepthSweep
+ * on the same BAM, contig by contig, and checks that both give the same depths.
+ *
+ * Usage: java -cp ... com.github.lindenb.jvarkit.tools.bam2wig.DepthSweepBenchmark [-n repeat] file.bam
+ */
+public class DepthSweepBenchmark {
+	private static final Logger LOG = Logger.build(DepthSweepBenchmark.class).make();
+	private final SAMRecordPartition partition = SAMRecordPartition.sample;
+	private long legacyNanos = 0L;
+	private long sweepNanos = 0L;
+	private long sumDepths = 0L;
+
+	private String partition(final SAMRecord rec) {
+		return this.partition.apply(rec.getReadGroup());
+		}
+
+	/** the previous implementation: a Counter per position */
+	private Map<Integer,Counter<String>> legacy(final List<SAMRecord> records) {
+		final Map<Integer,Counter<String>> pos2sample2depth = new HashMap<>();
+		for(final SAMRecord rec:records) {
+			final String sample = partition(rec);
+			if(StringUtil.isBlank(sample)) continue;
+			int pos1= rec.getAlignmentStart();
+			for(final CigarElement ce:rec.getCigar()) {
+				final CigarOperator op= ce.getOperator();
+				if(!op.consumesReferenceBases()) continue;
+				final int L=ce.getLength();
+				if(op.consumesReadBases())
+					{
+					for(int i=0;i< L;++i)
+						{
+						final int nx = pos1 + i;
+						Counter<String> sample2coverage = pos2sample2depth.get(nx);
+						if(sample2coverage==null) {
+							sample2coverage = new Counter<String>();
+							pos2sample2depth.put(nx, sample2coverage);
+							}
+						sample2coverage.incr(sample);
+						}
+					}
+				pos1+=L;
+				}
+			}
+		return pos2sample2depth;
+		}
+
+	/** the current implementation, the depths are stored in 'depths[pos1-1][sample]' for the comparison */
+	private void sweep(final List<SAMRecord> records,final Map<String,Integer> sample2index,final int depths[][]) {
+		final DepthSweep sweep = new DepthSweep(sample2index.size());
+		final DepthSweep.Consumer consumer = (POS,DEPTHS,OFFSET)->{
+			if(POS > depths.length) return;
+			System.arraycopy(DEPTHS, OFFSET, depths[POS-1], 0, sample2index.size());
+			};
+		sweep.reset(1);
+		for(final SAMRecord rec:records) {
+			final Integer sample = sample2index.get(partition(rec));
+			if(sample==null) continue;
+			sweep.advance(rec.getAlignmentStart(), consumer);
+			int pos1= rec.getAlignmentStart();
+			for(final CigarElement ce:rec.getCigar()) {
+				final CigarOperator op= ce.getOperator();
+				if(!op.consumesReferenceBases()) continue;
+				if(op.consumesReadBases()) sweep.increment(sample, pos1, ce.getLength());
+				pos1+=ce.getLength();
+				}
+			}
+		sweep.advance(depths.length+1, consumer);
+		}
+
+	private void contig(final String contig,final int contigLength,final List<SAMRecord> records,final Map<String,Integer> sample2index,final int repeat) {
+		if(records.isEmpty()) return;
+		Map<Integer,Counter<String>> expect = null;
+		long millis = System.nanoTime();
+		for(int i=0;i< repeat;i++) expect = legacy(records);
+		this.legacyNanos += System.nanoTime() - millis;
+
+		final int depths[][] = new int[contigLength][sample2index.size()];
+		millis = System.nanoTime();
+		for(int i=0;i< repeat;i++) sweep(records, sample2index, depths);
+		this.sweepNanos += System.nanoTime() - millis;
+
+		for(int pos1=1;pos1<=contigLength;++pos1) {
+			final Counter<String> c = expect.get(pos1);
+			for(final String sample:sample2index.keySet()) {
+				final int d1 = (c==null?0:(int)c.count(sample));
+				final int d2 = depths[pos1-1][sample2index.get(sample)];
+				if(d1!=d2) throw new IllegalStateException("depth differ at "+contig+":"+pos1+" for "+sample+" legacy:"+d1+" sweep:"+d2);
+				this.sumDepths += d2;
+				}
+			}
+		}
+
+	private void run(final File bamFile,final int repeat) throws IOException {
+		final SamReaderFactory srf = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.LENIENT);
+		try(SamReader sr = srf.open(bamFile)) {
+			final Map<String,Integer> sample2index = new HashMap<>();
+			for(final SAMReadGroupRecord rg: sr.getFileHeader().getReadGroups()) {
+				final String sample = this.partition.apply(rg);
+				if(StringUtil.isBlank(sample) || sample2index.containsKey(sample)) continue;
+				sample2index.put(sample, sample2index.size());
+				}
+			if(sample2index.isEmpty()) throw new IllegalArgumentException("no read group in "+bamFile);
+
+			final List<SAMRecord> records = new ArrayList<>();
+			int prev_tid = -1;
+			try(SAMRecordIterator iter = sr.iterator()) {
+				while(iter.hasNext()) {
+					final SAMRecord rec = iter.next();
+					if(rec.getReadUnmappedFlag()) continue;
+					if(rec.getReferenceIndex()!=prev_tid) {
+						if(prev_tid!=-1) {
+							contig(records.get(0).getContig(), sr.getFileHeader().getSequence(prev_tid).getSequenceLength(), records, sample2index, repeat);
+							}
+						records.clear();
+						prev_tid = rec.getReferenceIndex();
+						}
+					records.add(rec);
+					}
+				}
+			if(prev_tid!=-1) {
+				contig(records.get(0).getContig(), sr.getFileHeader().getSequence(prev_tid).getSequenceLength(), records, sample2index, repeat);
+				}
+			}
+		LOG.info(bamFile+" repeat="+repeat+
+			" legacy(ms)="+(this.legacyNanos/1_000_000L)+
+			" sweep(ms)="+(this.sweepNanos/1_000_000L)+
+			" sum(depth)="+this.sumDepths+
+			" : same depths.");
+		}
+
+	public static void main(final String[] args) throws IOException {
+		int repeat = 1;
+		int optind = 0;
+		if(args.length==optind+3 && args[optind].equals("-n")) {
+			repeat = Integer.parseInt(args[optind+1]);
+			optind+=2;
+			}
+		if(args.length!=optind+1) {
+			System.err.println("Usage: DepthSweepBenchmark [-n repeat] file.bam");
+			System.exit(-1);
+			}
+		new DepthSweepBenchmark().run(new File(args[optind]), repeat);
+		}
+}
@@ -0,0 +1,94 @@
+package com.github.lindenb.jvarkit.tools.bamindexnames;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamFiles;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+
+public class BamQueryReadNamesTest extends TestUtils {
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new ParamCombiner().
+			initList(collectIndexedBams()).
+			build();
+		}
+	
+	/** read the distinct records as SAM lines, sorted. In batch mode, a read matched by several names is written once */
+	private List<String> readSam(final File f) throws IOException {
+		try(SamReader sr = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT).open(f)) {
+			return sr.iterator().stream().
+				map(R->R.getSAMString()).
+				distinct().
+				sorted().
+				collect(Collectors.toList());
+			}
+		}
+	
+	@Test(dataProvider="src1")
+	public void testDefaultVersusBatch(final String inBam) throws IOException {
+		final File bam = createTmpFile(".bam");
+		IOUtils.copyTo(new File(inBam), bam);
+		final File bai = new File(bam.getParentFile(), bam.getName()+".bai");
+		IOUtils.copyTo(SamFiles.findIndex(new File(inBam)), deleteOnExit(bai));
+		deleteOnExit(new File(bam.getParentFile(), bam.getName()+BaseBamIndexReadNames.NAME_IDX_EXTENSION));
+		Assert.assertEquals(new BamIndexReadNames().instanceMain(new String[] {bam.getPath()}),0);
+		
+		final List<String> names = new ArrayList<>();
+		try(SamReader sr = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT).open(bam)) {
+			for(final SAMRecord rec: sr.iterator().stream().collect(Collectors.toList())) {
+				if(!names.isEmpty() && this.random.nextInt(10)!=0) continue;
+				switch(this.random.nextInt(3)) {
+					case 0: names.add(rec.getReadName()+"/1"); break;
+					case 1: names.add(rec.getReadName()+"/2"); break;
+					default: names.add(rec.getReadName()); break;
+					}
+				}
+			}
+		names.add("ZZZZ:X");
+		names.add("0000:X/1");
+		Collections.shuffle(names, this.random);
+		final File namesFile = createTmpFile(".txt");
+		try(PrintWriter pw = new PrintWriter(namesFile)) {
+			for(final String s:names) pw.println(s);
+			}
+		
+		final List<List<String>> results = new ArrayList<>();
+		final List<List<String>> notFound = new ArrayList<>();
+		for(final boolean batch: new boolean[] {false,true}) {
+			final File out = createTmpFile(".bam");
+			final File notFoundFile = createTmpFile(".txt");
+			Assert.assertEquals(new BamQueryReadNames().instanceMain(newCmd().
+				add("-o",out.getPath()).
+				add("-N",notFoundFile.getPath()).
+				addIf(batch,"--batch").
+				add(bam.getPath()).
+				add(namesFile.getPath()).
+				make()
+				),0);
+			assertIsValidBam(out);
+			results.add(readSam(out));
+			notFound.add(Files.readAllLines(notFoundFile.toPath()).stream().sorted().collect(Collectors.toList()));
+			}
+		Assert.assertFalse(results.get(0).isEmpty());
+		Assert.assertEquals(results.get(1), results.get(0));
+		Assert.assertEquals(notFound.get(1), notFound.get(0));
+		Assert.assertTrue(notFound.get(0).contains("ZZZZ:X"));
+		}
+	}
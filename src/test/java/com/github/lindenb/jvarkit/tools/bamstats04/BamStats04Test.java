@@ -3,6 +3,12 @@ package com.github.lindenb.jvarkit.tools.bamstats04;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
@@ -47,4 +53,60 @@ public void test1(final String inBam) throws IOException {
 		}),0);
 	assertIsNotEmpty(out);
 	}
+
+@Test
+public void testThreadsAndBedOrder() throws IOException {
+	final String bams[] = new String[] {
+		SRC_TEST_RESOURCE+"/S1.bam",
+		SRC_TEST_RESOURCE+"/S2.bam",
+		SRC_TEST_RESOURCE+"/S3.bam",
+		SRC_TEST_RESOURCE+"/S4.bam"
+		};
+	final SAMSequenceDictionary dict= SAMSequenceDictionaryExtractor.extractDictionary(new File(bams[0]));
+	/* unsorted targets, with adjacent, overlapping and identical intervals */
+	final List<String> bedLines = new ArrayList<>();
+	for(int i=0;i<50;i++)
+		{	
+		final SAMSequenceRecord ssr=dict.getSequence(this.random.nextInt(dict.size()));
+		final int start = this.random.nextInt(ssr.getSequenceLength()-1);
+		final int end = Math.min(ssr.getSequenceLength(),start+1+this.random.nextInt(100));
+		bedLines.add(ssr.getSequenceName()+"\t"+start+"\t"+end);
+		if(end < ssr.getSequenceLength()) {
+			bedLines.add(ssr.getSequenceName()+"\t"+end+"\t"+(end+1));
+			}
+		bedLines.add(ssr.getSequenceName()+"\t"+Math.max(0,start-5)+"\t"+Math.max(start+1,end-5));
+		if(i%10==0) bedLines.add(ssr.getSequenceName()+"\t"+start+"\t"+end);
+		}
+	final File bedout = createTmpFile(".bed");
+	final PrintWriter pw = new PrintWriter(bedout);
+	for(final String line: bedLines) pw.println(line);
+	pw.flush();
+	pw.close();
+	
+	final List<List<String>> outputs = new ArrayList<>();
+	for(final int nThreads: new int[] {1,3}) {
+		final File out = createTmpFile(".txt");
+		Assert.assertEquals(new BamStats04().instanceMain(newCmd().
+			add("-o",out.getPath()).
+			add("--bed",bedout.getPath()).
+			add("--cov","0").add("--cov","2").
+			add("--threads",nThreads).
+			add((Object[])bams).
+			make()
+			),0);
+		outputs.add(Files.readAllLines(out.toPath()));
+		}
+	Assert.assertEquals(outputs.get(1), outputs.get(0));
+	
+	/* the targets are printed in the order of the BED file, one line per partition */
+	final List<String> intervals = outputs.get(0).stream().
+		filter(L->!L.startsWith("#")).
+		map(L->String.join("\t",Arrays.asList(L.split("[\t]")).subList(0, 3))).
+		collect(Collectors.toList());
+	final List<String> expect = new ArrayList<>();
+	for(final String line: bedLines) {
+		for(int i=0;i< bams.length;i++) expect.add(line);
+		}
+	Assert.assertEquals(intervals, expect);
+	}
 }
@@ -2,6 +2,7 @@ package com.github.lindenb.jvarkit.tools.bioalcidae;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
@@ -76,4 +77,25 @@ public class BioAlcidaeJdkTest extends TestUtils
 		simpleTest(inputFile,script);
 		}
 	
+	@Test
+	public void testBatch() throws IOException {
+		final String script = "println(inputFile.substring(inputFile.lastIndexOf('/')+1)+\" \"+stream().count());";
+		final File out1 = createTmpFile(".txt");
+		final File out2 = createTmpFile(".txt");
+		for(int i=0;i< 2;i++) {
+			Assert.assertEquals(0,new BioAlcidaeJdk().instanceMain(newCmd().add(
+				"-e",script,
+				"-o",(i==0?out1:out2).getPath(),
+				"--threads",(i==0?"1":"3"),
+				SRC_TEST_RESOURCE+"/S1.bam",
+				SRC_TEST_RESOURCE+"/S2.bam",
+				SRC_TEST_RESOURCE+"/S3.bam",
+				SRC_TEST_RESOURCE+"/S4.bam"
+				).make()));
+			}
+		final java.util.List<String> lines = Files.readAllLines(out1.toPath());
+		Assert.assertEquals(lines.size(), 4);
+		for(int i=0;i< 4;i++) Assert.assertTrue(lines.get(i).startsWith("S"+(i+1)+".bam "));
+		Assert.assertEquals(Files.readAllLines(out2.toPath()), lines);
+		}
 }
@@ -0,0 +1,77 @@
+package com.github.lindenb.jvarkit.tools.calling;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+
+public class MiniCallerTest extends TestUtils {
+	
+	/** call the variants in S1..S4 */
+	private List<VariantContext> call(final int minDepth) throws IOException {
+		final File output = createTmpFile(".vcf");
+		Assert.assertEquals(new MiniCaller().instanceMain(newCmd().
+			add("-o",output.getPath()).
+			add("-d",minDepth).
+			add("-R",SRC_TEST_RESOURCE+"/rotavirus_rf.fa").
+			add(SRC_TEST_RESOURCE+"/S1.bam",SRC_TEST_RESOURCE+"/S2.bam",SRC_TEST_RESOURCE+"/S3.bam",SRC_TEST_RESOURCE+"/S4.bam").
+			make()
+			),0);
+		assertIsVcf(output);
+		try(VCFFileReader r = new VCFFileReader(output,false)) {
+			Assert.assertEquals(r.getFileHeader().getGenotypeSamples(), Arrays.asList("S1","S2","S3","S4"));
+			}
+		return variantStream(output).collect(Collectors.toList());
+		}
+	
+	private static VariantContext find(final List<VariantContext> L,final String contig,final int pos) {
+		return L.stream().
+			filter(V->V.getContig().equals(contig) && V.getStart()==pos).
+			findFirst().
+			orElseThrow(()->new AssertionError("no variant at "+contig+":"+pos));
+		}
+	
+	@Test
+	public void testDefaultDepth() throws IOException {
+		final List<VariantContext> variants = call(20);
+		Assert.assertEquals(variants.size(), 35);
+		final VariantContext ctx = find(variants, "RF05", 579);
+		Assert.assertEquals(ctx.getReference().getDisplayString(), "A");
+		Assert.assertEquals(ctx.getAlternateAlleles(), Arrays.asList(Allele.create("T")));
+		Assert.assertEquals(ctx.getAttributeAsInt("DP", -1), 50);
+		final Genotype g = ctx.getGenotype("S1");
+		Assert.assertEquals(g.getGenotypeString(true), "A/T");
+		Assert.assertEquals(g.getDP(), 21);
+		Assert.assertEquals(g.getExtendedAttribute("DP4"), "6,13,0,2");
+		/* depth of S4 is lower than 20 */
+		Assert.assertTrue(ctx.getGenotype("S4").isNoCall());
+		}
+	
+	@Test
+	public void testGenotypeAlleleOrder() throws IOException {
+		final List<VariantContext> variants = call(3);
+		Assert.assertEquals(variants.size(), 6572);
+		/* same depth for REF and ALT: REF comes first */
+		VariantContext ctx = find(variants, "RF01", 3176);
+		Genotype g = ctx.getGenotype("S1");
+		Assert.assertEquals(g.getAlleles(), Arrays.asList(ctx.getReference(), Allele.create("C")));
+		Assert.assertEquals(g.getExtendedAttribute("DPG"), "2,2");
+		/* two insertions: REF, then the ALT alleles in the order of the ALT column */
+		ctx = find(variants, "RF06", 1106);
+		Assert.assertEquals(ctx.getAlternateAlleles(), Arrays.asList(Allele.create("TAG"),Allele.create("TCG")));
+		g = ctx.getGenotype("S1");
+		Assert.assertEquals(g.getAlleles(), Arrays.asList(ctx.getReference(), Allele.create("TAG"), Allele.create("TCG")));
+		Assert.assertEquals(g.getExtendedAttribute("DPG"), "2,1,1");
+		}
+	}
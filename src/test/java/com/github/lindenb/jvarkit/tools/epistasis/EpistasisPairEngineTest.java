@@ -0,0 +1,94 @@
+package com.github.lindenb.jvarkit.tools.epistasis;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+import com.github.lindenb.jvarkit.util.vcf.GenotypeMatrix;
+
+public class EpistasisPairEngineTest extends TestUtils {
+	@DataProvider(name="src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{false,1,1,70},{false,4,7,70},{true,1,256,70},{true,3,5,70},
+			/* few samples: many pairs with the same score */
+			{false,1,1,2},{true,2,3,2}
+			};
+		}
+	
+	private static int score(final int d,final boolean isCase) {
+		final int s;
+		switch(d) {
+			case 1: s = 10; break;
+			case 2: s = 30; break;
+			default: s = 0; break;
+			}
+		return isCase?s:-s;
+		}
+	
+	@Test(dataProvider="src1")
+	public void testBestPair(final boolean joint,final int nThreads,final int tileSize,final int nSamples) throws IOException {
+		final int nRows = 150;
+		final int[][] dosages = new int[nRows][];
+		final int[] rowToVariant = new int[nRows];
+		final boolean[] isCase = new boolean[nSamples];
+		for(int i=0;i< nSamples;i++) isCase[i] = random.nextBoolean();
+		final ForkJoinPool pool = new ForkJoinPool(nThreads);
+		try(GenotypeMatrix m = GenotypeMatrix.allocate(nSamples)) {
+			int variant = 0;
+			for(int r=0;r< nRows;r++) {
+				final int[] d = new int[nSamples];
+				for(int i=0;i< nSamples;i++) d[i] = random.nextInt(4)-1;
+				dosages[r] = d;
+				m.add(d);
+				/* some variants have more than one ALT */
+				if(r>0 && random.nextInt(4)!=0) variant++;
+				rowToVariant[r] = variant;
+				}
+			final EpistasisPairEngine engine = new EpistasisPairEngine(m, rowToVariant,
+					m.createMask(IntStream.range(0, nSamples).filter(i->isCase[i]).toArray()),
+					m.createMask(IntStream.range(0, nSamples).filter(i->!isCase[i]).toArray()),
+					joint, tileSize);
+			
+			for(final int firstRow: new int[] {0,nRows/3}) {
+				/* brute force, first best pair wins */
+				int best1=-1,best2=-1;
+				double bestScore=0;
+				for(int r1=firstRow;r1< nRows;r1++) {
+					for(int r2=r1+1;r2< nRows;r2++) {
+						if(rowToVariant[r1]==rowToVariant[r2]) continue;
+						double s = 0;
+						for(int i=0;i< nSamples;i++) {
+							if(joint) {
+								if(dosages[r1][i]>0 && dosages[r2][i]>0) s += (isCase[i]?10:-10);
+								}
+							else
+								{
+								s += score(dosages[r1][i],isCase[i]) + score(dosages[r2][i],isCase[i]);
+								}
+							}
+						if(best1==-1 || s > bestScore) {
+							best1 = r1;
+							best2 = r2;
+							bestScore = s;
+							}
+						}
+					}
+				final EpistasisPairEngine.Best best = engine.run(pool, firstRow);
+				Assert.assertNotNull(best);
+				Assert.assertEquals(best.score, bestScore);
+				Assert.assertEquals(best.row1, best1);
+				Assert.assertEquals(best.row2, best2);
+				}
+			}
+		finally
+			{
+			pool.shutdownNow();
+			}
+		}
+	}
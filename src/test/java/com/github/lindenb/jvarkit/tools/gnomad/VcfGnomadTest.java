@@ -3,6 +3,12 @@ package com.github.lindenb.jvarkit.tools.gnomad;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
@@ -10,6 +16,9 @@ import org.testng.annotations.Test;
 
 import com.github.lindenb.jvarkit.tools.tests.TestUtils;
 
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+
 public class VcfGnomadTest extends TestUtils {
 @DataProvider(name="src01")
 public Object[][] testData01() {
@@ -59,4 +68,107 @@ public void testStreaming(final String vcfpath) throws IOException {
 	assertIsVcf(vcfOut);
 	}
 
+/** an input VCF overlapping the gnomad test files: same positions, known, partially known and novel ALT alleles */
+private File createOverlappingVcf() throws IOException {
+	final TreeMap<Integer,VariantContext> pos2ctx = new TreeMap<>();
+	for(final String gnomad: new String[] {
+		SRC_TEST_RESOURCE+"/gnomad.exomes.r2.0.1.sites.vcf.gz",
+		SRC_TEST_RESOURCE+"/gnomad.genomes.r2.0.1.sites.1.vcf.gz"
+		}) {
+		try(VCFFileReader r = new VCFFileReader(new File(gnomad),false)) {
+			r.iterator().stream().forEach(V->pos2ctx.putIfAbsent(V.getStart(), V));
+			}
+		}
+	final File vcf = super.createTmpFile(".vcf");
+	try(PrintWriter pw = new PrintWriter(vcf)) {
+		pw.println("##fileformat=VCFv4.2");
+		pw.println("##FILTER=<ID=LowQual,Description=\"Low quality\">");
+		pw.println("##contig=<ID=1,length=249250621>");
+		pw.println("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO");
+		for(final VariantContext ctx:pos2ctx.values()) {
+			final List<String> alts = ctx.getAlternateAlleles().stream().
+					map(A->A.getDisplayString()).
+					collect(Collectors.toList());
+			Collections.shuffle(alts, random);
+			final String ref = ctx.getReference().getDisplayString();
+			final String novel = Arrays.asList("A","C","G","T").stream().
+					filter(B->!ref.startsWith(B) && !alts.contains(B)).
+					findFirst().get();
+			final String alt;
+			switch(random.nextInt(4)) {
+				case 0: alt = novel; break;
+				case 1: alt = alts.get(0)+","+novel; break;
+				case 2: alt = String.join(",", alts); break;
+				default: alt = alts.get(0); break;
+				}
+			pw.println("1\t"+ctx.getStart()+"\t.\t"+ref+"\t"+alt+"\t.\t"+(random.nextInt(5)==0?"LowQual":"PASS")+"\t.");
+			}
+		pw.flush();
+		}
+	return vcf;
+	}
+
+/** data lines of the VCF, the header contains the command line */
+private List<String> variantLines(final File vcf) throws IOException {
+	return Files.readAllLines(vcf.toPath()).stream().
+			filter(L->!L.startsWith("##")).
+			collect(Collectors.toList());
+	}
+
+@DataProvider(name="src02")
+public Object[][] testData02() {
+	return new Object[][] {
+		{""},
+		{"--noMultiAltGnomad"},
+		{"--filteredGnomad"},
+		{"--noMultiAltGnomad --filteredGnomad"},
+		{"-ac --gnomadFilter MYF111"}
+	};
+}
+
+@Test(dataProvider="src02")
+public void testIndex(final String options) throws IOException {
+	final File exomeIdx = super.createTmpFile(GnomadIndex.EXTENSION);
+	final File genomeIdx = super.createTmpFile(GnomadIndex.EXTENSION);
+	Assert.assertEquals(new GnomadIndexer().instanceMain(newCmd().
+			add("-o",exomeIdx.getPath()).
+			add(SRC_TEST_RESOURCE+"/gnomad.exomes.r2.0.1.sites.vcf.gz").make()
+			),0);
+	Assert.assertEquals(new GnomadIndexer().instanceMain(newCmd().
+			add("-o",genomeIdx.getPath()).
+			add(SRC_TEST_RESOURCE+"/gnomad.genomes.r2.0.1.sites.1.vcf.gz").make()
+			),0);
+	final File manifestFile = super.createTmpFile(".mft");
+	final PrintWriter pw = new PrintWriter(manifestFile);
+	pw.println("exome\t*\t"+exomeIdx);
+	pw.println("genome\t*\t"+genomeIdx);
+	pw.flush();
+	pw.close();
+	
+	final File vcfIn = createOverlappingVcf();
+	final File vcfOut = super.createTmpFile(".vcf");
+	Assert.assertEquals(new VcfGnomad().instanceMain(newCmd().
+			add("-o",vcfOut.getPath()).
+			add("-m",manifestFile.getPath()).
+			split(options).
+			add(vcfIn.getPath()).make()
+			),0);
+	assertIsVcf(vcfOut);
+	
+	/* the indexed output must be the same as the streaming output on the gnomad VCFs */
+	final File streamOut = super.createTmpFile(".vcf");
+	Assert.assertEquals(new VcfGnomad().instanceMain(newCmd().
+			add("-o",streamOut.getPath()).
+			add("-m",createManifest().getPath()).
+			add("--streaming").
+			split(options).
+			add(vcfIn.getPath()).make()
+			),0);
+	final List<String> expect = variantLines(streamOut);
+	Assert.assertEquals(variantLines(vcfOut), expect);
+	
+	/* the test is meaningless if no variant was annotated */
+	Assert.assertTrue(variantStream(streamOut).anyMatch(V->V.getAttributes().keySet().stream().anyMatch(K->K.startsWith("gnomad"))));
+	}
+
 }
@@ -0,0 +1,142 @@
+package com.github.lindenb.jvarkit.tools.lumpysv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.util.IOUtil;
+
+public class LumpySortTest extends TestUtils {
+
+private static final String CONTIGS[]={"chr1","chr2"};
+private static final String SVTYPES[]={"DEL","DUP","INV","BND"};
+
+/** create a lumpy-like VCF for one sample, variants are clustered so that some of them will be merged */
+private File createLumpyVcf(final String sampleName) throws IOException {
+	final File vcf = super.createTmpFile(".vcf");
+	try(PrintWriter pw = new PrintWriter(vcf)) {
+		pw.println("##fileformat=VCFv4.2");
+		pw.println("##ALT=<ID=DEL,Description=\"Deletion\">");
+		pw.println("##ALT=<ID=DUP,Description=\"Duplication\">");
+		pw.println("##ALT=<ID=INV,Description=\"Inversion\">");
+		pw.println("##INFO=<ID=SVTYPE,Number=1,Type=String,Description=\"Type of structural variant\">");
+		pw.println("##INFO=<ID=SVLEN,Number=.,Type=Integer,Description=\"Difference in length between REF and ALT alleles\">");
+		pw.println("##INFO=<ID=END,Number=1,Type=Integer,Description=\"End position of the variant described in this record\">");
+		pw.println("##INFO=<ID=CIPOS,Number=2,Type=Integer,Description=\"Confidence interval around POS for imprecise variants\">");
+		pw.println("##INFO=<ID=CIEND,Number=2,Type=Integer,Description=\"Confidence interval around END for imprecise variants\">");
+		pw.println("##INFO=<ID=SECONDARY,Number=0,Type=Flag,Description=\"Secondary breakend in a multi-line variants\">");
+		pw.println("##INFO=<ID=SU,Number=.,Type=Integer,Description=\"Number of pieces of evidence supporting the variant across all samples\">");
+		pw.println("##INFO=<ID=PE,Number=.,Type=Integer,Description=\"Number of paired-end reads supporting the variant across all samples\">");
+		pw.println("##INFO=<ID=SR,Number=.,Type=Integer,Description=\"Number of split reads supporting the variant across all samples\">");
+		pw.println("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">");
+		pw.println("##FORMAT=<ID=SU,Number=1,Type=Integer,Description=\"Number of pieces of evidence supporting the variant\">");
+		pw.println("##FORMAT=<ID=PE,Number=1,Type=Integer,Description=\"Number of paired-end reads supporting the variant\">");
+		pw.println("##FORMAT=<ID=SR,Number=1,Type=Integer,Description=\"Number of split reads supporting the variant\">");
+		for(final String contig:CONTIGS) {
+			pw.println("##contig=<ID="+contig+",length=1000000>");
+			}
+		pw.println("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\t"+sampleName);
+		for(int i=0;i< 100;++i) {
+			final String contig = CONTIGS[random.nextInt(CONTIGS.length)];
+			final String svType = SVTYPES[random.nextInt(SVTYPES.length)];
+			/* a few cluster centers, so variants from different samples overlap */
+			final int pos = 1_000 + random.nextInt(20)*10_000 + random.nextInt(50);
+			final int su = random.nextInt(10);
+			final int pe = random.nextInt(su+1);
+			final StringBuilder sb = new StringBuilder();
+			sb.append(contig).append('\t').append(pos).append("\t").append(sampleName).append('_').append(i+1).append("\tN\t");
+			if(svType.equals("BND")) {
+				final int pos2 = 1_000 + random.nextInt(20)*10_000 + random.nextInt(50);
+				sb.append("N[").append(CONTIGS[random.nextInt(CONTIGS.length)]).append(':').append(pos2).append('[');
+				sb.append("\t.\t.\tSVTYPE=BND");
+				}
+			else
+				{
+				final int end = pos + 1_000 + random.nextInt(100);
+				sb.append('<').append(svType).append('>');
+				sb.append("\t.\t.\tSVTYPE=").append(svType).append(";END=").append(end);
+				}
+			sb.append(";CIPOS=-").append(random.nextInt(20)).append(',').append(random.nextInt(20));
+			sb.append(";CIEND=-").append(random.nextInt(20)).append(',').append(random.nextInt(20));
+			if(random.nextInt(10)==0) sb.append(";SECONDARY");
+			sb.append(";SU=").append(su).append(";PE=").append(pe).append(";SR=").append(su-pe);
+			sb.append("\tGT:SU:PE:SR\t").append(su>0?"0/1":"0/0").
+				append(':').append(su).append(':').append(pe).append(':').append(su-pe);
+			pw.println(sb);
+			}
+		pw.flush();
+		}
+	return vcf;
+	}
+
+/** data lines of the VCF, the header contains the command line */
+private List<String> variantLines(final File vcf) throws IOException {
+	return Files.readAllLines(vcf.toPath()).stream().
+			filter(L->!L.startsWith("##")).
+			collect(Collectors.toList());
+	}
+
+@DataProvider(name="src01")
+public Object[][] testData01() {
+	return new Object[][] {
+		{false},
+		{true}
+	};
+}
+
+@Test(dataProvider="src01")
+public void testBdbAndSortedRuns(final boolean doNotMerge) throws IOException {
+	final List<String> inputs = new ArrayList<>();
+	for(int i=0;i< 5;i++) {
+		inputs.add(createLumpyVcf("S"+(i+1)).getPath());
+		}
+	final Path bdbDir = Files.createTempDirectory("tmp.");
+	final Path tmpDir = Files.createTempDirectory("tmp.");
+	try {
+		final File bdbOut = super.createTmpFile(".vcf");
+		Assert.assertEquals(new LumpySort().instanceMain(newCmd().
+				add("-o",bdbOut.getPath()).
+				addIf(doNotMerge,"--do-not-merge").
+				add("--bdb",bdbDir.toString()).
+				add(inputs.toArray()).make()
+				),0);
+		assertIsVcf(bdbOut);
+
+		/* small number of records in RAM to force several sorted runs */
+		final File sortOut = super.createTmpFile(".vcf");
+		Assert.assertEquals(new LumpySort().instanceMain(newCmd().
+				add("-o",sortOut.getPath()).
+				addIf(doNotMerge,"--do-not-merge").
+				add("--maxRecordsInRam",37).
+				add("--tmpDir",tmpDir.toString()).
+				add(inputs.toArray()).make()
+				),0);
+		assertIsVcf(sortOut);
+
+		final List<String> expect = variantLines(bdbOut);
+		Assert.assertTrue(expect.size()>1);
+		Assert.assertEquals(variantLines(sortOut),expect);
+		if(!doNotMerge) {
+			/* variants from different samples were merged */
+			Assert.assertTrue(variantStream(sortOut).anyMatch(V->V.getAttributeAsInt("NSAMPLES",0)>1));
+			}
+		}
+	finally
+		{
+		IOUtil.deleteDirectoryTree(bdbDir.toFile());
+		IOUtil.deleteDirectoryTree(tmpDir.toFile());
+		}
+	}
+
+}
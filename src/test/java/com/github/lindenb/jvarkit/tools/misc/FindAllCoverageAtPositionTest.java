@@ -0,0 +1,143 @@
+package com.github.lindenb.jvarkit.tools.misc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamFiles;
+import htsjdk.samtools.util.StringUtil;
+
+public class FindAllCoverageAtPositionTest extends TestUtils {
+
+	/** write the list of the BAMs S1..S4 */
+	private File createBamList() throws IOException {
+		final File input = createTmpFile(".list");
+		try(PrintWriter pw=new PrintWriter(input)) {
+			for(int i=1;i<=4;i++) pw.println(SRC_TEST_RESOURCE+"/S"+i+".bam");
+			}
+		return input;
+		}
+	
+	/** run the tool on S1..S4, returns the rows without the path of the BAM */
+	private List<String> run(final String...options) throws IOException {
+		return run(createBamList(), options);
+		}
+	
+	/** run the tool, returns the rows without the path of the BAM */
+	private List<String> run(final File bamList,final String...options) throws IOException {
+		final File output = createTmpFile(".tsv");
+		Assert.assertEquals(new FindAllCoverageAtPosition().instanceMain(newCmd().
+			add("-o",output.getPath()).
+			add((Object[])options).
+			add(bamList.getPath()).
+			make()
+			),0);
+		super.assertTsvTableIsConsitent(output, null);
+		return Files.readAllLines(output.toPath()).stream().
+			filter(L->!L.startsWith("#")).
+			map(L->L.substring(L.indexOf('\t')+1)).
+			collect(Collectors.toList());
+		}
+	
+	@Test
+	public void testKnownValues() throws IOException {
+		final List<String> rows = run("-p","RF03:500 RF01:1679 RF02:1927 RF02:1963");
+		final List<String> expect = new ArrayList<>();
+		/* CHROM POS SAMPLE DEPTH M I D N S H P EQ X Base(A) Base(C) Base(G) Base(T) Base(N) Base(^) Base(-) */
+		expect.add("RF01\t1679\tS1\t8\t8\t0\t0\t0\t1\t0\t0\t0\t0\t0\t0\t0\t8\t0\t0\t0");
+		expect.add("RF01\t1679\tS2\t12\t12\t0\t0\t0\t0\t0\t0\t0\t0\t0\t0\t0\t12\t0\t0\t0");
+		expect.add("RF01\t1679\tS3\t12\t12\t0\t0\t0\t0\t0\t0\t0\t0\t0\t0\t0\t12\t0\t0\t0");
+		expect.add("RF01\t1679\tS4\t10\t10\t0\t0\t0\t1\t0\t0\t0\t0\t0\t0\t0\t10\t0\t0\t0");
+		expect.add("RF02\t1927\tS1\t13\t13\t0\t0\t0\t0\t0\t0\t0\t0\t0\t0\t12\t1\t0\t0\t0");
+		expect.add("RF02\t1927\tS2\t11\t11\t0\t0\t0\t0\t0\t0\t0\t0\t0\t0\t11\t0\t0\t0\t0");
+		expect.add("RF02\t1927\tS3\t11\t11\t0\t0\t0\t0\t0\t0\t0\t0\t0\t0\t11\t0\t0\t0\t0");
+		expect.add("RF02\t1927\tS4\t11\t11\t0\t0\t0\t0\t0\t0\t0\t0\t0\t0\t11\t0\t0\t0\t0");
+		expect.add("RF02\t1963\tS1\t7\t7\t0\t3\t0\t0\t0\t0\t0\t0\t7\t0\t0\t0\t0\t0\t3");
+		expect.add("RF02\t1963\tS2\t6\t6\t0\t0\t0\t0\t0\t0\t0\t0\t5\t0\t0\t1\t0\t0\t0");
+		expect.add("RF02\t1963\tS3\t6\t6\t0\t0\t0\t0\t0\t0\t0\t0\t5\t0\t0\t1\t0\t0\t0");
+		expect.add("RF02\t1963\tS4\t12\t12\t0\t0\t0\t0\t0\t0\t0\t0\t12\t0\t0\t0\t0\t0\t0");
+		/* a read ending with a soft clip ('68M2S') is counted once */
+		expect.add("RF03\t500\tS1\t3\t3\t0\t0\t0\t0\t0\t0\t0\t0\t0\t2\t1\t0\t0\t0\t0");
+		expect.add("RF03\t500\tS2\t3\t3\t0\t0\t0\t0\t0\t0\t0\t0\t0\t3\t0\t0\t0\t0\t0");
+		expect.add("RF03\t500\tS3\t3\t3\t0\t0\t0\t0\t0\t0\t0\t0\t0\t3\t0\t0\t0\t0\t0");
+		expect.add("RF03\t500\tS4\t9\t9\t0\t0\t0\t0\t0\t0\t0\t0\t0\t9\t0\t0\t0\t0\t0");
+		Assert.assertEquals(rows, expect);
+		}
+	
+	@Test
+	public void testPositionsAreIndependent() throws IOException {
+		final File bed = createTmpFile(".bed");
+		try(PrintWriter pw=new PrintWriter(bed)) {
+			pw.println("RF01\t1670\t1690");
+			pw.println("RF02\t1920\t1965");
+			}
+		final List<String> all = run("-f",bed.getPath());
+		/* the BED is 0-based: 20+45 positions, 4 BAMs */
+		Assert.assertEquals(all.size(), (20+45)*4);
+		for(final String pos: new String[] {"RF01:1671","RF01:1679","RF01:1682","RF02:1927","RF02:1963"}) {
+			final String tokens[] = pos.split("[:]");
+			final List<String> expect = all.stream().
+				filter(L->L.startsWith(tokens[0]+"\t"+tokens[1]+"\t")).
+				collect(Collectors.toList());
+			Assert.assertEquals(expect.size(), 4);
+			Assert.assertEquals(run("-p",pos), expect);
+			}
+		}
+		
+	/** number of soft clipped bases at each position, in the order of the rows */
+	private List<Integer> softClips(final List<String> rows) {
+		/* CHROM POS SAMPLE DEPTH M I D N S ... */
+		return rows.stream().
+			map(L->Integer.parseInt(L.split("[\t]")[8])).
+			collect(Collectors.toList());
+		}
+	
+	@Test
+	public void testClipMargin() throws IOException {
+		final SAMFileHeader header = new SAMFileHeader();
+		header.setSequenceDictionary(new SAMSequenceDictionary(Arrays.asList(new SAMSequenceRecord("chr1", 5_000))));
+		header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+		final File bam = createTmpFile(".bam");
+		try(SAMFileWriter w = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(header, true, bam)) {
+			/* a long soft clip: the read is aligned at 3000, its clipped bases are projected on 1500-2999 */
+			final SAMRecord rec = new SAMRecord(header);
+			rec.setReadName("r1");
+			rec.setReferenceName("chr1");
+			rec.setAlignmentStart(3_000);
+			rec.setCigarString("1500S50M");
+			rec.setReadString(StringUtil.repeatCharNTimes('A', 1_550));
+			rec.setBaseQualityString(StringUtil.repeatCharNTimes('I', 1_550));
+			rec.setMappingQuality(60);
+			w.addAlignment(rec);
+			}
+		deleteOnExit(SamFiles.findIndex(bam));
+		final File bamList = createTmpFile(".list");
+		try(PrintWriter pw=new PrintWriter(bamList)) {
+			pw.println(bam.getPath());
+			}
+		final String positions = "chr1:1600 chr1:2000 chr1:2998 chr1:2999 chr1:3010";
+		/* default: the clipped bases are counted up to 1000 bases from the alignment */
+		Assert.assertEquals(softClips(run(bamList, "-p", positions)), Arrays.asList(0,1,1,1,0));
+		Assert.assertEquals(softClips(run(bamList, "-p", "chr1:1600")), Arrays.asList(0));
+		/* long clips */
+		Assert.assertEquals(softClips(run(bamList, "--clip-margin", "1500", "-p", positions)), Arrays.asList(1,1,1,1,0));
+		/* the reads of the previous versions: only the reads aligned next to the position */
+		Assert.assertEquals(softClips(run(bamList, "--clip-margin", "1", "-p", positions)), Arrays.asList(0,0,0,1,0));
+		}
+	}
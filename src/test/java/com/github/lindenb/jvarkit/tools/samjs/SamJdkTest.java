@@ -2,6 +2,9 @@ package com.github.lindenb.jvarkit.tools.samjs;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
@@ -9,6 +12,10 @@ import org.testng.annotations.Test;
 
 import com.github.lindenb.jvarkit.tools.tests.TestUtils;
 
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+
 
 public class SamJdkTest extends TestUtils {
 	@DataProvider(name = "src1")
@@ -32,4 +39,40 @@ public class SamJdkTest extends TestUtils {
 				make()));
 		assertIsValidBam(out);
 		}
+	
+	private List<String> readSam(final File bam) throws IOException {
+		final List<String> L = new ArrayList<>();
+		try(SamReader sr=SamReaderFactory.makeDefault().open(bam)) {
+			for(final SAMRecord rec:sr) L.add(rec.getSAMString());
+			}
+		return L;
+		}
+	
+	@Test
+	public void testThreadsAndCache() throws IOException {
+		final File cacheDir = Files.createTempDirectory("samjdk").toFile();
+		final String expr = "return record.getReadUnmappedFlag() || record.getMappingQuality()>10;";
+		final List<List<String>> outputs = new ArrayList<>();
+		for(int i=0;i< 3;i++) {
+			final File out = createTmpFile(".bam");
+			Assert.assertEquals(0,new SamJdk().instanceMain(newCmd().add(
+	        		"-o",out.getPath(),
+	        		"-e",expr,
+	        		"--class-cache",cacheDir.getPath(),
+	        		"--threads",(i==0?"1":"3"),
+	        		"--batch-size","7",
+	        		SRC_TEST_RESOURCE+"/S1.bam"
+	        		).
+					make()));
+			assertIsValidBam(out);
+			outputs.add(readSam(out));
+			}
+		final File cached[] = cacheDir.listFiles();
+		Assert.assertEquals(cached.length, 1);
+		Assert.assertFalse(outputs.get(0).isEmpty());
+		Assert.assertEquals(outputs.get(1), outputs.get(0));
+		Assert.assertEquals(outputs.get(2), outputs.get(0));
+		for(final File f:cached) f.delete();
+		cacheDir.delete();
+		}
 }
@@ -0,0 +1,134 @@
+package com.github.lindenb.jvarkit.tools.skat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.math3.distribution.ChiSquaredDistribution;
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+import com.github.lindenb.jvarkit.util.Pedigree;
+
+import htsjdk.samtools.SAMException;
+import htsjdk.samtools.util.ProcessExecutor;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+
+public class SkatEngineTest extends TestUtils {
+	
+	@DataProvider(name="src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{1,0.5},{3,5.0},{10,3.0},{10,25.0},{50,80.0}
+			};
+		}
+	
+	@Test(dataProvider="src1")
+	public void testDaviesChiSquare(final int df,final double q) {
+		final double[] lambda = new double[df];
+		Arrays.fill(lambda, 1.0);
+		final double expect = 1.0 - new ChiSquaredDistribution(df).cumulativeProbability(q);
+		/* Davies' method may need more than 10000 terms for small quantiles: upperTail() then uses the Liu approximation */
+		final double davies = QuadraticFormDistribution.daviesUpperTail(q, lambda);
+		if(davies>=0) Assert.assertEquals(davies, expect, 1e-5);
+		Assert.assertEquals(QuadraticFormDistribution.upperTail(q, lambda), expect, 1e-5);
+		/* Liu's approximation is exact for a central chi2 */
+		Assert.assertEquals(QuadraticFormDistribution.liuUpperTail(q, lambda), expect, 1e-8);
+		}
+	
+	@Test
+	public void testDaviesMixture() {
+		/* 2 * chi2(1) + 0.5 * chi2(1) : compare with a numeric convolution */
+		final double[] lambda = {2.0,0.5};
+		final double q = 4.0;
+		final ChiSquaredDistribution chi1 = new ChiSquaredDistribution(1);
+		final int N = 200_000;
+		double cdf = 0;
+		/* P(2X + 0.5Y < q) = integral P(Y < (q-2x)/0.5) f(x) dx , x=t^2 */
+		final double tMax = Math.sqrt(q/2.0);
+		for(int i=0;i< N;i++) {
+			final double t = (i+0.5)*tMax/N;
+			final double x = t*t;
+			cdf += chi1.cumulativeProbability((q-2.0*x)/0.5) * 2.0*Math.exp(-x/2.0)/Math.sqrt(2.0*Math.PI) * tMax/N;
+			}
+		Assert.assertEquals(QuadraticFormDistribution.daviesUpperTail(q, lambda), 1.0 - cdf, 1e-5);
+		}
+	
+	@Test
+	public void testEngine() {
+		final int nSamples = 200;
+		final int nVariants = 15;
+		final double[][] genotypes = new double[nSamples][nVariants];
+		final double[] phenotypes = new double[nSamples];
+		final double[] weights = new double[nVariants];
+		for(int i=0;i< nSamples;i++) phenotypes[i] = i%2;
+		for(int j=0;j< nVariants;j++) {
+			weights[j] = 1.0 + random.nextDouble();
+			for(int i=0;i< nSamples;i++) {
+				/* some association with the phenotype */
+				final double freq = (phenotypes[i]==1 && j%3==0 ? 0.2 : 0.05);
+				genotypes[i][j] = (random.nextDouble()<freq?1:0) + (random.nextDouble()<freq?1:0);
+				}
+			}
+		final SkatEngine engine = new SkatEngine(genotypes, phenotypes, weights);
+		final double p1 = engine.skat();
+		final double p2 = engine.skatO();
+		Assert.assertTrue(p1 > 0 && p1 <= 1.0, "skat "+p1);
+		Assert.assertTrue(p2 > 0 && p2 <= 1.0, "skato "+p2);
+		
+		/* swapping the labels of the phenotypes doesn't change the p-value */
+		final double[] swapped = new double[nSamples];
+		for(int i=0;i< nSamples;i++) swapped[i] = 1.0 - phenotypes[i];
+		Assert.assertEquals(new SkatEngine(genotypes, swapped, weights).skat(), p1, 1e-9);
+		
+		/* no association */
+		for(int j=0;j< nVariants;j++) {
+			for(int i=0;i< nSamples;i++) genotypes[i][j] = (i/2)%(j+2)==0?1:0;
+			}
+		Assert.assertTrue(new SkatEngine(genotypes, phenotypes, weights).skat() > 0.5);
+		}
+	
+	private static boolean isRSkatAvailable() {
+		try {
+			return ProcessExecutor.execute(new String[] {"Rscript","-e","library(SKAT)"})==0;
+			}
+		catch(final SAMException err) {
+			return false;
+			}
+		}
+	
+	/** the R package SKAT is the reference implementation */
+	@Test
+	public void testJavaVersusR() throws IOException {
+		final File vcf = new File(SRC_TEST_RESOURCE+"/test_vcf01.vcf");
+		final Pedigree ped = new Pedigree.Parser().parse(new File(SRC_TEST_RESOURCE+"/test_vcf01.ped"));
+		final List<VariantContext> variants = new ArrayList<>();
+		try(VCFFileReader r= new VCFFileReader(vcf,false)) {
+			/* MAF must be lower than 1, as the weights are 1/sqrt(n*MAF*(1-MAF)) */
+			r.iterator().stream().
+				filter(V->V.getGenotypes().stream().anyMatch(G->G.isHomRef() || G.isHet())).
+				forEach(variants::add);
+			}
+		for(final boolean optimal: new boolean[] {false,true}) {
+			final SkatFactory factory = new SkatFactory();
+			factory.setOptimal(optimal);
+			final SkatFactory.SkatResult javaResult = factory.build().execute(variants, ped.getPersons());
+			Assert.assertFalse(javaResult.isError(), javaResult.getMessage());
+			Assert.assertTrue(javaResult.getPValue()>0 && javaResult.getPValue()<=1.0);
+			
+			if(!isRSkatAvailable()) {
+				throw new SkipException("Rscript and the package SKAT are not available");
+				}
+			factory.setUseRscript(true);
+			final SkatFactory.SkatResult rResult = factory.build().execute(variants, ped.getPersons());
+			Assert.assertFalse(rResult.isError(), rResult.getMessage());
+			Assert.assertEquals(javaResult.getPValue(), rResult.getPValue(), Math.max(1e-6, rResult.getPValue()*1e-3));
+			}
+		}
+	}
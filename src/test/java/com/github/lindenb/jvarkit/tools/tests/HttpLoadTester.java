@@ -0,0 +1,149 @@
+package com.github.lindenb.jvarkit.tools.tests;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+/** load-test harness for the web servers: 'n' concurrent clients send GET queries and the latencies are reported */
+public class HttpLoadTester {
+	private static final Logger LOG = Logger.build(HttpLoadTester.class).make();
+	private int nClients = 100;
+	private int queriesPerClient = 5;
+	private int connectTimeoutMillis = 10_000;
+	private int readTimeoutMillis = 120_000;
+
+	public static class Report {
+		/** sorted latencies of the successful queries, in milliseconds */
+		public final long latencies[];
+		/** number of HTTP 503 (rejected) */
+		public final int count503;
+		/** other errors */
+		public final int countErrors;
+		/** messages of the other errors: url, HTTP code or exception */
+		public final List<String> errorMessages;
+		Report(final long latencies[],int count503,final List<String> errorMessages) {
+			this.latencies = latencies;
+			Arrays.sort(this.latencies);
+			this.count503 = count503;
+			this.countErrors = errorMessages.size();
+			this.errorMessages = Collections.unmodifiableList(errorMessages);
+			}
+		/** @param p percentile in [0-100] */
+		public long getPercentile(final double p) {
+			if(this.latencies.length==0) return -1L;
+			final int idx = (int)Math.ceil((p/100.0)*this.latencies.length)-1;
+			return this.latencies[Math.max(0, Math.min(idx, this.latencies.length-1))];
+			}
+		@Override
+		public String toString() {
+			return "queries:"+(this.latencies.length+this.count503+this.countErrors)+
+					" ok:"+this.latencies.length+
+					" 503:"+this.count503+
+					" errors:"+this.countErrors+
+					" p50:"+getPercentile(50)+"ms"+
+					" p99:"+getPercentile(99)+"ms"+
+					(this.errorMessages.isEmpty()?"":" first error: "+this.errorMessages.get(0));
+			}
+		}
+	
+	public HttpLoadTester setClients(int nClients) {
+		this.nClients = nClients;
+		return this;
+		}
+	public HttpLoadTester setQueriesPerClient(int queriesPerClient) {
+		this.queriesPerClient = queriesPerClient;
+		return this;
+		}
+	
+	/** wait for a server to answer. Returns false if nothing answered after 'millis' */
+	public static boolean waitForServer(final String url,long millis) throws InterruptedException {
+		final long end = System.currentTimeMillis()+millis;
+		while(System.currentTimeMillis()<end) {
+			try {
+				final HttpURLConnection con=(HttpURLConnection)new URL(url).openConnection();
+				con.getResponseCode();
+				con.disconnect();
+				return true;
+				}
+			catch(final IOException err) {
+				Thread.sleep(100);
+				}
+			}
+		return false;
+		}
+	
+	/** all the clients start at the same time, each client sends 'queriesPerClient' queries, cycling over the urls */
+	public Report run(final List<String> urls) throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(this.nClients);
+		final CountDownLatch startSignal = new CountDownLatch(1);
+		final List<Future<long[]>> futures = new ArrayList<>(this.nClients);
+		final List<String> errorMessages = Collections.synchronizedList(new ArrayList<>());
+		try {
+			for(int c=0;c< this.nClients;++c) {
+				final int client = c;
+				futures.add(executor.submit(()->{
+					/* [0]=ok, [1]=503, then latencies */
+					final long result[]=new long[2+this.queriesPerClient];
+					startSignal.await();
+					for(int q=0;q< this.queriesPerClient;++q) {
+						final String url = urls.get((client*this.queriesPerClient+q)%urls.size());
+						final long start = System.currentTimeMillis();
+						try {
+							final HttpURLConnection con=(HttpURLConnection)new URL(url).openConnection();
+							con.setConnectTimeout(this.connectTimeoutMillis);
+							con.setReadTimeout(this.readTimeoutMillis);
+							final int code = con.getResponseCode();
+							if(code==200) {
+								try(InputStream in=con.getInputStream()) {
+									final byte buffer[]=new byte[8192];
+									while(in.read(buffer)!=-1) {/* consume */}
+									}
+								result[2+(int)result[0]] = System.currentTimeMillis()-start;
+								result[0]++;
+								}
+							else if(code==503) {
+								result[1]++;
+								}
+							else
+								{
+								errorMessages.add(url+" : HTTP "+code);
+								}
+							con.disconnect();
+							}
+						catch(final IOException err) {
+							errorMessages.add(url+" : "+err.getMessage());
+							}
+						}
+					return result;
+					}));
+				}
+			startSignal.countDown();
+			final List<Long> latencies = new ArrayList<>();
+			int count503 = 0;
+			for(final Future<long[]> f: futures) {
+				final long result[]=f.get();
+				for(int i=0;i< result[0];++i) latencies.add(result[2+i]);
+				count503 += (int)result[1];
+				}
+			for(final String msg:errorMessages) LOG.warning(msg);
+			return new Report(latencies.stream().mapToLong(L->L).toArray(), count503, new ArrayList<>(errorMessages));
+			}
+		finally
+			{
+			executor.shutdownNow();
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+			}
+		}
+}
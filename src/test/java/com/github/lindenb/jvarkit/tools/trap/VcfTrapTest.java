@@ -0,0 +1,105 @@
+package com.github.lindenb.jvarkit.tools.trap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.TreeMap;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+
+public class VcfTrapTest extends TestUtils {
+
+/** create a TRAP text file for chromosome 1 containing all the SNVs of test_vcf01.vcf */
+private File createTrapData(final Path dir) throws IOException {
+	final TreeMap<Integer,Character> pos2ref = new TreeMap<>();
+	try(VCFFileReader r = new VCFFileReader(new File(SRC_TEST_RESOURCE+"/test_vcf01.vcf"),false)) {
+		r.iterator().stream().
+			filter(V->V.getContig().equals("1")).
+			filter(V->V.isSNP()).
+			forEach(V->pos2ref.put(V.getStart(), V.getReference().getBaseString().charAt(0)));
+		}
+	/* add some records around */
+	for(int i=0;i< 1000;i++) {
+		pos2ref.putIfAbsent(1+random.nextInt(1_000_000), 'A');
+		}
+	final File trapFile = deleteOnExit(dir.resolve("chr1.TraPv2.txt").toFile());
+	try(PrintWriter pw = new PrintWriter(trapFile)) {
+		for(final Integer pos: pos2ref.keySet()) {
+			final char ref = pos2ref.get(pos);
+			for(final char alt: "ACGT".toCharArray()) {
+				if(alt==ref) continue;
+				final int score = random.nextInt(1001);
+				pw.println(pos+"\t"+ref+"\t"+alt+"\tENSG"+String.format("%011d", random.nextInt(100000))+"\t"+
+					(score==1000?"1":String.format("0.%03d",score)));
+				}
+			}
+		pw.flush();
+		}
+	return trapFile;
+	}
+
+@Test
+public void testIndex() throws IOException {
+	final Path dir = deleteOnExit(Files.createTempDirectory("tmp."));
+	final File trapFile = createTrapData(dir);
+	final File datFile = deleteOnExit(dir.resolve("chr1.dat").toFile());
+	Assert.assertEquals(new TrapIndexer().instanceMain(newCmd().
+			add("-o",datFile.getPath()).
+			add(trapFile.getPath()).make()
+			),0);
+	
+	/* compare the mapped records with TrapIndexer.decode, using small chunks */
+	try(VcfTrap.IndexFile index = new VcfTrap.IndexFile("1", datFile, 100*TrapIndexer.RECORD_SIZOF+7);
+		RandomAccessFile raf = new RandomAccessFile(datFile,"r")) {
+		Assert.assertTrue(index.size()>0);
+		final byte array[] = new byte[TrapIndexer.RECORD_SIZOF];
+		raf.seek(TrapIndexer.MAGIC.length);
+		for(int i=0;i< index.size();i++) {
+			raf.readFully(array);
+			final TrapRecord expect = TrapIndexer.decode("1", array);
+			final TrapRecord rec = index.get(i);
+			Assert.assertEquals(rec.getStart(), expect.getStart());
+			Assert.assertEquals(rec.getRef(), expect.getRef());
+			Assert.assertEquals(rec.getAlt(), expect.getAlt());
+			Assert.assertEquals(rec.getGene(), expect.getGene());
+			Assert.assertEquals(rec.getScore(), expect.getScore());
+			}
+		/* random access must give the same answer as a linear scan */
+		for(int n=0;n< 1000;n++) {
+			final int pos = random.nextInt(1_100_000);
+			int expect=0;
+			while(expect< index.size() && index.getPos(expect)<pos) expect++;
+			Assert.assertEquals(index.lowerBound(pos), expect);
+			}
+		}
+	
+	final File manifestFile = super.createTmpFile(".mft");
+	try(PrintWriter pw = new PrintWriter(manifestFile)) {
+		pw.println("1\t"+datFile);
+		pw.flush();
+		}
+	final File vcfOut = super.createTmpFile(".vcf");
+	Assert.assertEquals(new VcfTrap().instanceMain(newCmd().
+			add("-o",vcfOut.getPath()).
+			add("-m",manifestFile.getPath()).
+			add(SRC_TEST_RESOURCE+"/test_vcf01.vcf").make()
+			),0);
+	assertIsVcf(vcfOut);
+	try(VCFFileReader r = new VCFFileReader(vcfOut,false)) {
+		for(final VariantContext ctx: r) {
+			if(!ctx.getContig().equals("1") || !ctx.isSNP()) continue;
+			Assert.assertTrue(ctx.hasAttribute("TRAP"), ctx.toString());
+			Assert.assertTrue(ctx.getAttributeAsDouble("TRAP_MIN", -1) <= ctx.getAttributeAsDouble("TRAP_MAX", -1));
+			}
+		}
+	}
+}
@@ -4,12 +4,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URLEncoder;
 import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.tools.tests.HttpLoadTester;
 import com.github.lindenb.jvarkit.tools.tests.TestUtils;
 
 import htsjdk.samtools.util.CloserUtil;
@@ -58,6 +61,43 @@ public class TViewServerTest  extends TestUtils {
 		
 		assertIsXml(htmlOut);
 		}
-
-
+	
+	@Test
+	public void testConcurrentClients() throws Exception {
+		final TViewServer server = new TViewServer();
+		final int exitCode[] = new int[] {-1};
+		final Thread serverThread = new Thread(()->{
+			exitCode[0] = server.instanceMain(newCmd().add(
+				"-P",0,
+				"-R",SRC_TEST_RESOURCE+"/rotavirus_rf.fa",
+				"--max-per-file","0",
+				SRC_TEST_RESOURCE+"/S1.bam",
+				SRC_TEST_RESOURCE+"/S2.bam"
+				).make());
+			});
+		serverThread.start();
+		try {
+			int port = -1;
+			for(int i=0;i< 100 && serverThread.isAlive() && (port=server.getLocalPort())<0;i++) Thread.sleep(100);
+			Assert.assertTrue(port>0,"server didn't start");
+			final String base = "http://localhost:"+port+"/";
+			final List<String> urls = randomIntervalsFromDict(new File(SRC_TEST_RESOURCE+"/rotavirus_rf.dict"),5).
+					stream().
+					map(I->base+"?samfile="+(I.getStart()%2)+"&rgn="+I.getContig()+"%3A"+I.getStart()+"-"+(I.getStart()+100)).
+					collect(Collectors.toList());
+			final HttpLoadTester.Report report = new HttpLoadTester().
+					setClients(5).
+					setQueriesPerClient(2).
+					run(urls);
+			Assert.assertEquals(report.countErrors, 0, report.toString());
+			Assert.assertEquals(report.count503, 0);
+			Assert.assertEquals(report.latencies.length, 10);
+			}
+		finally
+			{
+			server.stopServer();
+			serverThread.join(10_000L);
+			}
+		Assert.assertEquals(exitCode[0], 0);
+		}
 }
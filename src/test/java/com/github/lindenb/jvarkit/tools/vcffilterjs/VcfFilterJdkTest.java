@@ -0,0 +1,48 @@
+package com.github.lindenb.jvarkit.tools.vcffilterjs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+public class VcfFilterJdkTest extends TestUtils {
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new ParamCombiner().
+			initList(collectAllVcfs()).
+			product("1","3").
+			build();
+		}
+	
+	@Test(dataProvider="src1")
+	public void test01(final String inputFile,final String nThreads) throws IOException {
+		final String expr = "return variant.getStart()%3!=0;";
+		final File out1 = createTmpFile(".vcf");
+		Assert.assertEquals(new VcfFilterJdk().instanceMain(newCmd().add(
+				"-o",out1.getPath(),
+				"-e",expr,
+				"-F","MOD3",
+				inputFile
+				).make()),0);
+		assertIsVcf(out1);
+		final File out2 = createTmpFile(".vcf");
+		Assert.assertEquals(new VcfFilterJdk().instanceMain(newCmd().add(
+				"-o",out2.getPath(),
+				"-e",expr,
+				"-F","MOD3",
+				"--threads",nThreads,
+				"--threads-batch-size","3",
+				inputFile
+				).make()),0);
+		assertIsVcf(out2);
+		final List<String> L1 = variantStream(out1).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList());
+		final List<String> L2 = variantStream(out2).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList());
+		Assert.assertEquals(L2, L1);
+		}
+}
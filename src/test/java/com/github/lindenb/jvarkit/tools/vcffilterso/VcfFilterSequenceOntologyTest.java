@@ -0,0 +1,115 @@
+package com.github.lindenb.jvarkit.tools.vcffilterso;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.variant.vcf.VCFFileReader;
+
+public class VcfFilterSequenceOntologyTest extends TestUtils {
+
+@DataProvider(name="src01")
+public Object[][] testData01() {
+	return new Object[][] {
+		{SRC_TEST_RESOURCE+"/rotavirus_rf.ann.vcf.gz",".vcf"},
+		{SRC_TEST_RESOURCE+"/rotavirus_rf.ann.vcf.gz",".vcf.gz"}
+	};
+}
+
+/** data lines of the VCF, the header contains the command line */
+private List<String> variantLines(final File vcf) throws IOException {
+	try(BufferedReader r = IOUtils.openFileForBufferedReading(vcf)) {
+		return r.lines().
+				filter(L->!L.startsWith("##")).
+				collect(Collectors.toList());
+		}
+	}
+
+/** a BED file tiling the whole dictionary with small, sometimes overlapping, intervals */
+private File createTilingBed(final String vcfpath) throws IOException {
+	final SAMSequenceDictionary dict;
+	try(VCFFileReader r = new VCFFileReader(new File(vcfpath),false)) {
+		dict = r.getFileHeader().getSequenceDictionary();
+		}
+	final File bed = super.createTmpFile(".bed");
+	try(PrintWriter pw = new PrintWriter(bed)) {
+		for(final SAMSequenceRecord ssr:dict.getSequences()) {
+			int start=0;
+			while(start< ssr.getSequenceLength()) {
+				final int end = Math.min(ssr.getSequenceLength(), start + 1 + random.nextInt(100));
+				pw.println(ssr.getSequenceName()+"\t"+start+"\t"+Math.min(ssr.getSequenceLength(),end+random.nextInt(5)));
+				start = end;
+				}
+			}
+		pw.flush();
+		}
+	return bed;
+	}
+
+@Test(dataProvider="src01")
+public void testScatterGather(final String vcfpath,final String suffix) throws IOException {
+	final File serialOut = super.createTmpFile(suffix);
+	Assert.assertEquals(new VcfFilterSequenceOntology().instanceMain(newCmd().
+			add("-o",serialOut.getPath()).
+			add("-A","SO:0001818").
+			add("-fo","SOFILTER").
+			add(vcfpath).make()
+			),0);
+	assertIsVcf(serialOut);
+	final List<String> expect = variantLines(serialOut);
+	Assert.assertTrue(expect.stream().anyMatch(L->!L.startsWith("#")));
+
+	final Path tmpDir = Files.createTempDirectory("tmp.");
+	try {
+		final File contigOut = super.createTmpFile(suffix);
+		Assert.assertEquals(new VcfFilterSequenceOntology().instanceMain(newCmd().
+				add("-o",contigOut.getPath()).
+				add("-A","SO:0001818").
+				add("-fo","SOFILTER").
+				add("--scatter-by-contig").
+				add("--scatter-threads",2).
+				add("--tmpDir",tmpDir.toString()).
+				add(vcfpath).make()
+				),0);
+		assertIsVcf(contigOut);
+		Assert.assertEquals(variantLines(contigOut),expect);
+
+		/* many more intervals than threads */
+		final File bedOut = super.createTmpFile(suffix);
+		Assert.assertEquals(new VcfFilterSequenceOntology().instanceMain(newCmd().
+				add("-o",bedOut.getPath()).
+				add("-A","SO:0001818").
+				add("-fo","SOFILTER").
+				add("--scatter-bed",createTilingBed(vcfpath).getPath()).
+				add("--scatter-threads",3).
+				add("--tmpDir",tmpDir.toString()).
+				add(vcfpath).make()
+				),0);
+		assertIsVcf(bedOut);
+		Assert.assertEquals(variantLines(bedOut),expect);
+
+		/* all the temporary shards were removed */
+		Assert.assertEquals(tmpDir.toFile().list().length, 0);
+		}
+	finally
+		{
+		IOUtil.deleteDirectoryTree(tmpDir.toFile());
+		}
+	}
+
+}
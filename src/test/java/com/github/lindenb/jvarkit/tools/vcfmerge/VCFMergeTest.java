@@ -2,6 +2,8 @@ package com.github.lindenb.jvarkit.tools.vcfmerge;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -41,6 +43,28 @@ public void testSorted() throws IOException
 	basetest("--sorted");
 	}
 
+@Test
+public void testSortThreads() throws IOException
+	{
+	final File out1 = basetest("");
+	final File out2 = basetest("--maxRecordsInRam 7 --sort-threads 3");
+	final List<String> L1 = variantStream(out1).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList());
+	final List<String> L2 = variantStream(out2).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList());
+	Assert.assertFalse(L1.isEmpty());
+	Assert.assertEquals(L2, L1);
+	}
+
+@Test
+public void testPrefetch() throws IOException
+	{
+	final File out1 = basetest("--sorted");
+	final File out2 = basetest("--sorted --prefetch-threads 2 --prefetch-size 3");
+	final List<String> L1 = variantStream(out1).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList());
+	final List<String> L2 = variantStream(out2).map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList());
+	Assert.assertFalse(L1.isEmpty());
+	Assert.assertEquals(L2, L1);
+	}
+
 @Test
 public void testRegion() throws IOException
 	{
@@ -2,10 +2,17 @@ package com.github.lindenb.jvarkit.tools.vcfstats;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.tools.tests.TestUtils;
 
 
@@ -23,4 +30,39 @@ public class VcfStatsTest extends TestUtils {
         		add(inputFile).make()
         	));
 		}
+		
+	private Map<String,String> readZip(final File zip) throws IOException {
+		final Map<String,String> m = new HashMap<>();
+		try(ZipFile zf=new ZipFile(zip)) {
+			for(final ZipEntry e: Collections.list(zf.entries())) {
+				m.put(e.getName(), IOUtils.copyToString(new InputStreamReader(zf.getInputStream(e))));
+				}
+			}
+		return m;
+		}
+	
+	@Test
+	public void testThreads() 
+		throws IOException
+		{
+		final String vcf = SRC_TEST_RESOURCE+"/rotavirus_rf.ann.vcf.gz";
+		final File output1 = super.createTmpFile(".zip");
+		Assert.assertEquals(0,new VcfStats().instanceMain(
+        		newCmd().add(
+        		"-o",output1.getPath(),
+        		"-K",SRC_TEST_RESOURCE+"/rotavirus_rf.knowngenes.tsv.gz",
+        		"--soterms","SO:0001818",
+        		vcf).make()
+        	));
+		final File output2 = super.createTmpFile(".zip");
+		Assert.assertEquals(0,new VcfStats().instanceMain(
+        		newCmd().add(
+        		"-o",output2.getPath(),
+        		"-K",SRC_TEST_RESOURCE+"/rotavirus_rf.knowngenes.tsv.gz",
+        		"--soterms","SO:0001818",
+        		"--threads","3",
+        		vcf).make()
+        	));
+		Assert.assertEquals(readZip(output1), readZip(output2));
+		}
 	}
@@ -0,0 +1,48 @@
+package com.github.lindenb.jvarkit.tools.xcontamination;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+public class XContaminationsTest extends TestUtils {
+	
+	@Test
+	public void testThreads() throws IOException {
+		final File out1 = super.createTmpFile(".tsv");
+		final File out2 = super.createTmpFile(".tsv");
+		for(int i=0;i< 2;i++) {
+			final CommandBuilder cmd = newCmd().
+				add("-o",(i==0?out1:out2).getPath()).
+				add("-sample");
+			if(i==1) cmd.add("--threads","3").add("--batch-size","2");
+			Assert.assertEquals(new XContaminations().instanceMain(cmd.
+				add(SRC_TEST_RESOURCE+"/rotavirus_rf.vcf.gz").
+				add(SRC_TEST_RESOURCE+"/S1.bam",SRC_TEST_RESOURCE+"/S2.bam",SRC_TEST_RESOURCE+"/S3.bam",SRC_TEST_RESOURCE+"/S4.bam").
+				make()
+				),0);
+			}
+		assertTsvTableIsConsitent(out1, null);
+		Assert.assertEquals(
+			new String(Files.readAllBytes(out2.toPath())),
+			new String(Files.readAllBytes(out1.toPath()))
+			);
+		}
+	
+	@Test
+	public void testVcf() throws IOException {
+		final File out = super.createTmpFile(".vcf");
+		Assert.assertEquals(new XContaminations().instanceMain(newCmd().
+			add("-o",out.getPath()).
+			add("-sample","-ov","--threads","2","--batch-size","3").
+			add(SRC_TEST_RESOURCE+"/rotavirus_rf.vcf.gz").
+			add(SRC_TEST_RESOURCE+"/S1.bam",SRC_TEST_RESOURCE+"/S2.bam",SRC_TEST_RESOURCE+"/S3.bam",SRC_TEST_RESOURCE+"/S4.bam").
+			make()
+			),0);
+		assertIsVcf(out);
+		}
+	}
@@ -0,0 +1,36 @@
+package com.github.lindenb.jvarkit.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class LruCacheTest {
+
+@Test
+public void testEviction() {
+	final List<String> evicted = new ArrayList<>();
+	final LruCache<Integer,String> cache=new LruCache<Integer,String>(2).setOnEvict(S->evicted.add(S));
+	cache.put(1, "a");
+	cache.put(2, "b");
+	Assert.assertEquals(cache.get(1), "a");//1 is now the most recently used
+	cache.put(3, "c");
+	Assert.assertEquals(cache.size(), 2);
+	Assert.assertNull(cache.get(2));
+	Assert.assertEquals(cache.get(3), "c");
+	Assert.assertEquals(evicted.size(), 1);
+	Assert.assertEquals(evicted.get(0), "b");
+	Assert.assertEquals(cache.getHitCount(), 2L);
+	Assert.assertEquals(cache.getMissCount(), 1L);
+	}
+
+@Test
+public void testNoCache() {
+	final LruCache<Integer,String> cache=new LruCache<>(0);
+	cache.put(1, "a");
+	Assert.assertNull(cache.get(1));
+	Assert.assertEquals(cache.size(), 0);
+	Assert.assertEquals(cache.getHitRate(), 0.0);
+	}
+}
@@ -0,0 +1,88 @@
+package com.github.lindenb.jvarkit.util.bio.fasta;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+
+public class TwoBitSequenceFileTest extends TestUtils {
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new ParamCombiner().
+			initList(collectAllFasta()).
+			build();
+	}
+	
+	/** expected base in the 2bit file */
+	private static char expect(final char c) {
+		switch(c) {
+			case 'A': case 'C': case 'G': case 'T':
+			case 'a': case 'c': case 'g': case 't': return c;
+			default: return Character.isLowerCase(c)?'n':'N';
+			}
+		}
+	
+	private void compare(final File fasta) throws IOException {
+		final File twoBitFile = createTmpFile(TwoBitSequenceFile.SUFFIX);
+		try(ReferenceSequenceFile ref = ReferenceSequenceFileFactory.getReferenceSequenceFile(fasta)) {
+			TwoBitSequenceFile.write(ref, twoBitFile);
+			}
+		try(ReferenceSequenceFile ref = ReferenceSequenceFileFactory.getReferenceSequenceFile(fasta);
+			TwoBitSequenceFile twoBit = new TwoBitSequenceFile(twoBitFile);
+			ReferenceGenome genome = new ReferenceGenomeFactory().open(twoBitFile.getPath())) {
+			ReferenceSequence seq;
+			int n=0;
+			while((seq=ref.nextSequence())!=null) {
+				final String bases = new String(seq.getBases());
+				final TwoBitSequenceFile.TwoBitContig contig = twoBit.getContig(seq.getName());
+				Assert.assertNotNull(contig);
+				Assert.assertEquals(contig.length(), bases.length());
+				final ReferenceContig refContig = genome.getContig(seq.getName());
+				Assert.assertNotNull(refContig);
+				int gc=0;
+				for(int i=0;i< bases.length();i++) {
+					final char c = expect(bases.charAt(i));
+					Assert.assertEquals(contig.charAt(i), c);
+					Assert.assertEquals(refContig.charAt(i), c);
+					if(Character.toUpperCase(c)=='G' || Character.toUpperCase(c)=='C') gc++;
+					}
+				Assert.assertEquals(refContig.getGCPercent(0, bases.length()).getGCCount(), gc);
+				n++;
+				}
+			Assert.assertEquals(twoBit.getSequenceDictionary().size(), n);
+			}
+		}
+	
+	@Test(dataProvider="src1")
+	public void test01(final String inFasta) 
+		throws IOException
+		{
+		compare(new File(inFasta));
+		}
+	
+	@Test
+	public void testMaskAndN() 
+		throws IOException
+		{
+		final File fasta = createTmpFile(".fa");
+		try(PrintWriter pw = new PrintWriter(fasta)) {
+			pw.println(">c1 first contig");
+			pw.println("NNNNacgtACGTRYnnnACGTacgtNNacgTT");
+			pw.println("GATTACA");
+			pw.println(">c2");
+			pw.println("A");
+			pw.println(">c3");
+			pw.println("ggN");
+			}
+		compare(fasta);
+		}
+	}
@@ -0,0 +1,115 @@
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.util.CloseableIterator;
+
+public class ExternalSortingCollectionTest extends TestUtils {
+	/** a key and the order of insertion, to test the stability of the sort */
+	private static class KeyAndIndex {
+		final int key;
+		final String label;
+		KeyAndIndex(final int key,final String label) {
+			this.key = key;
+			this.label = label;
+			}
+		@Override
+		public boolean equals(final Object obj) {
+			final KeyAndIndex o = KeyAndIndex.class.cast(obj);
+			return key==o.key && label.equals(o.label);
+			}
+		@Override
+		public int hashCode() {
+			return key*31+label.hashCode();
+			}
+		@Override
+		public String toString() {
+			return key+":"+label;
+			}
+		}
+	
+	private static class KeyAndIndexCodec extends AbstractDataCodec<KeyAndIndex> {
+		@Override
+		public KeyAndIndex decode(final DataInputStream dis) throws IOException {
+			final int key;
+			try {
+				key = dis.readInt();
+				}
+			catch(final java.io.EOFException err) {
+				return null;
+				}
+			return new KeyAndIndex(key, readString(dis));
+			}
+		@Override
+		public void encode(final DataOutputStream dos,final KeyAndIndex o) throws IOException {
+			dos.writeInt(o.key);
+			writeString(dos, o.label);
+			}
+		@Override
+		public KeyAndIndexCodec clone() {
+			return new KeyAndIndexCodec();
+			}
+		}
+	
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{0,1,100},
+			{5000,1,100},
+			{5000,3,0},
+			{5000,3,1},
+			{5000,4,1_000_000},
+			{50_000,2,33}
+			};
+		}
+	
+	@Test(dataProvider="src1")
+	public void testSort(final int n,final int nThreads,final int maxRecordsInRam) throws IOException {
+		final Random random = new Random(n);
+		final Path tmpDir = Files.createTempDirectory("sorting");
+		final List<KeyAndIndex> expect = new ArrayList<>(n);
+		final Comparator<KeyAndIndex> cmp = (A,B)->Integer.compare(A.key, B.key);
+		for(int level=0;level<2;++level) {
+			expect.clear();
+			final ExternalSortingCollection<KeyAndIndex> sorter = new ExternalSortingCollection<>(
+					new KeyAndIndexCodec(),
+					cmp,
+					Math.max(1,maxRecordsInRam),
+					Collections.singletonList(tmpDir),
+					nThreads,
+					level==0?0:ExternalSortingCollection.DEFAULT_COMPRESSION_LEVEL
+					);
+			for(int i=0;i< n;i++) {
+				final KeyAndIndex o = new KeyAndIndex(random.nextInt(1000),"label"+i);
+				expect.add(o);
+				sorter.add(o);
+				}
+			sorter.doneAdding();
+			/* Collections.sort is stable */
+			Collections.sort(expect, cmp);
+			final List<KeyAndIndex> found = new ArrayList<>(n);
+			try(CloseableIterator<KeyAndIndex> iter= sorter.iterator()) {
+				while(iter.hasNext()) found.add(iter.next());
+				}
+			sorter.cleanup();
+			Assert.assertEquals(found, expect);
+			Assert.assertEquals(Files.list(tmpDir).count(), 0L);
+			}
+		Files.delete(tmpDir);
+		}
+	}
@@ -0,0 +1,137 @@
+package com.github.lindenb.jvarkit.util.samtools;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.AlignmentBlock;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.util.CloserUtil;
+
+public class ColumnarPileupTest extends TestUtils
+	{
+	private static final String BASES="ACGTN";
+	
+	private List<SamReader> open(final String...names) {
+		final List<SamReader> L = new ArrayList<>();
+		for(final String name: names) {
+			L.add(SamReaderFactory.makeDefault().
+				validationStringency(ValidationStringency.LENIENT).
+				open(new File(SRC_TEST_RESOURCE+"/"+name)));
+			}
+		return L;
+		}
+	
+	@Test
+	public void testMergeBams() {
+		final List<SamReader> readers = open("S1.bam","S2.bam","S3.bam","S4.bam","S5.bam");
+		try {
+			/* naive count of the aligned bases: tid:pos -> sample*5+base */
+			final Map<String,int[]> expect = new HashMap<>();
+			for(int i=0;i< readers.size();i++) {
+				try(SAMRecordIterator iter = readers.get(i).iterator()) {
+					while(iter.hasNext()) {
+						final SAMRecord rec = iter.next();
+						if(rec.getReadUnmappedFlag()) continue;
+						final byte bases[] = rec.getReadBases();
+						for(final AlignmentBlock ab: rec.getAlignmentBlocks()) {
+							for(int x=0;x< ab.getLength();++x) {
+								final String key = rec.getReferenceIndex()+":"+(ab.getReferenceStart()+x);
+								int array[] = expect.get(key);
+								if(array==null) {
+									array = new int[readers.size()*5];
+									expect.put(key, array);
+									}
+								final int b = BASES.indexOf(Character.toUpperCase((char)bases[ab.getReadStart()-1+x]));
+								array[i*5 + (b==-1?4:b)]++;
+								}
+							}
+						}
+					}
+				}
+			
+			final List<ColumnarPileup.Source> sources = new ArrayList<>();
+			for(int i=0;i< readers.size();i++) {
+				final int sample = i;
+				sources.add(new ColumnarPileup.Source(readers.get(i).iterator(),R->sample));
+				}
+			int prevTid = -1;
+			int prevPos = 0;
+			int nColumns = 0;
+			try(ColumnarPileup pileup = new ColumnarPileup(readers.size(), sources)) {
+				while(pileup.hasNext()) {
+					final ColumnarPileup.Column col = pileup.next();
+					Assert.assertTrue(col.getReferenceIndex() > prevTid ||
+						(col.getReferenceIndex()==prevTid && col.getPosition() > prevPos));
+					prevTid = col.getReferenceIndex();
+					prevPos = col.getPosition();
+					final int array[] = expect.remove(col.getReferenceIndex()+":"+col.getPosition());
+					for(int i=0;i< readers.size();i++) {
+						int depth = 0;
+						for(int b=0;b< 5;b++) {
+							final int n = (array==null?0:array[i*5+b]);
+							Assert.assertEquals(col.getCount(i, ColumnarPileup.BASE_A+b), n);
+							depth+=n;
+							}
+						Assert.assertEquals(col.getDepth(i), depth);
+						}
+					nColumns++;
+					}
+				}
+			Assert.assertTrue(nColumns>0);
+			Assert.assertTrue(expect.isEmpty());
+			}
+		finally {
+			readers.forEach(CloserUtil::close);
+			}
+		}
+	
+	@Test
+	public void testIndels() {
+		final List<SamReader> readers = open("toy.bam");
+		try {
+			final List<ColumnarPileup.Source> sources = new ArrayList<>();
+			sources.add(new ColumnarPileup.Source(readers.get(0).iterator(),R->0));
+			try(ColumnarPileup pileup = new ColumnarPileup(1, sources)) {
+				pileup.setColumnFilter((TID,POS)->TID==0 && (POS==8 || POS==9 || POS==14 || POS==18));
+				final Map<Integer,ColumnarPileup.Column> pos2col = new HashMap<>();
+				while(pileup.hasNext()) {
+					final ColumnarPileup.Column col = pileup.next();
+					pos2col.put(col.getPosition(), col);
+					}
+				Assert.assertEquals(pos2col.size(), 4);
+				/* r002 1S2I6M at 9: insertion anchored on 8, soft clip on 8 */
+				ColumnarPileup.Column col = pos2col.get(8);
+				Assert.assertEquals(col.getIndels().size(), 1);
+				Assert.assertTrue(col.getIndels().get(0).isInsertion());
+				Assert.assertEquals(col.getIndels().get(0).getInsertedBases(), "AA");
+				Assert.assertEquals(col.getCount(0, ColumnarPileup.SOFT_CLIP), 1);
+				Assert.assertEquals(col.getCount(0, ColumnarPileup.HARD_CLIP), 1);
+				col = pos2col.get(9);
+				Assert.assertEquals(col.getDepth(0), 3);
+				Assert.assertEquals(col.getCount(0, ColumnarPileup.INSERTION), 1);
+				/* r001 8M4I4M1D3M at 7: deletion of one base at 19, r002 ends with an insertion after 18 */
+				col = pos2col.get(18);
+				Assert.assertEquals(col.getIndels().size(), 2);
+				Assert.assertEquals(col.getIndels().stream().filter(I->I.isInsertion()).count(), 1L);
+				final ColumnarPileup.Indel del = col.getIndels().stream().filter(I->!I.isInsertion()).findFirst().get();
+				Assert.assertEquals(del.getLength(), 1);
+				Assert.assertFalse(del.isNegativeStrand());
+				}
+			}
+		finally {
+			readers.forEach(CloserUtil::close);
+			}
+		}
+	}
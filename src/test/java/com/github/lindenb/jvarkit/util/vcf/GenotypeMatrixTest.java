@@ -0,0 +1,97 @@
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.VariantContext;
+
+public class GenotypeMatrixTest extends TestUtils {
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][]{
+				{1,false},{63,false},{64,true},{150,false},{1000,true},
+				/* large rows: several chunks of increasing size */
+				{100_000,false},{100_000,true}
+		};
+	}
+	
+	@Test(dataProvider="src1")
+	public void testCounts(final int nSamples,final boolean mapped) throws IOException {
+		final File tmp = (mapped?createTmpFile(".bin"):null);
+		final List<int[]> rows = new ArrayList<>();
+		try(GenotypeMatrix m = (mapped?GenotypeMatrix.map(nSamples, tmp):GenotypeMatrix.allocate(nSamples))) {
+			for(int r=0;r< 500;r++) {
+				final int[] d = new int[nSamples];
+				for(int i=0;i< nSamples;i++) d[i] = random.nextInt(4)-1;
+				Assert.assertEquals(m.add(d), r);
+				rows.add(d);
+				}
+			Assert.assertEquals(m.size(), rows.size());
+			final int[] cases = random.ints(nSamples/2+1, 0, nSamples).distinct().toArray();
+			final long[] mask = m.createMask(cases);
+			for(int r=0;r< rows.size();r++) {
+				final int[] d = rows.get(r);
+				final int[] d2 = rows.get((r*7)%rows.size());
+				int carriers=0,homvar=0,missing=0,alts=0,both=0;
+				for(final int i: cases) {
+					Assert.assertEquals(m.getDosage(r, i), d[i]);
+					if(d[i]>0) carriers++;
+					if(d[i]==2) homvar++;
+					if(d[i]==GenotypeMatrix.MISSING) missing++;
+					else alts+=d[i];
+					if(d[i]>0 && d2[i]>0) both++;
+					}
+				Assert.assertEquals(m.countCarriers(r, mask), carriers);
+				Assert.assertEquals(m.countHomVar(r, mask), homvar);
+				Assert.assertEquals(m.countMissing(r, mask), missing);
+				Assert.assertEquals(m.countCalled(r, mask), cases.length-missing);
+				Assert.assertEquals(m.countAltAlleles(r, mask), alts);
+				Assert.assertEquals(m.countCarriers(r,(r*7)%rows.size(), mask), both);
+				}
+			}
+		}
+	
+	@Test
+	public void testFirstChunkIsSmall() throws IOException {
+		final File tmp = createTmpFile(".bin");
+		try(GenotypeMatrix m = GenotypeMatrix.map(10, tmp)) {
+			m.add(new int[10]);
+			Assert.assertEquals(m.getDosage(0, 5), 0);
+			}
+		Assert.assertTrue(tmp.length() <= (1L<<22));
+		}
+	
+	@Test
+	public void testVcf() throws IOException {
+		final List<VariantContext> variants = new ArrayList<>();
+		try(VcfIterator r = VCFUtils.createVcfIterator(SRC_TEST_RESOURCE+"/rotavirus_rf.vcf.gz")) {
+			while(r.hasNext()) variants.add(r.next());
+			}
+		final int nSamples = variants.get(0).getNSamples();
+		try(GenotypeMatrix m = GenotypeMatrix.allocate(nSamples)) {
+			for(final VariantContext ctx:variants) {
+				final Allele alt = ctx.getAlternateAllele(0);
+				final int row = m.add(ctx, alt, false);
+				for(int i=0;i< nSamples;i++) {
+					final int d = m.getDosage(row, i);
+					if(ctx.getGenotype(i).isNoCall()) {
+						Assert.assertEquals(d, GenotypeMatrix.MISSING);
+						}
+					else
+						{
+						Assert.assertEquals(d, (int)ctx.getGenotype(i).getAlleles().stream().filter(A->A.equals(alt)).count());
+						}
+					}
+				}
+			}
+		}
+	}
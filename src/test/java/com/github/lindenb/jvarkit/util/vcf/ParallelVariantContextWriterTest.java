@@ -0,0 +1,112 @@
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLineType;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+
+public class ParallelVariantContextWriterTest {
+	/** stateless factory: removes the variants with pos%3==0, adds an INFO/HASH and burns some CPU */
+	private static class StatelessFactory implements VariantContextWriterFactory {
+		private final int cost;
+		StatelessFactory(int cost) { this.cost = cost;}
+		@Override
+		public boolean isStateless() { return true; }
+		@Override
+		public VariantContextWriter open(final VariantContextWriter delegate) {
+			return new DelegateVariantContextWriter(delegate) {
+				@Override
+				public void writeHeader(final VCFHeader header) {
+					final VCFHeader h2 = new VCFHeader(header);
+					h2.addMetaDataLine(new VCFInfoHeaderLine("HASH", 1, VCFHeaderLineType.Integer, "hash"));
+					super.writeHeader(h2);
+					}
+				@Override
+				public void add(final VariantContext ctx) {
+					if(ctx.getStart()%3==0) return;
+					int h = ctx.getStart();
+					for(int i=0;i< cost;++i) h = 31*h + i;
+					super.add(new VariantContextBuilder(ctx).attribute("HASH", h).make());
+					}
+				};
+			}
+		}
+	
+	/** collects the final output */
+	private static class ListWriter implements VariantContextWriter {
+		VCFHeader header;
+		final List<VariantContext> variants = new ArrayList<>();
+		boolean closed = false;
+		@Override public void writeHeader(VCFHeader header) { this.header = header;}
+		@Override public void setHeader(VCFHeader header) { this.header = header;}
+		@Override public void add(VariantContext vc) { this.variants.add(vc);}
+		@Override public boolean checkError() { return false;}
+		@Override public void close() { this.closed = true;}
+		}
+	
+	private static List<VariantContext> createVariants(int n) {
+		final List<Allele> alleles = Arrays.asList(Allele.create("A", true),Allele.create("C", false));
+		final List<VariantContext> L = new ArrayList<>(n);
+		for(int i=1;i<=n;i++) {
+			L.add(new VariantContextBuilder("test", "1", i, i, alleles).make());
+			}
+		return L;
+		}
+	
+	private static void run(final VariantContextWriter w, final List<VariantContext> variants) {
+		w.writeHeader(new VCFHeader());
+		for(final VariantContext ctx: variants) w.add(ctx);
+		w.close();
+		}
+	
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][]{
+				{1,1},{2,7},{4,1000},{8,33}
+		};
+	}
+	
+	@Test(dataProvider="src1")
+	public void testOrderIsPreserved(final int nThreads,final int batchSize) {
+		final StatelessFactory factory = new StatelessFactory(10);
+		final List<VariantContext> variants = createVariants(10_001);
+		
+		final ListWriter expect = new ListWriter();
+		run(factory.open(expect),variants);
+		
+		final ListWriter found = new ListWriter();
+		run(new ParallelVariantContextWriter(factory, found, nThreads, batchSize),variants);
+		
+		Assert.assertTrue(found.closed);
+		Assert.assertNotNull(found.header.getInfoHeaderLine("HASH"));
+		Assert.assertEquals(found.variants.size(), expect.variants.size());
+		for(int i=0;i< expect.variants.size();i++) {
+			final VariantContext v1 = expect.variants.get(i);
+			final VariantContext v2 = found.variants.get(i);
+			Assert.assertEquals(v2.getStart(), v1.getStart());
+			Assert.assertEquals(v2.getAttributeAsInt("HASH",0), v1.getAttributeAsInt("HASH",-1));
+			}
+		}
+	
+	@Test
+	public void testDefaultBatchSize() {
+		final StatelessFactory factory = new StatelessFactory(10);
+		final List<VariantContext> variants = createVariants(20_000);
+		for(final int nThreads: new int[]{1,2,4,8}) {
+			final ListWriter found = new ListWriter();
+			run(new ParallelVariantContextWriter(factory, found, nThreads),variants);
+			Assert.assertEquals(found.variants.size(), variants.size() - variants.size()/3);
+			}
+		}
+}
@@ -0,0 +1,84 @@
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+
+public class ThreadedVcfIteratorTest extends TestUtils {
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][]{
+				{SRC_TEST_RESOURCE+"/test_vcf01.vcf",1,1},
+				{SRC_TEST_RESOURCE+"/test_vcf01.vcf",3,7},
+				{SRC_TEST_RESOURCE+"/S1.vcf.gz",2,1000},
+				{SRC_TEST_RESOURCE+"/rotavirus_rf.vcf.gz",4,5}
+		};
+	}
+	
+	@Test(dataProvider="src1")
+	public void test1(final String path,final int nThreads,final int batchSize) throws IOException {
+		final VcfIterator expect = VCFUtils.createVcfIterator(path);
+		final VcfIterator found = new ThreadedVcfIterator(IOUtils.openURIForLineIterator(path), nThreads, batchSize);
+		Assert.assertEquals(found.getHeader().getSampleNamesInOrder(),expect.getHeader().getSampleNamesInOrder());
+		while(expect.hasNext()) {
+			Assert.assertTrue(found.hasNext());
+			final VariantContext v1 = expect.next();
+			final VariantContext v2 = found.next();
+			Assert.assertEquals(v2.getContig(), v1.getContig());
+			Assert.assertEquals(v2.getStart(), v1.getStart());
+			Assert.assertEquals(v2.getAlleles(), v1.getAlleles());
+			Assert.assertEquals(v2.getGenotypes().toString(), v1.getGenotypes().toString());
+			}
+		Assert.assertFalse(found.hasNext());
+		found.close();
+		expect.close();
+		}
+	
+	private File copy(final VcfIterator iter) throws IOException {
+		final File out = createTmpFile(".vcf");
+		final VariantContextWriter w = VCFUtils.createVariantContextWriter(out);
+		w.writeHeader(iter.getHeader());
+		while(iter.hasNext()) w.add(iter.next());
+		w.close();
+		iter.close();
+		return out;
+		}
+	
+	@Test(dataProvider="src1")
+	public void testSameOutput(final String path,final int nThreads,final int batchSize) throws IOException {
+		final File expect = copy(VCFUtils.createVcfIterator(path));
+		final File found = copy(new ThreadedVcfIterator(IOUtils.openURIForLineIterator(path), nThreads, batchSize));
+		Assert.assertEquals(Files.readAllBytes(found.toPath()), Files.readAllBytes(expect.toPath()));
+		}
+	
+	@Test
+	public void testTrailingMissingFormat() throws IOException {
+		final File in = createTmpFile(".vcf");
+		try(PrintWriter pw = new PrintWriter(in)) {
+			pw.println("##fileformat=VCFv4.2");
+			pw.println("##contig=<ID=chr1,length=1000>");
+			pw.println("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">");
+			pw.println("##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">");
+			pw.println("##FORMAT=<ID=GQ,Number=1,Type=Integer,Description=\"Genotype Quality\">");
+			pw.println("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1\tS2\tS3");
+			for(int i=1;i<=50;i++) {
+				pw.println("chr1\t"+(i*10)+"\t.\tA\tC\t.\t.\t.\tGT:DP:GQ\t0/1:.:.\t./.:.:.\t1/1:"+i+":.");
+				}
+			}
+		final File expect = copy(VCFUtils.createVcfIterator(in.getPath()));
+		final File found = copy(new ThreadedVcfIterator(IOUtils.openURIForLineIterator(in.getPath()), 3, 7));
+		Assert.assertEquals(Files.readAllBytes(found.toPath()), Files.readAllBytes(expect.toPath()));
+		Assert.assertTrue(new String(Files.readAllBytes(found.toPath())).contains("0/1:.:.\t./.:.:.\t1/1:1:."));
+		}
+}